@@ -0,0 +1,178 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package lombok.installer;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import lombok.installer.EclipseLocation.NotAnEclipseException;
+
+/**
+ * Times the installer's search for Eclipse installations over a generated directory tree, with one thread,
+ * which is how the installer used to search, and with a pool of them. Listing a directory can be made to
+ * take a while, like it does on a network filesystem. It lives in the installer's package, whose classes
+ * aren't public.
+ * <p>
+ * It's configured with system properties, which <code>ant bench-finder</code> passes on:
+ * <ul>
+ * <li><code>bench.dirs</code> the number of directories in the root of the tree (default 100)</li>
+ * <li><code>bench.fanout</code> the number of sub directories of every directory below that (default 10)</li>
+ * <li><code>bench.depth</code> the depth of the tree, and of the search (default 3)</li>
+ * <li><code>bench.installs</code> the number of Eclipse installations hidden in the tree (default 20)</li>
+ * <li><code>bench.latency</code> how long listing a directory takes, in milliseconds (default 5)</li>
+ * <li><code>bench.threads</code> the numbers of threads to search with (default 1,8,32), which ant takes from bench.finder.threads</li>
+ * <li><code>bench.results</code> the directory the tree is generated in (default build/bench)</li>
+ * </ul>
+ *
+ * @author rayvanderborght
+ */
+public final class EclipseFinderBenchmark
+{
+    private final int dirCount;
+    private final int fanout;
+    private final int depth;
+    private final int installCount;
+    private final long latency;
+    private final File root;
+
+    /** */
+    private EclipseFinderBenchmark(int dirCount, int fanout, int depth, int installCount, long latency, File root)
+    {
+        this.dirCount = dirCount;
+        this.fanout = fanout;
+        this.depth = depth;
+        this.installCount = installCount;
+        this.latency = latency;
+        this.root = root;
+    }
+
+    /** */
+    public static void main(String[] args) throws IOException
+    {
+        EclipseFinderBenchmark benchmark = new EclipseFinderBenchmark(
+                Integer.getInteger("bench.dirs", 100),
+                Integer.getInteger("bench.fanout", 10),
+                Integer.getInteger("bench.depth", 3),
+                Integer.getInteger("bench.installs", 20),
+                Long.getLong("bench.latency", 5L),
+                new File(System.getProperty("bench.results", "build/bench"), "finder"));
+
+        int dirs = benchmark.generate();
+        System.out.println(String.format(Locale.US, "%d directories, %d installations, %dms to list each",
+                dirs, benchmark.installCount, benchmark.latency));
+
+        System.out.println(String.format(Locale.US, "%8s %10s %8s %8s", "threads", "ms", "found", "skipped"));
+        for (String threads : System.getProperty("bench.threads", "1,8,32").split(","))
+            benchmark.run(Integer.parseInt(threads.trim()));
+    }
+
+    /** Searches the tree with the given number of threads. */
+    private void run(int threads)
+    {
+        final long latency = this.latency;
+        EclipseScanner scanner = new EclipseScanner(this.depth, TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(10), threads) {
+            @Override
+            File[] list(File dir)
+            {
+                try
+                {
+                    Thread.sleep(latency);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return super.list(dir);
+            }
+        };
+
+        List<EclipseLocation> locations = new ArrayList<EclipseLocation>();
+        List<NotAnEclipseException> problems = new ArrayList<NotAnEclipseException>();
+
+        long start = System.nanoTime();
+        scanner.scan(this.root, new EclipseScanner.Target() {
+            @Override
+            String getCandidate(File dir)
+            {
+                if (!dir.getName().contains("eclipse"))
+                    return null;
+
+                File possible = new File(dir, "eclipse");
+                return possible.exists() ? possible.getAbsolutePath() : null;
+            }
+        });
+        scanner.finish(locations, problems);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        System.out.println(String.format(Locale.US, "%8d %10d %8d %8d", threads, millis, locations.size(), scanner.getSkippedCount()));
+    }
+
+    /** Generates the tree, unless it's already there, and returns the number of directories in it. */
+    private int generate() throws IOException
+    {
+        int count = 0;
+        boolean exists = this.root.isDirectory();
+
+        List<File> level = new ArrayList<File>();
+        for (int i = 0; i < this.dirCount; i++)
+            level.add(new File(this.root, "dir" + i));
+
+        List<File> leaves = level;
+        for (int d = 1; d <= this.depth; d++)
+        {
+            count += level.size();
+            if (!exists)
+            {
+                for (File dir : level)
+                    dir.mkdirs();
+            }
+
+            leaves = level;
+            if (d == this.depth)
+                break;
+
+            List<File> next = new ArrayList<File>();
+            for (File dir : level)
+            {
+                for (int i = 0; i < this.fanout; i++)
+                    next.add(new File(dir, "sub" + i));
+            }
+            level = next;
+        }
+
+        // spread the installations evenly over the deepest directories
+        if (!exists)
+        {
+            int step = Math.max(leaves.size() / Math.max(this.installCount, 1), 1);
+            for (int i = 0; i < this.installCount && i * step < leaves.size(); i++)
+                this.install(new File(leaves.get(i * step).getParentFile(), "eclipse-" + i));
+        }
+
+        return count;
+    }
+
+    /* */
+    private void install(File dir) throws IOException
+    {
+        dir.mkdirs();
+        new File(dir, "eclipse").createNewFile();
+
+        Writer out = new FileWriter(new File(dir, "eclipse.ini"));
+        try
+        {
+            out.write("-vmargs\n-Xmx512m\n");
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.bench;
+
+import morbok.Logger;
+
+/**
+ * Logs through the async ring buffer to java.util.logging.
+ *
+ * @author rayvanderborght
+ */
+@Logger(type=Logger.Type.ASYNC, delegate=Logger.Type.JAVA)
+public class AsyncSubject implements Subject
+{
+    /**
+     * {@inheritDoc}
+     */
+    public void disabledConstant()
+    {
+        log.debug("request handled");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void disabledConcat(int id, long ms)
+    {
+        log.debug("user " + id + " took " + ms + "ms");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void enabledConstant()
+    {
+        log.info("request handled");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void enabledConcat(int id, long ms)
+    {
+        log.info("user " + id + " took " + ms + "ms");
+    }
+}
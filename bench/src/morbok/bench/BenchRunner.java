@@ -0,0 +1,62 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.bench;
+
+import java.io.File;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once for each thread count, with the gc profiler for allocation rates, and writes
+ * the results of each run as json. It's configured with system properties, which <code>ant bench</code>
+ * passes on:
+ * <ul>
+ * <li><code>bench.include</code> a regular expression for the benchmarks to run (default LoggerBenchmark)</li>
+ * <li><code>bench.threads</code> the thread counts to run with (default 1,2,4,8,16,32,64)</li>
+ * <li><code>bench.results</code> the directory for the results (default build/bench)</li>
+ * </ul>
+ *
+ * @author rayvanderborght
+ */
+public final class BenchRunner
+{
+    private BenchRunner()
+    {
+        // Prevent instantiation
+    }
+
+    /** */
+    public static void main(String[] args) throws RunnerException
+    {
+        String include = System.getProperty("bench.include", LoggerBenchmark.class.getSimpleName());
+        String threads = System.getProperty("bench.threads", "1,2,4,8,16,32,64");
+        File results = new File(System.getProperty("bench.results", "build/bench"));
+        results.mkdirs();
+
+        // BINARY loggers write every enabled event, which adds up to gigabytes over a run
+        File devNull = new File("/dev/null");
+        String binaryFile = devNull.exists() ? devNull.getPath() : new File(results, "bench.binlog").getPath();
+
+        for (String count : threads.split(","))
+        {
+            int threadCount = Integer.parseInt(count.trim());
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threadCount)
+                    .addProfiler(GCProfiler.class)
+                    .jvmArgsAppend("-Dmorbok.binary.file=" + binaryFile)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(results, "results-" + threadCount + "-threads.json").getPath())
+                    .build();
+
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.bench;
+
+import morbok.Logger;
+
+/**
+ * Logs through a java.util.logging Logger, which the benchmark gives a handler that does nothing.
+ *
+ * @author rayvanderborght
+ */
+@Logger(type=Logger.Type.JAVA)
+public class JavaSubject implements Subject
+{
+    /**
+     * {@inheritDoc}
+     */
+    public void disabledConstant()
+    {
+        log.fine("request handled");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void disabledConcat(int id, long ms)
+    {
+        log.fine("user " + id + " took " + ms + "ms");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void enabledConstant()
+    {
+        log.info("request handled");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void enabledConcat(int id, long ms)
+    {
+        log.info("user " + id + " took " + ms + "ms");
+    }
+}
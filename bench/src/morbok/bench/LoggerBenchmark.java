@@ -0,0 +1,84 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import morbok.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a log call of each kind for each logger type. The type parameter has no values listed, so jmh
+ * runs every constant of Logger.Type, and a new type fails the benchmark until it has a {@link Subject}.
+ *
+ * @author rayvanderborght
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggerBenchmark
+{
+    @Param
+    public Logger.Type type;
+
+    private Subject subject;
+
+    /** Arguments that change with each call, so the message can't be folded into a constant. */
+    @State(Scope.Thread)
+    public static class Arguments
+    {
+        int id;
+        long ms;
+    }
+
+    /** */
+    @Setup
+    public void setUp()
+    {
+        this.subject = Subjects.create(this.type);
+    }
+
+    /** */
+    @Benchmark
+    public void disabledConstant()
+    {
+        this.subject.disabledConstant();
+    }
+
+    /** */
+    @Benchmark
+    public void disabledConcat(Arguments args)
+    {
+        this.subject.disabledConcat(args.id++, args.ms += 7);
+    }
+
+    /** */
+    @Benchmark
+    public void enabledConstant()
+    {
+        this.subject.enabledConstant();
+    }
+
+    /** */
+    @Benchmark
+    public void enabledConcat(Arguments args)
+    {
+        this.subject.enabledConcat(args.id++, args.ms += 7);
+    }
+}
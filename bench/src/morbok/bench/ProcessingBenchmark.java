@@ -0,0 +1,282 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import morbok.Logger;
+
+/**
+ * Measures how long annotation processing takes on a large code base. It generates a source tree of
+ * <code>@Logger</code> classes, and the same tree with the log variables declared by hand, then compiles each
+ * in process with morbok and lombok on the classpath. The difference between the two is the time spent in the
+ * handlers, and in compiling the code they generate.
+ * <p>
+ * It's configured with system properties, which <code>ant bench-processing</code> passes on:
+ * <ul>
+ * <li><code>bench.classes</code> the number of classes to generate (default 10000)</li>
+ * <li><code>bench.methods</code> the number of logging methods in each class (default 5)</li>
+ * <li><code>bench.runs</code> the number of measured compiles of each tree (default 3)</li>
+ * <li><code>bench.warmups</code> the number of compiles of each tree before that (default 1)</li>
+ * <li><code>bench.results</code> the directory the trees are generated in (default build/bench)</li>
+ * </ul>
+ *
+ * @author rayvanderborght
+ */
+public final class ProcessingBenchmark
+{
+    private static final int CLASSES_PER_PACKAGE = 500;
+
+    private final int classCount;
+    private final int methodCount;
+    private final File directory;
+
+    /** */
+    private ProcessingBenchmark(int classCount, int methodCount, File directory)
+    {
+        this.classCount = classCount;
+        this.methodCount = methodCount;
+        this.directory = directory;
+    }
+
+    /** */
+    public static void main(String[] args) throws IOException
+    {
+        ProcessingBenchmark benchmark = new ProcessingBenchmark(
+                Integer.getInteger("bench.classes", 10000),
+                Integer.getInteger("bench.methods", 5),
+                new File(System.getProperty("bench.results", "build/bench"), "processing"));
+
+        int runs = Integer.getInteger("bench.runs", 3);
+        int warmups = Integer.getInteger("bench.warmups", 1);
+
+        List<File> annotated = benchmark.generate("annotated", true);
+        List<File> plain = benchmark.generate("plain", false);
+
+        for (int i = 0; i < warmups; i++)
+        {
+            benchmark.compile("plain", plain);
+            benchmark.compile("annotated", annotated);
+        }
+
+        Result plainResult = new Result();
+        Result annotatedResult = new Result();
+        for (int i = 0; i < runs; i++)
+        {
+            plainResult.add(benchmark.compile("plain", plain));
+            annotatedResult.add(benchmark.compile("annotated", annotated));
+        }
+
+        System.out.println();
+        System.out.println(benchmark.classCount + " classes, " + benchmark.methodCount + " logging methods each, best of " + runs + " runs");
+        System.out.println(String.format(Locale.US, "%-10s %12s %14s %16s", "tree", "wall ms", "peak heap MB", "allocated MB"));
+        plainResult.print("plain");
+        annotatedResult.print("annotated");
+        System.out.println(String.format(Locale.US, "handlers: %.1f us per class",
+                (annotatedResult.wallNanos - plainResult.wallNanos) / 1000.0 / benchmark.classCount));
+    }
+
+    /** Writes the source tree, and returns its files. */
+    private List<File> generate(String name, boolean annotated) throws IOException
+    {
+        File sourceDirectory = new File(new File(this.directory, name), "src");
+        Logger.Type[] types = Logger.Type.values();
+        List<File> files = new ArrayList<File>();
+
+        for (int i = 0; i < this.classCount; i++)
+        {
+            String packageName = "synthetic.p" + (i / CLASSES_PER_PACKAGE);
+            File packageDirectory = new File(sourceDirectory, packageName.replace('.', File.separatorChar));
+            packageDirectory.mkdirs();
+
+            File file = new File(packageDirectory, "Class" + i + ".java");
+            Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try
+            {
+                out.write(this.generateClass(packageName, "Class" + i, types[i % types.length], annotated));
+            }
+            finally
+            {
+                out.close();
+            }
+            files.add(file);
+        }
+
+        return files;
+    }
+
+    /** Returns the source of a class that logs with the given type. */
+    private String generateClass(String packageName, String className, Logger.Type type, boolean annotated)
+    {
+        StringBuilder source = new StringBuilder();
+        source.append("package ").append(packageName).append(";\n\n");
+
+        if (annotated)
+            source.append("@morbok.Logger(type=morbok.Logger.Type.").append(type).append(", delegate=morbok.Logger.Type.JAVA)\n");
+
+        source.append("public class ").append(className).append("\n{\n");
+
+        // what the handler would declare, so the plain tree compiles the same calls
+        if (!annotated)
+            source.append("    private static final ").append(getLogDeclaration(type, packageName + "." + className)).append(";\n\n");
+
+        source.append("    private long total;\n");
+
+        for (int i = 0; i < this.methodCount; i++)
+        {
+            source.append("\n    public void method").append(i).append("(int id, long ms)\n    {\n");
+            source.append("        ").append(getLogCall(type, true, "\"method" + i + " \" + id + \" took \" + ms + \"ms\"")).append(";\n");
+            source.append("        this.total += ms;\n");
+            source.append("        ").append(getLogCall(type, false, "\"method" + i + " done\"")).append(";\n");
+            source.append("    }\n");
+        }
+
+        source.append("}\n");
+        return source.toString();
+    }
+
+    /* */
+    private static String getLogDeclaration(Logger.Type type, String name)
+    {
+        String quoted = "\"" + name + "\"";
+
+        switch (type)
+        {
+            case COMMONS:
+                return "org.apache.commons.logging.Log log = org.apache.commons.logging.LogFactory.getLog(" + quoted + ")";
+            case JAVA:
+                return "java.util.logging.Logger log = java.util.logging.Logger.getLogger(" + quoted + ")";
+            case SLF4J:
+                return "org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(" + quoted + ")";
+            case LOG4J2:
+                return "org.apache.logging.log4j.Logger log = org.apache.logging.log4j.LogManager.getLogger(" + quoted + ")";
+            case SYSTEM:
+                return "java.lang.System.Logger log = java.lang.System.getLogger(" + quoted + ")";
+            case ASYNC:
+                return "morbok.runtime.MorbokLog log = morbok.runtime.MorbokLog.getAsyncLogger(morbok.Logger.Type.JAVA, " + quoted + ")";
+            case FACADE:
+                return "morbok.runtime.MorbokLog log = morbok.runtime.MorbokLog.getLogger(morbok.Logger.Type.JAVA, " + quoted + ")";
+            case BINARY:
+                return "morbok.runtime.BinaryLog log = morbok.runtime.BinaryLog.getLogger(" + quoted + ", new String[0])";
+            default:
+                throw new IllegalArgumentException("Add a declaration for Logger type " + type + " to the benchmark");
+        }
+    }
+
+    /* */
+    private static String getLogCall(Logger.Type type, boolean debug, String message)
+    {
+        switch (type)
+        {
+            case JAVA:
+                return "log." + (debug ? "fine" : "info") + "(" + message + ")";
+            case SYSTEM:
+                return "log.log(java.lang.System.Logger.Level." + (debug ? "DEBUG" : "INFO") + ", " + message + ")";
+            default:
+                return "log." + (debug ? "debug" : "info") + "(" + message + ")";
+        }
+    }
+
+    /** Compiles the given files, and fails if they don't compile. */
+    private Result compile(String name, List<File> files) throws IOException
+    {
+        File classDirectory = new File(new File(this.directory, name), "classes");
+        classDirectory.mkdirs();
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, Locale.US, null);
+
+        List<String> options = new ArrayList<String>();
+        options.add("-classpath");
+        options.add(System.getProperty("java.class.path"));
+        options.add("-d");
+        options.add(classDirectory.getPath());
+        options.add("-nowarn");
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            pool.resetPeakUsage();
+
+        long allocated = getAllocatedBytes(threads);
+        long start = System.nanoTime();
+
+        boolean compiled = compiler.getTask(null, fileManager, diagnostics, options, null,
+                fileManager.getJavaFileObjectsFromFiles(files)).call();
+
+        Result result = new Result();
+        result.wallNanos = System.nanoTime() - start;
+        result.allocatedBytes = getAllocatedBytes(threads) - allocated;
+        result.peakHeapBytes = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+                result.peakHeapBytes += pool.getPeakUsage().getUsed();
+        }
+
+        fileManager.close();
+
+        if (!compiled)
+        {
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+                System.err.println(diagnostic);
+            throw new IllegalStateException("The " + name + " tree didn't compile");
+        }
+
+        System.out.println(String.format(Locale.US, "%-10s %8d ms", name, result.wallNanos / 1000000));
+        return result;
+    }
+
+    /** Returns the bytes the current thread has allocated, or 0 if the jvm can't tell. */
+    private static long getAllocatedBytes(ThreadMXBean threads)
+    {
+        if (threads instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+
+        return 0;
+    }
+
+    /** The best of the compiles of a tree. */
+    private static final class Result
+    {
+        long wallNanos = Long.MAX_VALUE;
+        long peakHeapBytes = Long.MAX_VALUE;
+        long allocatedBytes = Long.MAX_VALUE;
+
+        /* */
+        void add(Result run)
+        {
+            this.wallNanos = Math.min(this.wallNanos, run.wallNanos);
+            this.peakHeapBytes = Math.min(this.peakHeapBytes, run.peakHeapBytes);
+            this.allocatedBytes = Math.min(this.allocatedBytes, run.allocatedBytes);
+        }
+
+        /* */
+        void print(String name)
+        {
+            System.out.println(String.format(Locale.US, "%-10s %12d %14d %16d", name,
+                    this.wallNanos / 1000000, this.peakHeapBytes / (1024 * 1024), this.allocatedBytes / (1024 * 1024)));
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.bench;
+
+/**
+ * A class with a generated logger for the benchmarks to call, there's one for each logger type. The
+ * disabled methods log at debug, which the benchmark turns off, and the enabled ones log at info.
+ *
+ * @author rayvanderborght
+ */
+public interface Subject
+{
+    /** Logs a string literal at a level that's off. */
+    void disabledConstant();
+
+    /** Logs a string concatenation at a level that's off. */
+    void disabledConcat(int id, long ms);
+
+    /** Logs a string literal at a level that's on. */
+    void enabledConstant();
+
+    /** Logs a string concatenation at a level that's on. */
+    void enabledConcat(int id, long ms);
+}
@@ -0,0 +1,86 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.bench;
+
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+import morbok.Logger;
+
+/**
+ * Creates the subject for each logger type, with a sink that throws the events away.
+ *
+ * @author rayvanderborght
+ */
+public final class Subjects
+{
+    private Subjects()
+    {
+        // Prevent instantiation
+    }
+
+    /**
+     * Returns the subject for the given logger type.
+     *
+     * @throws IllegalArgumentException if there's no subject for the type yet
+     */
+    public static Subject create(Logger.Type type)
+    {
+        installSinks();
+
+        switch (type)
+        {
+            case COMMONS:
+                return new CommonsSubject();
+            case JAVA:
+                return new JavaSubject();
+            case SLF4J:
+                return new Slf4jSubject();
+            case LOG4J2:
+                return new Log4j2Subject();
+            case SYSTEM:
+                return new SystemSubject();
+            case ASYNC:
+                return new AsyncSubject();
+            case FACADE:
+                return new FacadeSubject();
+            case BINARY:
+                return new BinarySubject();
+            default:
+                throw new IllegalArgumentException("Add a Subject for Logger type " + type + " to the benchmarks");
+        }
+    }
+
+    /**
+     * Sends info and up to a java.util.logging handler that does nothing. Log4j reads log4j2-test.xml, which
+     * does the same with its null appender.
+     */
+    private static void installSinks()
+    {
+        LogManager.getLogManager().reset();
+
+        java.util.logging.Logger root = java.util.logging.Logger.getLogger("");
+        root.setLevel(Level.INFO);
+        root.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record)
+            {
+                // the record has been created and its level checked, which is all that's measured
+            }
+
+            @Override
+            public void flush()
+            {
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        });
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.bench;
+
+import morbok.Logger;
+
+/**
+ * Logs through a java.lang.System.Logger, which logs to java.util.logging.
+ *
+ * @author rayvanderborght
+ */
+@Logger(type=Logger.Type.SYSTEM)
+public class SystemSubject implements Subject
+{
+    /**
+     * {@inheritDoc}
+     */
+    public void disabledConstant()
+    {
+        log.log(System.Logger.Level.DEBUG, "request handled");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void disabledConcat(int id, long ms)
+    {
+        log.log(System.Logger.Level.DEBUG, "user " + id + " took " + ms + "ms");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void enabledConstant()
+    {
+        log.log(System.Logger.Level.INFO, "request handled");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void enabledConcat(int id, long ms)
+    {
+        log.log(System.Logger.Level.INFO, "user " + id + " took " + ms + "ms");
+    }
+}
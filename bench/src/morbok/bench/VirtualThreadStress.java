@@ -0,0 +1,190 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingFile;
+import morbok.Logger;
+import morbok.runtime.LogContext;
+
+/**
+ * Logs from a large number of virtual threads through the generated loggers, with a flight recording of
+ * <code>jdk.VirtualThreadPinned</code> events running, and fails if any virtual thread was pinned to its
+ * carrier thread. Each task binds a {@link LogContext} pair, so the context path is stressed too.
+ * <p>
+ * It needs java 21 or later, and is compiled reflectively against the virtual thread api so the benchmarks
+ * still compile on older versions. It's configured with system properties, which
+ * <code>ant bench-virtual</code> passes on:
+ * <ul>
+ * <li><code>bench.tasks</code> the number of virtual threads started for each logger type (default 100000)</li>
+ * <li><code>bench.events</code> the number of events each of them logs (default 20)</li>
+ * <li><code>bench.types</code> the logger types to stress (default ASYNC,FACADE,BINARY)</li>
+ * <li><code>bench.results</code> the directory the recordings are written to (default build/bench)</li>
+ * </ul>
+ * Facade loggers only stay unpinned with <code>morbok.virtualThreads.handoff=true</code>, which the ant target sets.
+ *
+ * @author rayvanderborght
+ */
+public final class VirtualThreadStress
+{
+    private static final String PINNED = "jdk.VirtualThreadPinned";
+
+    private final int taskCount;
+    private final int eventCount;
+    private final File directory;
+
+    /** */
+    private VirtualThreadStress(int taskCount, int eventCount, File directory)
+    {
+        this.taskCount = taskCount;
+        this.eventCount = eventCount;
+        this.directory = directory;
+    }
+
+    /** */
+    public static void main(String[] args) throws Exception
+    {
+        if (!hasVirtualThreads())
+        {
+            System.err.println("The virtual thread stress test needs java 21 or later, this is " + System.getProperty("java.version"));
+            System.exit(2);
+        }
+
+        VirtualThreadStress stress = new VirtualThreadStress(
+                Integer.getInteger("bench.tasks", 100000),
+                Integer.getInteger("bench.events", 20),
+                new File(System.getProperty("bench.results", "build/bench"), "virtual"));
+        stress.directory.mkdirs();
+
+        long pinned = 0;
+        System.out.println(String.format(Locale.US, "%-8s %10s %12s %10s %8s", "type", "tasks", "events", "ms", "pinned"));
+        for (String name : System.getProperty("bench.types", "ASYNC,FACADE,BINARY").split(","))
+            pinned += stress.run(Logger.Type.valueOf(name.trim().toUpperCase()));
+
+        if (pinned > 0)
+        {
+            System.err.println(pinned + " virtual threads were pinned, the recordings are in " + stress.directory);
+            System.exit(1);
+        }
+    }
+
+    /** Stresses one logger type, and returns the number of pinned events recorded. */
+    private long run(Logger.Type type) throws Exception
+    {
+        final Subject subject = Subjects.create(type);
+
+        Recording recording = new Recording();
+        recording.enable(PINNED).withThreshold(Duration.ZERO).withStackTrace();
+        recording.start();
+
+        long start = System.nanoTime();
+        ExecutorService executor = newVirtualThreadExecutor();
+        for (int i = 0; i < this.taskCount; i++)
+        {
+            final int task = i;
+            executor.execute(new Runnable() {
+                public void run()
+                {
+                    LogContext.run("task", task, new Runnable() {
+                        public void run()
+                        {
+                            VirtualThreadStress.this.log(subject, task);
+                        }
+                    });
+                }
+            });
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        recording.stop();
+        File file = new File(this.directory, type.name().toLowerCase() + ".jfr");
+        recording.dump(file.toPath());
+        recording.close();
+
+        List<RecordedEvent> pinned = readPinned(file);
+        System.out.println(String.format(Locale.US, "%-8s %10d %12d %10d %8d",
+                type, this.taskCount, (long)this.taskCount * this.eventCount * 2, millis, pinned.size()));
+
+        if (!pinned.isEmpty())
+            printStackTrace(pinned.get(0));
+
+        return pinned.size();
+    }
+
+    /** Logs the task's events, yielding now and then so the virtual thread is unmounted while it logs. */
+    private void log(Subject subject, int task)
+    {
+        for (int i = 0; i < this.eventCount; i++)
+        {
+            subject.enabledConcat(task, i);
+            subject.disabledConcat(task, i);
+            subject.enabledConstant();
+            subject.disabledConstant();
+
+            if (i % 4 == 0)
+                Thread.yield();
+        }
+    }
+
+    /* */
+    private static List<RecordedEvent> readPinned(File file) throws IOException
+    {
+        List<RecordedEvent> pinned = new ArrayList<RecordedEvent>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath()))
+        {
+            if (PINNED.equals(event.getEventType().getName()))
+                pinned.add(event);
+        }
+
+        return pinned;
+    }
+
+    /* */
+    private static void printStackTrace(RecordedEvent event)
+    {
+        System.err.println("first pinned event, " + event.getDuration().toNanos() + "ns:");
+        if (event.getStackTrace() == null)
+            return;
+
+        for (RecordedFrame frame : event.getStackTrace().getFrames())
+            System.err.println("\tat " + frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+                    + "(line " + frame.getLineNumber() + ")");
+    }
+
+    /* */
+    private static boolean hasVirtualThreads()
+    {
+        try
+        {
+            Thread.class.getMethod("isVirtual");
+            return true;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return false;
+        }
+    }
+
+    /* */
+    private static ExecutorService newVirtualThreadExecutor() throws Exception
+    {
+        return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+}
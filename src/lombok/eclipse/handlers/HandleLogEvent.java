@@ -0,0 +1,173 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package lombok.eclipse.handlers;
+
+import static lombok.eclipse.handlers.EclipseHandlerUtil.*;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.core.AnnotationValues;
+import lombok.eclipse.Eclipse;
+import lombok.eclipse.EclipseAnnotationHandler;
+import lombok.eclipse.EclipseNode;
+import lombok.eclipse.handlers.EclipseHandlerUtil.MemberExistsResult;
+import morbok.LogEvent;
+
+import org.eclipse.jdt.internal.compiler.ast.ASTNode;
+import org.eclipse.jdt.internal.compiler.ast.Annotation;
+import org.eclipse.jdt.internal.compiler.ast.Argument;
+import org.eclipse.jdt.internal.compiler.ast.Expression;
+import org.eclipse.jdt.internal.compiler.ast.FieldDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.FieldReference;
+import org.eclipse.jdt.internal.compiler.ast.Initializer;
+import org.eclipse.jdt.internal.compiler.ast.MessageSend;
+import org.eclipse.jdt.internal.compiler.ast.MethodDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.QualifiedTypeReference;
+import org.eclipse.jdt.internal.compiler.ast.SingleNameReference;
+import org.eclipse.jdt.internal.compiler.ast.Statement;
+import org.eclipse.jdt.internal.compiler.ast.StringLiteral;
+import org.eclipse.jdt.internal.compiler.ast.ThisReference;
+import org.eclipse.jdt.internal.compiler.ast.TypeDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.TypeReference;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileConstants;
+import org.eclipse.jdt.internal.compiler.lookup.TypeIds;
+import org.mangosdk.spi.ProviderFor;
+
+/**
+ * Handles the <code>morbok.LogEvent</code> annotation for eclipse.
+ *
+ * @author rayvanderborght
+ */
+@ProviderFor(EclipseAnnotationHandler.class)
+public class HandleLogEvent implements EclipseAnnotationHandler<LogEvent>
+{
+    private static final String WRITE_METHOD = "writeTo";
+    private static final char[] WRITER = "writer".toCharArray();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean handle(AnnotationValues<LogEvent> annotation, Annotation source, EclipseNode annotationNode)
+    {
+        EclipseNode typeNode = annotationNode.up();
+
+        TypeDeclaration typeDecl = null;
+        if (typeNode.get() instanceof TypeDeclaration)
+            typeDecl = (TypeDeclaration) typeNode.get();
+
+        int modifiers = typeDecl == null ? 0 : typeDecl.modifiers;
+        boolean notAClass = (modifiers &
+                (ClassFileConstants.AccInterface | ClassFileConstants.AccAnnotation | ClassFileConstants.AccEnum)) != 0;
+
+        if (typeDecl == null || notAClass)
+        {
+            annotationNode.addError("@LogEvent is only supported on a class.");
+            return false;
+        }
+
+        if (methodExists(WRITE_METHOD, typeNode) != MemberExistsResult.NOT_EXISTS)
+        {
+            annotationNode.addWarning("@LogEvent can't generate " + WRITE_METHOD + "(), the class already has a method with that name.");
+            return true;
+        }
+
+        int pS = source.sourceStart, pE = source.sourceEnd;
+        long pos = (long)pS << 32 | pE;
+
+        String value = annotation.getInstance().value();
+        String eventName = (value == null || "".equals(value.trim())) ? new String(typeDecl.name) : value;
+
+        List<Statement> statements = new ArrayList<Statement>();
+        statements.add(this.makeWriterCall(source, "begin", this.makeString(source, eventName)));
+
+        if (typeDecl.fields != null)
+        {
+            for (FieldDeclaration fieldDecl : typeDecl.fields)
+            {
+                if (fieldDecl instanceof Initializer || (fieldDecl.modifiers & (Modifier.STATIC | Modifier.TRANSIENT)) != 0)
+                    continue;
+
+                // writer.field("name", this.name);
+                FieldReference field = new FieldReference(fieldDecl.name, pos);
+                field.receiver = new ThisReference(pS, pE);
+                Eclipse.setGeneratedBy(field.receiver, source);
+                Eclipse.setGeneratedBy(field, source);
+
+                statements.add(this.makeWriterCall(source, "field", this.makeString(source, new String(fieldDecl.name)), field));
+            }
+        }
+
+        statements.add(this.makeWriterCall(source, "end"));
+
+        TypeReference writerType = new QualifiedTypeReference(
+                Eclipse.fromQualifiedName("morbok.runtime.EventWriter"), new long[] { pos, pos, pos });
+        Eclipse.setGeneratedBy(writerType, source);
+
+        Argument writerParam = new Argument(WRITER, pos, writerType, Modifier.FINAL);
+        Eclipse.setGeneratedBy(writerParam, source);
+
+        MethodDeclaration methodDecl = new MethodDeclaration(typeDecl.compilationResult);
+        Eclipse.setGeneratedBy(methodDecl, source);
+        methodDecl.modifiers = Modifier.PUBLIC;
+        methodDecl.returnType = TypeReference.baseTypeReference(TypeIds.T_void, 0);
+        methodDecl.returnType.sourceStart = pS;
+        methodDecl.returnType.sourceEnd = pE;
+        Eclipse.setGeneratedBy(methodDecl.returnType, source);
+        methodDecl.selector = WRITE_METHOD.toCharArray();
+        methodDecl.arguments = new Argument[] { writerParam };
+        methodDecl.statements = statements.toArray(new Statement[statements.size()]);
+        methodDecl.bits |= Eclipse.ECLIPSE_DO_NOT_TOUCH_FLAG;
+        methodDecl.declarationSourceStart = methodDecl.sourceStart = methodDecl.bodyStart = pS;
+        methodDecl.declarationSourceEnd = methodDecl.sourceEnd = methodDecl.bodyEnd = pE;
+
+        TypeReference eventType = new QualifiedTypeReference(
+                Eclipse.fromQualifiedName("morbok.runtime.Event"), new long[] { pos, pos, pos });
+        Eclipse.setGeneratedBy(eventType, source);
+
+        if (typeDecl.superInterfaces == null)
+        {
+            typeDecl.superInterfaces = new TypeReference[] { eventType };
+        }
+        else
+        {
+            TypeReference[] superInterfaces = new TypeReference[typeDecl.superInterfaces.length + 1];
+            System.arraycopy(typeDecl.superInterfaces, 0, superInterfaces, 0, typeDecl.superInterfaces.length);
+            superInterfaces[typeDecl.superInterfaces.length] = eventType;
+            typeDecl.superInterfaces = superInterfaces;
+        }
+
+        injectMethod(typeNode, methodDecl);
+
+        return true;
+    }
+
+    /* */
+    private MessageSend makeWriterCall(ASTNode source, String selector, Expression... arguments)
+    {
+        SingleNameReference writer = new SingleNameReference(WRITER, (long)source.sourceStart << 32 | source.sourceEnd);
+        Eclipse.setGeneratedBy(writer, source);
+
+        MessageSend call = new MessageSend();
+        call.receiver = writer;
+        call.selector = selector.toCharArray();
+        call.arguments = arguments.length == 0 ? null : arguments;
+        call.nameSourcePosition = (long)source.sourceStart << 32 | source.sourceEnd;
+        call.sourceStart = source.sourceStart;
+        call.sourceEnd = call.statementEnd = source.sourceEnd;
+        Eclipse.setGeneratedBy(call, source);
+        return call;
+    }
+
+    /* */
+    private StringLiteral makeString(ASTNode source, String value)
+    {
+        StringLiteral literal = new StringLiteral(value.toCharArray(), source.sourceStart, source.sourceEnd, 0);
+        Eclipse.setGeneratedBy(literal, source);
+        return literal;
+    }
+}
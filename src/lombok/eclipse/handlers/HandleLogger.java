@@ -7,15 +7,25 @@ package lombok.eclipse.handlers;
 import static lombok.eclipse.handlers.EclipseHandlerUtil.*;
 
 import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.List;
 
 import lombok.core.AnnotationValues;
+import lombok.core.AST.Kind;
 import lombok.eclipse.Eclipse;
 import lombok.eclipse.EclipseAnnotationHandler;
 import lombok.eclipse.EclipseNode;
 import lombok.eclipse.handlers.EclipseHandlerUtil.MemberExistsResult;
 import morbok.Logger;
+import morbok.core.HandlerOptions;
+import morbok.core.HandlerStats;
+import morbok.core.LogCalls;
 
+import org.eclipse.jdt.internal.compiler.ast.ASTNode;
+import org.eclipse.jdt.internal.compiler.ast.AbstractMethodDeclaration;
 import org.eclipse.jdt.internal.compiler.ast.Annotation;
+import org.eclipse.jdt.internal.compiler.ast.ArrayAllocationExpression;
+import org.eclipse.jdt.internal.compiler.ast.ArrayInitializer;
 import org.eclipse.jdt.internal.compiler.ast.Expression;
 import org.eclipse.jdt.internal.compiler.ast.FieldDeclaration;
 import org.eclipse.jdt.internal.compiler.ast.MessageSend;
@@ -39,6 +49,21 @@ public class HandleLogger implements EclipseAnnotationHandler<Logger>
      */
     @Override
     public boolean handle(AnnotationValues<Logger> annotation, Annotation source, EclipseNode annotationNode)
+    {
+        HandlerStats stats = HandlerStats.forOption(HandlerOptions.getSystemOption(HandlerOptions.STATS));
+        long start = System.nanoTime();
+        try
+        {
+            return this.handle(annotation, source, annotationNode, stats);
+        }
+        finally
+        {
+            stats.handled(System.nanoTime() - start);
+        }
+    }
+
+    /* */
+    private boolean handle(AnnotationValues<Logger> annotation, Annotation source, EclipseNode annotationNode, HandlerStats stats)
     {
         EclipseNode typeNode = annotationNode.up();
 
@@ -52,103 +77,513 @@ public class HandleLogger implements EclipseAnnotationHandler<Logger>
 
         if (typeDecl == null || notAClass)
         {
+            stats.errors(1);
             annotationNode.addError("@Logger is only supported on a class.");
+            // handled, so eclipse doesn't report the error again on its complete parse
+            return true;
+        }
+
+        Logger.Type delegateType = annotation.getInstance().delegate();
+        if (LogCalls.hasDelegate(annotation.getInstance().type()) && (LogCalls.hasDelegate(delegateType) || delegateType == Logger.Type.BINARY))
+        {
+            stats.errors(1);
+            annotationNode.addError("@Logger delegate can't be " + delegateType + ".");
+            return true;
+        }
+
+        if (annotation.getInstance().structured() && annotation.getInstance().type() == Logger.Type.BINARY)
+        {
+            stats.errors(1);
+            annotationNode.addError("@Logger(structured=true) isn't supported by BINARY loggers.");
+            return true;
+        }
+
+        String limitError = LogCalls.validateLimit("Logger", annotation.getInstance().maxPerSecond(), annotation.getInstance().sampleRate());
+        if (limitError != null)
+        {
+            stats.errors(1);
+            annotationNode.addError(limitError);
+            return true;
+        }
+
+        if (annotation.getInstance().location() && !LogCalls.supportsLocation(LogCalls.getCallType(annotation.getInstance())))
+            annotationNode.addWarning("@Logger(location=true) isn't supported by " + annotation.getInstance().type() + " loggers, they find the location themselves.");
+
+        if (annotation.getInstance().scope() == Logger.Scope.OUTER)
+            return this.shareOuterLogger(source, annotationNode, typeDecl, stats);
+
+        char[] logVariableName = this.getLogVariableName(annotation, annotationNode);
+        if (logVariableName == null)
+            return true;
+
+        boolean lazy = annotation.getInstance().lazy();
+        char[] holderName = this.getHolderName(logVariableName);
+
+        // eclipse calls handlers on its diet parse, before the method bodies are parsed, and again once they are. The log
+        // variable is declared on the first of them, so it's bound along with the fields the class declares itself, and
+        // the log calls are rewritten on the complete parse, when there are bodies to rewrite.
+        FieldDeclaration fieldDecl = this.findLogField(typeDecl, logVariableName, holderName, source);
+        if (fieldDecl == null)
+        {
+            if (fieldExists(new String(logVariableName), typeNode) != MemberExistsResult.NOT_EXISTS)
+            {
+                stats.fieldSkipped();
+                return true;
+            }
+
+            if (lazy && this.memberTypeExists(holderName, typeDecl))
+            {
+                stats.errors(1);
+                annotationNode.addError("@Logger(lazy=true) needs a nested class named " + new String(holderName) + ", which already exists.");
+                return true;
+            }
+
+            fieldDecl = this.makeLogField(annotation, source, typeNode, typeDecl, logVariableName);
+            if (lazy)
+                this.addHolder(source, typeNode, typeDecl, fieldDecl, holderName);
+            else
+                injectStaticField(typeNode, fieldDecl);
+
+            stats.fieldInjected();
+        }
+
+        LogCallRewriter.declareConstants(typeNode, source, annotation.getInstance());
+
+        if (!annotationNode.isCompleteParse())
             return false;
+
+        Logger.Level minLevel = this.getMinLevel(annotation, annotationNode);
+        LogCallRewriter rewriter = new LogCallRewriter(typeNode, source, annotation.getInstance(), logVariableName, minLevel);
+        rewriter.rewrite(typeDecl);
+        stats.errors(rewriter.getErrorCount());
+
+        if (lazy)
+            rewriter.qualify(typeDecl, holderName);
+
+        if (annotation.getInstance().type() == Logger.Type.BINARY)
+            this.fillTemplates(fieldDecl, rewriter.getTemplates(), source);
+
+        return true;
+    }
+
+    /**
+     * Adds a static field to the class, along with a class initializer to initialize it if the class has none,
+     * which eclipse's parser only adds to classes that declare static fields of their own.
+     */
+    static void injectStaticField(EclipseNode typeNode, FieldDeclaration fieldDecl)
+    {
+        injectField(typeNode, fieldDecl);
+
+        TypeDeclaration typeDecl = (TypeDeclaration)typeNode.get();
+        if (typeDecl.methods != null)
+        {
+            for (AbstractMethodDeclaration methodDecl : typeDecl.methods)
+            {
+                if (methodDecl.isClinit())
+                    return;
+            }
+        }
+
+        typeDecl.addClinit();
+    }
+
+    /**
+     * Returns the log variable declared for the annotation on an earlier parse, in the class itself or in its lazy
+     * holder, or null if it hasn't been declared yet.
+     */
+    private FieldDeclaration findLogField(TypeDeclaration typeDecl, char[] logVariableName, char[] holderName, Annotation source)
+    {
+        FieldDeclaration fieldDecl = this.findGeneratedField(typeDecl, logVariableName, source);
+        if (fieldDecl == null && typeDecl.memberTypes != null)
+        {
+            for (TypeDeclaration memberType : typeDecl.memberTypes)
+            {
+                if (Arrays.equals(memberType.name, holderName) && Eclipse.getGeneratedBy(memberType) == source)
+                    fieldDecl = this.findGeneratedField(memberType, logVariableName, source);
+            }
+        }
+
+        return fieldDecl;
+    }
+
+    /* */
+    private FieldDeclaration findGeneratedField(TypeDeclaration typeDecl, char[] name, Annotation source)
+    {
+        if (typeDecl.fields != null)
+        {
+            for (FieldDeclaration fieldDecl : typeDecl.fields)
+            {
+                if (Arrays.equals(fieldDecl.name, name) && Eclipse.getGeneratedBy(fieldDecl) == source)
+                    return fieldDecl;
+            }
         }
+
+        return null;
+    }
+
+    /**
+     * Builds the declaration of the log variable, which looks the logger up for the class, eg:
+     * <code>private static final org.apache.commons.logging.Log log = org.apache.commons.logging.LogFactory.getLog("com.example.Foo");</code>
+     */
+    private FieldDeclaration makeLogField(AnnotationValues<Logger> annotation, Annotation source, EclipseNode typeNode, TypeDeclaration typeDecl, char[] logVariableName)
+    {
         long pos = (long)typeDecl.sourceStart << 32 | typeDecl.sourceEnd;
         int pS = (int)(pos >> 32), pE = (int)pos;
 
-        char[] logVariableName = this.getLogVariableName(annotation, annotationNode);
+        FieldDeclaration fieldDecl = new FieldDeclaration(logVariableName, 0, -1);
+        Eclipse.setGeneratedBy(fieldDecl, source);
+
+        fieldDecl.modifiers = (Modifier.STATIC | Modifier.FINAL | Modifier.PRIVATE);
+
+        MessageSend send = new MessageSend();
+        Eclipse.setGeneratedBy(send, source);
+
+        Expression delegate = null;
 
-        if (logVariableName != null && fieldExists(new String(logVariableName), typeNode) == MemberExistsResult.NOT_EXISTS)
+        switch (LogCalls.getCallType(annotation.getInstance()))
         {
-            FieldDeclaration fieldDecl = new FieldDeclaration(logVariableName, 0, -1);
-            Eclipse.setGeneratedBy(fieldDecl, source);
+            case COMMONS:
+            {
+                fieldDecl.type = new QualifiedTypeReference(
+                        Eclipse.fromQualifiedName("org.apache.commons.logging.Log"),
+                        new long[] { pos, pos, pos, pos, pos });
+
+                Eclipse.setGeneratedBy(fieldDecl.type, source);
+
+                send.receiver = new QualifiedNameReference(
+                        Eclipse.fromQualifiedName("org.apache.commons.logging.LogFactory"),
+                        new long[] { pos, pos, pos, pos, pos }, pS, pE);
+
+                send.selector = "getLog".toCharArray();
+                break;
+            }
+            case JAVA:
+            {
+                fieldDecl.type = new QualifiedTypeReference(
+                        Eclipse.fromQualifiedName("java.util.logging.Logger"),
+                        new long[] { pos, pos, pos, pos });
+
+                Eclipse.setGeneratedBy(fieldDecl.type, source);
+
+                send.receiver = new QualifiedNameReference(
+                        Eclipse.fromQualifiedName("java.util.logging.Logger"),
+                        new long[] { pos, pos, pos, pos }, pS, pE);
+
+                send.selector = "getLogger".toCharArray();
+                break;
+            }
+            case SLF4J:
+            {
+                fieldDecl.type = new QualifiedTypeReference(
+                        Eclipse.fromQualifiedName("org.slf4j.Logger"),
+                        new long[] { pos, pos, pos });
+
+                Eclipse.setGeneratedBy(fieldDecl.type, source);
+
+                send.receiver = new QualifiedNameReference(
+                        Eclipse.fromQualifiedName("org.slf4j.LoggerFactory"),
+                        new long[] { pos, pos, pos }, pS, pE);
+
+                send.selector = "getLogger".toCharArray();
+                break;
+            }
+            case LOG4J2:
+            {
+                fieldDecl.type = new QualifiedTypeReference(
+                        Eclipse.fromQualifiedName("org.apache.logging.log4j.Logger"),
+                        new long[] { pos, pos, pos, pos, pos });
+
+                Eclipse.setGeneratedBy(fieldDecl.type, source);
 
-            fieldDecl.modifiers = (Modifier.STATIC | Modifier.FINAL | Modifier.PRIVATE);
+                send.receiver = new QualifiedNameReference(
+                        Eclipse.fromQualifiedName("org.apache.logging.log4j.LogManager"),
+                        new long[] { pos, pos, pos, pos, pos }, pS, pE);
 
-            MessageSend send = new MessageSend();
-            Eclipse.setGeneratedBy(send, source);
+                send.selector = "getLogger".toCharArray();
+                break;
+            }
+            case SYSTEM:
+            {
+                fieldDecl.type = new QualifiedTypeReference(
+                        Eclipse.fromQualifiedName("java.lang.System.Logger"),
+                        new long[] { pos, pos, pos, pos });
+
+                Eclipse.setGeneratedBy(fieldDecl.type, source);
+
+                send.receiver = new QualifiedNameReference(
+                        Eclipse.fromQualifiedName("java.lang.System"),
+                        new long[] { pos, pos, pos }, pS, pE);
+
+                send.selector = "getLogger".toCharArray();
+                break;
+            }
+            case ASYNC:
+            case FACADE:
+            {
+                String logClass = annotation.getInstance().structured() ? "morbok.runtime.StructuredLog" : "morbok.runtime.MorbokLog";
+                fieldDecl.type = new QualifiedTypeReference(
+                        Eclipse.fromQualifiedName(logClass),
+                        new long[] { pos, pos, pos });
+
+                Eclipse.setGeneratedBy(fieldDecl.type, source);
+
+                send.receiver = new QualifiedNameReference(
+                        Eclipse.fromQualifiedName(logClass),
+                        new long[] { pos, pos, pos }, pS, pE);
 
-            switch (annotation.getInstance().type())
+                send.selector = (annotation.getInstance().type() == Logger.Type.ASYNC ? "getAsyncLogger" : "getLogger").toCharArray();
+
+                delegate = new QualifiedNameReference(
+                        Eclipse.fromQualifiedName("morbok.Logger.Type." + LogCalls.getDelegate(annotation.getInstance()).name()),
+                        new long[] { pos, pos, pos, pos }, pS, pE);
+
+                Eclipse.setGeneratedBy(delegate, source);
+                break;
+            }
+            case BINARY:
             {
-                case COMMONS:
-                {
-                    fieldDecl.type = new QualifiedTypeReference(
-                            Eclipse.fromQualifiedName("org.apache.commons.logging.Log"),
-                            new long[] { pos, pos, pos, pos, pos });
-
-                    Eclipse.setGeneratedBy(fieldDecl.type, source);
-
-                    send.receiver = new QualifiedNameReference(
-                            Eclipse.fromQualifiedName("org.apache.commons.logging.LogFactory"),
-                            new long[] { pos, pos, pos, pos, pos }, pS, pE);
-
-                    send.selector = "getLog".toCharArray();
-                    break;
-                }
-                case JAVA:
-                {
-                    fieldDecl.type = new QualifiedTypeReference(
-                            Eclipse.fromQualifiedName("java.util.logging.Logger"),
-                            new long[] { pos, pos, pos, pos });
-
-                    Eclipse.setGeneratedBy(fieldDecl.type, source);
-
-                    send.receiver = new QualifiedNameReference(
-                            Eclipse.fromQualifiedName("java.util.logging.Logger"),
-                            new long[] { pos, pos, pos, pos }, pS, pE);
-
-                    send.selector = "getLogger".toCharArray();
-                    break;
-                }
-                case SLF4J:
-                {
-                    fieldDecl.type = new QualifiedTypeReference(
-                            Eclipse.fromQualifiedName("org.slf4j.Logger"),
-                            new long[] { pos, pos, pos });
-
-                    Eclipse.setGeneratedBy(fieldDecl.type, source);
-
-                    send.receiver = new QualifiedNameReference(
-                            Eclipse.fromQualifiedName("org.slf4j.LoggerFactory"),
-                            new long[] { pos, pos, pos }, pS, pE);
-
-                    send.selector = "getLogger".toCharArray();
-                    break;
-                }
-                default:
-                    throw new IllegalStateException("Got an unexpected Logger type: " + annotation.getInstance().type());
+                fieldDecl.type = new QualifiedTypeReference(
+                        Eclipse.fromQualifiedName("morbok.runtime.BinaryLog"),
+                        new long[] { pos, pos, pos });
+
+                Eclipse.setGeneratedBy(fieldDecl.type, source);
+
+                send.receiver = new QualifiedNameReference(
+                        Eclipse.fromQualifiedName("morbok.runtime.BinaryLog"),
+                        new long[] { pos, pos, pos }, pS, pE);
+
+                send.selector = "getLogger".toCharArray();
+                break;
             }
+            default:
+                throw new IllegalStateException("Got an unexpected Logger type: " + annotation.getInstance().type());
+        }
+
+        send.receiver.statementEnd = pE;
+        Eclipse.setGeneratedBy(send.receiver, source);
+
+        String logValue = this.getLogValue(annotation, typeNode);
+        Expression arg = new StringLiteral(logValue.toCharArray(), 0, 0, 0);
+        Eclipse.setGeneratedBy(arg, source);
+        arg.statementEnd = pE;
+        send.arguments = delegate == null ? new Expression[] { arg } : new Expression[] { delegate, arg };
+
+        // the message templates are filled in on the complete parse, once the log calls have been rewritten
+        if (annotation.getInstance().type() == Logger.Type.BINARY)
+        {
+            ArrayInitializer templates = new ArrayInitializer();
+            templates.sourceStart = pS;
+            templates.sourceEnd = pE;
+            Eclipse.setGeneratedBy(templates, source);
+
+            ArrayAllocationExpression templateArray = new ArrayAllocationExpression();
+            templateArray.type = new QualifiedTypeReference(Eclipse.fromQualifiedName("java.lang.String"), new long[] { pos, pos, pos });
+            Eclipse.setGeneratedBy(templateArray.type, source);
+            templateArray.dimensions = new Expression[1];
+            templateArray.initializer = templates;
+            templateArray.sourceStart = pS;
+            templateArray.sourceEnd = templateArray.statementEnd = pE;
+            Eclipse.setGeneratedBy(templateArray, source);
+
+            send.arguments = new Expression[] { arg, templateArray };
+        }
+
+        send.nameSourcePosition = pos;
+        send.sourceStart = pS;
+        send.sourceEnd = send.statementEnd = pE;
+
+        fieldDecl.initialization = send;
+
+        return fieldDecl;
+    }
+
+    /**
+     * Declares the log variable in a nested holder class instead of the class itself, so the logger is only looked
+     * up when the holder class is initialized, the first time the log variable is used.
+     */
+    private void addHolder(Annotation source, EclipseNode typeNode, TypeDeclaration typeDecl, FieldDeclaration fieldDecl, char[] holderName)
+    {
+        int pS = typeDecl.sourceStart, pE = typeDecl.sourceEnd;
+
+        fieldDecl.modifiers = (Modifier.STATIC | Modifier.FINAL);
 
-            send.receiver.statementEnd = pE;
-            Eclipse.setGeneratedBy(send.receiver, source);
+        TypeDeclaration holderDecl = new TypeDeclaration(typeDecl.compilationResult);
+        Eclipse.setGeneratedBy(holderDecl, source);
+
+        holderDecl.name = holderName;
+        holderDecl.modifiers = (Modifier.PRIVATE | Modifier.STATIC | Modifier.FINAL);
+        holderDecl.bits |= ASTNode.IsMemberType;
+        holderDecl.fields = new FieldDeclaration[] { fieldDecl };
+        holderDecl.declarationSourceStart = holderDecl.sourceStart = holderDecl.bodyStart = pS;
+        holderDecl.declarationSourceEnd = holderDecl.sourceEnd = holderDecl.bodyEnd = pE;
+        holderDecl.createDefaultConstructor(true, true);
+        holderDecl.addClinit();
+
+        // the holder is added on the diet parse, keep eclipse from parsing a body for its constructor out of the source
+        for (AbstractMethodDeclaration methodDecl : holderDecl.methods)
+            methodDecl.bits |= Eclipse.ECLIPSE_DO_NOT_TOUCH_FLAG;
+
+        if (typeDecl.memberTypes == null)
+        {
+            typeDecl.memberTypes = new TypeDeclaration[] { holderDecl };
+        }
+        else
+        {
+            TypeDeclaration[] memberTypes = new TypeDeclaration[typeDecl.memberTypes.length + 1];
+            System.arraycopy(typeDecl.memberTypes, 0, memberTypes, 0, typeDecl.memberTypes.length);
+            memberTypes[typeDecl.memberTypes.length] = holderDecl;
+            typeDecl.memberTypes = memberTypes;
+        }
 
-            String logValue = this.getLogValue(annotation, typeNode);
-            Expression arg = new StringLiteral(logValue.toCharArray(), 0, 0, 0);
-            Eclipse.setGeneratedBy(arg, source);
-            arg.statementEnd = pE;
-            send.arguments = new Expression[] { arg };
+        typeNode.add(holderDecl, Kind.TYPE);
+    }
 
-            send.nameSourcePosition = pos;
-            send.sourceStart = pS;
-            send.sourceEnd = send.statementEnd = pE;
+    /**
+     * Fills the binary logger's message templates in, in the order of their ids, eg:
+     * <code>morbok.runtime.BinaryLog.getLogger("com.example.Foo", new java.lang.String[] { "took {}ms" })</code>
+     */
+    private void fillTemplates(FieldDeclaration fieldDecl, List<String> templateValues, Annotation source)
+    {
+        if (templateValues.isEmpty())
+            return;
 
-            fieldDecl.initialization = send;
+        Expression[] arguments = ((MessageSend)fieldDecl.initialization).arguments;
+        ArrayInitializer templates = ((ArrayAllocationExpression)arguments[arguments.length - 1]).initializer;
 
-            injectField(typeNode, fieldDecl);
+        templates.expressions = new Expression[templateValues.size()];
+        for (int i = 0; i < templates.expressions.length; i++)
+        {
+            templates.expressions[i] = new StringLiteral(templateValues.get(i).toCharArray(), templates.sourceStart, templates.sourceEnd, 0);
+            Eclipse.setGeneratedBy(templates.expressions[i], source);
         }
+    }
+
+    /**
+     * Rewrites the log calls of a nested class to use the log variable of its outermost class, as that class's
+     * annotation describes it, instead of declaring one of its own.
+     */
+    private boolean shareOuterLogger(Annotation source, EclipseNode annotationNode, TypeDeclaration typeDecl, HandlerStats stats)
+    {
+        EclipseNode typeNode = annotationNode.up();
+        EclipseNode outerAnnotationNode = this.findOuterAnnotation(typeNode);
+        if (outerAnnotationNode == null)
+        {
+            stats.errors(1);
+            annotationNode.addError("@Logger(scope=OUTER) is only supported on a class nested in a class with a @Logger annotation.");
+            return true;
+        }
+
+        AnnotationValues<Logger> outerAnnotation = Eclipse.createAnnotation(Logger.class, outerAnnotationNode);
+        Logger outerLogger = outerAnnotation.getInstance();
+
+        // binary message templates are declared with the logger, and lazy references to it are qualified by the outer handler
+        if (outerLogger.type() == Logger.Type.BINARY || outerLogger.lazy())
+        {
+            stats.errors(1);
+            annotationNode.addError("@Logger(scope=OUTER) can't share a " + (outerLogger.lazy() ? "lazy" : "BINARY") + " logger.");
+            return true;
+        }
+
+        char[] logVariableName = this.getLogVariableName(outerAnnotation, annotationNode);
+        if (logVariableName == null)
+            return true;
+
+        if (fieldExists(new String(logVariableName), typeNode) != MemberExistsResult.NOT_EXISTS)
+        {
+            stats.fieldSkipped();
+            return true;
+        }
+
+        // the log calls are rewritten once eclipse has parsed the method bodies, into the constants declared before that
+        LogCallRewriter.declareConstants(typeNode, source, outerLogger);
+        if (!annotationNode.isCompleteParse())
+            return false;
+
+        LogCallRewriter rewriter = new LogCallRewriter(typeNode, source, outerLogger, logVariableName, this.getMinLevel(outerAnnotation, annotationNode));
+        rewriter.rewrite(typeDecl);
+        stats.errors(rewriter.getErrorCount());
 
         return true;
     }
 
+    /** Returns the @Logger annotation of the outermost class enclosing the given class, or null if it has none. */
+    private EclipseNode findOuterAnnotation(EclipseNode typeNode)
+    {
+        EclipseNode outerNode = null;
+        for (EclipseNode node = typeNode.up(); node != null; node = node.up())
+        {
+            if (node.getKind() == Kind.TYPE)
+                outerNode = node;
+        }
+
+        if (outerNode != null)
+        {
+            for (EclipseNode child : outerNode.down())
+            {
+                if (child.getKind() == Kind.ANNOTATION && Eclipse.annotationTypeMatches(Logger.class, child))
+                    return child;
+            }
+        }
+
+        return null;
+    }
+
+    /* */
+    private Logger.Level getMinLevel(AnnotationValues<Logger> annotation, EclipseNode annotationNode)
+    {
+        Logger.Level minLevel = annotation.getInstance().minLevel();
+        if (annotation.isExplicit("minLevel"))
+            return minLevel;
+
+        String option = HandlerOptions.getSystemOption(HandlerOptions.MIN_LEVEL);
+        if (option == null)
+            return minLevel;
+
+        Logger.Level level = HandlerOptions.parseLevel(option);
+        if (level == null)
+        {
+            annotationNode.addWarning("Bad " + HandlerOptions.MIN_LEVEL + " option provided, must be the name of a Logger.Level.");
+            return minLevel;
+        }
+
+        return level;
+    }
+
     /* */
     private String getLogValue(AnnotationValues<Logger> annotation, EclipseNode typeNode)
     {
         String value = annotation.getInstance().value();
-        return (value == null || "".equals(value.trim()))
-            ? typeNode.getPackageDeclaration() + "." + typeNode.getName()
-            : value;
+        if (value != null && !"".equals(value.trim()))
+            return value;
+
+        // with scope PACKAGE the logger is named after the package, unless it's the default package
+        String packageName = typeNode.getPackageDeclaration();
+        if (annotation.getInstance().scope() == Logger.Scope.PACKAGE && packageName != null)
+            return packageName;
+
+        return packageName + "." + typeNode.getName();
+    }
+
+    /** Names the lazy holder class after the log variable, eg: LogHolder for log */
+    private char[] getHolderName(char[] logVariableName)
+    {
+        String name = new String(logVariableName);
+        return (Character.toUpperCase(name.charAt(0)) + name.substring(1) + "Holder").toCharArray();
+    }
+
+    /* */
+    private boolean memberTypeExists(char[] name, TypeDeclaration typeDecl)
+    {
+        if (typeDecl.memberTypes != null)
+        {
+            for (TypeDeclaration memberType : typeDecl.memberTypes)
+            {
+                if (Arrays.equals(memberType.name, name))
+                    return true;
+            }
+        }
+
+        return false;
     }
 
     /* */
@@ -0,0 +1,1680 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package lombok.eclipse.handlers;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import lombok.core.AST.Kind;
+import lombok.eclipse.Eclipse;
+import lombok.eclipse.EclipseNode;
+import morbok.Logger;
+import morbok.RateLimit;
+import morbok.core.LogCalls;
+import morbok.core.MessageTemplates;
+
+import org.eclipse.jdt.internal.compiler.ASTVisitor;
+import org.eclipse.jdt.internal.compiler.CompilationResult;
+import org.eclipse.jdt.internal.compiler.ast.ASTNode;
+import org.eclipse.jdt.internal.compiler.ast.AbstractMethodDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.AllocationExpression;
+import org.eclipse.jdt.internal.compiler.ast.Argument;
+import org.eclipse.jdt.internal.compiler.ast.ArrayAllocationExpression;
+import org.eclipse.jdt.internal.compiler.ast.ArrayInitializer;
+import org.eclipse.jdt.internal.compiler.ast.ArrayQualifiedTypeReference;
+import org.eclipse.jdt.internal.compiler.ast.ArrayReference;
+import org.eclipse.jdt.internal.compiler.ast.Assignment;
+import org.eclipse.jdt.internal.compiler.ast.BinaryExpression;
+import org.eclipse.jdt.internal.compiler.ast.Block;
+import org.eclipse.jdt.internal.compiler.ast.CastExpression;
+import org.eclipse.jdt.internal.compiler.ast.ConditionalExpression;
+import org.eclipse.jdt.internal.compiler.ast.ConstructorDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.DoStatement;
+import org.eclipse.jdt.internal.compiler.ast.EmptyStatement;
+import org.eclipse.jdt.internal.compiler.ast.EqualExpression;
+import org.eclipse.jdt.internal.compiler.ast.ExplicitConstructorCall;
+import org.eclipse.jdt.internal.compiler.ast.Expression;
+import org.eclipse.jdt.internal.compiler.ast.FieldDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.FieldReference;
+import org.eclipse.jdt.internal.compiler.ast.ForStatement;
+import org.eclipse.jdt.internal.compiler.ast.ForeachStatement;
+import org.eclipse.jdt.internal.compiler.ast.IfStatement;
+import org.eclipse.jdt.internal.compiler.ast.Initializer;
+import org.eclipse.jdt.internal.compiler.ast.InstanceOfExpression;
+import org.eclipse.jdt.internal.compiler.ast.IntLiteral;
+import org.eclipse.jdt.internal.compiler.ast.LabeledStatement;
+import org.eclipse.jdt.internal.compiler.ast.Literal;
+import org.eclipse.jdt.internal.compiler.ast.LocalDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.MessageSend;
+import org.eclipse.jdt.internal.compiler.ast.NullLiteral;
+import org.eclipse.jdt.internal.compiler.ast.OperatorIds;
+import org.eclipse.jdt.internal.compiler.ast.QualifiedAllocationExpression;
+import org.eclipse.jdt.internal.compiler.ast.QualifiedNameReference;
+import org.eclipse.jdt.internal.compiler.ast.QualifiedTypeReference;
+import org.eclipse.jdt.internal.compiler.ast.ReturnStatement;
+import org.eclipse.jdt.internal.compiler.ast.SingleNameReference;
+import org.eclipse.jdt.internal.compiler.ast.Statement;
+import org.eclipse.jdt.internal.compiler.ast.StringLiteral;
+import org.eclipse.jdt.internal.compiler.ast.SwitchStatement;
+import org.eclipse.jdt.internal.compiler.ast.SynchronizedStatement;
+import org.eclipse.jdt.internal.compiler.ast.ThisReference;
+import org.eclipse.jdt.internal.compiler.ast.TryStatement;
+import org.eclipse.jdt.internal.compiler.ast.TypeDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.TypeReference;
+import org.eclipse.jdt.internal.compiler.ast.UnaryExpression;
+import org.eclipse.jdt.internal.compiler.ast.WhileStatement;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileConstants;
+import org.eclipse.jdt.internal.compiler.lookup.BlockScope;
+import org.eclipse.jdt.internal.compiler.lookup.ClassScope;
+import org.eclipse.jdt.internal.compiler.lookup.TypeIds;
+
+/**
+ * Rewrites the calls made on the log variable generated for a <code>morbok.Logger</code> annotated class.
+ * <p>
+ * Only the method bodies and initializers of the annotated class itself are rewritten; nested classes
+ * may declare a log variable of their own and are left alone, as are methods that declare a local
+ * variable or parameter with the same name as the log variable.
+ *
+ * @author rayvanderborght
+ */
+class LogCallRewriter
+{
+    private static final char[] LOCATIONS = "$morbokLocations".toCharArray();
+    private static final char[] TEMPLATES = "$morbokTemplates".toCharArray();
+    private static final char[] SITES = "$morbokSites".toCharArray();
+    private static final char[] LIMITS = "$morbokLimits".toCharArray();
+    private static final char[] STATS = "$morbokStats".toCharArray();
+
+    private final EclipseNode typeNode;
+    private final ASTNode source;
+    private final Logger logger;
+    private final Logger.Type type;
+    private final char[] logVariableName;
+    private final Logger.Level minLevel;
+
+    /** The name of the method being rewritten, as it would appear in a stack trace. */
+    private String methodName;
+    private int statsCount;
+    private int errorCount;
+    private int[] lineEnds;
+
+    /** The limit of the log calls in the method being rewritten. */
+    private int maxPerSecond;
+    private int sampleRate;
+
+    /** The message templates of the class and their ids. */
+    private final Map<String, Integer> templates = new LinkedHashMap<String, Integer>();
+
+    /** The variables the method being rewritten sees, and whether each could hold a throwable. */
+    private final Map<String, Boolean> variables = new HashMap<String, Boolean>();
+
+    /** */
+    LogCallRewriter(EclipseNode typeNode, ASTNode source, Logger logger, char[] logVariableName, Logger.Level minLevel)
+    {
+        this.typeNode = typeNode;
+        this.source = source;
+        this.logger = logger;
+        this.type = LogCalls.getCallType(logger);
+        this.logVariableName = logVariableName;
+        this.minLevel = minLevel;
+    }
+
+    /**
+     * Declares the constants the log calls of the given class may need, as arrays that are filled in when the calls
+     * are rewritten, eg: <code>private static final StackTraceElement[] $morbokLocations = { };</code>
+     * <p>
+     * Eclipse only binds the fields a class has after its diet parse, before the method bodies are parsed, so the
+     * arrays are declared then, while the calls that decide what goes in them are only there on the complete parse.
+     */
+    static void declareConstants(EclipseNode typeNode, ASTNode source, Logger logger)
+    {
+        Logger.Type type = LogCalls.getCallType(logger);
+
+        if (logger.location() && LogCalls.supportsLocation(type) && type != Logger.Type.JAVA)
+            declareConstants(typeNode, source, LOCATIONS, "java.lang.StackTraceElement");
+
+        if (logger.parameterize() && (type == Logger.Type.ASYNC || type == Logger.Type.FACADE))
+            declareConstants(typeNode, source, TEMPLATES, "morbok.runtime.Template");
+
+        if (logger.dedupe())
+            declareConstants(typeNode, source, SITES, "morbok.runtime.ThrowableSite");
+
+        if (LogCalls.isLimited(logger.maxPerSecond(), logger.sampleRate()) || hasRateLimit(typeNode))
+            declareConstants(typeNode, source, LIMITS, "morbok.runtime.CallSiteLimit");
+
+        if (logger.instrument())
+            declareConstants(typeNode, source, STATS, "morbok.runtime.LogSite");
+    }
+
+    /** Returns true if a method of the given class has a <code>@RateLimit</code> annotation. */
+    private static boolean hasRateLimit(EclipseNode typeNode)
+    {
+        for (EclipseNode methodNode : typeNode.down())
+        {
+            if (methodNode.getKind() != Kind.METHOD)
+                continue;
+
+            for (EclipseNode child : methodNode.down())
+            {
+                if (child.getKind() == Kind.ANNOTATION && Eclipse.annotationTypeMatches(RateLimit.class, child))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    /* */
+    private static void declareConstants(EclipseNode typeNode, ASTNode source, char[] name, String elementType)
+    {
+        TypeDeclaration typeDecl = (TypeDeclaration)typeNode.get();
+        if (findConstants(typeDecl, name, source) != null)
+            return;
+
+        long pos = (long)typeDecl.sourceStart << 32 | typeDecl.sourceEnd;
+        char[][] tokens = Eclipse.fromQualifiedName(elementType);
+        long[] positions = new long[tokens.length];
+        Arrays.fill(positions, pos);
+
+        ArrayInitializer values = new ArrayInitializer();
+        values.sourceStart = typeDecl.sourceStart;
+        values.sourceEnd = typeDecl.sourceEnd;
+        Eclipse.setGeneratedBy(values, source);
+
+        FieldDeclaration fieldDecl = new FieldDeclaration(name, 0, -1);
+        fieldDecl.modifiers = (Modifier.PRIVATE | Modifier.STATIC | Modifier.FINAL);
+        fieldDecl.type = new ArrayQualifiedTypeReference(tokens, 1, positions);
+        Eclipse.setGeneratedBy(fieldDecl.type, source);
+        fieldDecl.initialization = values;
+        Eclipse.setGeneratedBy(fieldDecl, source);
+
+        HandleLogger.injectStaticField(typeNode, fieldDecl);
+    }
+
+    /** Returns the values of the constant array with the given name declared for the annotation, or null if there's none. */
+    private static ArrayInitializer findConstants(TypeDeclaration typeDecl, char[] name, ASTNode source)
+    {
+        if (typeDecl.fields != null)
+        {
+            for (FieldDeclaration fieldDecl : typeDecl.fields)
+            {
+                if (Arrays.equals(fieldDecl.name, name) && Eclipse.getGeneratedBy(fieldDecl) == source)
+                    return (ArrayInitializer)fieldDecl.initialization;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Adds a constant to the array with the given name and returns a reference to it, eg: <code>$morbokLocations[0]</code>
+     */
+    private Expression addConstant(char[] name, Expression value, int pS, int pE)
+    {
+        ArrayInitializer values = findConstants((TypeDeclaration)this.typeNode.get(), name, this.source);
+        if (values == null)
+            throw new IllegalStateException(new String(name) + " wasn't declared on the diet parse");
+
+        int index = values.expressions == null ? 0 : values.expressions.length;
+        Expression[] expressions = new Expression[index + 1];
+        if (index > 0)
+            System.arraycopy(values.expressions, 0, expressions, 0, index);
+        expressions[index] = value;
+        values.expressions = expressions;
+
+        return this.makeConstantReference(name, index, pS, pE);
+    }
+
+    /* */
+    private Expression makeConstantReference(char[] name, int index, int pS, int pE)
+    {
+        IntLiteral position = new IntLiteral(String.valueOf(index).toCharArray(), pS, pE);
+        Eclipse.setGeneratedBy(position, this.source);
+
+        ArrayReference reference = new ArrayReference(this.makeReference(name, pS, pE), position);
+        reference.sourceStart = pS;
+        reference.sourceEnd = pE;
+        Eclipse.setGeneratedBy(reference, this.source);
+        return reference;
+    }
+
+    /**
+     * Rewrites the log calls in every method and initializer of the given class.
+     */
+    void rewrite(TypeDeclaration typeDecl)
+    {
+        if (typeDecl.methods != null)
+        {
+            for (AbstractMethodDeclaration methodDecl : typeDecl.methods)
+            {
+                this.methodName = methodDecl instanceof ConstructorDeclaration ? "<init>" : new String(methodDecl.selector);
+                this.setLimit(methodDecl);
+                this.setVariables(typeDecl, methodDecl, null);
+                if (methodDecl.statements != null && !this.declaresLogVariable(methodDecl))
+                    methodDecl.statements = this.rewriteStatements(methodDecl.statements);
+            }
+        }
+
+        if (typeDecl.fields != null)
+        {
+            for (FieldDeclaration fieldDecl : typeDecl.fields)
+            {
+                if (fieldDecl instanceof Initializer && ((Initializer)fieldDecl).block != null)
+                {
+                    Block block = ((Initializer)fieldDecl).block;
+                    this.methodName = (fieldDecl.modifiers & ClassFileConstants.AccStatic) != 0 ? "<clinit>" : "<init>";
+                    this.setLimit(null);
+                    this.setVariables(typeDecl, null, block);
+                    if (!this.declaresLogVariable(block))
+                        this.rewriteStatement(block);
+                }
+            }
+        }
+    }
+
+    /**
+     * Limits the log calls of the given method as its <code>@RateLimit</code> annotation says, or as the
+     * logger does if it has none.
+     */
+    private void setLimit(AbstractMethodDeclaration methodDecl)
+    {
+        this.maxPerSecond = this.logger.maxPerSecond();
+        this.sampleRate = this.logger.sampleRate();
+
+        for (EclipseNode methodNode : this.typeNode.down())
+        {
+            if (methodDecl == null || methodNode.get() != methodDecl)
+                continue;
+
+            for (EclipseNode child : methodNode.down())
+            {
+                if (child.getKind() != Kind.ANNOTATION || !Eclipse.annotationTypeMatches(RateLimit.class, child))
+                    continue;
+
+                RateLimit rateLimit = Eclipse.createAnnotation(RateLimit.class, child).getInstance();
+                String error = LogCalls.validateLimit("RateLimit", rateLimit.maxPerSecond(), rateLimit.sampleRate());
+                if (error != null)
+                {
+                    this.errorCount++;
+                    child.addError(error);
+                    return;
+                }
+
+                this.maxPerSecond = rateLimit.maxPerSecond();
+                this.sampleRate = rateLimit.sampleRate();
+            }
+        }
+    }
+
+    /**
+     * Collects the fields of the class and the parameters and local variables of the given method or initializer,
+     * wherever they're declared in it, and whether each could hold a throwable.
+     */
+    private void setVariables(TypeDeclaration typeDecl, AbstractMethodDeclaration methodDecl, Block block)
+    {
+        this.variables.clear();
+
+        if (typeDecl.fields != null)
+        {
+            for (FieldDeclaration fieldDecl : typeDecl.fields)
+            {
+                if (fieldDecl.type != null)
+                    this.addVariable(fieldDecl.name, fieldDecl.type);
+            }
+        }
+
+        ASTVisitor collector = new ASTVisitor() {
+            @Override
+            public boolean visit(Argument argument, BlockScope scope)
+            {
+                LogCallRewriter.this.addVariable(argument.name, argument.type);
+                return true;
+            }
+
+            @Override
+            public boolean visit(LocalDeclaration localDeclaration, BlockScope scope)
+            {
+                LogCallRewriter.this.addVariable(localDeclaration.name, localDeclaration.type);
+                return true;
+            }
+
+            @Override
+            public boolean visit(TypeDeclaration localTypeDeclaration, BlockScope scope)
+            {
+                // nested classes aren't rewritten, so what they declare doesn't matter
+                return false;
+            }
+        };
+
+        if (methodDecl != null)
+            methodDecl.traverse(collector, (ClassScope)null);
+        if (block != null)
+            block.traverse(collector, (BlockScope)null);
+    }
+
+    /* */
+    private void addVariable(char[] name, TypeReference type)
+    {
+        String key = new String(name);
+        this.variables.put(key, Boolean.TRUE.equals(this.variables.get(key)) || this.isThrowableType(type));
+    }
+
+    /* */
+    private boolean isThrowableType(TypeReference type)
+    {
+        return type.dimensions() == 0 && MessageTemplates.isThrowableType(new String(type.getLastToken()));
+    }
+
+    /**
+     * Returns true if the given expression could be a Throwable, going by the declarations of the variables it
+     * names and the names of the types and methods in it. A name that isn't declared in the class or method, such
+     * as an inherited field, could be anything.
+     */
+    private boolean isThrowable(Expression expr)
+    {
+        if (expr instanceof Literal || expr instanceof BinaryExpression || expr instanceof UnaryExpression
+                || expr instanceof InstanceOfExpression || expr instanceof ArrayAllocationExpression)
+            return false;
+
+        if (expr instanceof ConditionalExpression)
+            return this.isThrowable(((ConditionalExpression)expr).valueIfTrue) || this.isThrowable(((ConditionalExpression)expr).valueIfFalse);
+
+        if (expr instanceof Assignment)
+            return this.isThrowable(((Assignment)expr).expression);
+
+        if (expr instanceof CastExpression)
+        {
+            Expression type = ((CastExpression)expr).type;
+            return !(type instanceof TypeReference) || this.isThrowableType((TypeReference)type);
+        }
+
+        if (expr instanceof AllocationExpression)
+            return this.isThrowableType(((AllocationExpression)expr).type);
+
+        if (expr instanceof MessageSend)
+            return MessageTemplates.isThrowableMethod(new String(((MessageSend)expr).selector));
+
+        String name = null;
+        if (expr instanceof SingleNameReference)
+            name = new String(((SingleNameReference)expr).token);
+        else if (expr instanceof FieldReference && ((FieldReference)expr).receiver instanceof ThisReference)
+            name = new String(((FieldReference)expr).token);
+
+        return name == null || !Boolean.FALSE.equals(this.variables.get(name));
+    }
+
+    /**
+     * Points every reference to the log variable at the lazy holder class that declares it, eg:
+     * <code>log.info("hi")</code> becomes <code>LogHolder.log.info("hi")</code>. Unlike the log calls,
+     * references in nested classes are qualified too, unless the nested class declares its own log variable.
+     */
+    void qualify(TypeDeclaration typeDecl, char[] holderName)
+    {
+        this.qualifyMembers(typeDecl, new Qualifier(typeDecl.name, holderName));
+    }
+
+    /* */
+    private void qualifyMembers(TypeDeclaration typeDecl, Qualifier qualifier)
+    {
+        if (typeDecl.methods != null)
+        {
+            for (AbstractMethodDeclaration methodDecl : typeDecl.methods)
+            {
+                if (!this.declaresLogVariable(methodDecl))
+                    methodDecl.traverse(qualifier, (ClassScope)null);
+            }
+        }
+
+        if (typeDecl.fields != null)
+        {
+            for (FieldDeclaration fieldDecl : typeDecl.fields)
+            {
+                if (fieldDecl instanceof Initializer)
+                {
+                    Block block = ((Initializer)fieldDecl).block;
+                    if (block != null && !this.declaresLogVariable(block))
+                        block.traverse(qualifier, (BlockScope)null);
+                }
+                else if (fieldDecl.initialization != null)
+                {
+                    fieldDecl.initialization = qualifier.qualify(fieldDecl.initialization);
+                    fieldDecl.initialization.traverse(qualifier, (BlockScope)null);
+                }
+            }
+        }
+
+        if (typeDecl.memberTypes != null)
+        {
+            for (TypeDeclaration memberType : typeDecl.memberTypes)
+                qualifier.qualifyType(memberType);
+        }
+    }
+
+    /**
+     * Returns true if the given class has a field with the same name as the log variable, or a <code>@Logger</code>
+     * annotation that declares one, which may be declared in a lazy holder of its own.
+     */
+    private boolean declaresLogField(TypeDeclaration typeDecl)
+    {
+        if (typeDecl.fields != null)
+        {
+            for (FieldDeclaration fieldDecl : typeDecl.fields)
+            {
+                if (!(fieldDecl instanceof Initializer) && Arrays.equals(fieldDecl.name, this.logVariableName))
+                    return true;
+            }
+        }
+
+        EclipseNode node = this.typeNode.getNodeFor(typeDecl);
+        if (node != null)
+        {
+            for (EclipseNode child : node.down())
+            {
+                if (child.getKind() != Kind.ANNOTATION || !Eclipse.annotationTypeMatches(Logger.class, child))
+                    continue;
+
+                Logger logger = Eclipse.createAnnotation(Logger.class, child).getInstance();
+                if (logger.scope() == Logger.Scope.CLASS && Arrays.equals(logger.var().toCharArray(), this.logVariableName))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    /* */
+    private Statement[] rewriteStatements(Statement[] statements)
+    {
+        if (statements == null)
+            return null;
+
+        for (int i = 0; i < statements.length; i++)
+            statements[i] = this.rewriteStatement(statements[i]);
+
+        return statements;
+    }
+
+    /** Returns the rewritten statement, rewriting any statements nested in it along the way. */
+    private Statement rewriteStatement(Statement statement)
+    {
+        if (statement instanceof MessageSend)
+        {
+            MessageSend call = (MessageSend)statement;
+            Logger.Level level = this.isLogCall(call) ? this.getLevel(call) : null;
+
+            if (level != null && level.compareTo(this.minLevel) < 0)
+            {
+                EmptyStatement empty = new EmptyStatement(call.sourceStart, call.sourceEnd);
+                Eclipse.setGeneratedBy(empty, this.source);
+                return empty;
+            }
+
+            if (level != null)
+            {
+                this.validate(call);
+
+                // the call is rewritten below, the summary of repeated throwables is logged with the method it was written with
+                SingleNameReference thrown = this.getDedupedThrowable(call, level);
+                String methodName = new String(call.selector);
+                String levelArgument = this.getLevelArgument(call);
+
+                boolean parameterized = this.parameterize(call);
+
+                // instrumented calls are all guarded, so a site whose level is never enabled is never counted, and
+                // limited calls are too, so a disabled call doesn't use up the limit
+                Expression guard = null;
+                if (this.isLimited() || this.logger.guard() && (this.isInstrumented() || level.compareTo(Logger.Level.DEBUG) <= 0 && !this.hasConstantArguments(call)))
+                    guard = this.makeGuard(call);
+
+                MessageSend logStatement = null;
+                if (this.type == Logger.Type.BINARY)
+                    logStatement = this.encode(call, level);
+                else if (this.type == Logger.Type.FACADE)
+                    logStatement = this.specialize(call, level);
+
+                if (logStatement == null)
+                {
+                    this.locate(call, level, parameterized);
+                    logStatement = call;
+                }
+
+                // the limit is checked inside the guard, after the level, and a throwable is only remembered by its site
+                // once the call passed both, so a disabled or limited call doesn't count as a repeat
+                Statement logged = this.isInstrumented() ? this.instrument(logStatement, call, level) : logStatement;
+                if (thrown != null)
+                    logged = this.dedupe(logged, thrown, methodName, levelArgument, call.sourceStart, call.sourceEnd);
+
+                if (guard == null)
+                    return logged;
+
+                IfStatement result = new IfStatement(guard, this.limit(logged, this.makeLimitCheck(call.sourceStart, call.sourceEnd)), call.sourceStart, call.sourceEnd);
+                Eclipse.setGeneratedBy(result, this.source);
+                return result;
+            }
+        }
+        else if (statement instanceof Block)
+        {
+            Block block = (Block)statement;
+            block.statements = this.rewriteStatements(block.statements);
+        }
+        else if (statement instanceof IfStatement)
+        {
+            IfStatement ifStatement = (IfStatement)statement;
+            ifStatement.thenStatement = this.rewriteNullable(ifStatement.thenStatement);
+            ifStatement.elseStatement = this.rewriteNullable(ifStatement.elseStatement);
+        }
+        else if (statement instanceof ForStatement)
+        {
+            ForStatement forStatement = (ForStatement)statement;
+            forStatement.action = this.rewriteNullable(forStatement.action);
+        }
+        else if (statement instanceof ForeachStatement)
+        {
+            ForeachStatement foreachStatement = (ForeachStatement)statement;
+            foreachStatement.action = this.rewriteNullable(foreachStatement.action);
+        }
+        else if (statement instanceof WhileStatement)
+        {
+            WhileStatement whileStatement = (WhileStatement)statement;
+            whileStatement.action = this.rewriteNullable(whileStatement.action);
+        }
+        else if (statement instanceof DoStatement)
+        {
+            DoStatement doStatement = (DoStatement)statement;
+            doStatement.action = this.rewriteNullable(doStatement.action);
+        }
+        else if (statement instanceof LabeledStatement)
+        {
+            LabeledStatement labeledStatement = (LabeledStatement)statement;
+            labeledStatement.statement = this.rewriteNullable(labeledStatement.statement);
+        }
+        else if (statement instanceof SwitchStatement)
+        {
+            SwitchStatement switchStatement = (SwitchStatement)statement;
+            switchStatement.statements = this.rewriteStatements(switchStatement.statements);
+        }
+        else if (statement instanceof SynchronizedStatement)
+        {
+            this.rewriteNullable(((SynchronizedStatement)statement).block);
+        }
+        else if (statement instanceof TryStatement)
+        {
+            TryStatement tryStatement = (TryStatement)statement;
+            this.rewriteNullable(tryStatement.tryBlock);
+            if (tryStatement.catchBlocks != null)
+            {
+                for (Block catchBlock : tryStatement.catchBlocks)
+                    this.rewriteNullable(catchBlock);
+            }
+            this.rewriteNullable(tryStatement.finallyBlock);
+        }
+
+        return statement;
+    }
+
+    /* */
+    private Statement rewriteNullable(Statement statement)
+    {
+        return statement == null ? null : this.rewriteStatement(statement);
+    }
+
+    /**
+     * Returns the throwable passed to a warn, error or fatal call as its last argument when
+     * <code>@Logger(dedupe=true)</code>, or null if the call isn't deduped. Only a variable is, the
+     * throwable is evaluated once to decide whether the call is logged and again when it's logged.
+     */
+    private SingleNameReference getDedupedThrowable(MessageSend call, Logger.Level level)
+    {
+        if (!this.logger.dedupe() || level.compareTo(Logger.Level.WARN) < 0)
+            return null;
+
+        // the site constants are declared after the static initializers, which would see them as null
+        if ("<clinit>".equals(this.methodName))
+            return null;
+
+        int messageIndex = LogCalls.isLevelArgumentMethod(this.type, new String(call.selector)) ? 1 : 0;
+        if (call.arguments == null || call.arguments.length < messageIndex + 2)
+            return null;
+
+        Expression last = call.arguments[call.arguments.length - 1];
+        return last instanceof SingleNameReference ? (SingleNameReference)last : null;
+    }
+
+    /**
+     * Only logs the statement if its throwable wasn't logged from the same call recently, eg:
+     * <code>log.error("failed", e)</code> becomes
+     * <code>{ final morbok.runtime.ThrowableSite.Admission $morbokAdmission = $morbokSites[0].admit(e);
+     * if ($morbokAdmission.isAdmitted()) { if ($morbokAdmission.hasRepeats()) log.error($morbokAdmission.getSummary());
+     * log.error("failed", e); } }</code>
+     */
+    private Statement dedupe(Statement statement, SingleNameReference thrown, String methodName, String levelArgument, int pS, int pE)
+    {
+        long pos = (long)pS << 32 | pE;
+        char[] admission = "$morbokAdmission".toCharArray();
+
+        SingleNameReference thrownReference = new SingleNameReference(thrown.token, pos);
+        Eclipse.setGeneratedBy(thrownReference, this.source);
+
+        LocalDeclaration admissionDecl = new LocalDeclaration(admission, pS, pE);
+        admissionDecl.modifiers = Modifier.FINAL;
+        admissionDecl.type = new QualifiedTypeReference(
+                Eclipse.fromQualifiedName("morbok.runtime.ThrowableSite.Admission"), new long[] { pos, pos, pos, pos });
+        Eclipse.setGeneratedBy(admissionDecl.type, this.source);
+        admissionDecl.initialization = this.makeCall(this.makeSite(pS, pE), "admit", pS, pE, thrownReference);
+        Eclipse.setGeneratedBy(admissionDecl, this.source);
+
+        List<Expression> summaryArgs = new ArrayList<Expression>();
+        if (LogCalls.isLevelArgumentMethod(this.type, methodName))
+            summaryArgs.add(this.makeName(LogCalls.getGuardArgument(this.type, methodName, levelArgument), pS, pE));
+        summaryArgs.add(this.makeCall(this.makeReference(admission, pS, pE), "getSummary", pS, pE));
+
+        MessageSend summary = this.makeCall(this.makeReference(this.logVariableName, pS, pE),
+                LogCalls.getMessageMethod(this.type, methodName), pS, pE, summaryArgs.toArray(new Expression[summaryArgs.size()]));
+
+        IfStatement repeated = new IfStatement(
+                this.makeCall(this.makeReference(admission, pS, pE), "hasRepeats", pS, pE), summary, pS, pE);
+        Eclipse.setGeneratedBy(repeated, this.source);
+
+        IfStatement admitted = new IfStatement(this.makeCall(this.makeReference(admission, pS, pE), "isAdmitted", pS, pE),
+                this.makeBlock(0, pS, pE, repeated, statement), pS, pE);
+        Eclipse.setGeneratedBy(admitted, this.source);
+
+        return this.makeBlock(1, pS, pE, admissionDecl, admitted);
+    }
+
+    /**
+     * Adds a constant that remembers the throwables logged from one call to the class and returns a reference to it, eg:
+     * <code>$morbokSites[0]</code>, where <code>new morbok.runtime.ThrowableSite()</code> is the first of the class's
+     * <code>$morbokSites</code>.
+     */
+    private Expression makeSite(int pS, int pE)
+    {
+        long pos = (long)pS << 32 | pE;
+
+        AllocationExpression value = new AllocationExpression();
+        value.type = new QualifiedTypeReference(Eclipse.fromQualifiedName("morbok.runtime.ThrowableSite"), new long[] { pos, pos, pos });
+        Eclipse.setGeneratedBy(value.type, this.source);
+        value.sourceStart = pS;
+        value.sourceEnd = value.statementEnd = pE;
+        Eclipse.setGeneratedBy(value, this.source);
+
+        return this.addConstant(SITES, value, pS, pE);
+    }
+
+    /* */
+    private boolean isLimited()
+    {
+        // the limit constants are declared after the static initializers, which would see them as null
+        return LogCalls.isLimited(this.maxPerSecond, this.sampleRate) && !"<clinit>".equals(this.methodName);
+    }
+
+    /* */
+    private boolean isInstrumented()
+    {
+        // the site constants are declared after the static initializers, which would see them as null
+        return this.logger.instrument() && !"<clinit>".equals(this.methodName);
+    }
+
+    /**
+     * Counts and times the calls made from the statement, eg: <code>log.warn("slow {}", id)</code> becomes
+     * <code>{ final long $morbokStart = $morbokStats[0].begin(); log.warn("slow {}", id); $morbokStats[0].end($morbokStart); }</code>
+     * where <code>new morbok.runtime.LogSite(new StackTraceElement("com.example.Foo", "bar", "Foo.java", 12), "WARN")</code>
+     * is the first of the class's <code>$morbokStats</code>.
+     */
+    private Statement instrument(Statement statement, MessageSend call, Logger.Level level)
+    {
+        int pS = call.sourceStart, pE = call.sourceEnd;
+        long pos = (long)pS << 32 | pE;
+
+        AllocationExpression value = new AllocationExpression();
+        value.type = new QualifiedTypeReference(Eclipse.fromQualifiedName("morbok.runtime.LogSite"), new long[] { pos, pos, pos });
+        Eclipse.setGeneratedBy(value.type, this.source);
+        value.arguments = new Expression[] { this.makeLocationValue(call), this.makeString(level.name(), pS, pE) };
+        value.sourceStart = pS;
+        value.sourceEnd = value.statementEnd = pE;
+        Eclipse.setGeneratedBy(value, this.source);
+
+        int index = this.statsCount++;
+        Expression site = this.addConstant(STATS, value, pS, pE);
+
+        char[] start = "$morbokStart".toCharArray();
+        LocalDeclaration startDecl = new LocalDeclaration(start, pS, pE);
+        startDecl.modifiers = Modifier.FINAL;
+        startDecl.type = TypeReference.baseTypeReference(TypeIds.T_long, 0);
+        startDecl.type.sourceStart = pS;
+        startDecl.type.sourceEnd = pE;
+        Eclipse.setGeneratedBy(startDecl.type, this.source);
+        startDecl.initialization = this.makeCall(site, "begin", pS, pE);
+        Eclipse.setGeneratedBy(startDecl, this.source);
+
+        MessageSend end = this.makeCall(this.makeConstantReference(STATS, index, pS, pE), "end", pS, pE, this.makeReference(start, pS, pE));
+
+        return this.makeBlock(1, pS, pE, startDecl, statement, end);
+    }
+
+    /**
+     * Adds a constant that limits how often one call is logged to the class and returns a check of it, eg:
+     * <code>$morbokLimits[0].allow()</code>, where <code>new morbok.runtime.CallSiteLimit(100, 1)</code> is the first
+     * of the class's <code>$morbokLimits</code>, or null if the calls of the method aren't limited.
+     */
+    private Expression makeLimitCheck(int pS, int pE)
+    {
+        if (!this.isLimited())
+            return null;
+
+        long pos = (long)pS << 32 | pE;
+
+        IntLiteral maxPerSecond = new IntLiteral(String.valueOf(this.maxPerSecond).toCharArray(), pS, pE);
+        Eclipse.setGeneratedBy(maxPerSecond, this.source);
+        IntLiteral sampleRate = new IntLiteral(String.valueOf(this.sampleRate).toCharArray(), pS, pE);
+        Eclipse.setGeneratedBy(sampleRate, this.source);
+
+        AllocationExpression value = new AllocationExpression();
+        value.type = new QualifiedTypeReference(Eclipse.fromQualifiedName("morbok.runtime.CallSiteLimit"), new long[] { pos, pos, pos });
+        Eclipse.setGeneratedBy(value.type, this.source);
+        value.arguments = new Expression[] { maxPerSecond, sampleRate };
+        value.sourceStart = pS;
+        value.sourceEnd = value.statementEnd = pE;
+        Eclipse.setGeneratedBy(value, this.source);
+
+        return this.makeCall(this.addConstant(LIMITS, value, pS, pE), "allow", pS, pE);
+    }
+
+    /* */
+    private Statement limit(Statement statement, Expression limit)
+    {
+        if (limit == null)
+            return statement;
+
+        IfStatement limited = new IfStatement(limit, statement, statement.sourceStart, statement.sourceEnd);
+        Eclipse.setGeneratedBy(limited, this.source);
+        return limited;
+    }
+
+    /* */
+    private SingleNameReference makeReference(char[] name, int pS, int pE)
+    {
+        SingleNameReference reference = new SingleNameReference(name, (long)pS << 32 | pE);
+        Eclipse.setGeneratedBy(reference, this.source);
+        return reference;
+    }
+
+    /**
+     * Returns a block of the given statements, which declare the given number of local variables.
+     */
+    private Block makeBlock(int declarations, int pS, int pE, Statement... statements)
+    {
+        Block block = new Block(declarations);
+        block.statements = statements;
+        block.sourceStart = pS;
+        block.sourceEnd = pE;
+        Eclipse.setGeneratedBy(block, this.source);
+        return block;
+    }
+
+    /** Reports a constant message template whose placeholders don't match the arguments of the call. */
+    private void validate(MessageSend call)
+    {
+        int messageIndex = LogCalls.isLevelArgumentMethod(this.type, new String(call.selector)) ? 1 : 0;
+        if (call.arguments == null || call.arguments.length <= messageIndex)
+            return;
+
+        List<String> segments = new ArrayList<String>();
+        List<Expression> args = new ArrayList<Expression>();
+        if (!this.split(call.arguments[messageIndex], segments, args) || !args.isEmpty())
+            return;
+
+        String error = MessageTemplates.validate(this.type, segments.get(0), call.arguments.length - messageIndex - 1);
+        if (error != null)
+        {
+            this.errorCount++;
+            this.typeNode.addError(error, call.sourceStart, call.sourceEnd);
+        }
+    }
+
+    /**
+     * Turns <code>log.info("took " + ms + "ms")</code> into <code>log.info("took {}ms", ms)</code>, or
+     * <code>log.log(Level.INFO, "took " + ms + "ms")</code> into <code>log.log(Level.INFO, "took {0}ms", ms)</code>.
+     * ASYNC loggers are passed a precompiled template constant instead, eg: <code>log.info($morbokTemplates[0], ms)</code>.
+     *
+     * @return true if the call was rewritten
+     */
+    private boolean parameterize(MessageSend call)
+    {
+        int messageIndex = LogCalls.isLevelArgumentMethod(this.type, new String(call.selector)) ? 1 : 0;
+
+        if (!this.logger.parameterize() || !MessageTemplates.supports(this.type)
+                || call.arguments == null || call.arguments.length != messageIndex + 1)
+            return false;
+
+        // the template constants are declared after the static initializers, which would see them as null
+        if ("<clinit>".equals(this.methodName) && this.type == Logger.Type.ASYNC)
+            return false;
+
+        List<String> segments = new ArrayList<String>();
+        List<Expression> args = new ArrayList<Expression>();
+        if (!this.split(call.arguments[messageIndex], segments, args) || args.isEmpty())
+            return false;
+
+        // slf4j would take a throwable at the end to be the exception, and log a {} in its place
+        if (MessageTemplates.takesLastThrowable(this.type) && this.isThrowable(args.get(args.size() - 1)))
+            return false;
+
+        String template = MessageTemplates.build(this.type, segments);
+        if (template == null)
+            return false;
+
+        int pS = call.sourceStart, pE = call.sourceEnd;
+        long pos = (long)pS << 32 | pE;
+
+        if (args.size() == 1)
+        {
+            // keeps a lone Throwable from picking the (String, Throwable) overload
+            QualifiedTypeReference objectType = new QualifiedTypeReference(
+                    Eclipse.fromQualifiedName("java.lang.Object"), new long[] { pos, pos, pos });
+            Eclipse.setGeneratedBy(objectType, this.source);
+
+            CastExpression cast = new CastExpression(args.get(0), objectType);
+            cast.bits |= ASTNode.DisableUnnecessaryCastCheck;
+            cast.sourceStart = pS;
+            cast.sourceEnd = pE;
+            Eclipse.setGeneratedBy(cast, this.source);
+            args.set(0, cast);
+        }
+
+        args.add(0, this.type == Logger.Type.ASYNC ? this.makeTemplate(template, pS, pE) : this.makeString(template, pS, pE));
+        if (messageIndex == 1)
+            args.add(0, call.arguments[0]);
+
+        call.arguments = args.toArray(new Expression[args.size()]);
+        return true;
+    }
+
+    /**
+     * Adds a constant with the given template to the class, unless there already is one, and returns a reference to it, eg:
+     * <code>$morbokTemplates[0]</code>, where <code>new morbok.runtime.Template("took {}ms")</code> is the first of the
+     * class's <code>$morbokTemplates</code>.
+     */
+    private Expression makeTemplate(String template, int pS, int pE)
+    {
+        long pos = (long)pS << 32 | pE;
+        boolean declared = this.templates.containsKey(template);
+        int id = this.addTemplate(template);
+
+        if (!declared)
+        {
+            AllocationExpression value = new AllocationExpression();
+            value.type = new QualifiedTypeReference(Eclipse.fromQualifiedName("morbok.runtime.Template"), new long[] { pos, pos, pos });
+            Eclipse.setGeneratedBy(value.type, this.source);
+            value.arguments = new Expression[] { this.makeString(template, pS, pE) };
+            value.sourceStart = pS;
+            value.sourceEnd = value.statementEnd = pE;
+            Eclipse.setGeneratedBy(value, this.source);
+
+            return this.addConstant(TEMPLATES, value, pS, pE);
+        }
+
+        return this.makeConstantReference(TEMPLATES, id, pS, pE);
+    }
+
+    /** Returns the id of the given template, adding it to the templates of the class if it's new. */
+    private int addTemplate(String template)
+    {
+        Integer id = this.templates.get(template);
+        if (id == null)
+        {
+            id = this.templates.size();
+            this.templates.put(template, id);
+        }
+
+        return id;
+    }
+
+    /**
+     * Splits a string concatenation into the literal text between its arguments and the arguments, eg:
+     * <code>"took " + ms + "ms"</code> into "took ", "ms" and ms. A lone string literal is split into itself.
+     *
+     * @return false if the expression isn't a concatenation that starts with a string literal
+     */
+    private boolean split(Expression message, List<String> segments, List<Expression> args)
+    {
+        // the operands of a left associative chain of +, which is only a string concatenation if it starts with a string
+        LinkedList<Expression> operands = new LinkedList<Expression>();
+        Expression expr = message;
+        while (expr instanceof BinaryExpression
+                && ((expr.bits & ASTNode.OperatorMASK) >> ASTNode.OperatorSHIFT) == OperatorIds.PLUS)
+        {
+            operands.addFirst(((BinaryExpression)expr).right);
+            expr = ((BinaryExpression)expr).left;
+        }
+        operands.addFirst(expr);
+
+        if (!(operands.getFirst() instanceof StringLiteral))
+            return false;
+
+        StringBuilder segment = new StringBuilder();
+        for (Expression operand : operands)
+        {
+            if (operand instanceof StringLiteral)
+            {
+                segment.append(((StringLiteral)operand).source());
+            }
+            else
+            {
+                segments.add(segment.toString());
+                segment.setLength(0);
+                args.add(operand);
+            }
+        }
+        segments.add(segment.toString());
+
+        return true;
+    }
+
+    /**
+     * Turns <code>log.info("took " + ms + "ms")</code> into
+     * <code>log.event(Logger.Level.INFO, 0).arg(ms).end()</code> for binary loggers, where 0 is the id of the
+     * "took {}ms" template. Messages that aren't built from a string literal are left to the logging method,
+     * which writes them as a string.
+     *
+     * @return the statement that replaces the call, or null if it isn't rewritten
+     */
+    private MessageSend encode(MessageSend call, Logger.Level level)
+    {
+        if (call.arguments == null || call.arguments.length > 2)
+            return null;
+
+        List<String> segments = new ArrayList<String>();
+        List<Expression> args = new ArrayList<Expression>();
+        if (!this.split(call.arguments[0], segments, args))
+            return null;
+
+        String template = MessageTemplates.build(this.type, segments);
+        if (template == null)
+            return null;
+
+        int templateId = this.addTemplate(template);
+        int pS = call.sourceStart, pE = call.sourceEnd;
+
+        IntLiteral id = new IntLiteral(String.valueOf(templateId).toCharArray(), pS, pE);
+        Eclipse.setGeneratedBy(id, this.source);
+
+        MessageSend event = this.makeCall(call.receiver, "event", pS, pE,
+                this.makeName("morbok.Logger.Level." + level.name(), pS, pE), id);
+
+        for (Expression arg : args)
+            event = this.makeCall(event, "arg", pS, pE, arg);
+
+        if (call.arguments.length == 2)
+            event = this.makeCall(event, "thrown", pS, pE, call.arguments[1]);
+
+        return this.makeCall(event, "end", pS, pE);
+    }
+
+    /**
+     * Turns <code>log.info("took " + ms + "ms")</code> into
+     * <code>log.at(Logger.Level.INFO, $morbokTemplates[0]).arg(ms).log()</code> for facade loggers, so primitive
+     * arguments aren't boxed and nothing is formatted unless the level is enabled.
+     *
+     * @return the statement that replaces the call, or null if it isn't rewritten
+     */
+    private MessageSend specialize(MessageSend call, Logger.Level level)
+    {
+        if (!this.logger.parameterize() || call.arguments == null || call.arguments.length != 1)
+            return null;
+
+        // the template constants are declared after the static initializers, which would see them as null
+        if ("<clinit>".equals(this.methodName))
+            return null;
+
+        List<String> segments = new ArrayList<String>();
+        List<Expression> args = new ArrayList<Expression>();
+        if (!this.split(call.arguments[0], segments, args) || args.isEmpty())
+            return null;
+
+        String template = MessageTemplates.build(this.type, segments);
+        if (template == null)
+            return null;
+
+        int pS = call.sourceStart, pE = call.sourceEnd;
+
+        List<Expression> atArgs = new ArrayList<Expression>();
+        atArgs.add(this.makeName("morbok.Logger.Level." + level.name(), pS, pE));
+        if (this.logger.location())
+            atArgs.add(this.makeLocation(call));
+        atArgs.add(this.makeTemplate(template, pS, pE));
+
+        MessageSend message = this.makeCall(call.receiver, "at", pS, pE, atArgs.toArray(new Expression[atArgs.size()]));
+        for (Expression arg : args)
+            message = this.makeCall(message, "arg", pS, pE, arg);
+
+        return this.makeCall(message, "log", pS, pE);
+    }
+
+    /* */
+    private MessageSend makeCall(Expression receiver, String selector, int pS, int pE, Expression... arguments)
+    {
+        MessageSend call = new MessageSend();
+        call.receiver = receiver;
+        call.selector = selector.toCharArray();
+        call.arguments = arguments.length == 0 ? null : arguments;
+        call.nameSourcePosition = (long)pS << 32 | pE;
+        call.sourceStart = pS;
+        call.sourceEnd = call.statementEnd = pE;
+        Eclipse.setGeneratedBy(call, this.source);
+        return call;
+    }
+
+    /**
+     * Returns the message templates of the log calls that were rewritten, in template id order.
+     */
+    List<String> getTemplates()
+    {
+        return new ArrayList<String>(this.templates.keySet());
+    }
+
+    /**
+     * Returns the number of errors reported on the log calls.
+     */
+    int getErrorCount()
+    {
+        return this.errorCount;
+    }
+
+    /**
+     * Passes the location of the call to the logging library as a constant, eg: <code>log.info("hi")</code> becomes
+     * <code>log.logp(Level.INFO, "com.example.Foo", "bar", "hi")</code> for java.util.logging,
+     * <code>log.atInfo().withLocation($morbokLocations[0]).log("hi")</code> for log4j and
+     * <code>log.log(Logger.Level.INFO, $morbokLocations[0], "hi", null)</code> for async and facade loggers.
+     *
+     * @param parameterized true if the call was given a template constant by {@link #parameterize(MessageSend)}
+     */
+    private void locate(MessageSend call, Logger.Level level, boolean parameterized)
+    {
+        if (!this.logger.location() || !LogCalls.supportsLocation(this.type))
+            return;
+
+        // the location constants are declared after the static initializers, which would see them as null
+        if ("<clinit>".equals(this.methodName) && this.type != Logger.Type.JAVA)
+            return;
+
+        int pS = call.sourceStart, pE = call.sourceEnd;
+        long pos = (long)pS << 32 | pE;
+        String methodName = new String(call.selector);
+        Expression[] arguments = call.arguments == null ? new Expression[0] : call.arguments;
+
+        switch (this.type)
+        {
+            case JAVA:
+            {
+                if ("logp".equals(methodName))
+                    return;
+
+                boolean levelArgument = LogCalls.isLevelArgumentMethod(this.type, methodName);
+                List<Expression> args = new ArrayList<Expression>(Arrays.asList(arguments));
+                if (!levelArgument)
+                    args.add(0, this.makeName(LogCalls.getGuardArgument(this.type, methodName, null), pS, pE));
+                args.add(1, this.makeString(this.getClassName(), pS, pE));
+                args.add(2, this.makeString(this.methodName, pS, pE));
+
+                call.selector = "logp".toCharArray();
+                call.arguments = args.toArray(new Expression[args.size()]);
+                break;
+            }
+            case LOG4J2:
+            {
+                // a LogBuilder only logs messages, so leave calls that may start with a marker alone
+                if (arguments.length != 1 && (arguments.length == 0 || !(arguments[0] instanceof StringLiteral)))
+                    return;
+
+                MessageSend at = new MessageSend();
+                at.receiver = call.receiver;
+                at.selector = ("at" + Character.toUpperCase(methodName.charAt(0)) + methodName.substring(1)).toCharArray();
+                at.nameSourcePosition = pos;
+                at.sourceStart = pS;
+                at.sourceEnd = at.statementEnd = pE;
+                Eclipse.setGeneratedBy(at, this.source);
+
+                MessageSend withLocation = new MessageSend();
+                withLocation.receiver = at;
+                withLocation.selector = "withLocation".toCharArray();
+                withLocation.arguments = new Expression[] { this.makeLocation(call) };
+                withLocation.nameSourcePosition = pos;
+                withLocation.sourceStart = pS;
+                withLocation.sourceEnd = withLocation.statementEnd = pE;
+                Eclipse.setGeneratedBy(withLocation, this.source);
+
+                call.receiver = withLocation;
+                call.selector = "log".toCharArray();
+                break;
+            }
+            case ASYNC:
+            case FACADE:
+            {
+                if (parameterized)
+                {
+                    List<Expression> args = new ArrayList<Expression>(Arrays.asList(arguments));
+                    args.add(0, this.makeName("morbok.Logger.Level." + level.name(), pS, pE));
+                    args.add(1, this.makeLocation(call));
+
+                    call.selector = "log".toCharArray();
+                    call.arguments = args.toArray(new Expression[args.size()]);
+                    break;
+                }
+
+                if (arguments.length == 0 || arguments.length > 2)
+                    return;
+
+                Expression t = arguments.length == 2 ? arguments[1] : null;
+                if (t == null)
+                {
+                    t = new NullLiteral(pS, pE);
+                    Eclipse.setGeneratedBy(t, this.source);
+                }
+
+                call.selector = "log".toCharArray();
+                call.arguments = new Expression[] {
+                    this.makeName("morbok.Logger.Level." + level.name(), pS, pE), this.makeLocation(call), arguments[0], t
+                };
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Adds a constant with the location of the call to the class and returns a reference to it, eg:
+     * <code>$morbokLocations[0]</code>, where <code>new StackTraceElement("com.example.Foo", "bar", "Foo.java", 12)</code>
+     * is the first of the class's <code>$morbokLocations</code>.
+     */
+    private Expression makeLocation(MessageSend call)
+    {
+        return this.addConstant(LOCATIONS, this.makeLocationValue(call), call.sourceStart, call.sourceEnd);
+    }
+
+    /** Builds the location of the call, eg: <code>new StackTraceElement("com.example.Foo", "bar", "Foo.java", 12)</code> */
+    private Expression makeLocationValue(MessageSend call)
+    {
+        int pS = call.sourceStart, pE = call.sourceEnd;
+        long pos = (long)pS << 32 | pE;
+
+        CompilationResult result = ((TypeDeclaration)this.typeNode.get()).compilationResult;
+        String fileName = new String(result.getFileName()).replace('\\', '/');
+        fileName = fileName.substring(fileName.lastIndexOf('/') + 1);
+
+        AllocationExpression location = new AllocationExpression();
+        location.type = new QualifiedTypeReference(Eclipse.fromQualifiedName("java.lang.StackTraceElement"), new long[] { pos, pos, pos });
+        Eclipse.setGeneratedBy(location.type, this.source);
+
+        IntLiteral line = new IntLiteral(String.valueOf(this.getLineNumber(pS)).toCharArray(), pS, pE);
+        Eclipse.setGeneratedBy(line, this.source);
+
+        location.arguments = new Expression[] {
+            this.makeString(this.getClassName(), pS, pE), this.makeString(this.methodName, pS, pE), this.makeString(fileName, pS, pE), line
+        };
+        location.sourceStart = pS;
+        location.sourceEnd = location.statementEnd = pE;
+        Eclipse.setGeneratedBy(location, this.source);
+        return location;
+    }
+
+    /** Returns the binary name of the annotated class, eg: com.example.Foo$Bar */
+    private String getClassName()
+    {
+        String name = new String(((TypeDeclaration)this.typeNode.get()).name);
+        for (EclipseNode node = this.typeNode.up(); node != null && node.getKind() == Kind.TYPE; node = node.up())
+            name = new String(((TypeDeclaration)node.get()).name) + "$" + name;
+
+        String packageName = this.typeNode.getPackageDeclaration();
+        return packageName == null ? name : packageName + "." + name;
+    }
+
+    /** Returns the line the given source position is on, counting from 1. */
+    private int getLineNumber(int position)
+    {
+        if (this.lineEnds == null)
+        {
+            char[] contents = ((TypeDeclaration)this.typeNode.get()).compilationResult.compilationUnit.getContents();
+            List<Integer> lineEnds = new ArrayList<Integer>();
+            for (int i = 0; i < contents.length; i++)
+            {
+                if (contents[i] == '\n')
+                    lineEnds.add(i);
+            }
+
+            this.lineEnds = new int[lineEnds.size()];
+            for (int i = 0; i < this.lineEnds.length; i++)
+                this.lineEnds[i] = lineEnds.get(i);
+        }
+
+        int index = Arrays.binarySearch(this.lineEnds, position);
+        return (index < 0 ? -index - 1 : index) + 1;
+    }
+
+    /* */
+    private StringLiteral makeString(String value, int pS, int pE)
+    {
+        StringLiteral literal = new StringLiteral(value.toCharArray(), pS, pE, 0);
+        Eclipse.setGeneratedBy(literal, this.source);
+        return literal;
+    }
+
+    /* */
+    private Expression makeName(String qualifiedName, int pS, int pE)
+    {
+        long pos = (long)pS << 32 | pE;
+        char[][] tokens = Eclipse.fromQualifiedName(qualifiedName);
+        long[] positions = new long[tokens.length];
+        Arrays.fill(positions, pos);
+
+        QualifiedNameReference name = new QualifiedNameReference(tokens, positions, pS, pE);
+        Eclipse.setGeneratedBy(name, this.source);
+        return name;
+    }
+
+    /** Builds the level check for the given call, eg: <code>log.isDebugEnabled()</code> */
+    private Expression makeGuard(MessageSend call)
+    {
+        int pS = call.sourceStart, pE = call.sourceEnd;
+        long pos = (long)pS << 32 | pE;
+
+        String methodName = new String(call.selector);
+        String guardArgument = LogCalls.getGuardArgument(this.type, methodName, this.getLevelArgument(call));
+
+        MessageSend guard = new MessageSend();
+        guard.receiver = new SingleNameReference(this.logVariableName, pos);
+        Eclipse.setGeneratedBy(guard.receiver, this.source);
+        guard.selector = LogCalls.getGuardMethod(this.type, methodName).toCharArray();
+
+        if (guardArgument != null)
+        {
+            char[][] tokens = Eclipse.fromQualifiedName(guardArgument);
+            long[] positions = new long[tokens.length];
+            Arrays.fill(positions, pos);
+
+            Expression arg = new QualifiedNameReference(tokens, positions, pS, pE);
+            Eclipse.setGeneratedBy(arg, this.source);
+            guard.arguments = new Expression[] { arg };
+        }
+
+        guard.nameSourcePosition = pos;
+        guard.sourceStart = pS;
+        guard.sourceEnd = guard.statementEnd = pE;
+        Eclipse.setGeneratedBy(guard, this.source);
+
+        return guard;
+    }
+
+    /** Returns true if every message argument of the call is a literal or a concatenation of literals. */
+    private boolean hasConstantArguments(MessageSend call)
+    {
+        if (call.arguments == null)
+            return true;
+
+        int start = LogCalls.isLevelArgumentMethod(this.type, new String(call.selector)) ? 1 : 0;
+        for (int i = start; i < call.arguments.length; i++)
+        {
+            if (!this.isConstant(call.arguments[i]))
+                return false;
+        }
+
+        return true;
+    }
+
+    /* */
+    private boolean isConstant(Expression expr)
+    {
+        if (expr instanceof Literal)
+            return true;
+
+        if (expr instanceof BinaryExpression
+                && ((expr.bits & ASTNode.OperatorMASK) >> ASTNode.OperatorSHIFT) == OperatorIds.PLUS)
+            return this.isConstant(((BinaryExpression)expr).left) && this.isConstant(((BinaryExpression)expr).right);
+
+        return false;
+    }
+
+    /** Returns true if the given call is made directly on the log variable. */
+    private boolean isLogCall(MessageSend call)
+    {
+        return call.receiver instanceof SingleNameReference
+                && Arrays.equals(((SingleNameReference)call.receiver).token, this.logVariableName);
+    }
+
+    /* */
+    private Logger.Level getLevel(MessageSend call)
+    {
+        return LogCalls.getLevel(this.type, new String(call.selector), this.getLevelArgument(call));
+    }
+
+    /** Returns the simple name of the first argument if it is a name, otherwise null. */
+    private String getLevelArgument(MessageSend call)
+    {
+        if (call.arguments == null || call.arguments.length == 0)
+            return null;
+
+        Expression first = call.arguments[0];
+        if (first instanceof QualifiedNameReference)
+        {
+            char[][] tokens = ((QualifiedNameReference)first).tokens;
+            return new String(tokens[tokens.length - 1]);
+        }
+        if (first instanceof SingleNameReference)
+            return new String(((SingleNameReference)first).token);
+
+        return null;
+    }
+
+    /** Returns true if the given method declares a parameter or local variable that shadows the log variable. */
+    private boolean declaresLogVariable(AbstractMethodDeclaration methodDecl)
+    {
+        if (methodDecl.arguments != null)
+        {
+            for (Argument argument : methodDecl.arguments)
+            {
+                if (Arrays.equals(argument.name, this.logVariableName))
+                    return true;
+            }
+        }
+
+        return this.declaresLogVariable(methodDecl.statements);
+    }
+
+    /* */
+    private boolean declaresLogVariable(Statement[] statements)
+    {
+        if (statements != null)
+        {
+            for (Statement statement : statements)
+            {
+                if (this.declaresLogVariable(statement))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    /* */
+    private boolean declaresLogVariable(Statement statement)
+    {
+        if (statement == null)
+            return false;
+
+        if (statement instanceof LocalDeclaration)
+            return Arrays.equals(((LocalDeclaration)statement).name, this.logVariableName);
+
+        if (statement instanceof Block)
+            return this.declaresLogVariable(((Block)statement).statements);
+
+        if (statement instanceof IfStatement)
+            return this.declaresLogVariable(((IfStatement)statement).thenStatement)
+                    || this.declaresLogVariable(((IfStatement)statement).elseStatement);
+
+        if (statement instanceof ForStatement)
+            return this.declaresLogVariable(((ForStatement)statement).initializations)
+                    || this.declaresLogVariable(((ForStatement)statement).action);
+
+        if (statement instanceof ForeachStatement)
+            return this.declaresLogVariable(((ForeachStatement)statement).elementVariable)
+                    || this.declaresLogVariable(((ForeachStatement)statement).action);
+
+        if (statement instanceof WhileStatement)
+            return this.declaresLogVariable(((WhileStatement)statement).action);
+
+        if (statement instanceof DoStatement)
+            return this.declaresLogVariable(((DoStatement)statement).action);
+
+        if (statement instanceof LabeledStatement)
+            return this.declaresLogVariable(((LabeledStatement)statement).statement);
+
+        if (statement instanceof SwitchStatement)
+            return this.declaresLogVariable(((SwitchStatement)statement).statements);
+
+        if (statement instanceof SynchronizedStatement)
+            return this.declaresLogVariable(((SynchronizedStatement)statement).block);
+
+        if (statement instanceof TryStatement)
+        {
+            TryStatement tryStatement = (TryStatement)statement;
+            if (this.declaresLogVariable(tryStatement.tryBlock) || this.declaresLogVariable(tryStatement.finallyBlock))
+                return true;
+
+            if (tryStatement.catchArguments != null)
+            {
+                for (Argument argument : tryStatement.catchArguments)
+                {
+                    if (Arrays.equals(argument.name, this.logVariableName))
+                        return true;
+                }
+            }
+
+            return this.declaresLogVariable(tryStatement.catchBlocks);
+        }
+
+        return false;
+    }
+
+    /**
+     * Replaces references to the log variable with references to the holder's field. Eclipse's visitor can't
+     * replace the node it's visiting, so the references are replaced from the nodes that hold them.
+     */
+    private final class Qualifier extends ASTVisitor
+    {
+        private final char[] typeName;
+        private final char[] holderName;
+
+        /** */
+        Qualifier(char[] typeName, char[] holderName)
+        {
+            this.typeName = typeName;
+            this.holderName = holderName;
+        }
+
+        /**
+         * Returns a reference to the holder's field if the given expression names the log variable.
+         */
+        Expression qualify(Expression expr)
+        {
+            if (!(expr instanceof SingleNameReference)
+                    || !Arrays.equals(((SingleNameReference)expr).token, LogCallRewriter.this.logVariableName))
+                return expr;
+
+            long pos = (long)expr.sourceStart << 32 | expr.sourceEnd;
+            QualifiedNameReference reference = new QualifiedNameReference(
+                    new char[][] { this.holderName, LogCallRewriter.this.logVariableName },
+                    new long[] { pos, pos }, expr.sourceStart, expr.sourceEnd);
+            reference.statementEnd = expr.statementEnd;
+            Eclipse.setGeneratedBy(reference, LogCallRewriter.this.source);
+
+            return reference;
+        }
+
+        /* */
+        private void qualify(Expression[] exprs)
+        {
+            if (exprs != null)
+            {
+                for (int i = 0; i < exprs.length; i++)
+                    exprs[i] = this.qualify(exprs[i]);
+            }
+        }
+
+        /**
+         * Qualifies the references in a nested class, unless it's the holder or declares its own log variable.
+         */
+        void qualifyType(TypeDeclaration typeDecl)
+        {
+            if (!Arrays.equals(typeDecl.name, this.holderName) && !LogCallRewriter.this.declaresLogField(typeDecl))
+                LogCallRewriter.this.qualifyMembers(typeDecl, this);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean visit(TypeDeclaration localTypeDeclaration, BlockScope scope)
+        {
+            this.qualifyType(localTypeDeclaration);
+            return false;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean visit(MessageSend messageSend, BlockScope scope)
+        {
+            messageSend.receiver = this.qualify(messageSend.receiver);
+            this.qualify(messageSend.arguments);
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean visit(AllocationExpression allocationExpression, BlockScope scope)
+        {
+            this.qualify(allocationExpression.arguments);
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean visit(QualifiedAllocationExpression qualifiedAllocationExpression, BlockScope scope)
+        {
+            this.qualify(qualifiedAllocationExpression.arguments);
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean visit(ExplicitConstructorCall explicitConstructor, BlockScope scope)
+        {
+            this.qualify(explicitConstructor.arguments);
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean visit(LocalDeclaration localDeclaration, BlockScope scope)
+        {
+            if (localDeclaration.initialization != null)
+                localDeclaration.initialization = this.qualify(localDeclaration.initialization);
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean visit(Assignment assignment, BlockScope scope)
+        {
+            assignment.expression = this.qualify(assignment.expression);
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean visit(ReturnStatement returnStatement, BlockScope scope)
+        {
+            if (returnStatement.expression != null)
+                returnStatement.expression = this.qualify(returnStatement.expression);
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean visit(EqualExpression equalExpression, BlockScope scope)
+        {
+            equalExpression.left = this.qualify(equalExpression.left);
+            equalExpression.right = this.qualify(equalExpression.right);
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean visit(ConditionalExpression conditionalExpression, BlockScope scope)
+        {
+            conditionalExpression.valueIfTrue = this.qualify(conditionalExpression.valueIfTrue);
+            conditionalExpression.valueIfFalse = this.qualify(conditionalExpression.valueIfFalse);
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean visit(CastExpression castExpression, BlockScope scope)
+        {
+            castExpression.expression = this.qualify(castExpression.expression);
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean visit(FieldReference fieldReference, BlockScope scope)
+        {
+            fieldReference.receiver = this.qualify(fieldReference.receiver);
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean visit(ArrayInitializer arrayInitializer, BlockScope scope)
+        {
+            this.qualify(arrayInitializer.expressions);
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean visit(SynchronizedStatement synchronizedStatement, BlockScope scope)
+        {
+            synchronizedStatement.expression = this.qualify(synchronizedStatement.expression);
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean visit(QualifiedNameReference qualifiedNameReference, BlockScope scope)
+        {
+            // LogTest.log
+            char[][] tokens = qualifiedNameReference.tokens;
+            if (tokens.length >= 2 && Arrays.equals(tokens[0], this.typeName)
+                    && Arrays.equals(tokens[1], LogCallRewriter.this.logVariableName))
+                tokens[0] = this.holderName;
+            return true;
+        }
+    }
+}
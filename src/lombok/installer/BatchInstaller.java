@@ -0,0 +1,325 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package lombok.installer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import lombok.installer.EclipseLocation.InstallException;
+import lombok.installer.EclipseLocation.NotAnEclipseException;
+import lombok.installer.EclipseLocation.UninstallException;
+
+/**
+ * Installs morbok into, or uninstalls it from, many Eclipse installations from one JVM, on a few threads at once,
+ * for building images that hold dozens of them:
+ * <pre>
+ * java -jar morbok.jar batch install|uninstall [--threads n] [--report file] location...
+ * </pre>
+ * A location is a path to an Eclipse installation, a path with * and ? in it, which matches every installation
+ * it names, @file for the locations listed in that file, one a line, or all for the installations the installer
+ * finds by itself.
+ * <p>
+ * Every location gets a line of json in the report, in the order they were given:
+ * <pre>
+ * {"location":"/opt/eclipse","name":"/opt/eclipse","action":"install","exitCode":0,"millis":42,"message":"Installed"}
+ * </pre>
+ * The exit codes are those of <code>install eclipse path</code>: 0 when it worked, 1 when it didn't, and 2 when the
+ * location isn't an Eclipse installation. The batch exits with the highest of them.
+ */
+final class BatchInstaller {
+	static final int OK = 0;
+	static final int FAILED = 1;
+	static final int NOT_AN_ECLIPSE = 2;
+
+	private static final String USAGE =
+			"Run java -jar morbok.jar batch install|uninstall [--threads n] [--report file] location...\n" +
+			"where a location is a path, a path with * or ? in it, @file with a location on every line, or all";
+
+	/** The outcome of one location. */
+	static final class Result {
+		final String location;
+		final String name;
+		final String action;
+		final int exitCode;
+		final long millis;
+		final String message;
+
+		Result(String location, String name, String action, int exitCode, long millis, String message) {
+			this.location = location;
+			this.name = name;
+			this.action = action;
+			this.exitCode = exitCode;
+			this.millis = millis;
+			this.message = message;
+		}
+
+		String toJson() {
+			return String.format(Locale.US, "{\"location\":%s,\"name\":%s,\"action\":%s,\"exitCode\":%d,\"millis\":%d,\"message\":%s}",
+					quote(location), quote(name), quote(action), exitCode, millis, quote(message));
+		}
+	}
+
+	private final boolean install;
+	private final int threads;
+
+	BatchInstaller(boolean install, int threads) {
+		this.install = install;
+		this.threads = threads;
+	}
+
+	/** Runs the batch the arguments, starting with 'batch', describe, and returns the exit code. */
+	static int run(String[] args) {
+		if (args.length < 3 || !(args[1].equals("install") || args[1].equals("uninstall"))) {
+			System.err.println(USAGE);
+			return FAILED;
+		}
+
+		int threads = 4;
+		String report = null;
+		List<String> specs = new ArrayList<String>();
+		for (int i = 2; i < args.length; i++) {
+			if (args[i].equals("--threads") && i + 1 < args.length) {
+				try {
+					threads = Math.max(Integer.parseInt(args[++i]), 1);
+				} catch (NumberFormatException e) {
+					System.err.println(USAGE);
+					return FAILED;
+				}
+			} else if (args[i].equals("--report") && i + 1 < args.length) {
+				report = args[++i];
+			} else {
+				specs.add(args[i]);
+			}
+		}
+
+		PrintWriter out = null;
+		try {
+			List<String> locations = expand(specs);
+			if (locations.isEmpty()) {
+				System.err.println("No Eclipse locations to " + args[1]);
+				return FAILED;
+			}
+
+			out = new PrintWriter(report == null ?
+					new OutputStreamWriter(System.out, "UTF-8") :
+					new OutputStreamWriter(new FileOutputStream(report), "UTF-8"));
+
+			int exitCode = OK;
+			for (Result result : new BatchInstaller(args[1].equals("install"), threads).process(locations)) {
+				out.println(result.toJson());
+				exitCode = Math.max(exitCode, result.exitCode);
+			}
+			return exitCode;
+		} catch (IOException e) {
+			System.err.println("Batch failed:");
+			System.err.println(e.getMessage());
+			return FAILED;
+		} finally {
+			if (out != null) {
+				if (report == null) out.flush();
+				else out.close();
+			}
+		}
+	}
+
+	/** Installs or uninstalls every location, and returns the results in the same order. */
+	List<Result> process(List<String> locations) {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, locations.size()));
+		try {
+			//Two paths to the same installation would write its eclipse.ini at the same time, so the second is left out.
+			final List<EclipseLocation> seen = new ArrayList<EclipseLocation>();
+			List<Future<Result>> futures = new ArrayList<Future<Result>>();
+			for (final String location : locations) {
+				futures.add(executor.submit(new Callable<Result>() {
+					public Result call() {
+						return process(location, seen);
+					}
+				}));
+			}
+
+			List<Result> results = new ArrayList<Result>();
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					results.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					results.add(new Result(locations.get(i), null, action(), FAILED, 0, String.valueOf(e.getCause())));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			return results;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private Result process(String location, List<EclipseLocation> seen) {
+		long start = System.nanoTime();
+		String name = null;
+		int exitCode = OK;
+		String message;
+		try {
+			EclipseLocation loc = EclipseLocation.create(location);
+			name = loc.getName();
+			synchronized (seen) {
+				if (seen.contains(loc)) return new Result(location, name, action(), OK, 0, "Skipped, listed twice");
+				seen.add(loc);
+			}
+
+			if (install) {
+				loc.install();
+				message = "Installed";
+			} else {
+				loc.uninstall();
+				message = "Uninstalled";
+			}
+		} catch (NotAnEclipseException e) {
+			exitCode = NOT_AN_ECLIPSE;
+			message = e.getMessage();
+		} catch (InstallException e) {
+			exitCode = FAILED;
+			message = e.getMessage();
+		} catch (UninstallException e) {
+			exitCode = FAILED;
+			message = e.getMessage();
+		} catch (RuntimeException e) {
+			exitCode = FAILED;
+			message = e.toString();
+		}
+
+		return new Result(location, name, action(), exitCode,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), message);
+	}
+
+	private String action() {
+		return install ? "install" : "uninstall";
+	}
+
+	/** Turns the locations given on the command line into paths, in order, without duplicates. */
+	static List<String> expand(List<String> specs) throws IOException {
+		List<String> paths = new ArrayList<String>();
+		for (String spec : specs) {
+			if (spec.equals("all")) {
+				List<EclipseLocation> found = new ArrayList<EclipseLocation>();
+				EclipseFinder.findEclipses(found, new ArrayList<NotAnEclipseException>());
+				for (EclipseLocation location : found) add(paths, location.getName());
+			} else if (spec.startsWith("@")) {
+				BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(spec.substring(1)), "UTF-8"));
+				try {
+					List<String> listed = new ArrayList<String>();
+					String line;
+					while ((line = in.readLine()) != null) {
+						line = line.trim();
+						if (line.length() > 0 && !line.startsWith("#")) listed.add(line);
+					}
+					for (String path : expand(listed)) add(paths, path);
+				} finally {
+					in.close();
+				}
+			} else if (spec.indexOf('*') != -1 || spec.indexOf('?') != -1) {
+				for (String path : glob(spec)) add(paths, path);
+			} else {
+				add(paths, spec);
+			}
+		}
+		return paths;
+	}
+
+	private static void add(List<String> paths, String path) {
+		if (!paths.contains(path)) paths.add(path);
+	}
+
+	/** Returns the existing files the pattern matches, where * and ? match within a single path element. */
+	private static List<String> glob(String pattern) {
+		List<File> matches = new ArrayList<File>();
+		String[] elements = pattern.replace('\\', '/').split("/");
+		int first = 0;
+		if (pattern.startsWith("/") || pattern.startsWith("\\")) {
+			matches.add(new File(File.separator));
+			first = 1;
+		} else if (elements[0].indexOf('*') == -1 && elements[0].indexOf('?') == -1) {
+			//A relative path, or a windows drive such as C:
+			matches.add(new File(elements[0] + File.separator));
+			first = 1;
+		} else {
+			matches.add(new File("."));
+		}
+
+		for (int i = first; i < elements.length; i++) {
+			String element = elements[i];
+			if (element.length() == 0) continue;
+
+			List<File> next = new ArrayList<File>();
+			if (element.indexOf('*') == -1 && element.indexOf('?') == -1) {
+				for (File dir : matches) {
+					File child = new File(dir, element);
+					if (child.exists()) next.add(child);
+				}
+			} else {
+				Pattern p = Pattern.compile(toRegex(element), EclipseFinder.getOS() == EclipseFinder.OS.UNIX ? 0 : Pattern.CASE_INSENSITIVE);
+				for (File dir : matches) {
+					String[] children = dir.list();
+					if (children == null) continue;
+					Arrays.sort(children);
+					for (String child : children) {
+						if (p.matcher(child).matches()) next.add(new File(dir, child));
+					}
+				}
+			}
+			matches = next;
+		}
+
+		List<String> paths = new ArrayList<String>();
+		for (File match : matches) paths.add(match.getPath());
+		return paths;
+	}
+
+	private static String toRegex(String glob) {
+		StringBuilder regex = new StringBuilder();
+		for (String part : glob.split("(?=[*?])|(?<=[*?])")) {
+			if (part.equals("*")) regex.append(".*");
+			else if (part.equals("?")) regex.append(".");
+			else if (part.length() > 0) regex.append(Pattern.quote(part));
+		}
+		return regex.toString();
+	}
+
+	private static String quote(String s) {
+		if (s == null) return "null";
+		StringBuilder b = new StringBuilder(s.length() + 2).append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"': b.append("\\\""); break;
+			case '\\': b.append("\\\\"); break;
+			case '\n': b.append("\\n"); break;
+			case '\r': b.append("\\r"); break;
+			case '\t': b.append("\\t"); break;
+			default:
+				if (c < 0x20) b.append(String.format("\\u%04x", (int)c));
+				else b.append(c);
+			}
+		}
+		return b.append('"').toString();
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package lombok.installer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import lombok.installer.EclipseLocation.NotAnEclipseException;
+
+/**
+ * Remembers the Eclipse installations the installer found, so the next run can show them straight away and
+ * only searches the disks again when one of them is gone. It's a small text file, by default
+ * <code>~/.morbok/eclipses.cache</code>, with a line for each installation: the path of its eclipse.ini, the
+ * time the file was modified and its size, whether lombok and morbok were installed, and its name.
+ * <p>
+ * An installation whose eclipse.ini changed since is read again, which is cheap. One that's gone, or isn't an
+ * installation anymore, makes the cache stale, and so does the cache being older than its maximum age, so that
+ * installations added since are found too. It's configured with system properties:
+ * <ul>
+ * <li><code>morbok.installer.cache</code> the path of the cache file, or none to not use one</li>
+ * <li><code>morbok.installer.cacheDays</code> how many days the cache is trusted for (default 7)</li>
+ * </ul>
+ */
+final class EclipseCache {
+	static final String CACHE = "morbok.installer.cache";
+	static final String CACHE_DAYS = "morbok.installer.cacheDays";
+
+	private static final String HEADER = "# morbok installer cache v1 ";
+	private static final String ENCODING = "UTF-8";
+
+	/** An installation, and what its eclipse.ini looked like when it was found. */
+	private static final class Entry {
+		final EclipseLocation location;
+		final long modified;
+		final long size;
+
+		Entry(EclipseLocation location, long modified, long size) {
+			this.location = location;
+			this.modified = modified;
+			this.size = size;
+		}
+	}
+
+	private final long savedAt;
+	private final List<Entry> entries;
+
+	private EclipseCache(long savedAt, List<Entry> entries) {
+		this.savedAt = savedAt;
+		this.entries = entries;
+	}
+
+	/** Returns the cache file, or null if the installer shouldn't use one. */
+	static File getFile() {
+		String path = System.getProperty(CACHE);
+		if (path != null && path.trim().length() > 0) {
+			return path.trim().equalsIgnoreCase("none") ? null : new File(path.trim());
+		}
+
+		String home = System.getProperty("user.home");
+		return home == null ? null : new File(new File(home, ".morbok"), "eclipses.cache");
+	}
+
+	/** Reads the cache, which is empty if there isn't one or it can't be read. */
+	static EclipseCache load() {
+		File file = getFile();
+		List<Entry> entries = new ArrayList<Entry>();
+		if (file == null || !file.isFile()) return new EclipseCache(0, entries);
+
+		long savedAt = 0;
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+			try {
+				String header = in.readLine();
+				if (header == null || !header.startsWith(HEADER)) return new EclipseCache(0, entries);
+				savedAt = Long.parseLong(header.substring(HEADER.length()).trim());
+
+				String line;
+				while ((line = in.readLine()) != null) {
+					String[] fields = line.split("\t", 6);
+					if (fields.length < 6) continue;
+
+					EclipseLocation location = new EclipseLocation(fields[5], new File(fields[0]),
+							Boolean.parseBoolean(fields[3]), Boolean.parseBoolean(fields[4]));
+					entries.add(new Entry(location, Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			entries.clear();
+		} catch (NumberFormatException e) {
+			entries.clear();
+		}
+
+		return new EclipseCache(savedAt, entries);
+	}
+
+	/** Returns the installations found last time, as they were then. */
+	List<EclipseLocation> getLocations() {
+		List<EclipseLocation> locations = new ArrayList<EclipseLocation>();
+		for (Entry entry : entries) locations.add(entry.location);
+		return Collections.unmodifiableList(locations);
+	}
+
+	/**
+	 * Checks the installations found last time, and adds those that are still there to locations. The location
+	 * of an unchanged installation is the one {@link #getLocations()} returned, the location of one whose
+	 * eclipse.ini changed is read again.
+	 *
+	 * @return true if the disks should be searched again, because an installation is gone or the cache is too old.
+	 */
+	boolean revalidate(List<EclipseLocation> locations) {
+		long maxAge = TimeUnit.DAYS.toMillis(Math.max(Integer.getInteger(CACHE_DAYS, 7), 0));
+		boolean stale = entries.isEmpty() || System.currentTimeMillis() - savedAt > maxAge;
+
+		for (Entry entry : entries) {
+			File ini = entry.location.getEclipseIniPath();
+			if (!ini.isFile()) {
+				stale = true;
+				continue;
+			}
+
+			if (ini.lastModified() == entry.modified && ini.length() == entry.size) {
+				locations.add(entry.location);
+				continue;
+			}
+
+			try {
+				locations.add(EclipseLocation.create(entry.location.getName()));
+			} catch (NotAnEclipseException e) {
+				stale = true;
+			}
+		}
+
+		return stale;
+	}
+
+	/**
+	 * Replaces the cache with the given installations. The cache is only there to save time, so failing to
+	 * write it is ignored.
+	 */
+	static void save(List<EclipseLocation> locations) {
+		File file = getFile();
+		if (file == null) return;
+
+		try {
+			file.getParentFile().mkdirs();
+			File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+
+			Writer out = new OutputStreamWriter(new FileOutputStream(temp), ENCODING);
+			try {
+				out.write(HEADER + System.currentTimeMillis() + "\n");
+				for (EclipseLocation location : locations) {
+					File ini = location.getEclipseIniPath();
+					out.write(ini.getPath() + "\t" + ini.lastModified() + "\t" + ini.length() + "\t"
+							+ location.hasLombok() + "\t" + location.hasMorbok() + "\t" + location.getName() + "\n");
+				}
+			} finally {
+				out.close();
+			}
+
+			// rename doesn't replace an existing file on windows
+			if (!temp.renameTo(file)) {
+				file.delete();
+				temp.renameTo(file);
+			}
+		} catch (IOException ignore) {
+			//The next run will just search the disks again.
+		}
+	}
+}
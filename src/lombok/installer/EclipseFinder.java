@@ -141,7 +141,7 @@ class EclipseFinder {
 	 * X:\*Eclipse*
 	 *
 	 * Where 'X' is tried for all local disk drives, unless there's a problem calling fsutil, in which case only
-	 * C: is tried.
+	 * C: is tried. The drives are searched two levels deep, in parallel.
 	 */
 	private static void findEclipseOnWindows(List<EclipseLocation> locations, List<NotAnEclipseException> problems) {
 		List<String> driveLetters = asList("C");
@@ -151,47 +151,20 @@ class EclipseFinder {
 			ignore.printStackTrace();
 		}
 
-		//Various try/catch/ignore statements are in this for loop. Weird conditions on the disk can cause exceptions,
-		//such as an unformatted drive causing a NullPointerException on listFiles. Best action is almost invariably to just
-		//continue onwards.
-		for (String letter : driveLetters) {
-			try {
-				File f = new File(letter + ":\\");
-				for (File dir : f.listFiles()) {
-					if (!dir.isDirectory()) continue;
-					try {
-						if (dir.getName().toLowerCase().contains("eclipse")) {
-							String eclipseLocation = findEclipseOnWindows1(dir);
-							if (eclipseLocation != null) {
-								try {
-									locations.add(EclipseLocation.create(eclipseLocation));
-								} catch (NotAnEclipseException e) {
-									problems.add(e);
-								}
-							}
-						}
-					} catch (Exception ignore) {}
+		EclipseScanner.Target target = new EclipseScanner.Target() {
+			@Override String getCandidate(File dir) {
+				if (dir.getName().toLowerCase().contains("eclipse")) return findEclipseOnWindows1(dir);
+				return null;
+			}
+		};
 
-					try {
-						if (dir.getName().toLowerCase().contains("program files")) {
-							for (File dir2 : dir.listFiles()) {
-								if (!dir2.isDirectory()) continue;
-								if (dir.getName().toLowerCase().contains("eclipse")) {
-									String eclipseLocation = findEclipseOnWindows1(dir);
-									if (eclipseLocation != null) {
-										try {
-											locations.add(EclipseLocation.create(eclipseLocation));
-										} catch (NotAnEclipseException e) {
-											problems.add(e);
-										}
-									}
-								}
-							}
-						}
-					} catch (Exception ignore) {}
-				}
-			} catch (Exception ignore) {}
+		//Weird conditions on the disk, such as an unformatted drive, make listFiles return null or throw.
+		//The scanner skips such drives and carries on with the rest.
+		EclipseScanner scanner = EclipseScanner.create(2);
+		for (String letter : driveLetters) {
+			scanner.scan(new File(letter + ":\\"), target);
 		}
+		scanner.finish(locations, problems);
 	}
 
 	/** Checks if the provided directory contains 'eclipse.exe', and if so, returns the directory, otherwise null. */
@@ -253,68 +226,50 @@ class EclipseFinder {
 		}
 	}
 
-	/** Scans a couple of likely locations on linux. */
+	/** Scans a couple of likely locations on linux, in parallel. */
 	private static void findEclipseOnUnix(List<EclipseLocation> locations, List<NotAnEclipseException> problems) {
-		List<String> guesses = new ArrayList<String>();
+		EclipseScanner scanner = EclipseScanner.create(1);
 
-		File d;
+		scanner.check("/usr/bin/eclipse");
+		scanner.check("/usr/local/bin/eclipse");
+		scanner.check(new File(System.getProperty("user.home", "."), "bin/eclipse").getPath());
 
-		d = new File("/usr/bin/eclipse");
-		if (d.exists()) guesses.add(d.getPath());
-		d = new File("/usr/local/bin/eclipse");
-		if (d.exists()) guesses.add(d.getPath());
-		d = new File(System.getProperty("user.home", "."), "bin/eclipse");
-		if (d.exists()) guesses.add(d.getPath());
-
-		findEclipseInSubDir("/usr/local/share", guesses);
-		findEclipseInSubDir("/usr/local", guesses);
-		findEclipseInSubDir("/usr/share", guesses);
-		findEclipseInSubDir(System.getProperty("user.home", "."), guesses);
-
-		for (String guess : guesses) {
-			try {
-				locations.add(EclipseLocation.create(guess));
-			} catch (NotAnEclipseException e) {
-				problems.add(e);
+		EclipseScanner.Target target = new EclipseScanner.Target() {
+			@Override String getCandidate(File dir) {
+				if (!dir.getName().toLowerCase().contains("eclipse")) return null;
+				File possible = new File(dir, "eclipse");
+				return possible.exists() ? possible.getAbsolutePath() : null;
 			}
-		}
-	}
+		};
 
-	private static void findEclipseInSubDir(String dir, List<String> guesses) {
-		File d = new File(dir);
-		if (!d.isDirectory()) return;
-		for (File f : d.listFiles()) {
-			if (f.isDirectory() && f.getName().toLowerCase().contains("eclipse")) {
-				File possible = new File(f, "eclipse");
-				if (possible.exists()) guesses.add(possible.getAbsolutePath());
-			}
-		}
+		scanner.scan(new File("/usr/local/share"), target);
+		scanner.scan(new File("/usr/local"), target);
+		scanner.scan(new File("/usr/share"), target);
+		scanner.scan(new File("/opt"), target);
+		scanner.scan(new File(System.getProperty("user.home", ".")), target);
+		scanner.finish(locations, problems);
 	}
 
 	/**
 	 * Scans /Applications for any folder named 'Eclipse'
 	 */
 	private static void findEclipseOnMac(List<EclipseLocation> locations, List<NotAnEclipseException> problems) {
-		for (File dir : new File("/Applications").listFiles()) {
-			if (!dir.isDirectory()) continue;
-			if (dir.getName().toLowerCase().equals("eclipse.app")) {
+		EclipseScanner.Target target = new EclipseScanner.Target() {
+			@Override String getCandidate(File dir) {
 				//This would be kind of an unorthodox Eclipse installation, but if Eclipse ever
 				//moves to this more maclike installation concept, our installer can still handle it.
-				try {
-					locations.add(EclipseLocation.create("/Applications"));
-				} catch (NotAnEclipseException e) {
-					problems.add(e);
-				}
+				if (dir.getName().toLowerCase().equals("eclipse.app")) return dir.getParent();
+				if (dir.getName().toLowerCase().contains("eclipse") && new File(dir, "Eclipse.app").exists()) return dir.toString();
+				return null;
 			}
-			if (dir.getName().toLowerCase().contains("eclipse")) {
-				if (new File(dir, "Eclipse.app").exists()) {
-					try {
-						locations.add(EclipseLocation.create(dir.toString()));
-					} catch (NotAnEclipseException e) {
-						problems.add(e);
-					}
-				}
+
+			@Override boolean isSearched(File dir) {
+				return super.isSearched(dir) && !dir.getName().toLowerCase().endsWith(".app");
 			}
-		}
+		};
+
+		EclipseScanner scanner = EclipseScanner.create(1);
+		scanner.scan(new File("/Applications"), target);
+		scanner.finish(locations, problems);
 	}
 }
@@ -26,7 +26,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -94,6 +93,14 @@ final class EclipseLocation {
 		}
 	}
 
+	/** Recreates a location the installer found before, without reading its eclipse.ini again. */
+	EclipseLocation(String nameOfLocation, File pathToEclipseIni, boolean hasLombok, boolean hasMorbok) {
+		this.name = nameOfLocation;
+		this.eclipseIniPath = pathToEclipseIni;
+		this.hasLombok = hasLombok;
+		this.hasMorbok = hasMorbok;
+	}
+
 	private static final List<String> eclipseExecutableNames = Collections.unmodifiableList(Arrays.asList(
 			"eclipse.app", "eclipse.exe", "eclipse"));
 
@@ -132,7 +139,6 @@ final class EclipseLocation {
 	}
 
 	private static EclipseLocation findEclipseIniFromExe(File exePath, int loopCounter) throws NotAnEclipseException {
-		System.out.println(exePath);
 		/* Try looking for eclipse.ini as sibling to the executable */ {
 			File ini = new File(exePath.getParentFile(), "eclipse.ini");
 			if (ini.isFile()) return new EclipseLocation(getFilePath(exePath), ini);
@@ -206,6 +212,13 @@ final class EclipseLocation {
 		return name;
 	}
 
+	/**
+	 * Returns the eclipse.ini file of this location, whose changes the installer's cache looks out for.
+	 */
+	File getEclipseIniPath() {
+		return eclipseIniPath;
+	}
+
 	/**
 	 * @return true if the Eclipse installation has been instrumented with lombok.
 	 */
@@ -422,35 +435,15 @@ final class EclipseLocation {
 
 		File morbokJar = new File(eclipseIniPath.getParentFile(), "morbok.jar");
 
-		File ourJar = EclipseFinder.findOurJar();
-		byte[] b = new byte[524288];
-		boolean readSucceeded = true;
+		//Skipped when an identical morbok.jar is there already, which saves a lot on network home directories.
 		try {
-			FileOutputStream out = new FileOutputStream(morbokJar);
-			try {
-				readSucceeded = false;
-				InputStream in = new FileInputStream(ourJar);
-				try {
-					while (true) {
-						int r = in.read(b);
-						if (r == -1) break;
-						if (r > 0) readSucceeded = true;
-						out.write(b, 0, r);
-					}
-				} finally {
-					in.close();
-				}
-			} finally {
-				out.close();
-			}
-		} catch (IOException e) {
-			try {
-				morbokJar.delete();
-			} catch (Throwable ignore) { /* Nothing we can do about that. */ }
-			if (!readSucceeded) throw new InstallException(
+			JarDeployer.forOurJar().deploy(morbokJar);
+		} catch (JarDeployer.ReadException e) {
+			throw new InstallException(
 					"I can't read my own jar file. I think you've found a bug in this installer!\nI suggest you restart it " +
 					"and use the 'what do I do' link, to manually install morbok. Also, tell us about this at:\n" +
 					"TODO: add link - Thanks!", e);
+		} catch (IOException e) {
 			throw new InstallException("I can't write to your Eclipse directory at " + name + generateWriteErrorMessage(), e);
 		}
 
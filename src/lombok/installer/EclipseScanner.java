@@ -0,0 +1,222 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package lombok.installer;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.installer.EclipseLocation.NotAnEclipseException;
+
+/**
+ * Looks for Eclipse installations in a few directory trees at once. Every directory is listed by a task of
+ * its own on a small pool of threads, and every candidate found is checked by {@link EclipseLocation#create}
+ * on the same pool, so a home directory on a slow network filesystem doesn't hold up the rest of the search.
+ * <p>
+ * A directory that takes longer than the timeout to list, counted from when its task starts, is skipped, and
+ * so is everything not done once the whole scan has taken longer than the scan timeout. A skipped task's thread
+ * is left to finish on its own; the threads are daemons, so one stuck on a dead mount doesn't keep the installer
+ * from exiting. Nothing below an installation is looked at, nor hidden directories, nor anything deeper than the
+ * depth. It's configured with system properties:
+ * <ul>
+ * <li><code>morbok.installer.depth</code> how many levels below each root are looked at (default 1, 2 on windows)</li>
+ * <li><code>morbok.installer.timeout</code> how long a directory or a candidate may take, in milliseconds (default 5000)</li>
+ * <li><code>morbok.installer.scanTimeout</code> how long the whole scan may take, in milliseconds (default 30000)</li>
+ * <li><code>morbok.installer.threads</code> the number of threads listing directories (default 8)</li>
+ * </ul>
+ */
+class EclipseScanner {
+	static final String DEPTH = "morbok.installer.depth";
+	static final String TIMEOUT = "morbok.installer.timeout";
+	static final String SCAN_TIMEOUT = "morbok.installer.scanTimeout";
+	static final String THREADS = "morbok.installer.threads";
+
+	/** Tells the scanner which directories hold an Eclipse installation. */
+	static abstract class Target {
+		/**
+		 * Returns the path to hand to {@link EclipseLocation#create} if the directory holds an installation, or null.
+		 */
+		abstract String getCandidate(File dir);
+
+		/** Returns true if the directory, which doesn't hold an installation, should be looked in. */
+		boolean isSearched(File dir) {
+			return !dir.getName().startsWith(".");
+		}
+	}
+
+	/** How often {@link #finish} looks whether a task that's waiting for a thread has started. */
+	private static final long START_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final int maxDepth;
+	private final long timeoutNanos;
+	private final long deadline;
+	private final ExecutorService executor;
+
+	private final BlockingQueue<Task> pending = new LinkedBlockingQueue<Task>();
+	private final Set<String> candidates = Collections.synchronizedSet(new HashSet<String>());
+	private final AtomicInteger skipped = new AtomicInteger();
+
+	EclipseScanner(int maxDepth, long timeoutMillis, long scanTimeoutMillis, int threads) {
+		this.maxDepth = maxDepth;
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(scanTimeoutMillis);
+		this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "morbok-eclipse-finder-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/** Creates a scanner configured by the system properties, with the given depth unless one is set. */
+	static EclipseScanner create(int defaultDepth) {
+		return new EclipseScanner(Math.max(Integer.getInteger(DEPTH, defaultDepth), 1),
+				Math.max(Long.getLong(TIMEOUT, 5000L), 1L), Math.max(Long.getLong(SCAN_TIMEOUT, 30000L), 1L),
+				Math.max(Integer.getInteger(THREADS, 8), 1));
+	}
+
+	/** Looks in the root directory, and its sub directories down to the depth, for installations. */
+	void scan(File root, Target target) {
+		this.submit(new Visit(root, target, 1));
+	}
+
+	/** Checks a path that may be an installation if it exists, without looking around it. */
+	void check(final String candidate) {
+		if (!this.candidates.add(candidate)) return;
+
+		this.submit(new Callable<EclipseLocation>() {
+			public EclipseLocation call() throws NotAnEclipseException {
+				return new File(candidate).exists() ? EclipseLocation.create(candidate) : null;
+			}
+		});
+	}
+
+	/**
+	 * Waits for the scan to finish, and adds the installations found to locations, and the candidates that turned
+	 * out not to be installations to problems. The scanner can't be used afterwards.
+	 */
+	void finish(List<EclipseLocation> locations, List<NotAnEclipseException> problems) {
+		try {
+			// a task adds the tasks it starts before it's done, so the queue is only empty once they're all done
+			Task task;
+			while ((task = this.pending.poll()) != null) {
+				try {
+					EclipseLocation location = this.await(task);
+					if (location != null && !locations.contains(location)) locations.add(location);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof NotAnEclipseException) problems.add((NotAnEclipseException)e.getCause());
+				} catch (TimeoutException e) {
+					task.cancel(true);
+					this.skipped.incrementAndGet();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		} finally {
+			this.executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Waits for the task until it's taken longer than the timeout since it started, or the scan has taken longer
+	 * than the scan timeout. A task that's still waiting for a thread only has the scan timeout to go by.
+	 */
+	private EclipseLocation await(Task task) throws ExecutionException, InterruptedException, TimeoutException {
+		while (true) {
+			long now = System.nanoTime();
+			long remaining = this.deadline - now;
+			boolean started = task.started;
+			if (started) remaining = Math.min(remaining, task.startedAt + this.timeoutNanos - now);
+			if (remaining <= 0) throw new TimeoutException();
+
+			try {
+				return task.get(started ? remaining : Math.min(remaining, START_POLL_NANOS), TimeUnit.NANOSECONDS);
+			} catch (TimeoutException e) {
+				//Not started yet, or out of time, which the next round finds out.
+			}
+		}
+	}
+
+	/** Returns the number of directories and candidates that were skipped because they took too long. */
+	int getSkippedCount() {
+		return this.skipped.get();
+	}
+
+	/** Lists the directory, can be overridden to simulate a slow filesystem. */
+	File[] list(File dir) {
+		return dir.listFiles();
+	}
+
+	private void submit(Callable<EclipseLocation> callable) {
+		Task task = new Task(callable);
+		this.pending.add(task);
+		this.executor.execute(task);
+	}
+
+	/** A task that knows when it started, so it's timed from then rather than from when it was submitted. */
+	private static final class Task extends FutureTask<EclipseLocation> {
+		volatile long startedAt;
+		volatile boolean started;
+
+		Task(Callable<EclipseLocation> callable) {
+			super(callable);
+		}
+
+		@Override public void run() {
+			this.startedAt = System.nanoTime();
+			this.started = true;
+			super.run();
+		}
+	}
+
+	/** Looks at the sub directories of one directory. */
+	private final class Visit implements Callable<EclipseLocation> {
+		private final File dir;
+		private final Target target;
+		private final int depth;
+
+		Visit(File dir, Target target, int depth) {
+			this.dir = dir;
+			this.target = target;
+			this.depth = depth;
+		}
+
+		public EclipseLocation call() {
+			File[] children = list(this.dir);
+			if (children == null) return null;
+
+			for (File child : children) {
+				if (Thread.currentThread().isInterrupted()) return null;
+				if (!child.isDirectory()) continue;
+
+				String candidate = this.target.getCandidate(child);
+				if (candidate != null) {
+					check(candidate);
+				} else if (this.depth < maxDepth && this.target.isSearched(child)) {
+					submit(new Visit(child, this.target, this.depth + 1));
+				}
+			}
+
+			return null;
+		}
+	}
+}
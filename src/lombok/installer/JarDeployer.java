@@ -0,0 +1,141 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package lombok.installer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Copies the installer's own jar into Eclipse installations. The jar is read once, for its checksum, however
+ * many installations it goes to, and isn't written at all where an identical copy is already there. Otherwise
+ * it's copied by the filesystem, into a temporary file next to the target that then replaces it, so Eclipse
+ * never starts with half a jar on its bootclasspath. Where the target can't be replaced, as on windows while a
+ * running Eclipse holds it open, it's overwritten in place instead.
+ */
+final class JarDeployer {
+	/** Thrown when the jar itself can't be read, as opposed to the target not being writable. */
+	static final class ReadException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		ReadException(String message, Throwable cause) {
+			super(message);
+			initCause(cause);
+		}
+	}
+
+	private static JarDeployer ourJar;
+
+	private final File source;
+	private long size = -1;
+	private long checksum;
+
+	JarDeployer(File source) {
+		this.source = source;
+	}
+
+	/** Returns the deployer of the jar the installer runs from, which all installations share. */
+	static synchronized JarDeployer forOurJar() {
+		if (ourJar == null) ourJar = new JarDeployer(EclipseFinder.findOurJar());
+		return ourJar;
+	}
+
+	/**
+	 * Reads the jar, the first time it's called, and returns its checksum.
+	 *
+	 * @throws ReadException If the jar can't be read, or is empty.
+	 */
+	synchronized long getChecksum() throws ReadException {
+		if (size == -1) {
+			long length = source.length();
+			try {
+				checksum = checksum(source);
+			} catch (IOException e) {
+				throw new ReadException("Can't read " + source, e);
+			}
+			if (length == 0) throw new ReadException("Empty jar: " + source, null);
+			size = length;
+		}
+		return checksum;
+	}
+
+	/**
+	 * Puts a copy of the jar at target, unless an identical one is there already.
+	 *
+	 * @return true if the jar was written, false if the copy at target was left as it was.
+	 * @throws ReadException If the jar can't be read.
+	 * @throws IOException If target can't be written.
+	 */
+	boolean deploy(File target) throws IOException {
+		long expected = getChecksum();
+		if (target.isFile() && target.length() == size && checksum(target) == expected) return false;
+
+		File temp = new File(target.getParentFile(), target.getName() + ".tmp");
+		try {
+			copy(temp);
+			// rename doesn't replace an existing file on windows, and delete fails while eclipse has the jar open
+			if (!temp.renameTo(target) && !(target.delete() && temp.renameTo(target))) {
+				try {
+					copy(target);
+				} catch (ReadException e) {
+					throw e;
+				} catch (IOException e) {
+					IOException replace = new IOException("Can't replace " + target);
+					replace.initCause(e);
+					throw replace;
+				}
+			}
+		} finally {
+			temp.delete();
+		}
+		return true;
+	}
+
+	private void copy(File to) throws IOException {
+		FileChannel in;
+		try {
+			in = new FileInputStream(source).getChannel();
+		} catch (IOException e) {
+			throw new ReadException("Can't read " + source, e);
+		}
+
+		try {
+			FileChannel out = new FileOutputStream(to).getChannel();
+			try {
+				long position = 0;
+				while (position < size) {
+					long transferred = in.transferTo(position, size - position, out);
+					if (transferred <= 0) throw new ReadException("Can't read " + source + ", it's shorter than it was", null);
+					position += transferred;
+				}
+				out.force(true);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static long checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] b = new byte[65536];
+			while (true) {
+				int r = in.read(b);
+				if (r == -1) break;
+				crc.update(b, 0, r);
+			}
+		} finally {
+			in.close();
+		}
+		return crc.getValue();
+	}
+}
@@ -51,6 +51,7 @@ import lombok.installer.EclipseLocation.InstallException;
 import lombok.installer.EclipseLocation.NotAnEclipseException;
 import lombok.installer.EclipseLocation.UninstallException;
 import morbok.core.Version;
+import morbok.runtime.BinaryLogDecoder;
 
 /**
  * The morbok installer ripped off as much as possible from the good folks at projectlombok.
@@ -78,6 +79,21 @@ public class MorbokInstaller {
 	private JButton installButton;
 
 	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equals("decode")) {
+			if (args.length < 2) {
+				System.err.println("Run java -jar morbok.jar decode path/to/morbok.binlog");
+				System.exit(1);
+			}
+			String[] files = new String[args.length - 1];
+			System.arraycopy(args, 1, files, 0, files.length);
+			BinaryLogDecoder.main(files);
+			System.exit(0);
+		}
+
+		if (args.length > 0 && args[0].equals("batch")) {
+			System.exit(BatchInstaller.run(args));
+		}
+
 		if (args.length > 0 && args[0].equals("install")) {
 			if (args.length < 3 || !args[1].equals("eclipse")) {
 				System.err.println("Run java -jar morbok.jar install eclipse path/to/eclipse/executable");
@@ -162,7 +178,9 @@ public class MorbokInstaller {
 				"   java -cp lombok.jar:morbok.jar MyCode.java\n\n\n" +
 				"If for whatever reason you can't run the graphical installer but you do want to install morbok into eclipse," +
 				"start this jar with the following syntax:\n\n" +
-				"   java -jar morbok.jar install eclipse path/to/your/eclipse/executable", Version.getVersion(), ABOUT_MORBOK_URL);
+				"   java -jar morbok.jar install eclipse path/to/your/eclipse/executable\n\n" +
+				"To install morbok into many Eclipse installations at once, such as on an image, use:\n\n" +
+				"   java -jar morbok.jar batch install --threads 4 --report report.json '/opt/eclipse-*/eclipse'", Version.getVersion(), ABOUT_MORBOK_URL);
 	}
 
 	/**
@@ -337,12 +355,38 @@ public class MorbokInstaller {
 		Thread findEclipsesThread = new Thread() {
 			@Override public void run() {
 				try {
+					//Show what was found last time straight away, and check it while the user looks at it.
+					EclipseCache cache = EclipseCache.load();
+					final List<EclipseLocation> cached = cache.getLocations();
+					if (!cached.isEmpty()) SwingUtilities.invokeLater(new Runnable() {
+						@Override public void run() {
+							for (EclipseLocation location : cached) {
+								try {
+									eclipsesList.addEclipse(location);
+								} catch (Throwable t) {
+									MorbokInstaller.this.handleException(t);
+								}
+							}
+						}
+					});
+
 					final List<EclipseLocation> locations = new ArrayList<EclipseLocation>();
 					final List<NotAnEclipseException> problems = new ArrayList<NotAnEclipseException>();
-					EclipseFinder.findEclipses(locations, problems);
+					if (cache.revalidate(locations)) {
+						List<EclipseLocation> found = new ArrayList<EclipseLocation>();
+						EclipseFinder.findEclipses(found, problems);
+						for (EclipseLocation location : found) {
+							if (!locations.contains(location)) locations.add(location);
+						}
+					}
+					EclipseCache.save(locations);
 
 					SwingUtilities.invokeLater(new Runnable() {
 						@Override public void run() {
+							for (EclipseLocation location : cached) {
+								if (!containsSame(locations, location)) eclipsesList.removeEclipse(location);
+							}
+
 							for (EclipseLocation location : locations) {
 								try {
 									eclipsesList.addEclipse(location);
@@ -422,6 +466,7 @@ public class MorbokInstaller {
 				if (file != null) {
 					try {
 						eclipsesList.addEclipse(EclipseLocation.create(file));
+						EclipseCache.save(eclipsesList.locations);
 					} catch (NotAnEclipseException e) {
 						e.showDialog(appWindow);
 					} catch (Throwable t) {
@@ -637,10 +682,17 @@ public class MorbokInstaller {
 		installButton.setEnabled(installAvailable);
 	}
 
+	/** Returns true if the list holds this very location, rather than an equal one. */
+	private static boolean containsSame(List<EclipseLocation> locations, EclipseLocation location) {
+		for (EclipseLocation l : locations) if (l == location) return true;
+		return false;
+	}
+
 	private class EclipsesList extends JPanel implements Scrollable {
 		private static final long serialVersionUID = 1L;
 
 		List<EclipseLocation> locations = new ArrayList<EclipseLocation>();
+		List<Component> boxes = new ArrayList<Component>();
 
 		EclipsesList() {
 			this.setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
@@ -689,11 +741,25 @@ public class MorbokInstaller {
 
 			box.add(Box.createHorizontalGlue());
 			locations.add(location);
+			boxes.add(box);
 			this.add(box);
 			this.getParent().doLayout();
 			this.fireSelectionChange();
 		}
 
+		/** Removes the location, if it's the one that was added, and not just one at the same path. */
+		void removeEclipse(EclipseLocation location) {
+			for (int i = 0; i < locations.size(); i++) {
+				if (locations.get(i) != location) continue;
+				locations.remove(i);
+				this.remove(boxes.remove(i));
+				this.revalidate();
+				this.repaint();
+				this.fireSelectionChange();
+				return;
+			}
+		}
+
 		@Override public Dimension getPreferredScrollableViewportSize() {
 			return new Dimension(1, 100);
 		}
@@ -0,0 +1,111 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package lombok.javac.handlers;
+
+import static lombok.javac.handlers.JavacHandlerUtil.*;
+import lombok.core.AnnotationValues;
+import lombok.javac.JavacAnnotationHandler;
+import lombok.javac.JavacNode;
+import lombok.javac.handlers.JavacHandlerUtil.MemberExistsResult;
+import morbok.LogEvent;
+
+import org.mangosdk.spi.ProviderFor;
+
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.TypeTags;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.TreeMaker;
+import com.sun.tools.javac.tree.JCTree.JCAnnotation;
+import com.sun.tools.javac.tree.JCTree.JCClassDecl;
+import com.sun.tools.javac.tree.JCTree.JCExpression;
+import com.sun.tools.javac.tree.JCTree.JCMethodDecl;
+import com.sun.tools.javac.tree.JCTree.JCStatement;
+import com.sun.tools.javac.tree.JCTree.JCTypeParameter;
+import com.sun.tools.javac.tree.JCTree.JCVariableDecl;
+import com.sun.tools.javac.util.List;
+import com.sun.tools.javac.util.ListBuffer;
+
+/**
+ * Handles the <code>morbok.LogEvent</code> annotation for javac.
+ *
+ * @author rayvanderborght
+ */
+@ProviderFor(JavacAnnotationHandler.class)
+public class HandleLogEvent implements JavacAnnotationHandler<LogEvent>
+{
+    private static final String WRITE_METHOD = "writeTo";
+    private static final String WRITER = "writer";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean handle(AnnotationValues<LogEvent> annotation, JCAnnotation source, JavacNode annotationNode)
+    {
+        JavacNode typeNode = annotationNode.up();
+
+        JCClassDecl typeDecl = null;
+        if (typeNode.get() instanceof JCClassDecl)
+            typeDecl = (JCClassDecl)typeNode.get();
+
+        long flags = typeDecl == null ? 0 : typeDecl.mods.flags;
+        boolean notAClass = (flags & (Flags.INTERFACE | Flags.ENUM | Flags.ANNOTATION)) != 0;
+
+        if (typeDecl == null || notAClass)
+        {
+            annotationNode.addError("@LogEvent is only supported on a class.");
+            return false;
+        }
+
+        if (methodExists(WRITE_METHOD, typeNode) != MemberExistsResult.NOT_EXISTS)
+        {
+            annotationNode.addWarning("@LogEvent can't generate " + WRITE_METHOD + "(), the class already has a method with that name.");
+            return true;
+        }
+
+        String value = annotation.getInstance().value();
+        String eventName = (value == null || "".equals(value.trim())) ? typeDecl.name.toString() : value;
+
+        TreeMaker maker = typeNode.getTreeMaker();
+        ListBuffer<JCStatement> statements = new ListBuffer<JCStatement>();
+        statements.append(this.makeWriterCall(maker, typeNode, "begin", maker.Literal(TypeTags.CLASS, eventName)));
+
+        for (JCTree def : typeDecl.defs)
+        {
+            if (!(def instanceof JCVariableDecl))
+                continue;
+
+            JCVariableDecl fieldDecl = (JCVariableDecl)def;
+            if ((fieldDecl.mods.flags & (Flags.STATIC | Flags.TRANSIENT)) != 0)
+                continue;
+
+            // writer.field("name", this.name);
+            JCExpression field = maker.Select(maker.Ident(typeNode.toName("this")), fieldDecl.name);
+            statements.append(this.makeWriterCall(maker, typeNode, "field",
+                    maker.Literal(TypeTags.CLASS, fieldDecl.name.toString()), field));
+        }
+
+        statements.append(this.makeWriterCall(maker, typeNode, "end"));
+
+        JCVariableDecl writerParam = maker.VarDef(maker.Modifiers(Flags.FINAL | Flags.PARAMETER), typeNode.toName(WRITER),
+                chainDots(maker, typeNode, "morbok", "runtime", "EventWriter"), null);
+
+        JCMethodDecl methodDecl = maker.MethodDef(maker.Modifiers(Flags.PUBLIC), typeNode.toName(WRITE_METHOD),
+                maker.TypeIdent(TypeTags.VOID), List.<JCTypeParameter> nil(), List.of(writerParam),
+                List.<JCExpression> nil(), maker.Block(0, statements.toList()), null);
+
+        typeDecl.implementing = typeDecl.implementing.append(chainDots(maker, typeNode, "morbok", "runtime", "Event"));
+        injectMethod(typeNode, methodDecl);
+
+        return true;
+    }
+
+    /* */
+    private JCStatement makeWriterCall(TreeMaker maker, JavacNode typeNode, String methodName, JCExpression... args)
+    {
+        JCExpression method = maker.Select(maker.Ident(typeNode.toName(WRITER)), typeNode.toName(methodName));
+        return maker.Exec(maker.Apply(List.<JCExpression> nil(), method, List.from(args)));
+    }
+}
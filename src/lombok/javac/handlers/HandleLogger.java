@@ -6,23 +6,32 @@ package lombok.javac.handlers;
 
 import static lombok.javac.handlers.JavacHandlerUtil.*;
 import lombok.core.AnnotationValues;
+import lombok.core.AST.Kind;
+import lombok.javac.Javac;
 import lombok.javac.JavacAnnotationHandler;
 import lombok.javac.JavacNode;
 import lombok.javac.handlers.JavacHandlerUtil.MemberExistsResult;
 import morbok.Logger;
+import morbok.core.HandlerOptions;
+import morbok.core.HandlerStats;
+import morbok.core.LogCalls;
 
 import org.mangosdk.spi.ProviderFor;
 
 import com.sun.tools.javac.code.Flags;
 import com.sun.tools.javac.code.TypeTags;
+import com.sun.tools.javac.tree.JCTree;
 import com.sun.tools.javac.tree.TreeMaker;
 import com.sun.tools.javac.tree.JCTree.JCAnnotation;
 import com.sun.tools.javac.tree.JCTree.JCClassDecl;
 import com.sun.tools.javac.tree.JCTree.JCExpression;
 import com.sun.tools.javac.tree.JCTree.JCLiteral;
+import com.sun.tools.javac.tree.JCTree.JCNewArray;
+import com.sun.tools.javac.tree.JCTree.JCTypeParameter;
 import com.sun.tools.javac.tree.JCTree.JCVariableDecl;
 import com.sun.tools.javac.util.List;
 import com.sun.tools.javac.util.ListBuffer;
+import com.sun.tools.javac.util.Options;
 
 /**
  * Handles the <code>morbok.Logger</code> annotation for javac.
@@ -37,6 +46,21 @@ public class HandleLogger implements JavacAnnotationHandler<Logger>
      */
     @Override
     public boolean handle(AnnotationValues<Logger> annotation, JCAnnotation source, JavacNode annotationNode)
+    {
+        HandlerStats stats = HandlerStats.forOption(this.getOption(annotationNode, HandlerOptions.STATS));
+        long start = System.nanoTime();
+        try
+        {
+            return this.handle(annotation, annotationNode, stats);
+        }
+        finally
+        {
+            stats.handled(System.nanoTime() - start);
+        }
+    }
+
+    /* */
+    private boolean handle(AnnotationValues<Logger> annotation, JavacNode annotationNode, HandlerStats stats)
     {
         JavacNode typeNode = annotationNode.up();
 
@@ -49,19 +73,56 @@ public class HandleLogger implements JavacAnnotationHandler<Logger>
 
         if (typeDecl == null || notAClass)
         {
+            stats.errors(1);
             annotationNode.addError("@Logger is only supported on a class.");
             return false;
         }
 
+        Logger.Type delegateType = annotation.getInstance().delegate();
+        if (LogCalls.hasDelegate(annotation.getInstance().type()) && (LogCalls.hasDelegate(delegateType) || delegateType == Logger.Type.BINARY))
+        {
+            stats.errors(1);
+            annotationNode.addError("@Logger delegate can't be " + delegateType + ".");
+            return false;
+        }
+
+        if (annotation.getInstance().structured() && annotation.getInstance().type() == Logger.Type.BINARY)
+        {
+            stats.errors(1);
+            annotationNode.addError("@Logger(structured=true) isn't supported by BINARY loggers.");
+            return false;
+        }
+
+        String limitError = LogCalls.validateLimit("Logger", annotation.getInstance().maxPerSecond(), annotation.getInstance().sampleRate());
+        if (limitError != null)
+        {
+            stats.errors(1);
+            annotationNode.addError(limitError);
+            return false;
+        }
+
+        if (annotation.getInstance().location() && !LogCalls.supportsLocation(LogCalls.getCallType(annotation.getInstance())))
+            annotationNode.addWarning("@Logger(location=true) isn't supported by " + annotation.getInstance().type() + " loggers, they find the location themselves.");
+
+        if (annotation.getInstance().scope() == Logger.Scope.OUTER)
+            return this.shareOuterLogger(annotationNode, typeDecl, stats);
+
         String logVariableName = this.getLogVariableName(annotation);
         TreeMaker maker = typeNode.getTreeMaker();
 
-        if (logVariableName != null && fieldExists(logVariableName, typeNode) == MemberExistsResult.NOT_EXISTS)
+        MemberExistsResult exists = logVariableName == null ? null : fieldExists(logVariableName, typeNode);
+        if (exists != null && exists != MemberExistsResult.NOT_EXISTS)
+            stats.fieldSkipped();
+
+        if (exists == MemberExistsResult.NOT_EXISTS)
         {
             JCExpression objectType = null;
             JCExpression logFactory = null;
 
-            switch (annotation.getInstance().type())
+            //argument list for method
+            ListBuffer<JCExpression> args = new ListBuffer<JCExpression>();
+
+            switch (LogCalls.getCallType(annotation.getInstance()))
             {
                 case COMMONS:
                     objectType = chainDots(maker, typeNode, "org", "apache", "commons", "logging", "Log");
@@ -78,33 +139,233 @@ public class HandleLogger implements JavacAnnotationHandler<Logger>
                     logFactory = chainDots(maker, typeNode, "org", "slf4j", "LoggerFactory", "getLogger");
                     break;
 
+                case LOG4J2:
+                    objectType = chainDots(maker, typeNode, "org", "apache", "logging", "log4j", "Logger");
+                    logFactory = chainDots(maker, typeNode, "org", "apache", "logging", "log4j", "LogManager", "getLogger");
+                    break;
+
+                case SYSTEM:
+                    objectType = chainDots(maker, typeNode, "java", "lang", "System", "Logger");
+                    logFactory = chainDots(maker, typeNode, "java", "lang", "System", "getLogger");
+                    break;
+
+                case ASYNC:
+                case FACADE:
+                    String logClass = annotation.getInstance().structured() ? "StructuredLog" : "MorbokLog";
+                    objectType = chainDots(maker, typeNode, "morbok", "runtime", logClass);
+                    logFactory = chainDots(maker, typeNode, "morbok", "runtime", logClass,
+                            annotation.getInstance().type() == Logger.Type.ASYNC ? "getAsyncLogger" : "getLogger");
+                    args.append(chainDots(maker, typeNode, "morbok", "Logger", "Type", LogCalls.getDelegate(annotation.getInstance()).name()));
+                    break;
+
+                case BINARY:
+                    objectType = chainDots(maker, typeNode, "morbok", "runtime", "BinaryLog");
+                    logFactory = chainDots(maker, typeNode, "morbok", "runtime", "BinaryLog", "getLogger");
+                    break;
+
                 default:
                     throw new IllegalStateException("Got an unexpected Logger type: " + annotation.getInstance().type());
             }
 
-            //argument list for method
-            ListBuffer<JCExpression> args = new ListBuffer<JCExpression>();
-
             String value = annotation.getInstance().value();
             String logName = (value == null || "".equals(value.trim()))
-                    ? typeDecl.sym.type.toString()
+                    ? this.getDefaultLogName(annotation, typeDecl)
                     : value;
 
             JCLiteral literal = maker.Literal(TypeTags.CLASS, logName);
             args.append(literal);
 
+            // the message templates are filled in once the log calls have been rewritten
+            JCNewArray templates = null;
+            if (annotation.getInstance().type() == Logger.Type.BINARY)
+            {
+                templates = maker.NewArray(chainDots(maker, typeNode, "java", "lang", "String"),
+                        List.<JCExpression> nil(), List.<JCExpression> nil());
+                args.append(templates);
+            }
+
             JCExpression logValue = maker.Apply(List.<JCExpression> nil(), logFactory, args.toList());
 
+            boolean lazy = annotation.getInstance().lazy();
+            String holderName = this.getHolderName(logVariableName);
+
+            if (lazy && this.memberTypeExists(holderName, typeDecl))
+            {
+                stats.errors(1);
+                annotationNode.addError("@Logger(lazy=true) needs a nested class named " + holderName + ", which already exists.");
+                return false;
+            }
+
             JCVariableDecl fieldDecl = maker.VarDef(
-                    maker.Modifiers(Flags.PRIVATE | Flags.FINAL | Flags.STATIC),
+                    maker.Modifiers(lazy ? Flags.FINAL | Flags.STATIC : Flags.PRIVATE | Flags.FINAL | Flags.STATIC),
                     typeNode.toName(logVariableName), objectType, logValue);
 
-            injectField(typeNode, fieldDecl);
+            if (lazy)
+            {
+                // the logger is only looked up when the holder class is initialized, the first time the log variable is used
+                JCClassDecl holderDecl = maker.ClassDef(
+                        maker.Modifiers(Flags.PRIVATE | Flags.FINAL | Flags.STATIC), typeNode.toName(holderName),
+                        List.<JCTypeParameter> nil(), null, List.<JCExpression> nil(), List.<JCTree> of(fieldDecl));
+
+                typeDecl.defs = typeDecl.defs.append(holderDecl);
+                typeNode.add(holderDecl, Kind.TYPE);
+            }
+            else
+            {
+                injectField(typeNode, fieldDecl);
+            }
+            stats.fieldInjected();
+
+            Logger.Level minLevel = this.getMinLevel(annotation, annotationNode);
+            LogCallRewriter rewriter = new LogCallRewriter(typeNode, annotation.getInstance(), logVariableName, minLevel);
+            rewriter.rewrite(typeDecl);
+            if (lazy)
+                rewriter.qualify(typeDecl, holderName);
+            stats.errors(rewriter.getErrorCount());
+
+            if (templates != null)
+            {
+                ListBuffer<JCExpression> elems = new ListBuffer<JCExpression>();
+                for (String template : rewriter.getTemplates())
+                    elems.append(maker.Literal(TypeTags.CLASS, template));
+
+                templates.elems = elems.toList();
+            }
         }
 
         return true;
     }
 
+    /**
+     * Rewrites the log calls of a nested class to use the log variable of its outermost class, as that class's
+     * annotation describes it, instead of declaring one of its own.
+     */
+    private boolean shareOuterLogger(JavacNode annotationNode, JCClassDecl typeDecl, HandlerStats stats)
+    {
+        JavacNode typeNode = annotationNode.up();
+        JavacNode outerAnnotationNode = this.findOuterAnnotation(typeNode);
+        if (outerAnnotationNode == null)
+        {
+            stats.errors(1);
+            annotationNode.addError("@Logger(scope=OUTER) is only supported on a class nested in a class with a @Logger annotation.");
+            return false;
+        }
+
+        AnnotationValues<Logger> outerAnnotation = Javac.createAnnotation(Logger.class, outerAnnotationNode);
+        Logger outerLogger = outerAnnotation.getInstance();
+
+        // binary message templates are declared with the logger, and lazy references to it are qualified by the outer handler
+        if (outerLogger.type() == Logger.Type.BINARY || outerLogger.lazy())
+        {
+            stats.errors(1);
+            annotationNode.addError("@Logger(scope=OUTER) can't share a " + (outerLogger.lazy() ? "lazy" : "BINARY") + " logger.");
+            return false;
+        }
+
+        String logVariableName = this.getLogVariableName(outerAnnotation);
+        if (logVariableName == null)
+            return true;
+
+        if (fieldExists(logVariableName, typeNode) != MemberExistsResult.NOT_EXISTS)
+        {
+            stats.fieldSkipped();
+            return true;
+        }
+
+        LogCallRewriter rewriter = new LogCallRewriter(typeNode, outerLogger, logVariableName, this.getMinLevel(outerAnnotation, annotationNode));
+        rewriter.rewrite(typeDecl);
+        stats.errors(rewriter.getErrorCount());
+
+        return true;
+    }
+
+    /** Returns the @Logger annotation of the outermost class enclosing the given class, or null if it has none. */
+    private JavacNode findOuterAnnotation(JavacNode typeNode)
+    {
+        JavacNode outerNode = null;
+        for (JavacNode node = typeNode.up(); node != null; node = node.up())
+        {
+            if (node.getKind() == Kind.TYPE)
+                outerNode = node;
+        }
+
+        if (outerNode != null)
+        {
+            for (JavacNode child : outerNode.down())
+            {
+                if (child.getKind() == Kind.ANNOTATION && Javac.annotationTypeMatches(Logger.class, child))
+                    return child;
+            }
+        }
+
+        return null;
+    }
+
+    /** Names the logger after the class, or its package with scope PACKAGE, unless it's in the default package. */
+    private String getDefaultLogName(AnnotationValues<Logger> annotation, JCClassDecl typeDecl)
+    {
+        if (annotation.getInstance().scope() == Logger.Scope.PACKAGE)
+        {
+            String packageName = typeDecl.sym.packge().getQualifiedName().toString();
+            if (packageName.length() > 0)
+                return packageName;
+        }
+
+        return typeDecl.sym.type.toString();
+    }
+
+    /* */
+    private Logger.Level getMinLevel(AnnotationValues<Logger> annotation, JavacNode annotationNode)
+    {
+        Logger.Level minLevel = annotation.getInstance().minLevel();
+        if (annotation.isExplicit("minLevel"))
+            return minLevel;
+
+        String option = this.getOption(annotationNode, HandlerOptions.MIN_LEVEL);
+        if (option == null)
+            return minLevel;
+
+        Logger.Level level = HandlerOptions.parseLevel(option);
+        if (level == null)
+        {
+            annotationNode.addWarning("Bad " + HandlerOptions.MIN_LEVEL + " option provided, must be the name of a Logger.Level.");
+            return minLevel;
+        }
+
+        return level;
+    }
+
+    /** Looks for the option among the annotation processor options (-Akey=value), falling back to system properties. */
+    private String getOption(JavacNode node, String key)
+    {
+        String prefix = "-A" + key + "=";
+        for (String option : Options.instance(node.getContext()).keySet())
+        {
+            if (option.startsWith(prefix))
+                return option.substring(prefix.length());
+        }
+
+        return HandlerOptions.getSystemOption(key);
+    }
+
+    /** Names the lazy holder class after the log variable, eg: LogHolder for log */
+    private String getHolderName(String logVariableName)
+    {
+        return Character.toUpperCase(logVariableName.charAt(0)) + logVariableName.substring(1) + "Holder";
+    }
+
+    /* */
+    private boolean memberTypeExists(String name, JCClassDecl typeDecl)
+    {
+        for (JCTree def : typeDecl.defs)
+        {
+            if (def instanceof JCClassDecl && ((JCClassDecl)def).name.toString().equals(name))
+                return true;
+        }
+
+        return false;
+    }
+
     /* */
     private String getLogVariableName(AnnotationValues<Logger> annotation)
     {
@@ -0,0 +1,1097 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package lombok.javac.handlers;
+
+import static lombok.javac.handlers.JavacHandlerUtil.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import lombok.javac.Javac;
+import lombok.javac.JavacNode;
+import morbok.Logger;
+import morbok.RateLimit;
+import morbok.core.LogCalls;
+import morbok.core.MessageTemplates;
+
+import com.sun.source.tree.Tree.Kind;
+import com.sun.tools.javac.code.Flags;
+import com.sun.tools.javac.code.TypeTags;
+import com.sun.tools.javac.tree.JCTree;
+import com.sun.tools.javac.tree.TreeMaker;
+import com.sun.tools.javac.tree.TreeScanner;
+import com.sun.tools.javac.tree.TreeTranslator;
+import com.sun.tools.javac.tree.JCTree.JCArrayTypeTree;
+import com.sun.tools.javac.tree.JCTree.JCAssign;
+import com.sun.tools.javac.tree.JCTree.JCBinary;
+import com.sun.tools.javac.tree.JCTree.JCBlock;
+import com.sun.tools.javac.tree.JCTree.JCClassDecl;
+import com.sun.tools.javac.tree.JCTree.JCCompilationUnit;
+import com.sun.tools.javac.tree.JCTree.JCConditional;
+import com.sun.tools.javac.tree.JCTree.JCExpression;
+import com.sun.tools.javac.tree.JCTree.JCExpressionStatement;
+import com.sun.tools.javac.tree.JCTree.JCFieldAccess;
+import com.sun.tools.javac.tree.JCTree.JCIdent;
+import com.sun.tools.javac.tree.JCTree.JCInstanceOf;
+import com.sun.tools.javac.tree.JCTree.JCLiteral;
+import com.sun.tools.javac.tree.JCTree.JCMethodDecl;
+import com.sun.tools.javac.tree.JCTree.JCMethodInvocation;
+import com.sun.tools.javac.tree.JCTree.JCNewArray;
+import com.sun.tools.javac.tree.JCTree.JCNewClass;
+import com.sun.tools.javac.tree.JCTree.JCParens;
+import com.sun.tools.javac.tree.JCTree.JCPrimitiveTypeTree;
+import com.sun.tools.javac.tree.JCTree.JCStatement;
+import com.sun.tools.javac.tree.JCTree.JCTypeApply;
+import com.sun.tools.javac.tree.JCTree.JCTypeCast;
+import com.sun.tools.javac.tree.JCTree.JCUnary;
+import com.sun.tools.javac.tree.JCTree.JCVariableDecl;
+import com.sun.tools.javac.util.List;
+import com.sun.tools.javac.util.ListBuffer;
+
+/**
+ * Rewrites the calls made on the log variable generated for a <code>morbok.Logger</code> annotated class,
+ * and the references to it when the log variable is declared in a lazy holder class.
+ * <p>
+ * Only the method bodies and initializers of the annotated class itself are rewritten; nested classes
+ * may declare a log variable of their own and are left alone, as are methods that declare a local
+ * variable or parameter with the same name as the log variable.
+ *
+ * @author rayvanderborght
+ */
+class LogCallRewriter extends TreeTranslator
+{
+    private final JavacNode typeNode;
+    private final TreeMaker maker;
+    private final Logger logger;
+    private final Logger.Type type;
+    private final String logVariableName;
+    private final Logger.Level minLevel;
+
+    /** The name of the method being rewritten, as it would appear in a stack trace. */
+    private String methodName;
+    private int locationCount;
+    private int siteCount;
+    private int limitCount;
+    private int statsCount;
+    private int errorCount;
+
+    /** The limit of the log calls in the method being rewritten. */
+    private int maxPerSecond;
+    private int sampleRate;
+
+    /** The message templates of the class and their ids. */
+    private final Map<String, Integer> templates = new LinkedHashMap<String, Integer>();
+
+    /** The variables the method being rewritten sees, and whether each could hold a throwable. */
+    private final Map<String, Boolean> variables = new HashMap<String, Boolean>();
+
+    /** */
+    LogCallRewriter(JavacNode typeNode, Logger logger, String logVariableName, Logger.Level minLevel)
+    {
+        this.typeNode = typeNode;
+        this.maker = typeNode.getTreeMaker();
+        this.logger = logger;
+        this.type = LogCalls.getCallType(logger);
+        this.logVariableName = logVariableName;
+        this.minLevel = minLevel;
+    }
+
+    /**
+     * Rewrites the log calls in every method and initializer of the given class.
+     */
+    void rewrite(JCClassDecl typeDecl)
+    {
+        for (JCTree def : typeDecl.defs)
+        {
+            if (def instanceof JCMethodDecl)
+            {
+                JCMethodDecl methodDecl = (JCMethodDecl)def;
+                this.methodName = methodDecl.name.toString();
+                this.setLimit(methodDecl);
+                this.setVariables(typeDecl, methodDecl);
+                if (methodDecl.body != null && !this.declaresLogVariable(methodDecl))
+                    methodDecl.body = this.translate(methodDecl.body);
+            }
+            else if (def instanceof JCBlock)
+            {
+                JCBlock block = (JCBlock)def;
+                this.methodName = (block.flags & Flags.STATIC) != 0 ? "<clinit>" : "<init>";
+                this.setLimit(null);
+                this.setVariables(typeDecl, block);
+                if (!this.declaresLogVariable(block))
+                    block.stats = this.translate(block.stats);
+            }
+        }
+    }
+
+    /**
+     * Limits the log calls of the given method as its <code>@RateLimit</code> annotation says, or as the
+     * logger does if it has none.
+     */
+    private void setLimit(JCMethodDecl methodDecl)
+    {
+        this.maxPerSecond = this.logger.maxPerSecond();
+        this.sampleRate = this.logger.sampleRate();
+
+        for (JavacNode methodNode : this.typeNode.down())
+        {
+            if (methodDecl == null || methodNode.get() != methodDecl)
+                continue;
+
+            for (JavacNode child : methodNode.down())
+            {
+                if (child.getKind() != lombok.core.AST.Kind.ANNOTATION || !Javac.annotationTypeMatches(RateLimit.class, child))
+                    continue;
+
+                RateLimit rateLimit = Javac.createAnnotation(RateLimit.class, child).getInstance();
+                String error = LogCalls.validateLimit("RateLimit", rateLimit.maxPerSecond(), rateLimit.sampleRate());
+                if (error != null)
+                {
+                    this.errorCount++;
+                    child.addError(error);
+                    return;
+                }
+
+                this.maxPerSecond = rateLimit.maxPerSecond();
+                this.sampleRate = rateLimit.sampleRate();
+            }
+        }
+    }
+
+    /**
+     * Collects the fields of the class and the parameters and local variables of the given method or initializer,
+     * wherever they're declared in it, and whether each could hold a throwable.
+     */
+    private void setVariables(JCClassDecl typeDecl, JCTree member)
+    {
+        this.variables.clear();
+
+        for (JCTree def : typeDecl.defs)
+        {
+            if (def instanceof JCVariableDecl)
+                this.addVariable((JCVariableDecl)def);
+        }
+
+        member.accept(new TreeScanner() {
+            @Override
+            public void visitVarDef(JCVariableDecl varDecl)
+            {
+                LogCallRewriter.this.addVariable(varDecl);
+                super.visitVarDef(varDecl);
+            }
+
+            @Override
+            public void visitClassDef(JCClassDecl classDecl)
+            {
+                // nested classes aren't rewritten, so what they declare doesn't matter
+            }
+        });
+    }
+
+    /* */
+    private void addVariable(JCVariableDecl varDecl)
+    {
+        String name = varDecl.name.toString();
+        this.variables.put(name, Boolean.TRUE.equals(this.variables.get(name)) || this.isThrowableType(varDecl.vartype));
+    }
+
+    /* */
+    private boolean isThrowableType(JCTree type)
+    {
+        if (type instanceof JCPrimitiveTypeTree || type instanceof JCArrayTypeTree)
+            return false;
+
+        if (type instanceof JCTypeApply)
+            type = ((JCTypeApply)type).clazz;
+
+        if (type instanceof JCIdent)
+            return MessageTemplates.isThrowableType(((JCIdent)type).name.toString());
+
+        if (type instanceof JCFieldAccess)
+            return MessageTemplates.isThrowableType(((JCFieldAccess)type).name.toString());
+
+        // eg: the type of a catch parameter that catches several
+        return true;
+    }
+
+    /**
+     * Returns true if the given expression could be a Throwable, going by the declarations of the variables it
+     * names and the names of the types and methods in it. A name that isn't declared in the class or method, such
+     * as an inherited field, could be anything.
+     */
+    private boolean isThrowable(JCExpression expr)
+    {
+        while (expr instanceof JCParens)
+            expr = ((JCParens)expr).expr;
+
+        if (expr instanceof JCLiteral || expr instanceof JCBinary || expr instanceof JCUnary
+                || expr instanceof JCInstanceOf || expr instanceof JCNewArray)
+            return false;
+
+        if (expr instanceof JCConditional)
+            return this.isThrowable(((JCConditional)expr).truepart) || this.isThrowable(((JCConditional)expr).falsepart);
+
+        if (expr instanceof JCAssign)
+            return this.isThrowable(((JCAssign)expr).rhs);
+
+        if (expr instanceof JCTypeCast)
+            return this.isThrowableType(((JCTypeCast)expr).clazz);
+
+        if (expr instanceof JCNewClass)
+            return this.isThrowableType(((JCNewClass)expr).clazz);
+
+        if (expr instanceof JCMethodInvocation)
+        {
+            JCExpression meth = ((JCMethodInvocation)expr).meth;
+            String name = meth instanceof JCFieldAccess ? ((JCFieldAccess)meth).name.toString() : meth.toString();
+            return MessageTemplates.isThrowableMethod(name);
+        }
+
+        String name = null;
+        if (expr instanceof JCIdent)
+            name = ((JCIdent)expr).name.toString();
+        else if (expr instanceof JCFieldAccess && "this".equals(((JCFieldAccess)expr).selected.toString()))
+            name = ((JCFieldAccess)expr).name.toString();
+
+        return name == null || !Boolean.FALSE.equals(this.variables.get(name));
+    }
+
+    /**
+     * Points every reference to the log variable at the lazy holder class that declares it, eg:
+     * <code>log.info("hi")</code> becomes <code>LogHolder.log.info("hi")</code>. Unlike the log calls,
+     * references in nested classes are qualified too, unless the nested class declares its own log variable.
+     */
+    void qualify(JCClassDecl typeDecl, final String holderName)
+    {
+        final String typeName = typeDecl.name.toString();
+
+        TreeTranslator qualifier = new TreeTranslator() {
+            @Override
+            public void visitIdent(JCIdent tree)
+            {
+                this.result = LogCallRewriter.this.isLogVariable(tree.name.toString())
+                        ? LogCallRewriter.this.makeHolderReference(tree.pos, holderName)
+                        : tree;
+            }
+
+            @Override
+            public void visitSelect(JCFieldAccess tree)
+            {
+                // LogTest.log
+                if (tree.selected instanceof JCIdent && typeName.equals(((JCIdent)tree.selected).name.toString())
+                        && LogCallRewriter.this.isLogVariable(tree.name.toString()))
+                {
+                    this.result = LogCallRewriter.this.makeHolderReference(tree.pos, holderName);
+                    return;
+                }
+
+                super.visitSelect(tree);
+            }
+
+            @Override
+            public void visitApply(JCMethodInvocation tree)
+            {
+                // an unqualified call to a method that happens to have the log variable's name
+                if (tree.meth instanceof JCIdent)
+                {
+                    tree.args = this.translate(tree.args);
+                    this.result = tree;
+                    return;
+                }
+
+                super.visitApply(tree);
+            }
+
+            @Override
+            public void visitClassDef(JCClassDecl tree)
+            {
+                if (tree.name.toString().equals(holderName) || LogCallRewriter.this.declaresLogField(tree))
+                {
+                    this.result = tree;
+                    return;
+                }
+
+                LogCallRewriter.this.qualifyMembers(tree, this);
+                this.result = tree;
+            }
+        };
+
+        this.qualifyMembers(typeDecl, qualifier);
+    }
+
+    /* */
+    private void qualifyMembers(JCClassDecl typeDecl, TreeTranslator qualifier)
+    {
+        for (JCTree def : typeDecl.defs)
+        {
+            if (def instanceof JCMethodDecl)
+            {
+                JCMethodDecl methodDecl = (JCMethodDecl)def;
+                if (methodDecl.body != null && !this.declaresLogVariable(methodDecl))
+                    methodDecl.body = qualifier.translate(methodDecl.body);
+            }
+            else if (def instanceof JCBlock)
+            {
+                JCBlock block = (JCBlock)def;
+                if (!this.declaresLogVariable(block))
+                    block.stats = qualifier.translate(block.stats);
+            }
+            else if (def instanceof JCVariableDecl)
+            {
+                JCVariableDecl varDecl = (JCVariableDecl)def;
+                varDecl.init = qualifier.translate(varDecl.init);
+            }
+            else if (def instanceof JCClassDecl)
+            {
+                qualifier.translate(def);
+            }
+        }
+    }
+
+    /* */
+    private JCExpression makeHolderReference(int pos, String holderName)
+    {
+        return this.maker.at(pos).Select(this.maker.Ident(this.typeNode.toName(holderName)), this.typeNode.toName(this.logVariableName));
+    }
+
+    /* */
+    private boolean isLogVariable(String name)
+    {
+        return this.logVariableName.equals(name);
+    }
+
+    /**
+     * Returns true if the given class has a field with the same name as the log variable, or a <code>@Logger</code>
+     * annotation that declares one, which may not have been handled yet.
+     */
+    private boolean declaresLogField(JCClassDecl classDecl)
+    {
+        for (JCTree def : classDecl.defs)
+        {
+            if (def instanceof JCVariableDecl && this.isLogVariable(((JCVariableDecl)def).name.toString()))
+                return true;
+        }
+
+        JavacNode node = this.typeNode.getNodeFor(classDecl);
+        if (node != null)
+        {
+            for (JavacNode child : node.down())
+            {
+                if (child.getKind() != lombok.core.AST.Kind.ANNOTATION || !Javac.annotationTypeMatches(Logger.class, child))
+                    continue;
+
+                Logger logger = Javac.createAnnotation(Logger.class, child).getInstance();
+                if (logger.scope() == Logger.Scope.CLASS && this.isLogVariable(logger.var()))
+                    return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitClassDef(JCClassDecl tree)
+    {
+        this.result = tree;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void visitExec(JCExpressionStatement tree)
+    {
+        JCMethodInvocation call = this.getLogCall(tree.expr);
+        Logger.Level level = call == null ? null : this.getLevel(call);
+
+        if (level == null)
+        {
+            super.visitExec(tree);
+            return;
+        }
+
+        if (level.compareTo(this.minLevel) < 0)
+        {
+            this.result = this.maker.at(tree.pos).Skip();
+            return;
+        }
+
+        this.validate(call);
+
+        // the call is rewritten below, the summary of repeated throwables is logged with the method it was written with
+        JCIdent thrown = this.getDedupedThrowable(call, level);
+        String methodName = ((JCFieldAccess)call.meth).name.toString();
+        String levelArgument = this.getLevelArgument(call);
+
+        boolean parameterized = this.parameterize(call);
+
+        // instrumented calls are all guarded, so a site whose level is never enabled is never counted, and limited
+        // calls are too, so a disabled call doesn't use up the limit
+        JCExpression guard = null;
+        if (this.isLimited() || this.logger.guard() && (this.isInstrumented() || level.compareTo(Logger.Level.DEBUG) <= 0 && !this.hasConstantArguments(call)))
+            guard = this.makeGuard(call);
+
+        if (this.type == Logger.Type.BINARY)
+            this.encode(tree, call, level);
+        else if (this.type != Logger.Type.FACADE || !this.specialize(tree, call, level))
+            this.locate(call, level, parameterized);
+
+        // the limit is checked inside the guard, after the level, and a throwable is only remembered by its site
+        // once the call passed both, so a disabled or limited call doesn't count as a repeat
+        JCStatement logged = this.isInstrumented() ? this.instrument(tree, call, level) : tree;
+        if (thrown != null)
+            logged = this.dedupe(logged, thrown, methodName, levelArgument);
+
+        this.result = guard == null ? logged : this.maker.at(tree.pos).If(guard, this.limit(logged, this.makeLimitCheck(tree.pos)), null);
+    }
+
+    /* */
+    private boolean isLimited()
+    {
+        // the limit constants are declared after the static initializers, which would see them as null
+        return LogCalls.isLimited(this.maxPerSecond, this.sampleRate) && !"<clinit>".equals(this.methodName);
+    }
+
+    /* */
+    private boolean isInstrumented()
+    {
+        // the site constants are declared after the static initializers, which would see them as null
+        return this.logger.instrument() && !"<clinit>".equals(this.methodName);
+    }
+
+    /**
+     * Counts and times the calls made from the statement, eg: <code>log.warn("slow {}", id)</code> becomes
+     * <code>{ final long $morbokStart = $morbokStats0.begin(); log.warn("slow {}", id); $morbokStats0.end($morbokStart); }</code>
+     * with <code>private static final morbok.runtime.LogSite $morbokStats0 =
+     * new morbok.runtime.LogSite(new StackTraceElement("com.example.Foo", "bar", "Foo.java", 12), "WARN");</code>
+     */
+    private JCStatement instrument(JCStatement statement, JCMethodInvocation call, Logger.Level level)
+    {
+        this.maker.at(call.pos);
+        JCExpression type = chainDots(this.maker, this.typeNode, "morbok", "runtime", "LogSite");
+        JCExpression value = this.maker.NewClass(null, List.<JCExpression> nil(),
+                chainDots(this.maker, this.typeNode, "morbok", "runtime", "LogSite"),
+                List.<JCExpression> of(this.makeLocationValue(call), this.maker.Literal(TypeTags.CLASS, level.name())), null);
+
+        String name = "$morbokStats" + this.statsCount++;
+        injectField(this.typeNode, this.maker.VarDef(
+                this.maker.Modifiers(Flags.PRIVATE | Flags.FINAL | Flags.STATIC), this.typeNode.toName(name), type, value));
+
+        this.maker.at(statement.pos);
+        String start = "$morbokStart";
+        JCVariableDecl startDecl = this.maker.VarDef(this.maker.Modifiers(Flags.FINAL), this.typeNode.toName(start),
+                this.maker.TypeIdent(TypeTags.LONG), this.makeCall(this.maker.Ident(this.typeNode.toName(name)), "begin"));
+
+        JCStatement end = this.maker.Exec(this.makeCall(this.maker.Ident(this.typeNode.toName(name)), "end",
+                this.maker.Ident(this.typeNode.toName(start))));
+
+        return this.maker.Block(0, List.<JCStatement> of(startDecl, statement, end));
+    }
+
+    /**
+     * Adds a constant that limits how often one call is logged to the class and returns a check of it, eg:
+     * <code>$morbokLimit0.allow()</code> for
+     * <code>private static final morbok.runtime.CallSiteLimit $morbokLimit0 = new morbok.runtime.CallSiteLimit(100, 1);</code>,
+     * or null if the calls of the method aren't limited.
+     */
+    private JCExpression makeLimitCheck(int pos)
+    {
+        if (!this.isLimited())
+            return null;
+
+        this.maker.at(pos);
+        JCExpression type = chainDots(this.maker, this.typeNode, "morbok", "runtime", "CallSiteLimit");
+        JCExpression value = this.maker.NewClass(null, List.<JCExpression> nil(),
+                chainDots(this.maker, this.typeNode, "morbok", "runtime", "CallSiteLimit"),
+                List.<JCExpression> of(this.maker.Literal(TypeTags.INT, this.maxPerSecond), this.maker.Literal(TypeTags.INT, this.sampleRate)), null);
+
+        String name = "$morbokLimit" + this.limitCount++;
+        injectField(this.typeNode, this.maker.VarDef(
+                this.maker.Modifiers(Flags.PRIVATE | Flags.FINAL | Flags.STATIC), this.typeNode.toName(name), type, value));
+
+        return this.makeCall(this.maker.Ident(this.typeNode.toName(name)), "allow");
+    }
+
+    /* */
+    private JCStatement limit(JCStatement statement, JCExpression limit)
+    {
+        return limit == null ? statement : this.maker.at(statement.pos).If(limit, statement, null);
+    }
+
+    /**
+     * Returns the throwable passed to a warn, error or fatal call as its last argument when
+     * <code>@Logger(dedupe=true)</code>, or null if the call isn't deduped. Only a variable is, the
+     * throwable is evaluated once to decide whether the call is logged and again when it's logged.
+     */
+    private JCIdent getDedupedThrowable(JCMethodInvocation call, Logger.Level level)
+    {
+        if (!this.logger.dedupe() || level.compareTo(Logger.Level.WARN) < 0)
+            return null;
+
+        // the site constants are declared after the static initializers, which would see them as null
+        if ("<clinit>".equals(this.methodName))
+            return null;
+
+        boolean levelArgument = LogCalls.isLevelArgumentMethod(this.type, ((JCFieldAccess)call.meth).name.toString());
+        if (call.args.size() < (levelArgument ? 3 : 2))
+            return null;
+
+        JCExpression last = call.args.last();
+        return last instanceof JCIdent ? (JCIdent)last : null;
+    }
+
+    /**
+     * Only logs the statement if its throwable wasn't logged from the same call recently, eg:
+     * <code>log.error("failed", e)</code> becomes
+     * <code>{ final morbok.runtime.ThrowableSite.Admission $morbokAdmission = $morbokSite0.admit(e);
+     * if ($morbokAdmission.isAdmitted()) { if ($morbokAdmission.hasRepeats()) log.error($morbokAdmission.getSummary());
+     * log.error("failed", e); } }</code>
+     */
+    private JCStatement dedupe(JCStatement statement, JCIdent thrown, String methodName, String levelArgument)
+    {
+        JCExpression site = this.makeSite(statement.pos);
+        this.maker.at(statement.pos);
+
+        String admission = "$morbokAdmission";
+        JCVariableDecl admissionDecl = this.maker.VarDef(this.maker.Modifiers(Flags.FINAL), this.typeNode.toName(admission),
+                chainDots(this.maker, this.typeNode, "morbok", "runtime", "ThrowableSite", "Admission"),
+                this.makeCall(site, "admit", this.maker.Ident(thrown.name)));
+
+        ListBuffer<JCExpression> summaryArgs = new ListBuffer<JCExpression>();
+        if (LogCalls.isLevelArgumentMethod(this.type, methodName))
+        {
+            String level = LogCalls.getGuardArgument(this.type, methodName, levelArgument);
+            summaryArgs.append(chainDots(this.maker, this.typeNode, level.split("\\.")));
+        }
+        summaryArgs.append(this.makeCall(this.maker.Ident(this.typeNode.toName(admission)), "getSummary"));
+
+        JCStatement summary = this.maker.Exec(this.maker.Apply(List.<JCExpression> nil(),
+                chainDots(this.maker, this.typeNode, this.logVariableName, LogCalls.getMessageMethod(this.type, methodName)),
+                summaryArgs.toList()));
+
+        JCStatement admitted = this.maker.Block(0, List.<JCStatement> of(
+                this.maker.If(this.makeCall(this.maker.Ident(this.typeNode.toName(admission)), "hasRepeats"), summary, null),
+                statement));
+
+        return this.maker.Block(0, List.<JCStatement> of(admissionDecl,
+                this.maker.If(this.makeCall(this.maker.Ident(this.typeNode.toName(admission)), "isAdmitted"), admitted, null)));
+    }
+
+    /**
+     * Adds a constant that remembers the throwables logged from one call to the class and returns a reference to it, eg:
+     * <code>private static final morbok.runtime.ThrowableSite $morbokSite0 = new morbok.runtime.ThrowableSite();</code>
+     */
+    private JCExpression makeSite(int pos)
+    {
+        this.maker.at(pos);
+        JCExpression type = chainDots(this.maker, this.typeNode, "morbok", "runtime", "ThrowableSite");
+        JCExpression value = this.maker.NewClass(null, List.<JCExpression> nil(),
+                chainDots(this.maker, this.typeNode, "morbok", "runtime", "ThrowableSite"), List.<JCExpression> nil(), null);
+
+        String name = "$morbokSite" + this.siteCount++;
+        injectField(this.typeNode, this.maker.VarDef(
+                this.maker.Modifiers(Flags.PRIVATE | Flags.FINAL | Flags.STATIC), this.typeNode.toName(name), type, value));
+
+        return this.maker.Ident(this.typeNode.toName(name));
+    }
+
+    /** Reports a constant message template whose placeholders don't match the arguments of the call. */
+    private void validate(JCMethodInvocation call)
+    {
+        boolean levelArgument = LogCalls.isLevelArgumentMethod(this.type, ((JCFieldAccess)call.meth).name.toString());
+        List<JCExpression> message = levelArgument ? call.args.tail : call.args;
+        if (message.isEmpty())
+            return;
+
+        java.util.List<String> segments = new ArrayList<String>();
+        ListBuffer<JCExpression> args = new ListBuffer<JCExpression>();
+        if (!this.split(message.head, segments, args) || !args.isEmpty())
+            return;
+
+        String error = MessageTemplates.validate(this.type, segments.get(0), message.size() - 1);
+        if (error != null)
+        {
+            this.errorCount++;
+            this.typeNode.addError(error, call);
+        }
+    }
+
+    /**
+     * Turns <code>log.info("took " + ms + "ms")</code> into <code>log.info("took {}ms", ms)</code>, or
+     * <code>log.log(Level.INFO, "took " + ms + "ms")</code> into <code>log.log(Level.INFO, "took {0}ms", ms)</code>.
+     * ASYNC loggers are passed a precompiled template constant instead, eg: <code>log.info($morbokTemplate0, ms)</code>.
+     *
+     * @return true if the call was rewritten
+     */
+    private boolean parameterize(JCMethodInvocation call)
+    {
+        boolean levelArgument = LogCalls.isLevelArgumentMethod(this.type, ((JCFieldAccess)call.meth).name.toString());
+        List<JCExpression> message = levelArgument ? call.args.tail : call.args;
+
+        if (!this.logger.parameterize() || !MessageTemplates.supports(this.type) || message.size() != 1)
+            return false;
+
+        // the template constants are declared after the static initializers, which would see them as null
+        if ("<clinit>".equals(this.methodName) && this.type == Logger.Type.ASYNC)
+            return false;
+
+        java.util.List<String> segments = new ArrayList<String>();
+        ListBuffer<JCExpression> args = new ListBuffer<JCExpression>();
+        if (!this.split(message.head, segments, args) || args.isEmpty())
+            return false;
+
+        // slf4j would take a throwable at the end to be the exception, and log a {} in its place
+        if (MessageTemplates.takesLastThrowable(this.type) && this.isThrowable(args.last()))
+            return false;
+
+        String template = MessageTemplates.build(this.type, segments);
+        if (template == null)
+            return false;
+
+        this.maker.at(call.pos);
+        if (args.size() == 1)
+        {
+            // keeps a lone Throwable from picking the (String, Throwable) overload
+            JCExpression arg = args.first();
+            args = new ListBuffer<JCExpression>();
+            args.append(this.maker.TypeCast(chainDots(this.maker, this.typeNode, "java", "lang", "Object"), arg));
+        }
+        args.prepend(this.type == Logger.Type.ASYNC ? this.makeTemplate(template) : this.maker.Literal(TypeTags.CLASS, template));
+        if (levelArgument)
+            args.prepend(call.args.head);
+
+        call.args = args.toList();
+        return true;
+    }
+
+    /**
+     * Adds a constant with the given template to the class, unless there already is one, and returns a reference to it, eg:
+     * <code>private static final morbok.runtime.Template $morbokTemplate0 = new morbok.runtime.Template("took {}ms");</code>
+     */
+    private JCExpression makeTemplate(String template)
+    {
+        boolean declared = this.templates.containsKey(template);
+        String name = "$morbokTemplate" + this.addTemplate(template);
+
+        if (!declared)
+        {
+            JCExpression type = chainDots(this.maker, this.typeNode, "morbok", "runtime", "Template");
+            JCExpression value = this.maker.NewClass(null, List.<JCExpression> nil(),
+                    chainDots(this.maker, this.typeNode, "morbok", "runtime", "Template"),
+                    List.<JCExpression> of(this.maker.Literal(TypeTags.CLASS, template)), null);
+
+            injectField(this.typeNode, this.maker.VarDef(
+                    this.maker.Modifiers(Flags.PRIVATE | Flags.FINAL | Flags.STATIC), this.typeNode.toName(name), type, value));
+        }
+
+        return this.maker.Ident(this.typeNode.toName(name));
+    }
+
+    /** Returns the id of the given template, adding it to the templates of the class if it's new. */
+    private int addTemplate(String template)
+    {
+        Integer id = this.templates.get(template);
+        if (id == null)
+        {
+            id = this.templates.size();
+            this.templates.put(template, id);
+        }
+
+        return id;
+    }
+
+    /**
+     * Splits a string concatenation into the literal text between its arguments and the arguments, eg:
+     * <code>"took " + ms + "ms"</code> into "took ", "ms" and ms. A lone string literal is split into itself.
+     *
+     * @return false if the expression isn't a concatenation that starts with a string literal
+     */
+    private boolean split(JCExpression message, java.util.List<String> segments, ListBuffer<JCExpression> args)
+    {
+        // the operands of a left associative chain of +, which is only a string concatenation if it starts with a string
+        LinkedList<JCExpression> operands = new LinkedList<JCExpression>();
+        JCExpression expr = message;
+        while (true)
+        {
+            while (expr instanceof JCParens)
+                expr = ((JCParens)expr).expr;
+
+            if (!(expr instanceof JCBinary) || expr.getKind() != Kind.PLUS)
+                break;
+
+            operands.addFirst(((JCBinary)expr).rhs);
+            expr = ((JCBinary)expr).lhs;
+        }
+        operands.addFirst(expr);
+
+        if (operands.getFirst().getKind() != Kind.STRING_LITERAL)
+            return false;
+
+        StringBuilder segment = new StringBuilder();
+        for (JCExpression operand : operands)
+        {
+            if (operand.getKind() == Kind.STRING_LITERAL)
+            {
+                segment.append(((JCLiteral)operand).getValue());
+            }
+            else
+            {
+                segments.add(segment.toString());
+                segment.setLength(0);
+                args.append(operand);
+            }
+        }
+        segments.add(segment.toString());
+
+        return true;
+    }
+
+    /**
+     * Turns <code>log.info("took " + ms + "ms")</code> into
+     * <code>log.event(Logger.Level.INFO, 0).arg(ms).end()</code> for binary loggers, where 0 is the id of the
+     * "took {}ms" template. Messages that aren't built from a string literal are left to the logging method,
+     * which writes them as a string.
+     */
+    private void encode(JCExpressionStatement tree, JCMethodInvocation call, Logger.Level level)
+    {
+        if (call.args.isEmpty() || call.args.size() > 2)
+            return;
+
+        java.util.List<String> segments = new ArrayList<String>();
+        ListBuffer<JCExpression> args = new ListBuffer<JCExpression>();
+        if (!this.split(call.args.head, segments, args))
+            return;
+
+        String template = MessageTemplates.build(this.type, segments);
+        if (template == null)
+            return;
+
+        int templateId = this.addTemplate(template);
+
+        this.maker.at(call.pos);
+        JCExpression event = this.makeCall(this.maker.Ident(this.typeNode.toName(this.logVariableName)), "event",
+                chainDots(this.maker, this.typeNode, "morbok", "Logger", "Level", level.name()),
+                this.maker.Literal(TypeTags.INT, templateId));
+
+        for (JCExpression arg : args)
+            event = this.makeCall(event, "arg", arg);
+
+        if (call.args.size() == 2)
+            event = this.makeCall(event, "thrown", call.args.tail.head);
+
+        tree.expr = this.makeCall(event, "end");
+    }
+
+    /**
+     * Turns <code>log.info("took " + ms + "ms")</code> into
+     * <code>log.at(Logger.Level.INFO, $morbokTemplate0).arg(ms).log()</code> for facade loggers, so primitive
+     * arguments aren't boxed and nothing is formatted unless the level is enabled.
+     *
+     * @return true if the call was rewritten
+     */
+    private boolean specialize(JCExpressionStatement tree, JCMethodInvocation call, Logger.Level level)
+    {
+        if (!this.logger.parameterize() || call.args.size() != 1)
+            return false;
+
+        // the template constants are declared after the static initializers, which would see them as null
+        if ("<clinit>".equals(this.methodName))
+            return false;
+
+        java.util.List<String> segments = new ArrayList<String>();
+        ListBuffer<JCExpression> args = new ListBuffer<JCExpression>();
+        if (!this.split(call.args.head, segments, args) || args.isEmpty())
+            return false;
+
+        String template = MessageTemplates.build(this.type, segments);
+        if (template == null)
+            return false;
+
+        ListBuffer<JCExpression> atArgs = new ListBuffer<JCExpression>();
+        JCExpression location = this.logger.location() ? this.makeLocation(call) : null;
+        this.maker.at(call.pos);
+        atArgs.append(chainDots(this.maker, this.typeNode, "morbok", "Logger", "Level", level.name()));
+        if (location != null)
+            atArgs.append(location);
+        atArgs.append(this.makeTemplate(template));
+
+        JCExpression message = this.maker.Apply(List.<JCExpression> nil(),
+                chainDots(this.maker, this.typeNode, this.logVariableName, "at"), atArgs.toList());
+
+        for (JCExpression arg : args)
+            message = this.makeCall(message, "arg", arg);
+
+        tree.expr = this.makeCall(message, "log");
+        return true;
+    }
+
+    /* */
+    private JCExpression makeCall(JCExpression receiver, String methodName, JCExpression... args)
+    {
+        return this.maker.Apply(List.<JCExpression> nil(), this.maker.Select(receiver, this.typeNode.toName(methodName)), List.from(args));
+    }
+
+    /**
+     * Returns the message templates of the log calls that were rewritten, in template id order.
+     */
+    java.util.List<String> getTemplates()
+    {
+        return new ArrayList<String>(this.templates.keySet());
+    }
+
+    /**
+     * Returns the number of errors reported on the log calls.
+     */
+    int getErrorCount()
+    {
+        return this.errorCount;
+    }
+
+    /**
+     * Passes the location of the call to the logging library as a constant, eg: <code>log.info("hi")</code> becomes
+     * <code>log.logp(Level.INFO, "com.example.Foo", "bar", "hi")</code> for java.util.logging,
+     * <code>log.atInfo().withLocation($morbokLocation0).log("hi")</code> for log4j and
+     * <code>log.log(Logger.Level.INFO, $morbokLocation0, "hi", null)</code> for async and facade loggers.
+     *
+     * @param parameterized true if the call was given a template constant by {@link #parameterize(JCMethodInvocation)}
+     */
+    private void locate(JCMethodInvocation call, Logger.Level level, boolean parameterized)
+    {
+        if (!this.logger.location() || !LogCalls.supportsLocation(this.type))
+            return;
+
+        // the location constants are declared after the static initializers, which would see them as null
+        if ("<clinit>".equals(this.methodName) && this.type != Logger.Type.JAVA)
+            return;
+
+        String methodName = ((JCFieldAccess)call.meth).name.toString();
+        ListBuffer<JCExpression> args = new ListBuffer<JCExpression>();
+
+        switch (this.type)
+        {
+            case JAVA:
+            {
+                if ("logp".equals(methodName))
+                    return;
+
+                boolean levelArgument = LogCalls.isLevelArgumentMethod(this.type, methodName);
+                this.maker.at(call.pos);
+                args.append(levelArgument
+                        ? call.args.head
+                        : chainDots(this.maker, this.typeNode, LogCalls.getGuardArgument(this.type, methodName, null).split("\\.")));
+                args.append(this.maker.Literal(TypeTags.CLASS, this.getClassName()));
+                args.append(this.maker.Literal(TypeTags.CLASS, this.methodName));
+                args.appendList(levelArgument ? call.args.tail : call.args);
+
+                call.meth = chainDots(this.maker, this.typeNode, this.logVariableName, "logp");
+                call.args = args.toList();
+                break;
+            }
+            case LOG4J2:
+            {
+                // a LogBuilder only logs messages, so leave calls that may start with a marker alone
+                if (call.args.size() != 1 && (call.args.isEmpty() || call.args.head.getKind() != Kind.STRING_LITERAL))
+                    return;
+
+                JCExpression location = this.makeLocation(call);
+                this.maker.at(call.pos);
+
+                String at = "at" + Character.toUpperCase(methodName.charAt(0)) + methodName.substring(1);
+                JCExpression builder = this.maker.Apply(List.<JCExpression> nil(),
+                        chainDots(this.maker, this.typeNode, this.logVariableName, at), List.<JCExpression> nil());
+                builder = this.maker.Apply(List.<JCExpression> nil(),
+                        this.maker.Select(builder, this.typeNode.toName("withLocation")), List.of(location));
+
+                call.meth = this.maker.Select(builder, this.typeNode.toName("log"));
+                break;
+            }
+            case ASYNC:
+            case FACADE:
+            {
+                if (!parameterized && (call.args.isEmpty() || call.args.size() > 2))
+                    return;
+
+                JCExpression location = this.makeLocation(call);
+                this.maker.at(call.pos);
+
+                args.append(chainDots(this.maker, this.typeNode, "morbok", "Logger", "Level", level.name()));
+                args.append(location);
+                if (parameterized)
+                {
+                    args.appendList(call.args);
+                }
+                else
+                {
+                    args.append(call.args.head);
+                    args.append(call.args.size() == 2 ? call.args.tail.head : this.maker.Literal(TypeTags.BOT, null));
+                }
+
+                call.meth = chainDots(this.maker, this.typeNode, this.logVariableName, "log");
+                call.args = args.toList();
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Adds a constant with the location of the call to the class and returns a reference to it, eg:
+     * <code>private static final StackTraceElement $morbokLocation0 = new StackTraceElement("com.example.Foo", "bar", "Foo.java", 12);</code>
+     */
+    private JCExpression makeLocation(JCMethodInvocation call)
+    {
+        JCExpression location = this.makeLocationValue(call);
+        JCExpression type = chainDots(this.maker, this.typeNode, "java", "lang", "StackTraceElement");
+
+        String name = "$morbokLocation" + this.locationCount++;
+        injectField(this.typeNode, this.maker.VarDef(
+                this.maker.Modifiers(Flags.PRIVATE | Flags.FINAL | Flags.STATIC), this.typeNode.toName(name), type, location));
+
+        return this.maker.Ident(this.typeNode.toName(name));
+    }
+
+    /** Builds the location of the call, eg: <code>new StackTraceElement("com.example.Foo", "bar", "Foo.java", 12)</code> */
+    private JCExpression makeLocationValue(JCMethodInvocation call)
+    {
+        JCCompilationUnit unit = (JCCompilationUnit)this.typeNode.top().get();
+        String fileName = unit.sourcefile.getName().replace('\\', '/');
+        fileName = fileName.substring(fileName.lastIndexOf('/') + 1);
+        int line = unit.lineMap.getLineNumber(call.pos);
+
+        this.maker.at(call.pos);
+        ListBuffer<JCExpression> args = new ListBuffer<JCExpression>();
+        args.append(this.maker.Literal(TypeTags.CLASS, this.getClassName()));
+        args.append(this.maker.Literal(TypeTags.CLASS, this.methodName));
+        args.append(this.maker.Literal(TypeTags.CLASS, fileName));
+        args.append(this.maker.Literal(TypeTags.INT, line));
+
+        return this.maker.NewClass(null, List.<JCExpression> nil(),
+                chainDots(this.maker, this.typeNode, "java", "lang", "StackTraceElement"), args.toList(), null);
+    }
+
+    /* */
+    private String getClassName()
+    {
+        return ((JCClassDecl)this.typeNode.get()).sym.flatName().toString();
+    }
+
+    /** Builds the level check for the given call, eg: <code>log.isDebugEnabled()</code> */
+    private JCExpression makeGuard(JCMethodInvocation call)
+    {
+        String methodName = ((JCFieldAccess)call.meth).name.toString();
+        String guardArgument = LogCalls.getGuardArgument(this.type, methodName, this.getLevelArgument(call));
+
+        ListBuffer<JCExpression> args = new ListBuffer<JCExpression>();
+        if (guardArgument != null)
+            args.append(chainDots(this.maker, this.typeNode, guardArgument.split("\\.")));
+
+        JCExpression guardMethod = chainDots(this.maker, this.typeNode,
+                this.logVariableName, LogCalls.getGuardMethod(this.type, methodName));
+
+        return this.maker.Apply(List.<JCExpression> nil(), guardMethod, args.toList());
+    }
+
+    /** Returns true if every message argument of the call is a literal or a concatenation of literals. */
+    private boolean hasConstantArguments(JCMethodInvocation call)
+    {
+        List<JCExpression> args = call.args;
+        if (LogCalls.isLevelArgumentMethod(this.type, ((JCFieldAccess)call.meth).name.toString()) && !args.isEmpty())
+            args = args.tail;
+
+        for (JCExpression arg : args)
+        {
+            if (!this.isConstant(arg))
+                return false;
+        }
+
+        return true;
+    }
+
+    /* */
+    private boolean isConstant(JCExpression expr)
+    {
+        if (expr instanceof JCLiteral)
+            return true;
+
+        if (expr instanceof JCParens)
+            return this.isConstant(((JCParens)expr).expr);
+
+        if (expr instanceof JCBinary && expr.getKind() == Kind.PLUS)
+            return this.isConstant(((JCBinary)expr).lhs) && this.isConstant(((JCBinary)expr).rhs);
+
+        return false;
+    }
+
+    /** Returns the given expression as a call made directly on the log variable, or null if it isn't one. */
+    private JCMethodInvocation getLogCall(JCExpression expr)
+    {
+        if (!(expr instanceof JCMethodInvocation))
+            return null;
+
+        JCMethodInvocation call = (JCMethodInvocation)expr;
+        if (!(call.meth instanceof JCFieldAccess))
+            return null;
+
+        JCExpression receiver = ((JCFieldAccess)call.meth).selected;
+        if (!(receiver instanceof JCIdent) || !this.logVariableName.equals(((JCIdent)receiver).name.toString()))
+            return null;
+
+        return call;
+    }
+
+    /* */
+    private Logger.Level getLevel(JCMethodInvocation call)
+    {
+        String methodName = ((JCFieldAccess)call.meth).name.toString();
+        return LogCalls.getLevel(this.type, methodName, this.getLevelArgument(call));
+    }
+
+    /** Returns the simple name of the first argument if it is a name, otherwise null. */
+    private String getLevelArgument(JCMethodInvocation call)
+    {
+        if (call.args.isEmpty())
+            return null;
+
+        JCExpression first = call.args.head;
+        if (first instanceof JCFieldAccess)
+            return ((JCFieldAccess)first).name.toString();
+        if (first instanceof JCIdent)
+            return ((JCIdent)first).name.toString();
+
+        return null;
+    }
+
+    /** Returns true if the given tree declares a variable that shadows the log variable. */
+    private boolean declaresLogVariable(JCTree tree)
+    {
+        final boolean[] found = new boolean[1];
+
+        tree.accept(new TreeScanner() {
+            @Override
+            public void visitVarDef(JCVariableDecl varDecl)
+            {
+                if (LogCallRewriter.this.logVariableName.equals(varDecl.name.toString()))
+                    found[0] = true;
+
+                super.visitVarDef(varDecl);
+            }
+
+            @Override
+            public void visitClassDef(JCClassDecl classDecl)
+            {
+                // nested classes aren't rewritten, so what they declare doesn't matter
+            }
+        });
+
+        return found[0];
+    }
+}
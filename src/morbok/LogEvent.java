@@ -0,0 +1,27 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Makes a class a log event, which a morbok log variable logs with <code>log.event(evt)</code>.
+ * <p>
+ * The class is made to implement morbok.runtime.Event, with a generated writeTo method that hands each of its
+ * instance fields, other than transient ones, to a morbok.runtime.EventWriter. The writer writes them as
+ * key=value pairs or json, without reflection, and without boxing primitive fields.
+ * The event is named after the class, which can be overridden by providing a value.
+ *
+ * @author rayvanderborght
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.SOURCE)
+public @interface LogEvent
+{
+    String value() default "";
+}
@@ -16,6 +16,20 @@ import java.lang.annotation.Target;
  * The default log variable name is "log" which can be overridden by setting var.
  * The default log value is the fully qualified class name of the logged class, which can be overridden by providing a value.
  * The default log implementation is apache commons logging which can be overrided by providing a log type.
+ * Calls made on the log variable below minLevel are removed at compile time, along with their arguments.
+ * Debug and trace calls with arguments that aren't constants are wrapped in a level check unless guard is false.
+ * SLF4J, LOG4J2, SYSTEM and ASYNC messages built by string concatenation are turned into parameterized messages unless parameterize is false.
+ * Constant message templates are checked against the number of arguments passed with them.
+ * When lazy is true the log variable is declared in a nested holder class, so the logger is only looked up the first time it's used.
+ * With scope PACKAGE the logger is named after the package, so its classes share one logger, and with scope OUTER a nested class uses the logger of its outermost class.
+ * When location is true JAVA, LOG4J2, ASYNC and FACADE log calls are passed their location as a constant, so it isn't found by walking the stack.
+ * The ASYNC type logs from a background thread to a logger of the delegate type, which needs morbok.jar on the runtime classpath.
+ * The FACADE type logs on the calling thread to a logger of the delegate type, without boxing primitive arguments, and also needs morbok.jar.
+ * When structured is true the log variable is a morbok.runtime.StructuredLog, which logs key/value pairs to a logger of the type without boxing them, and needs morbok.jar.
+ * The BINARY type writes message template ids and raw arguments to a binary file, formatted later by java -jar morbok.jar decode.
+ * When dedupe is true a throwable passed to a warn, error or fatal call is only logged once per window, repeats are counted and summarized, which needs morbok.jar.
+ * When maxPerSecond is more than 0 each log call is logged at most that many times a second, and when sampleRate is more than 1 only one in every sampleRate calls is logged, which needs morbok.jar; a method annotated with morbok.RateLimit sets its own.
+ * When instrument is true each log call counts its calls and samples their time, reported over JMX by morbok.runtime.LogSites, which needs morbok.jar; every call is then wrapped in a level check unless guard is false.
  *
  * @author rayvanderborght
  */
@@ -26,12 +40,48 @@ public @interface Logger
     String var() default "log";
     String value() default "";
     morbok.Logger.Type type() default morbok.Logger.Type.COMMONS;
+    morbok.Logger.Level minLevel() default morbok.Logger.Level.TRACE;
+    boolean guard() default true;
+    boolean parameterize() default true;
+    morbok.Logger.Type delegate() default morbok.Logger.Type.COMMONS;
+    boolean lazy() default false;
+    boolean location() default false;
+    morbok.Logger.Scope scope() default morbok.Logger.Scope.CLASS;
+    boolean structured() default false;
+    boolean dedupe() default false;
+    int maxPerSecond() default 0;
+    int sampleRate() default 1;
+    boolean instrument() default false;
 
     /** */
     public static enum Type
     {
         COMMONS,
         JAVA,
-        SLF4J
+        SLF4J,
+        LOG4J2,
+        SYSTEM,
+        ASYNC,
+        BINARY,
+        FACADE
+    }
+
+    /** */
+    public static enum Scope
+    {
+        CLASS,
+        OUTER,
+        PACKAGE
+    }
+
+    /** */
+    public static enum Level
+    {
+        TRACE,
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR,
+        FATAL
     }
 }
@@ -0,0 +1,30 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Limits how often each log call in a method of a <code>morbok.Logger</code> annotated class is logged,
+ * in place of the maxPerSecond and sampleRate of the class's logger.
+ * <p>
+ * Each call gets a limit of its own, so one noisy call can't use up what the others are allowed.
+ * When maxPerSecond is more than 0 a call is logged at most that many times a second, bursts included.
+ * When sampleRate is more than 1 only one in every sampleRate calls is logged.
+ * The limit is checked before the arguments of the call are evaluated, and needs morbok.jar.
+ * A method annotated with the defaults isn't limited at all.
+ *
+ * @author rayvanderborght
+ */
+@Target({ ElementType.METHOD, ElementType.CONSTRUCTOR })
+@Retention(RetentionPolicy.SOURCE)
+public @interface RateLimit
+{
+    int maxPerSecond() default 0;
+    int sampleRate() default 1;
+}
@@ -0,0 +1,64 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.core;
+
+import morbok.Logger;
+
+/**
+ * Compiler wide settings for the morbok handlers.
+ * <p>
+ * With javac these are passed as annotation processor options, eg: <code>-Amorbok.minLevel=INFO</code>.
+ * Eclipse doesn't have processor options for lombok handlers, so there they're read from system properties
+ * instead, eg: <code>-Dmorbok.minLevel=INFO</code> in eclipse.ini.
+ *
+ * @author rayvanderborght
+ */
+public final class HandlerOptions
+{
+    /** Log calls below this level are removed from classes that don't specify their own minLevel. */
+    public static final String MIN_LEVEL = "morbok.minLevel";
+
+    /** Counts what the handlers do, see {@link HandlerStats}. */
+    public static final String STATS = "morbok.stats";
+
+    private HandlerOptions()
+    {
+        // Prevent instantiation
+    }
+
+    /**
+     * Returns the value of the given option as set by a system property, or null if it isn't set.
+     */
+    public static String getSystemOption(String key)
+    {
+        try
+        {
+            String value = System.getProperty(key);
+            return (value == null || "".equals(value.trim())) ? null : value.trim();
+        }
+        catch (SecurityException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the level named by the given option value, or null if it doesn't name a level.
+     */
+    public static Logger.Level parseLevel(String value)
+    {
+        if (value == null)
+            return null;
+
+        try
+        {
+            return Logger.Level.valueOf(value.trim().toUpperCase());
+        }
+        catch (IllegalArgumentException e)
+        {
+            return null;
+        }
+    }
+}
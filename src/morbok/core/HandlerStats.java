@@ -0,0 +1,169 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.core;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts what the handlers do and how long they take, when the <code>morbok.stats</code> option is set.
+ * <p>
+ * The handlers aren't told when a compile ends, so the totals are reported when the jvm exits: printed to
+ * System.err when the option is <code>true</code>, or written to the file it names otherwise. They're the
+ * totals of every compile the jvm has run, which for javac on the command line is one.
+ *
+ * @author rayvanderborght
+ */
+public final class HandlerStats
+{
+    /** Stats for when the option isn't set, which count nothing. */
+    private static final HandlerStats DISABLED = new HandlerStats(false);
+
+    private static final HandlerStats INSTANCE = new HandlerStats(true);
+
+    private final boolean enabled;
+    private volatile String destination;
+
+    private final AtomicLong classes = new AtomicLong();
+    private final AtomicLong fieldsInjected = new AtomicLong();
+    private final AtomicLong fieldsSkipped = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /** */
+    private HandlerStats(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns the stats to count into for the given <code>morbok.stats</code> option value, which count
+     * nothing if it's null or <code>false</code>.
+     */
+    public static HandlerStats forOption(String option)
+    {
+        if (option == null || "false".equalsIgnoreCase(option))
+            return DISABLED;
+
+        INSTANCE.report(option);
+        return INSTANCE;
+    }
+
+    /* */
+    private void report(String destination)
+    {
+        synchronized (this)
+        {
+            if (this.destination == null)
+            {
+                Runtime.getRuntime().addShutdownHook(new Thread("morbok stats")
+                {
+                    @Override
+                    public void run()
+                    {
+                        HandlerStats.this.write();
+                    }
+                });
+            }
+            this.destination = destination;
+        }
+    }
+
+    /**
+     * Counts a class the handler was run on, and how long it took.
+     */
+    public void handled(long nanos)
+    {
+        if (!this.enabled)
+            return;
+
+        this.classes.incrementAndGet();
+        this.nanos.addAndGet(nanos);
+
+        long max = this.maxNanos.get();
+        while (nanos > max && !this.maxNanos.compareAndSet(max, nanos))
+            max = this.maxNanos.get();
+    }
+
+    /**
+     * Counts a log variable declared by the handler.
+     */
+    public void fieldInjected()
+    {
+        if (this.enabled)
+            this.fieldsInjected.incrementAndGet();
+    }
+
+    /**
+     * Counts a class the handler left alone, because it already declares the log variable.
+     */
+    public void fieldSkipped()
+    {
+        if (this.enabled)
+            this.fieldsSkipped.incrementAndGet();
+    }
+
+    /**
+     * Counts errors reported by the handler.
+     */
+    public void errors(int count)
+    {
+        if (this.enabled)
+            this.errors.addAndGet(count);
+    }
+
+    /* */
+    private void write()
+    {
+        if (this.classes.get() == 0)
+            return;
+
+        if ("true".equalsIgnoreCase(this.destination))
+        {
+            System.err.println(this.getSummary());
+            return;
+        }
+
+        try
+        {
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(this.destination), "UTF-8"));
+            try
+            {
+                out.println("classes=" + this.classes.get());
+                out.println("fieldsInjected=" + this.fieldsInjected.get());
+                out.println("fieldsSkipped=" + this.fieldsSkipped.get());
+                out.println("errors=" + this.errors.get());
+                out.println("totalNanos=" + this.nanos.get());
+                out.println("maxNanos=" + this.maxNanos.get());
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        catch (IOException e)
+        {
+            System.err.println("morbok: couldn't write stats to " + this.destination + ": " + e);
+        }
+    }
+
+    /* */
+    private String getSummary()
+    {
+        long classes = this.classes.get();
+        long nanos = this.nanos.get();
+
+        return String.format(Locale.US,
+                "morbok: handled %d @Logger classes in %.1f ms (%.1f us per class, slowest %.1f ms), "
+                        + "%d log variables declared, %d skipped because they exist, %d errors",
+                classes, nanos / 1e6, nanos / 1e3 / classes, this.maxNanos.get() / 1e6,
+                this.fieldsInjected.get(), this.fieldsSkipped.get(), this.errors.get());
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.core;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import morbok.Logger;
+
+/**
+ * Knows which methods of each supported logger type log at which level, so that the
+ * handlers can recognize calls made on a generated log variable.
+ *
+ * @author rayvanderborght
+ */
+public final class LogCalls
+{
+    private static final Map<Logger.Type, Map<String, Logger.Level>> LEVEL_METHODS =
+            new EnumMap<Logger.Type, Map<String, Logger.Level>>(Logger.Type.class);
+
+    /** Methods whose level is given by their first argument, eg: <code>log.log(Level.FINE, "...")</code> */
+    private static final Map<Logger.Type, Set<String>> LEVEL_ARGUMENT_METHODS =
+            new EnumMap<Logger.Type, Set<String>>(Logger.Type.class);
+
+    private static final Map<Logger.Type, Map<String, Logger.Level>> LEVEL_ARGUMENTS =
+            new EnumMap<Logger.Type, Map<String, Logger.Level>>(Logger.Type.class);
+
+    private static final Map<Logger.Type, String> LEVEL_CLASSES = new EnumMap<Logger.Type, String>(Logger.Type.class);
+
+    static
+    {
+        Map<String, Logger.Level> commons = new HashMap<String, Logger.Level>();
+        commons.put("trace", Logger.Level.TRACE);
+        commons.put("debug", Logger.Level.DEBUG);
+        commons.put("info", Logger.Level.INFO);
+        commons.put("warn", Logger.Level.WARN);
+        commons.put("error", Logger.Level.ERROR);
+        commons.put("fatal", Logger.Level.FATAL);
+        LEVEL_METHODS.put(Logger.Type.COMMONS, commons);
+
+        // mapped the same way the jul-to-slf4j bridge does it
+        Map<String, Logger.Level> java = new HashMap<String, Logger.Level>();
+        java.put("finest", Logger.Level.TRACE);
+        java.put("finer", Logger.Level.DEBUG);
+        java.put("fine", Logger.Level.DEBUG);
+        java.put("config", Logger.Level.INFO);
+        java.put("info", Logger.Level.INFO);
+        java.put("warning", Logger.Level.WARN);
+        java.put("severe", Logger.Level.ERROR);
+        LEVEL_METHODS.put(Logger.Type.JAVA, java);
+
+        Map<String, Logger.Level> javaLevels = new HashMap<String, Logger.Level>();
+        for (Map.Entry<String, Logger.Level> entry : java.entrySet())
+            javaLevels.put(entry.getKey().toUpperCase(), entry.getValue());
+        LEVEL_ARGUMENTS.put(Logger.Type.JAVA, javaLevels);
+        LEVEL_ARGUMENT_METHODS.put(Logger.Type.JAVA, new HashSet<String>(Arrays.asList("log", "logp")));
+        LEVEL_CLASSES.put(Logger.Type.JAVA, "java.util.logging.Level");
+
+        Map<String, Logger.Level> slf4j = new HashMap<String, Logger.Level>(commons);
+        slf4j.remove("fatal");
+        LEVEL_METHODS.put(Logger.Type.SLF4J, slf4j);
+
+        LEVEL_METHODS.put(Logger.Type.LOG4J2, commons);
+        LEVEL_METHODS.put(Logger.Type.ASYNC, commons);
+        LEVEL_METHODS.put(Logger.Type.BINARY, commons);
+        LEVEL_METHODS.put(Logger.Type.FACADE, commons);
+
+        Map<String, Logger.Level> systemLevels = new HashMap<String, Logger.Level>();
+        systemLevels.put("TRACE", Logger.Level.TRACE);
+        systemLevels.put("DEBUG", Logger.Level.DEBUG);
+        systemLevels.put("INFO", Logger.Level.INFO);
+        systemLevels.put("WARNING", Logger.Level.WARN);
+        systemLevels.put("ERROR", Logger.Level.ERROR);
+        LEVEL_ARGUMENTS.put(Logger.Type.SYSTEM, systemLevels);
+        LEVEL_ARGUMENT_METHODS.put(Logger.Type.SYSTEM, Collections.singleton("log"));
+        LEVEL_CLASSES.put(Logger.Type.SYSTEM, "java.lang.System.Logger.Level");
+    }
+
+    private LogCalls()
+    {
+        // Prevent instantiation
+    }
+
+    /**
+     * Returns the level a call logs at, or null if the method isn't one of the logging methods of the given type.
+     *
+     * @param type the type of the log variable the method is called on
+     * @param methodName the name of the method called
+     * @param levelArgument the simple name of the first argument if it is a name, eg: "FINE" for
+     *            <code>log.log(Level.FINE, "...")</code>, otherwise null
+     */
+    public static Logger.Level getLevel(Logger.Type type, String methodName, String levelArgument)
+    {
+        Logger.Level level = getMethods(LEVEL_METHODS, type).get(methodName);
+        if (level != null)
+            return level;
+
+        if (levelArgument != null && isLevelArgumentMethod(type, methodName))
+            return getMethods(LEVEL_ARGUMENTS, type).get(levelArgument);
+
+        return null;
+    }
+
+    /**
+     * Returns true if the given method takes the level as its first argument.
+     */
+    public static boolean isLevelArgumentMethod(Logger.Type type, String methodName)
+    {
+        Set<String> methods = LEVEL_ARGUMENT_METHODS.get(type);
+        return methods != null && methods.contains(methodName);
+    }
+
+    /**
+     * Returns the name of the method that checks whether calls to the given logging method are enabled,
+     * eg: "isDebugEnabled" for "debug", or "isLoggable" for types that have a level class.
+     */
+    public static String getGuardMethod(Logger.Type type, String methodName)
+    {
+        if (LEVEL_CLASSES.containsKey(type))
+            return "isLoggable";
+
+        return "is" + Character.toUpperCase(methodName.charAt(0)) + methodName.substring(1) + "Enabled";
+    }
+
+    /**
+     * Returns the fully qualified name of the level constant the guard method takes, or null if the guard
+     * method doesn't take any arguments.
+     *
+     * @see #getLevel(Logger.Type, String, String)
+     */
+    public static String getGuardArgument(Logger.Type type, String methodName, String levelArgument)
+    {
+        String levelClass = LEVEL_CLASSES.get(type);
+        if (levelClass == null)
+            return null;
+
+        String levelName = isLevelArgumentMethod(type, methodName) ? levelArgument : methodName.toUpperCase();
+        return levelClass + "." + levelName;
+    }
+
+    /**
+     * Returns the name of the method that logs a lone message at the same level as the given logging method,
+     * eg: "error" for "error", or "log" for methods that take the level as their first argument, which is then
+     * passed the level constant from {@link #getGuardArgument(Logger.Type, String, String)}.
+     */
+    public static String getMessageMethod(Logger.Type type, String methodName)
+    {
+        return isLevelArgumentMethod(type, methodName) ? "log" : methodName;
+    }
+
+    /**
+     * Returns true if the logging methods of the given type can be passed the location they're called from,
+     * so the logging library doesn't have to walk the stack to find it.
+     */
+    public static boolean supportsLocation(Logger.Type type)
+    {
+        return type == Logger.Type.JAVA || type == Logger.Type.LOG4J2 || type == Logger.Type.ASYNC || type == Logger.Type.FACADE;
+    }
+
+    /**
+     * Returns true if loggers of the given type log through the morbok runtime to a logger of their delegate type.
+     */
+    public static boolean hasDelegate(Logger.Type type)
+    {
+        return type == Logger.Type.ASYNC || type == Logger.Type.FACADE;
+    }
+
+    /**
+     * Returns the type whose methods the log variable has. Structured loggers have the methods of FACADE
+     * loggers, or of ASYNC ones if they're asynchronous.
+     */
+    public static Logger.Type getCallType(Logger logger)
+    {
+        if (logger.structured() && logger.type() != Logger.Type.ASYNC)
+            return Logger.Type.FACADE;
+
+        return logger.type();
+    }
+
+    /**
+     * Returns the type of logger that ASYNC, FACADE and structured loggers log to.
+     */
+    public static Logger.Type getDelegate(Logger logger)
+    {
+        return hasDelegate(logger.type()) ? logger.delegate() : logger.type();
+    }
+
+    /**
+     * Returns the error to report for a maxPerSecond or sampleRate of the given annotation that can't be
+     * used, or null if both can.
+     */
+    public static String validateLimit(String annotationName, int maxPerSecond, int sampleRate)
+    {
+        if (maxPerSecond < 0)
+            return "@" + annotationName + " maxPerSecond can't be negative.";
+        if (sampleRate < 1)
+            return "@" + annotationName + " sampleRate must be at least 1.";
+
+        return null;
+    }
+
+    /**
+     * Returns true if the log calls are limited by the given maxPerSecond and sampleRate.
+     */
+    public static boolean isLimited(int maxPerSecond, int sampleRate)
+    {
+        return maxPerSecond > 0 || sampleRate > 1;
+    }
+
+    /* */
+    private static Map<String, Logger.Level> getMethods(Map<Logger.Type, Map<String, Logger.Level>> methods, Logger.Type type)
+    {
+        Map<String, Logger.Level> result = methods.get(type);
+        return result == null ? Collections.<String, Logger.Level> emptyMap() : result;
+    }
+}
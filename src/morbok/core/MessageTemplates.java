@@ -0,0 +1,166 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.core;
+
+import java.text.MessageFormat;
+import java.util.List;
+
+import morbok.Logger;
+import morbok.runtime.Template;
+
+/**
+ * Builds the parameterized message templates that string concatenations in log calls are rewritten into,
+ * eg: <code>"user " + id + " took " + ms + "ms"</code> becomes <code>"user {} took {}ms"</code> with
+ * the arguments id and ms. The SYSTEM type uses <code>java.text.MessageFormat</code> templates instead,
+ * eg: <code>"user {0} took {1}ms"</code>.
+ *
+ * @author rayvanderborght
+ */
+public final class MessageTemplates
+{
+    private MessageTemplates()
+    {
+        // Prevent instantiation
+    }
+
+    /**
+     * Returns true if the logging methods of the given type take a message template followed by its arguments.
+     * ASYNC loggers take a precompiled {@link Template} instead of a string.
+     */
+    public static boolean supports(Logger.Type type)
+    {
+        return type == Logger.Type.SLF4J || type == Logger.Type.LOG4J2 || type == Logger.Type.SYSTEM
+                || type == Logger.Type.ASYNC;
+    }
+
+    /**
+     * Returns true if the logging methods of the given type take a Throwable passed as the last argument to be the
+     * throwable of the event, even when the template has a placeholder for it. slf4j 1.7 with logback and slf4j 2 do,
+     * and leave the placeholder as it is, so a concatenation that ends with a throwable can't be parameterized.
+     */
+    public static boolean takesLastThrowable(Logger.Type type)
+    {
+        return type == Logger.Type.SLF4J;
+    }
+
+    /**
+     * Returns true if a variable declared with the given type could hold a Throwable, going by its simple name.
+     * Object and Serializable could hold anything, other types are only taken to be throwables when they're named
+     * like one.
+     */
+    public static boolean isThrowableType(String typeName)
+    {
+        String name = typeName.substring(typeName.lastIndexOf('.') + 1);
+        return name.equals("Object") || name.equals("Serializable") || isThrowableName(name);
+    }
+
+    /**
+     * Returns true if a method with the given name could return a Throwable, going by its name, eg: getCause().
+     */
+    public static boolean isThrowableMethod(String methodName)
+    {
+        return methodName.equals("getCause") || isThrowableName(methodName);
+    }
+
+    /* */
+    private static boolean isThrowableName(String name)
+    {
+        return name.endsWith("Throwable") || name.endsWith("Exception") || name.endsWith("Error");
+    }
+
+    /**
+     * Checks that a constant template passed to a log call has a placeholder for each of the call's arguments.
+     * Only calls with arguments are checked, since a message without any is logged as it is. A last argument
+     * without a placeholder is allowed for SLF4J and LOG4J2, where it's the throwable, and so is a lone
+     * argument for several placeholders, which may be an array of them.
+     *
+     * @param type the type of the log variable the template is passed to
+     * @param template the template
+     * @param argumentCount the number of arguments passed after the template
+     * @return the reason the arguments don't fit, or null if they do or there's no telling at compile time
+     */
+    public static String validate(Logger.Type type, String template, int argumentCount)
+    {
+        if (argumentCount == 0)
+            return null;
+
+        int placeholders;
+        if (type == Logger.Type.SYSTEM)
+        {
+            try
+            {
+                placeholders = new MessageFormat(template).getFormatsByArgumentIndex().length;
+            }
+            catch (IllegalArgumentException e)
+            {
+                return "The message template isn't a valid MessageFormat pattern: " + e.getMessage();
+            }
+
+            // log(Level, String, Throwable) and an array of parameters both pass just one
+            if (argumentCount == 1 || argumentCount == placeholders)
+                return null;
+        }
+        else if (type == Logger.Type.SLF4J || type == Logger.Type.LOG4J2)
+        {
+            placeholders = Template.split(template).size() - 1;
+
+            if (argumentCount == placeholders || argumentCount == placeholders + 1 || (argumentCount == 1 && placeholders > 1))
+                return null;
+        }
+        else
+        {
+            return null;
+        }
+
+        return "The message template has " + placeholders + (placeholders == 1 ? " placeholder" : " placeholders")
+                + " but " + argumentCount + (argumentCount == 1 ? " argument was" : " arguments were") + " given.";
+    }
+
+    /**
+     * Builds a template from the literal text found between the arguments of a concatenation.
+     *
+     * @param type the type of the log variable the template is passed to
+     * @param segments the literal text before the first argument, between each argument and after the last one
+     * @return the template, or null if one of the segments can't be expressed in a template
+     */
+    public static String build(Logger.Type type, List<String> segments)
+    {
+        if (type == Logger.Type.SYSTEM)
+            return buildMessageFormat(segments);
+
+        StringBuilder template = new StringBuilder();
+
+        for (int i = 0; i < segments.size(); i++)
+        {
+            String segment = segments.get(i);
+            boolean last = i == segments.size() - 1;
+
+            // slf4j and log4j read a backslash in front of {} as an escape, so there's no way to say either of these
+            if (segment.contains("\\{}") || (!last && segment.endsWith("\\")))
+                return null;
+
+            template.append(segment.replace("{}", "\\{}"));
+            if (!last)
+                template.append("{}");
+        }
+
+        return template.toString();
+    }
+
+    /* */
+    private static String buildMessageFormat(List<String> segments)
+    {
+        StringBuilder template = new StringBuilder();
+
+        for (int i = 0; i < segments.size(); i++)
+        {
+            template.append(segments.get(i).replace("'", "''").replace("{", "'{'"));
+            if (i < segments.size() - 1)
+                template.append('{').append(i).append('}');
+        }
+
+        return template.toString();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import morbok.Logger;
+
+/**
+ * Hands log events to the dispatcher's buffer instead of logging them on the calling thread.
+ * <p>
+ * Messages are turned into strings before they're buffered, since the objects they describe may change
+ * before the dispatcher gets to them, except for messages built from a {@link Template}, which are formatted
+ * by the dispatcher. Throwables are buffered as they are, and are only formatted by the
+ * logging library on the dispatcher thread. The enabled levels of the delegate are cached, and refreshed by
+ * the dispatcher about once a second, so checking a level doesn't call into the logging library.
+ *
+ * @author rayvanderborght
+ */
+final class AsyncBackend implements LogBackend
+{
+    private final LogBackend delegate;
+    private final AsyncDispatcher dispatcher;
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** A bit for each level, set if the level is enabled. */
+    private volatile int enabledLevels;
+
+    /** */
+    AsyncBackend(LogBackend delegate, AsyncDispatcher dispatcher)
+    {
+        this.delegate = delegate;
+        this.dispatcher = dispatcher;
+        this.refreshLevels();
+        dispatcher.register(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEnabled(Logger.Level level)
+    {
+        return (this.enabledLevels & (1 << level.ordinal())) != 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void log(Logger.Level level, StackTraceElement location, Object message, Throwable t)
+    {
+        if (!this.isEnabled(level))
+            return;
+
+        Object buffered = message instanceof TemplateMessage ? message : String.valueOf(message);
+        if (!this.dispatcher.enqueue(this, level, location, buffered, t))
+            this.dropped.incrementAndGet();
+    }
+
+    /**
+     * Logs a buffered event to the delegate, called on the dispatcher thread.
+     */
+    void dispatch(Logger.Level level, StackTraceElement location, Object message, Throwable t)
+    {
+        try
+        {
+            this.delegate.log(level, location, message.toString(), t);
+        }
+        catch (Throwable e)
+        {
+            // one broken appender mustn't stop every other logger, nor kill the dispatcher thread
+            System.err.println("morbok: async log event could not be logged: " + message);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Logs a warning with the number of events dropped since the last report, if there were any.
+     */
+    void reportDropped()
+    {
+        long count = this.dropped.getAndSet(0);
+        if (count > 0)
+            this.dispatch(Logger.Level.WARN, null, count + " log events were dropped because the async log buffer was full", null);
+    }
+
+    /**
+     * Asks the delegate which levels are enabled.
+     */
+    void refreshLevels()
+    {
+        int levels = 0;
+        try
+        {
+            for (Logger.Level level : Logger.Level.values())
+            {
+                if (this.delegate.isEnabled(level))
+                    levels |= 1 << level.ordinal();
+            }
+        }
+        catch (Throwable e)
+        {
+            return;
+        }
+
+        this.enabledLevels = levels;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import morbok.Logger;
+
+/**
+ * Owns the buffer that async loggers add their events to, and the daemon thread that drains it in
+ * batches into the real logging library.
+ * <p>
+ * It's configured with system properties, read when the first async logger is created:
+ * <ul>
+ * <li><code>morbok.async.bufferSize</code> the number of events buffered, a power of two (default 8192)</li>
+ * <li><code>morbok.async.overflow</code> the {@link OverflowPolicy} used when the buffer is full (default BLOCK)</li>
+ * <li><code>morbok.async.shutdownTimeout</code> how long the shutdown hook waits for the buffer to be flushed,
+ * in milliseconds (default 1000)</li>
+ * </ul>
+ *
+ * @author rayvanderborght
+ */
+public final class AsyncDispatcher
+{
+    public static final String BUFFER_SIZE = "morbok.async.bufferSize";
+    public static final String OVERFLOW = "morbok.async.overflow";
+    public static final String SHUTDOWN_TIMEOUT = "morbok.async.shutdownTimeout";
+
+    private static final int BATCH_SIZE = 256;
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final RingBuffer buffer;
+    private final OverflowPolicy overflow;
+    private final List<AsyncBackend> backends = new CopyOnWriteArrayList<AsyncBackend>();
+    private final Thread thread;
+
+    private volatile boolean idle;
+    private volatile boolean running = true;
+
+    /** Holds the one dispatcher, which is started the first time it's needed. */
+    private static final class Holder
+    {
+        static final AsyncDispatcher INSTANCE = new AsyncDispatcher(
+                RuntimeOptions.getPowerOfTwo(BUFFER_SIZE, 8192),
+                RuntimeOptions.getEnum(OVERFLOW, OverflowPolicy.class, OverflowPolicy.BLOCK),
+                RuntimeOptions.getInt(SHUTDOWN_TIMEOUT, 1000));
+    }
+
+    /** */
+    AsyncDispatcher(int bufferSize, OverflowPolicy overflow, final int shutdownTimeout)
+    {
+        this.buffer = new RingBuffer(bufferSize);
+        this.overflow = overflow;
+
+        this.thread = new Thread(new Runnable() {
+            public void run()
+            {
+                AsyncDispatcher.this.drainLoop();
+            }
+        }, "morbok-async-logger");
+        this.thread.setDaemon(true);
+        this.thread.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run()
+            {
+                AsyncDispatcher.this.shutdown(shutdownTimeout);
+            }
+        }, "morbok-async-logger-shutdown"));
+    }
+
+    /**
+     * Returns the dispatcher, starting it if this is the first time it's asked for.
+     */
+    static AsyncDispatcher getInstance()
+    {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Waits until the events logged before this call have been handed to their logging library, or the timeout
+     * runs out.
+     *
+     * @return true if everything was flushed in time
+     */
+    public static boolean flush(long timeoutMillis)
+    {
+        return getInstance().awaitDrained(timeoutMillis);
+    }
+
+    /**
+     * Registers a backend so its level cache is refreshed and its dropped events are reported.
+     */
+    void register(AsyncBackend backend)
+    {
+        this.backends.add(backend);
+    }
+
+    /**
+     * Adds an event to the buffer, applying the overflow policy if it's full.
+     *
+     * @return false if the event was dropped
+     */
+    boolean enqueue(AsyncBackend backend, Logger.Level level, StackTraceElement location, Object message, Throwable t)
+    {
+        boolean added = this.buffer.offer(backend, level, location, message, t);
+
+        // the drain thread logs through an async logger when a logging library it calls into does, and waiting
+        // for room only it can make would hang it, so its events are dropped and counted like overflow
+        if (!added && this.running && !this.overflow.drops(level) && Thread.currentThread() != this.thread)
+        {
+            // the drain thread is behind, so waiting a little for it is cheaper than spinning, unless it's
+            // died, in which case nothing would ever make room and the event is dropped
+            while (!added && this.running && this.thread.isAlive())
+            {
+                LockSupport.unpark(this.thread);
+                LockSupport.parkNanos(1000);
+                added = this.buffer.offer(backend, level, location, message, t);
+            }
+        }
+
+        if (added && this.idle)
+            LockSupport.unpark(this.thread);
+
+        return added;
+    }
+
+    /* */
+    private void drainLoop()
+    {
+        long lastRefresh = System.nanoTime();
+
+        while (this.running || !this.buffer.isEmpty())
+        {
+            int drained = this.buffer.drain(BATCH_SIZE);
+
+            long now = System.nanoTime();
+            boolean refresh = now - lastRefresh >= REFRESH_NANOS;
+            if (drained == 0 || refresh)
+            {
+                for (AsyncBackend backend : this.backends)
+                {
+                    backend.reportDropped();
+                    if (refresh)
+                        backend.refreshLevels();
+                }
+            }
+            if (refresh)
+                lastRefresh = now;
+
+            if (drained == 0)
+            {
+                // producers read idle after adding, so setting it before looking again can't miss one
+                this.idle = true;
+                if (this.buffer.isEmpty() && this.running)
+                    LockSupport.parkNanos(IDLE_NANOS);
+                this.idle = false;
+            }
+        }
+    }
+
+    /* */
+    private boolean awaitDrained(long timeoutMillis)
+    {
+        long target = this.buffer.getAdded();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+
+        while (this.buffer.getTaken() < target)
+        {
+            if (System.nanoTime() - deadline >= 0 || !this.thread.isAlive())
+                return false;
+
+            LockSupport.unpark(this.thread);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        return true;
+    }
+
+    /* */
+    private void shutdown(int timeoutMillis)
+    {
+        boolean flushed = this.awaitDrained(timeoutMillis);
+        this.running = false;
+        LockSupport.unpark(this.thread);
+
+        if (!flushed)
+            System.err.println("morbok: async log events were still buffered at shutdown after waiting " + timeoutMillis + "ms");
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import morbok.Logger;
+
+/**
+ * An event being logged to a binary logger. The handlers turn
+ * <code>log.info("user " + id + " took " + ms + "ms")</code> into
+ * <code>log.event(Logger.Level.INFO, 0).arg(id).arg(ms).end()</code>, where 0 is the id of the
+ * <code>"user {} took {}ms"</code> template, so only the arguments are written on the calling thread.
+ * <p>
+ * Each thread reuses one event, virtual threads share a few, so an event mustn't be kept once it's ended.
+ *
+ * @author rayvanderborght
+ */
+public final class BinaryEvent
+{
+    /** The event returned for levels that aren't enabled, which ignores everything. */
+    static final BinaryEvent DISABLED = new BinaryEvent(null, null, 0);
+
+    private final BinaryWriter writer;
+    private final ThreadBuffer buffer;
+    private final long threadId;
+    private final boolean shared;
+
+    private byte[] bytes = new byte[256];
+    private int length;
+    private boolean active;
+
+    /** */
+    BinaryEvent(BinaryWriter writer, ThreadBuffer buffer, long threadId)
+    {
+        this.writer = writer;
+        this.buffer = buffer;
+        this.threadId = threadId;
+        this.shared = false;
+    }
+
+    /**
+     * Creates an event for a lane virtual threads share, whose events are written with the id of the thread
+     * that logged them.
+     */
+    BinaryEvent(BinaryWriter writer, ThreadBuffer buffer)
+    {
+        this.writer = writer;
+        this.buffer = buffer;
+        this.threadId = -1;
+        this.shared = true;
+    }
+
+    /**
+     * Starts writing an event, the caller adds the arguments and ends it.
+     */
+    void begin(int loggerId, int templateId, Logger.Level level)
+    {
+        this.active = true;
+        this.length = 0;
+        this.putByte(BinaryWriter.EVENT);
+        this.putInt(loggerId);
+        this.putInt(templateId);
+        this.putByte(level.ordinal());
+        this.putLong(System.currentTimeMillis());
+        this.putLong(this.shared ? Thread.currentThread().getId() : this.threadId);
+    }
+
+    /**
+     * Writes the record that names the thread this event belongs to.
+     */
+    void beginThread(String name)
+    {
+        this.length = 0;
+        this.putByte(BinaryWriter.THREAD);
+        this.putLong(this.threadId);
+        this.putString(name);
+        this.buffer.add(this.bytes, this.length, this.writer);
+    }
+
+    /* */
+    boolean isActive()
+    {
+        return this.active;
+    }
+
+    /* */
+    ThreadBuffer getBuffer()
+    {
+        return this.buffer;
+    }
+
+    /* */
+    long getThreadId()
+    {
+        return this.threadId;
+    }
+
+    /** */
+    public BinaryEvent arg(int value)
+    {
+        if (this.buffer != null)
+        {
+            this.putByte(BinaryWriter.INT);
+            this.putInt(value);
+        }
+        return this;
+    }
+
+    /** */
+    public BinaryEvent arg(long value)
+    {
+        if (this.buffer != null)
+        {
+            this.putByte(BinaryWriter.LONG);
+            this.putLong(value);
+        }
+        return this;
+    }
+
+    /** */
+    public BinaryEvent arg(float value)
+    {
+        if (this.buffer != null)
+        {
+            this.putByte(BinaryWriter.FLOAT);
+            this.putInt(Float.floatToIntBits(value));
+        }
+        return this;
+    }
+
+    /** */
+    public BinaryEvent arg(double value)
+    {
+        if (this.buffer != null)
+        {
+            this.putByte(BinaryWriter.DOUBLE);
+            this.putLong(Double.doubleToLongBits(value));
+        }
+        return this;
+    }
+
+    /** */
+    public BinaryEvent arg(boolean value)
+    {
+        if (this.buffer != null)
+        {
+            this.putByte(BinaryWriter.BOOLEAN);
+            this.putByte(value ? 1 : 0);
+        }
+        return this;
+    }
+
+    /** */
+    public BinaryEvent arg(char value)
+    {
+        if (this.buffer != null)
+        {
+            this.putByte(BinaryWriter.CHAR);
+            this.putByte(value >>> 8);
+            this.putByte(value);
+        }
+        return this;
+    }
+
+    /** */
+    public BinaryEvent arg(String value)
+    {
+        if (this.buffer != null)
+        {
+            if (value == null)
+            {
+                this.putByte(BinaryWriter.NULL);
+            }
+            else
+            {
+                this.putByte(BinaryWriter.STRING);
+                this.putString(value);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Writes the argument as a string, objects may change before the event is decoded.
+     */
+    public BinaryEvent arg(Object value)
+    {
+        return this.buffer == null ? this : this.arg(value == null ? null : value.toString());
+    }
+
+    /**
+     * Writes the throwable with its stack trace.
+     */
+    public BinaryEvent thrown(Throwable t)
+    {
+        if (this.buffer != null && t != null)
+        {
+            StringWriter trace = new StringWriter();
+            t.printStackTrace(new PrintWriter(trace));
+
+            this.putByte(BinaryWriter.THROWABLE);
+            this.putString(trace.toString());
+        }
+        return this;
+    }
+
+    /**
+     * Hands the event to the thread's buffer.
+     */
+    public void end()
+    {
+        if (this.buffer == null)
+            return;
+
+        this.putByte(BinaryWriter.END);
+        if (!this.buffer.add(this.bytes, this.length, this.writer))
+            this.writer.drop();
+
+        this.active = false;
+        if (this.shared)
+            this.writer.release(this);
+    }
+
+    /* */
+    private void ensureCapacity(int extra)
+    {
+        if (this.length + extra > this.bytes.length)
+        {
+            byte[] bigger = new byte[Math.max(this.bytes.length * 2, this.length + extra)];
+            System.arraycopy(this.bytes, 0, bigger, 0, this.length);
+            this.bytes = bigger;
+        }
+    }
+
+    /* */
+    private void putByte(int value)
+    {
+        this.ensureCapacity(1);
+        this.bytes[this.length++] = (byte)value;
+    }
+
+    /* */
+    private void putInt(int value)
+    {
+        this.ensureCapacity(4);
+        this.bytes[this.length++] = (byte)(value >>> 24);
+        this.bytes[this.length++] = (byte)(value >>> 16);
+        this.bytes[this.length++] = (byte)(value >>> 8);
+        this.bytes[this.length++] = (byte)value;
+    }
+
+    /* */
+    private void putLong(long value)
+    {
+        this.putInt((int)(value >>> 32));
+        this.putInt((int)value);
+    }
+
+    /** Writes the string as its length in bytes followed by its UTF-8 encoding. */
+    private void putString(String value)
+    {
+        int start = this.length;
+        this.putInt(0);
+        this.ensureCapacity(value.length() * 3);
+
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c < 0x80)
+            {
+                this.bytes[this.length++] = (byte)c;
+            }
+            else if (c < 0x800)
+            {
+                this.bytes[this.length++] = (byte)(0xC0 | c >> 6);
+                this.bytes[this.length++] = (byte)(0x80 | c & 0x3F);
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1)))
+            {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                this.bytes[this.length++] = (byte)(0xF0 | codePoint >> 18);
+                this.bytes[this.length++] = (byte)(0x80 | codePoint >> 12 & 0x3F);
+                this.bytes[this.length++] = (byte)(0x80 | codePoint >> 6 & 0x3F);
+                this.bytes[this.length++] = (byte)(0x80 | codePoint & 0x3F);
+            }
+            else
+            {
+                this.bytes[this.length++] = (byte)(0xE0 | c >> 12);
+                this.bytes[this.length++] = (byte)(0x80 | c >> 6 & 0x3F);
+                this.bytes[this.length++] = (byte)(0x80 | c & 0x3F);
+            }
+        }
+
+        int size = this.length - start - 4;
+        this.bytes[start] = (byte)(size >>> 24);
+        this.bytes[start + 1] = (byte)(size >>> 16);
+        this.bytes[start + 2] = (byte)(size >>> 8);
+        this.bytes[start + 3] = (byte)size;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import morbok.Logger;
+
+/**
+ * The log variable type generated for <code>@Logger(type=Logger.Type.BINARY)</code>, which writes the
+ * arguments of each event to a binary file instead of formatting a message.
+ * <p>
+ * The handlers rewrite the log calls of the annotated class into {@link #event(Logger.Level, int)} calls,
+ * and pass the message templates they found to {@link #getLogger(String, String[])}. Calls that weren't
+ * rewritten still work, their message is written as a string.
+ *
+ * @see BinaryWriter
+ * @see BinaryLogDecoder
+ * @author rayvanderborght
+ */
+public final class BinaryLog
+{
+    /** The template id of events whose message is their only argument. */
+    public static final int NO_TEMPLATE = -1;
+
+    private final BinaryWriter writer;
+    private final int id;
+
+    /** */
+    private BinaryLog(BinaryWriter writer, int id)
+    {
+        this.writer = writer;
+        this.id = id;
+    }
+
+    /**
+     * Returns a binary logger with the given name.
+     *
+     * @param templates the message templates of the logger's events, in template id order
+     */
+    public static BinaryLog getLogger(String name, String[] templates)
+    {
+        BinaryWriter writer = BinaryWriter.getInstance();
+        return new BinaryLog(writer, writer.register(name, templates));
+    }
+
+    /**
+     * Starts an event, which is written once its arguments have been added and it's ended.
+     *
+     * @param templateId the index of the event's template in the templates the logger was created with
+     */
+    public BinaryEvent event(Logger.Level level, int templateId)
+    {
+        if (!this.writer.isEnabled(level))
+            return BinaryEvent.DISABLED;
+
+        BinaryEvent event = this.writer.getEvent();
+        event.begin(this.id, templateId, level);
+        return event;
+    }
+
+    /** */
+    public boolean isEnabled(Logger.Level level)
+    {
+        return this.writer.isEnabled(level);
+    }
+
+    /** */
+    public boolean isTraceEnabled()
+    {
+        return this.writer.isEnabled(Logger.Level.TRACE);
+    }
+
+    /** */
+    public boolean isDebugEnabled()
+    {
+        return this.writer.isEnabled(Logger.Level.DEBUG);
+    }
+
+    /** */
+    public boolean isInfoEnabled()
+    {
+        return this.writer.isEnabled(Logger.Level.INFO);
+    }
+
+    /** */
+    public boolean isWarnEnabled()
+    {
+        return this.writer.isEnabled(Logger.Level.WARN);
+    }
+
+    /** */
+    public boolean isErrorEnabled()
+    {
+        return this.writer.isEnabled(Logger.Level.ERROR);
+    }
+
+    /** */
+    public boolean isFatalEnabled()
+    {
+        return this.writer.isEnabled(Logger.Level.FATAL);
+    }
+
+    /** */
+    public void trace(Object message)
+    {
+        this.event(Logger.Level.TRACE, NO_TEMPLATE).arg(message).end();
+    }
+
+    /** */
+    public void trace(Object message, Throwable t)
+    {
+        this.event(Logger.Level.TRACE, NO_TEMPLATE).arg(message).thrown(t).end();
+    }
+
+    /** */
+    public void debug(Object message)
+    {
+        this.event(Logger.Level.DEBUG, NO_TEMPLATE).arg(message).end();
+    }
+
+    /** */
+    public void debug(Object message, Throwable t)
+    {
+        this.event(Logger.Level.DEBUG, NO_TEMPLATE).arg(message).thrown(t).end();
+    }
+
+    /** */
+    public void info(Object message)
+    {
+        this.event(Logger.Level.INFO, NO_TEMPLATE).arg(message).end();
+    }
+
+    /** */
+    public void info(Object message, Throwable t)
+    {
+        this.event(Logger.Level.INFO, NO_TEMPLATE).arg(message).thrown(t).end();
+    }
+
+    /** */
+    public void warn(Object message)
+    {
+        this.event(Logger.Level.WARN, NO_TEMPLATE).arg(message).end();
+    }
+
+    /** */
+    public void warn(Object message, Throwable t)
+    {
+        this.event(Logger.Level.WARN, NO_TEMPLATE).arg(message).thrown(t).end();
+    }
+
+    /** */
+    public void error(Object message)
+    {
+        this.event(Logger.Level.ERROR, NO_TEMPLATE).arg(message).end();
+    }
+
+    /** */
+    public void error(Object message, Throwable t)
+    {
+        this.event(Logger.Level.ERROR, NO_TEMPLATE).arg(message).thrown(t).end();
+    }
+
+    /** */
+    public void fatal(Object message)
+    {
+        this.event(Logger.Level.FATAL, NO_TEMPLATE).arg(message).end();
+    }
+
+    /** */
+    public void fatal(Object message, Throwable t)
+    {
+        this.event(Logger.Level.FATAL, NO_TEMPLATE).arg(message).thrown(t).end();
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import morbok.Logger;
+
+/**
+ * Formats the events in a binary log file as text, eg:
+ * <code>2010-01-12 10:42:07.311 INFO  [main] com.example.Foo - user 42 took 7ms</code>
+ * <p>
+ * Run it with <code>java -jar morbok.jar decode morbok.binlog</code>.
+ *
+ * @see BinaryWriter
+ * @author rayvanderborght
+ */
+public final class BinaryLogDecoder
+{
+    private static final Logger.Level[] LEVELS = Logger.Level.values();
+
+    private final PrintStream out;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    private final Map<Integer, String> loggerNames = new HashMap<Integer, String>();
+    private final Map<Integer, String[]> loggerTemplates = new HashMap<Integer, String[]>();
+    private final Map<Long, String> threadNames = new HashMap<Long, String>();
+
+    /** */
+    private BinaryLogDecoder(PrintStream out)
+    {
+        this.out = out;
+    }
+
+    /**
+     * Decodes each of the given files to System.out.
+     */
+    public static void main(String[] args)
+    {
+        if (args.length == 0)
+        {
+            System.err.println("Run java -jar morbok.jar decode path/to/morbok.binlog");
+            System.exit(1);
+        }
+
+        for (String fileName : args)
+        {
+            try
+            {
+                InputStream in = new BufferedInputStream(new FileInputStream(fileName), 65536);
+                try
+                {
+                    decode(in, System.out);
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            catch (IOException e)
+            {
+                System.err.println("Can't decode " + fileName + ": " + e.getMessage());
+                System.exit(2);
+            }
+        }
+    }
+
+    /**
+     * Writes the events in the given binary log to the given stream, one line each.
+     * A log that ends part way through a record, because the application didn't get to flush it, is decoded
+     * up to that record.
+     */
+    public static void decode(InputStream in, PrintStream out) throws IOException
+    {
+        new BinaryLogDecoder(out).decode(new DataInputStream(in));
+    }
+
+    /* */
+    private void decode(DataInputStream in) throws IOException
+    {
+        try
+        {
+            int tag;
+            while ((tag = in.read()) != -1)
+            {
+                switch (tag)
+                {
+                    case BinaryWriter.HEADER:
+                        this.readHeader(in);
+                        break;
+                    case BinaryWriter.LOGGER:
+                        this.readLogger(in);
+                        break;
+                    case BinaryWriter.THREAD:
+                        this.threadNames.put(in.readLong(), readString(in));
+                        break;
+                    case BinaryWriter.EVENT:
+                        this.readEvent(in);
+                        break;
+                    case BinaryWriter.DROPPED:
+                        this.out.println(in.readLong() + " events were dropped because a binary log buffer was full");
+                        break;
+                    default:
+                        throw new IOException("Not a binary log, or a corrupt one: unknown record " + tag);
+                }
+            }
+        }
+        catch (EOFException e)
+        {
+            // the last record wasn't written completely
+        }
+
+        this.out.flush();
+    }
+
+    /** Reads the header written each time an application starts logging to the file, the ids start again. */
+    private void readHeader(DataInputStream in) throws IOException
+    {
+        if (in.readInt() != BinaryWriter.MAGIC)
+            throw new IOException("Not a binary log");
+
+        int version = in.readUnsignedByte();
+        if (version != BinaryWriter.VERSION)
+            throw new IOException("Can't decode version " + version + " binary logs");
+
+        this.loggerNames.clear();
+        this.loggerTemplates.clear();
+        this.threadNames.clear();
+    }
+
+    /* */
+    private void readLogger(DataInputStream in) throws IOException
+    {
+        int id = in.readInt();
+        this.loggerNames.put(id, in.readUTF());
+
+        String[] templates = new String[in.readInt()];
+        for (int i = 0; i < templates.length; i++)
+            templates[i] = in.readUTF();
+
+        this.loggerTemplates.put(id, templates);
+    }
+
+    /* */
+    private void readEvent(DataInputStream in) throws IOException
+    {
+        int loggerId = in.readInt();
+        int templateId = in.readInt();
+        Logger.Level level = LEVELS[in.readUnsignedByte()];
+        long time = in.readLong();
+        long threadId = in.readLong();
+
+        List<Object> args = new ArrayList<Object>();
+        String thrown = null;
+
+        int tag;
+        while ((tag = in.readUnsignedByte()) != BinaryWriter.END)
+        {
+            switch (tag)
+            {
+                case BinaryWriter.INT:
+                    args.add(in.readInt());
+                    break;
+                case BinaryWriter.LONG:
+                    args.add(in.readLong());
+                    break;
+                case BinaryWriter.FLOAT:
+                    args.add(in.readFloat());
+                    break;
+                case BinaryWriter.DOUBLE:
+                    args.add(in.readDouble());
+                    break;
+                case BinaryWriter.BOOLEAN:
+                    args.add(in.readBoolean());
+                    break;
+                case BinaryWriter.CHAR:
+                    args.add(in.readChar());
+                    break;
+                case BinaryWriter.STRING:
+                    args.add(readString(in));
+                    break;
+                case BinaryWriter.NULL:
+                    args.add(null);
+                    break;
+                case BinaryWriter.THROWABLE:
+                    thrown = readString(in);
+                    break;
+                default:
+                    throw new IOException("Corrupt binary log: unknown argument type " + tag);
+            }
+        }
+
+        String threadName = this.threadNames.get(threadId);
+        String loggerName = this.loggerNames.get(loggerId);
+
+        StringBuilder line = new StringBuilder();
+        line.append(this.dateFormat.format(new Date(time))).append(' ');
+        line.append(level.name());
+        for (int i = level.name().length(); i < 5; i++)
+            line.append(' ');
+        line.append(" [").append(threadName == null ? String.valueOf(threadId) : threadName).append("] ");
+        line.append(loggerName == null ? "logger#" + loggerId : loggerName).append(" - ");
+        line.append(this.format(this.getTemplate(loggerId, templateId), args));
+
+        this.out.println(line);
+        if (thrown != null)
+            this.out.print(thrown);
+    }
+
+    /** Returns the template with the given id, or null if it's not known. */
+    private String getTemplate(int loggerId, int templateId)
+    {
+        if (templateId == BinaryLog.NO_TEMPLATE)
+            return "{}";
+
+        String[] templates = this.loggerTemplates.get(loggerId);
+        return (templates == null || templateId < 0 || templateId >= templates.length) ? null : templates[templateId];
+    }
+
+    /** Replaces each {} in the template with the next argument, unless it's escaped as \{}. */
+    private String format(String template, List<Object> args)
+    {
+        if (template == null)
+            return "<unknown template> " + args;
+
+        StringBuilder message = new StringBuilder();
+        int next = 0;
+
+        for (int i = 0; i < template.length(); i++)
+        {
+            if (template.startsWith("\\{}", i))
+            {
+                message.append("{}");
+                i += 2;
+            }
+            else if (template.startsWith("{}", i) && next < args.size())
+            {
+                message.append(args.get(next++));
+                i++;
+            }
+            else
+            {
+                message.append(template.charAt(i));
+            }
+        }
+
+        return message.toString();
+    }
+
+    /* */
+    private static String readString(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
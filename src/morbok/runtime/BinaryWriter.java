@@ -0,0 +1,372 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import morbok.Logger;
+
+/**
+ * Writes what binary loggers log to a file, from a daemon thread that collects the bytes each thread has
+ * buffered.
+ * <p>
+ * The file is a sequence of records, each starting with a tag byte, written with the conventions of
+ * <code>java.io.DataOutput</code>. The logger records carry the message templates the handlers collected
+ * at compile time, so the file can be decoded without the classes that wrote it, see {@link BinaryLogDecoder}.
+ * <p>
+ * Virtual threads don't get a buffer each, they take turns with a few, so their events carry the id of the
+ * virtual thread without a record with its name, and the events of one virtual thread may be written out of
+ * order, their timestamps tell the order they were logged in.
+ * <p>
+ * It's configured with system properties, read when the first binary logger is created:
+ * <ul>
+ * <li><code>morbok.binary.file</code> the file to append to (default morbok.binlog)</li>
+ * <li><code>morbok.binary.level</code> the lowest {@link Logger.Level} that's logged (default INFO)</li>
+ * <li><code>morbok.binary.bufferSize</code> the bytes buffered per thread, a power of two (default 65536)</li>
+ * <li><code>morbok.binary.shutdownTimeout</code> how long the shutdown hook waits for the buffers to be written,
+ * in milliseconds (default 1000)</li>
+ * </ul>
+ *
+ * @author rayvanderborght
+ */
+final class BinaryWriter
+{
+    static final String FILE = "morbok.binary.file";
+    static final String LEVEL = "morbok.binary.level";
+    static final String BUFFER_SIZE = "morbok.binary.bufferSize";
+    static final String SHUTDOWN_TIMEOUT = "morbok.binary.shutdownTimeout";
+
+    static final int MAGIC = 0x4D4F5242;
+    static final int VERSION = 1;
+
+    static final byte HEADER = 'M';
+    static final byte LOGGER = 'L';
+    static final byte THREAD = 'H';
+    static final byte EVENT = 'E';
+    static final byte DROPPED = 'D';
+    static final byte END = 0;
+
+    static final byte INT = 'I';
+    static final byte LONG = 'J';
+    static final byte FLOAT = 'F';
+    static final byte DOUBLE = 'D';
+    static final byte BOOLEAN = 'Z';
+    static final byte CHAR = 'C';
+    static final byte STRING = 'S';
+    static final byte NULL = 'N';
+    static final byte THROWABLE = 'T';
+
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Logger.Level level;
+    private final int bufferSize;
+    private final OutputStream out;
+    private final Thread thread;
+
+    private final List<ThreadBuffer> buffers = new CopyOnWriteArrayList<ThreadBuffer>();
+    private final ConcurrentLinkedQueue<byte[]> records = new ConcurrentLinkedQueue<byte[]>();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** A lock rather than a monitor, a virtual thread registering a logger mustn't pin its carrier. */
+    private final ReentrantLock registerLock = new ReentrantLock();
+    private int loggerCount;
+
+    private volatile boolean running;
+
+    private final ThreadCache<BinaryEvent> events = new ThreadCache<BinaryEvent>() {
+        @Override
+        protected BinaryEvent create(boolean shared)
+        {
+            return BinaryWriter.this.createEvent(shared);
+        }
+
+        @Override
+        protected void discard(BinaryEvent event)
+        {
+            event.getBuffer().retire();
+        }
+    };
+
+    /** Holds the one writer, which is started the first time it's needed. */
+    private static final class Holder
+    {
+        static final BinaryWriter INSTANCE = new BinaryWriter(
+                RuntimeOptions.getString(FILE) == null ? "morbok.binlog" : RuntimeOptions.getString(FILE),
+                RuntimeOptions.getEnum(LEVEL, Logger.Level.class, Logger.Level.INFO),
+                RuntimeOptions.getPowerOfTwo(BUFFER_SIZE, 65536),
+                RuntimeOptions.getInt(SHUTDOWN_TIMEOUT, 1000));
+    }
+
+    /** */
+    private BinaryWriter(String fileName, Logger.Level level, int bufferSize, final int shutdownTimeout)
+    {
+        this.level = level;
+        this.bufferSize = bufferSize;
+        this.out = this.open(fileName);
+        this.running = this.out != null;
+
+        this.thread = new Thread(new Runnable() {
+            public void run()
+            {
+                BinaryWriter.this.writeLoop();
+            }
+        }, "morbok-binary-writer");
+        this.thread.setDaemon(true);
+
+        if (this.running)
+        {
+            this.thread.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                public void run()
+                {
+                    BinaryWriter.this.shutdown(shutdownTimeout);
+                }
+            }, "morbok-binary-writer-shutdown"));
+        }
+    }
+
+    /**
+     * Returns the writer, starting it if this is the first time it's asked for.
+     */
+    static BinaryWriter getInstance()
+    {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Returns true if events at the given level are written.
+     */
+    boolean isEnabled(Logger.Level level)
+    {
+        return this.running && level.compareTo(this.level) >= 0;
+    }
+
+    /**
+     * Returns true until the writer has been shut down, or failed.
+     */
+    boolean isRunning()
+    {
+        return this.running;
+    }
+
+    /**
+     * Records a logger's name and message templates, and returns the id its events are written with.
+     */
+    int register(String name, String[] templates)
+    {
+        this.registerLock.lock();
+        try
+        {
+            int id = this.loggerCount++;
+            this.addLoggerRecord(id, name, templates);
+            return id;
+        }
+        finally
+        {
+            this.registerLock.unlock();
+        }
+    }
+
+    /* */
+    private void addLoggerRecord(int id, String name, String[] templates)
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(bytes);
+            data.writeByte(LOGGER);
+            data.writeInt(id);
+            data.writeUTF(name);
+            data.writeInt(templates.length);
+            for (String template : templates)
+                data.writeUTF(template);
+
+            this.records.add(bytes.toByteArray());
+        }
+        catch (IOException e)
+        {
+            // a template too long to be written, the decoder shows the raw arguments of its events instead
+            System.err.println("morbok: can't record the templates of binary logger " + name + ": " + e);
+        }
+    }
+
+    /**
+     * Returns the calling thread's event, ready to be started.
+     */
+    BinaryEvent getEvent()
+    {
+        BinaryEvent event = this.events.get();
+
+        // something logged while an argument was being turned into a string
+        return event.isActive() ? new BinaryEvent(this, event.getBuffer(), event.getThreadId()) : event;
+    }
+
+    /**
+     * Puts an ended event a virtual thread took back, for the next virtual thread that logs.
+     */
+    void release(BinaryEvent event)
+    {
+        this.events.release(event);
+    }
+
+    /**
+     * Counts an event that couldn't be buffered, the count is written to the file with the next batch.
+     */
+    void drop()
+    {
+        this.dropped.incrementAndGet();
+    }
+
+    /**
+     * Wakes the writer thread up early, because a thread is waiting for room in its buffer.
+     */
+    void wakeUp()
+    {
+        LockSupport.unpark(this.thread);
+    }
+
+    /* */
+    private BinaryEvent createEvent(boolean shared)
+    {
+        if (shared)
+        {
+            BinaryEvent event = new BinaryEvent(this, new ThreadBuffer(null, this.bufferSize));
+            this.buffers.add(event.getBuffer());
+            return event;
+        }
+
+        Thread current = Thread.currentThread();
+        ThreadBuffer buffer = new ThreadBuffer(current, this.bufferSize);
+        BinaryEvent event = new BinaryEvent(this, buffer, current.getId());
+
+        // the thread record goes through the thread's own buffer, so it's written before the thread's events
+        event.beginThread(current.getName());
+        this.buffers.add(buffer);
+        return event;
+    }
+
+    /* */
+    private OutputStream open(String fileName)
+    {
+        try
+        {
+            OutputStream stream = new BufferedOutputStream(new FileOutputStream(fileName, true), 65536);
+            DataOutputStream data = new DataOutputStream(stream);
+            data.writeByte(HEADER);
+            data.writeInt(MAGIC);
+            data.writeByte(VERSION);
+            return stream;
+        }
+        catch (IOException e)
+        {
+            System.err.println("morbok: can't write binary log " + fileName + ", nothing will be logged to it: " + e);
+            return null;
+        }
+    }
+
+    /* */
+    private void writeLoop()
+    {
+        try
+        {
+            while (this.running)
+            {
+                if (!this.writeBatch())
+                    LockSupport.parkNanos(IDLE_NANOS);
+            }
+
+            this.writeBatch();
+        }
+        catch (IOException e)
+        {
+            this.running = false;
+            System.err.println("morbok: binary log failed, nothing more will be logged to it: " + e);
+        }
+        finally
+        {
+            try
+            {
+                this.out.close();
+            }
+            catch (IOException e)
+            {
+                // nothing more to be done
+            }
+        }
+    }
+
+    /** Writes what's been buffered, and returns false if there was nothing to write. */
+    private boolean writeBatch() throws IOException
+    {
+        // the positions are read before the logger records, so every event written has its logger's record before it
+        Object[] buffers = this.buffers.toArray();
+        long[] positions = new long[buffers.length];
+        for (int i = 0; i < buffers.length; i++)
+            positions[i] = ((ThreadBuffer)buffers[i]).getWritten();
+
+        boolean wrote = false;
+        byte[] record;
+        while ((record = this.records.poll()) != null)
+        {
+            this.out.write(record);
+            wrote = true;
+        }
+
+        for (int i = 0; i < buffers.length; i++)
+        {
+            ThreadBuffer buffer = (ThreadBuffer)buffers[i];
+            if (buffer.writeTo(this.out, positions[i]))
+                wrote = true;
+
+            if (buffer.isFinished())
+                this.buffers.remove(buffer);
+        }
+
+        long dropped = this.dropped.getAndSet(0);
+        if (dropped > 0)
+        {
+            DataOutputStream data = new DataOutputStream(this.out);
+            data.writeByte(DROPPED);
+            data.writeLong(dropped);
+            wrote = true;
+        }
+
+        if (wrote)
+            this.out.flush();
+
+        return wrote;
+    }
+
+    /* */
+    private void shutdown(int timeoutMillis)
+    {
+        this.running = false;
+        LockSupport.unpark(this.thread);
+
+        try
+        {
+            this.thread.join(timeoutMillis);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if (this.thread.isAlive())
+            System.err.println("morbok: binary log events were still buffered at shutdown after waiting " + timeoutMillis + "ms");
+    }
+}
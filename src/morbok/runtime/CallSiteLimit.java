@@ -0,0 +1,81 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how often one log call is logged. <code>@Logger(maxPerSecond=100)</code>, or a method annotated
+ * with <code>@RateLimit</code>, declares one for each log call and turns <code>log.warn("slow " + id)</code> into:
+ * <pre>
+ * if ($morbokLimit0.allow())
+ *     log.warn("slow {}", id);
+ * </pre>
+ * The rate is kept by a token bucket that holds a second's worth of calls, so a quiet call can log a burst
+ * of up to maxPerSecond at once and is then held to the rate. The bucket is a single timestamp, the time the
+ * next call would be allowed if the bucket were empty, and a call that's allowed moves it on with a
+ * compare-and-set, so it never blocks. A call that isn't allowed only reads it, so a call that's being
+ * dropped 100000 times a second doesn't contend on it either.
+ * <p>
+ * With a sample rate of N only one in every N calls is counted against the rate, the rest are dropped first.
+ *
+ * @author rayvanderborght
+ */
+public final class CallSiteLimit
+{
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /** The nanoseconds one call uses up, or 0 if the rate isn't limited. */
+    private final long interval;
+
+    /** How far ahead of now the bucket can be emptied, a second less one call. */
+    private final long tolerance;
+
+    private final int sampleRate;
+
+    /** When the next call would be allowed if the bucket were empty. */
+    private final AtomicLong next = new AtomicLong(System.nanoTime());
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    /**
+     * Limits a call to maxPerSecond calls a second if it's more than 0, of which only one in every
+     * sampleRate are considered if it's more than 1.
+     */
+    public CallSiteLimit(int maxPerSecond, int sampleRate)
+    {
+        this.interval = maxPerSecond > 0 ? Math.max(SECOND / maxPerSecond, 1) : 0;
+        this.tolerance = SECOND - this.interval;
+        this.sampleRate = Math.max(sampleRate, 1);
+    }
+
+    /**
+     * Returns true if the call should be logged.
+     */
+    public boolean allow()
+    {
+        if (this.sampleRate > 1 && (this.calls.getAndIncrement() & Integer.MAX_VALUE) % this.sampleRate != 0)
+            return false;
+
+        if (this.interval == 0)
+            return true;
+
+        long now = System.nanoTime();
+        while (true)
+        {
+            long next = this.next.get();
+
+            // the bucket refilled while the call was quiet, but it doesn't hold more than a second's worth
+            long start = next - now < 0 ? now : next;
+            if (start - now > this.tolerance)
+                return false;
+
+            if (this.next.compareAndSet(next, start + this.interval))
+                return true;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import morbok.Logger;
+
+/**
+ * Appends the {@link LogContext} pairs bound on the calling thread to the messages it logs, before they're
+ * handed to the async dispatcher or the logging library. Nothing is looked up until something has been
+ * bound for the first time.
+ *
+ * @author rayvanderborght
+ */
+final class ContextBackend implements LogBackend
+{
+    private final LogBackend delegate;
+
+    /** */
+    ContextBackend(LogBackend delegate)
+    {
+        this.delegate = delegate;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEnabled(Logger.Level level)
+    {
+        return this.delegate.isEnabled(level);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void log(Logger.Level level, StackTraceElement location, Object message, Throwable t)
+    {
+        String context = LogContext.get();
+        if (context == null)
+        {
+            this.delegate.log(level, location, message, t);
+            return;
+        }
+
+        if (!this.delegate.isEnabled(level))
+            return;
+
+        if (message instanceof TemplateMessage)
+        {
+            ((TemplateMessage)message).setContext(context);
+            this.delegate.log(level, location, message, t);
+            return;
+        }
+
+        // the pairs start with a space, which isn't wanted without a message
+        String text = String.valueOf(message);
+        this.delegate.log(level, location, text.length() == 0 ? context.substring(1) : text + context, t);
+    }
+}
@@ -0,0 +1,20 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+/**
+ * A log event, which <code>@LogEvent</code> makes a class implement.
+ *
+ * @see MorbokLog#event(Event)
+ * @author rayvanderborght
+ */
+public interface Event
+{
+    /**
+     * Writes the name and fields of the event, eg:
+     * <code>writer.begin("Login"); writer.field("userId", this.userId); writer.end();</code>
+     */
+    void writeTo(EventWriter writer);
+}
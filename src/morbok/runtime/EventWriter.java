@@ -0,0 +1,323 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+/**
+ * Writes the fields of an {@link Event} as key=value pairs, eg: <code>Login userId=42 name="Jo Smith"</code>, or
+ * as json, eg: <code>{"event":"Login","userId":42,"name":"Jo Smith"}</code>. Fields that are events themselves
+ * are written as nested json objects, or with their field name as a prefix: <code>Login user.id=42</code>.
+ * <p>
+ * The writeTo methods <code>@LogEvent</code> generates call the field method for the type of each field, so
+ * primitive fields are appended as they are. Each thread reuses one writer, and its buffer, virtual threads
+ * share a few.
+ * <p>
+ * The format is set with the system property <code>morbok.event.format</code>, KEY_VALUE or JSON (default KEY_VALUE).
+ *
+ * @author rayvanderborght
+ */
+public final class EventWriter
+{
+    /** */
+    public static enum Format
+    {
+        KEY_VALUE,
+        JSON
+    }
+
+    private static final Format FORMAT = RuntimeOptions.getEnum("morbok.event.format", Format.class, Format.KEY_VALUE);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadCache<EventWriter> WRITERS = new ThreadCache<EventWriter>() {
+        @Override
+        protected EventWriter create(boolean shared)
+        {
+            return new EventWriter();
+        }
+    };
+
+    private final StringBuilder out = new StringBuilder(256);
+    private final StringBuilder prefix = new StringBuilder();
+
+    private Format format;
+    private int depth;
+    private boolean first;
+    private boolean active;
+
+    /** */
+    private EventWriter()
+    {
+    }
+
+    /**
+     * Returns the event written in the format set by <code>morbok.event.format</code>.
+     */
+    static String format(Event event)
+    {
+        return format(event, FORMAT);
+    }
+
+    /**
+     * Returns the event written in the given format.
+     */
+    public static String format(Event event, Format format)
+    {
+        EventWriter writer = WRITERS.get();
+
+        // an event written while a field was being turned into a string
+        if (writer.active)
+            writer = new EventWriter();
+
+        writer.active = true;
+        writer.format = format;
+        writer.depth = 0;
+        writer.out.setLength(0);
+        writer.prefix.setLength(0);
+        try
+        {
+            event.writeTo(writer);
+            return writer.out.toString();
+        }
+        finally
+        {
+            writer.active = false;
+            WRITERS.release(writer);
+        }
+    }
+
+    /**
+     * Starts the event, or a nested event, with the given name.
+     */
+    public void begin(String name)
+    {
+        this.depth++;
+
+        if (this.format == Format.JSON)
+        {
+            this.first = this.depth > 1;
+            if (this.depth == 1)
+            {
+                this.out.append("{\"event\":");
+                this.appendJson(name);
+            }
+            else
+            {
+                this.out.append('{');
+            }
+        }
+        else if (this.depth == 1)
+        {
+            this.out.append(name);
+        }
+    }
+
+    /**
+     * Ends the event started by the last call to begin.
+     */
+    public void end()
+    {
+        if (this.format == Format.JSON)
+            this.out.append('}');
+
+        this.depth--;
+        this.first = false;
+    }
+
+    /** */
+    public void field(String name, int value)
+    {
+        this.key(name).append(value);
+    }
+
+    /** */
+    public void field(String name, long value)
+    {
+        this.key(name).append(value);
+    }
+
+    /** */
+    public void field(String name, float value)
+    {
+        this.key(name);
+        if (this.format == Format.JSON && (Float.isNaN(value) || Float.isInfinite(value)))
+            this.appendJson(String.valueOf(value));
+        else
+            this.out.append(value);
+    }
+
+    /** */
+    public void field(String name, double value)
+    {
+        this.key(name);
+        if (this.format == Format.JSON && (Double.isNaN(value) || Double.isInfinite(value)))
+            this.appendJson(String.valueOf(value));
+        else
+            this.out.append(value);
+    }
+
+    /** */
+    public void field(String name, boolean value)
+    {
+        this.key(name).append(value);
+    }
+
+    /** */
+    public void field(String name, char value)
+    {
+        this.key(name);
+        if (this.format == Format.JSON)
+        {
+            this.out.append('"');
+            this.appendJson(value);
+            this.out.append('"');
+        }
+        else if (value <= ' ' || value == '=' || value == '"')
+        {
+            appendValue(this.out, String.valueOf(value));
+        }
+        else
+        {
+            this.out.append(value);
+        }
+    }
+
+    /** */
+    public void field(String name, Object value)
+    {
+        if (value instanceof Event)
+        {
+            this.field(name, (Event)value);
+            return;
+        }
+
+        this.key(name);
+        if (value == null || value instanceof Boolean || value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte)
+        {
+            this.out.append(value);
+        }
+        else if (value instanceof Double || value instanceof Float)
+        {
+            double number = ((Number)value).doubleValue();
+            if (this.format == Format.JSON && (Double.isNaN(number) || Double.isInfinite(number)))
+                this.appendJson(value.toString());
+            else
+                this.out.append(value);
+        }
+        else
+        {
+            CharSequence text = value instanceof CharSequence ? (CharSequence)value : String.valueOf(value);
+            if (this.format == Format.JSON)
+                this.appendJson(text);
+            else
+                appendValue(this.out, text);
+        }
+    }
+
+    /* */
+    private void field(String name, Event value)
+    {
+        if (this.format == Format.JSON)
+        {
+            this.key(name);
+            value.writeTo(this);
+            return;
+        }
+
+        int length = this.prefix.length();
+        this.prefix.append(name).append('.');
+        value.writeTo(this);
+        this.prefix.setLength(length);
+    }
+
+    /* */
+    private StringBuilder key(String name)
+    {
+        if (this.format == Format.JSON)
+        {
+            if (!this.first)
+                this.out.append(',');
+            this.first = false;
+
+            this.appendJson(name);
+            return this.out.append(':');
+        }
+
+        return this.out.append(' ').append(this.prefix).append(name).append('=');
+    }
+
+    /* */
+    private void appendJson(CharSequence value)
+    {
+        this.out.append('"');
+        for (int i = 0; i < value.length(); i++)
+            this.appendJson(value.charAt(i));
+        this.out.append('"');
+    }
+
+    /* */
+    private void appendJson(char c)
+    {
+        switch (c)
+        {
+            case '"':
+                this.out.append("\\\"");
+                break;
+            case '\\':
+                this.out.append("\\\\");
+                break;
+            case '\n':
+                this.out.append("\\n");
+                break;
+            case '\r':
+                this.out.append("\\r");
+                break;
+            case '\t':
+                this.out.append("\\t");
+                break;
+            default:
+                if (c < 0x20)
+                    this.out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+                else
+                    this.out.append(c);
+        }
+    }
+
+    /**
+     * Appends a key=value value, quoted if it's empty or has whitespace, equals signs or quotes in it.
+     */
+    static void appendValue(StringBuilder out, CharSequence value)
+    {
+        boolean quote = value.length() == 0;
+        for (int i = 0; i < value.length() && !quote; i++)
+        {
+            char c = value.charAt(i);
+            quote = c <= ' ' || c == '=' || c == '"';
+        }
+
+        if (!quote)
+        {
+            out.append(value);
+            return;
+        }
+
+        out.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '\n')
+                out.append("\\n");
+            else if (c == '\r')
+                out.append("\\r");
+            else if (c == '\t')
+                out.append("\\t");
+            else if (c == '"' || c == '\\')
+                out.append('\\').append(c);
+            else
+                out.append(c);
+        }
+        out.append('"');
+    }
+}
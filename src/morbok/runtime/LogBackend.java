@@ -0,0 +1,28 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import morbok.Logger;
+
+/**
+ * The logging library the morbok runtime hands its log events to in the end.
+ *
+ * @see LogBackends
+ * @author rayvanderborght
+ */
+public interface LogBackend
+{
+    /**
+     * Returns true if events at the given level are logged.
+     */
+    boolean isEnabled(Logger.Level level);
+
+    /**
+     * Logs the message, and the throwable if it isn't null, at the given level.
+     *
+     * @param location where the event was logged from, or null if that isn't known
+     */
+    void log(Logger.Level level, StackTraceElement location, Object message, Throwable t);
+}
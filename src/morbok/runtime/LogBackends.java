@@ -0,0 +1,311 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import morbok.Logger;
+
+/**
+ * Creates the backends for each of the logger types morbok generates.
+ * <p>
+ * Morbok doesn't depend on any logging library, so everything but java.util.logging is looked up by
+ * reflection once, when the backend is created. The reflective calls only happen when an event is
+ * logged, which is on the background thread for async loggers, and when a facade logger checks a level.
+ *
+ * @author rayvanderborght
+ */
+public final class LogBackends
+{
+    private static final Logger.Level[] LEVELS = Logger.Level.values();
+
+    private LogBackends()
+    {
+        // Prevent instantiation
+    }
+
+    /**
+     * Creates a backend for a logger of the given type with the given name.
+     *
+     * @throws IllegalArgumentException if the type isn't a logging library
+     * @throws IllegalStateException if the logging library can't be found
+     */
+    public static LogBackend create(Logger.Type type, String name)
+    {
+        switch (type)
+        {
+            case COMMONS:
+                return named(invokeStatic("org.apache.commons.logging.LogFactory", "getLog", name),
+                        "org.apache.commons.logging.Log", Object.class, "trace", "debug", "info", "warn", "error", "fatal");
+
+            case JAVA:
+                return new JavaBackend(java.util.logging.Logger.getLogger(name));
+
+            case SLF4J:
+                return named(invokeStatic("org.slf4j.LoggerFactory", "getLogger", name),
+                        "org.slf4j.Logger", String.class, "trace", "debug", "info", "warn", "error", "error");
+
+            case LOG4J2:
+                return log4j2((ReflectiveBackend)named(invokeStatic("org.apache.logging.log4j.LogManager", "getLogger", name),
+                        "org.apache.logging.log4j.Logger", Object.class, "trace", "debug", "info", "warn", "error", "fatal"));
+
+            case SYSTEM:
+                return system(invokeStatic("java.lang.System", "getLogger", name));
+
+            default:
+                throw new IllegalArgumentException("Can't create a backend for a Logger of type: " + type);
+        }
+    }
+
+    /* */
+    private static LogBackend named(Object logger, String apiName, Class<?> messageType, String... methodNames)
+    {
+        Method[] isEnabled = new Method[LEVELS.length];
+        Method[] log = new Method[LEVELS.length];
+
+        try
+        {
+            Class<?> api = getApi(logger, apiName);
+            for (int i = 0; i < LEVELS.length; i++)
+            {
+                String suffix = Character.toUpperCase(methodNames[i].charAt(0)) + methodNames[i].substring(1);
+                isEnabled[i] = api.getMethod("is" + suffix + "Enabled");
+                log[i] = api.getMethod(methodNames[i], messageType, Throwable.class);
+            }
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException("Not a supported logger: " + logger.getClass().getName(), e);
+        }
+
+        return new ReflectiveBackend(logger, isEnabled, null, log, null, messageType == String.class);
+    }
+
+    /** Uses log4j's LogBuilder (2.13 and up) for events that know their location, so log4j doesn't walk the stack. */
+    private static LogBackend log4j2(ReflectiveBackend backend)
+    {
+        try
+        {
+            Class<?> api = getApi(backend.logger, "org.apache.logging.log4j.Logger");
+            Class<?> builder = getApi(backend.logger, "org.apache.logging.log4j.LogBuilder");
+            String[] levelNames = { "Trace", "Debug", "Info", "Warn", "Error", "Fatal" };
+
+            Method[] at = new Method[LEVELS.length];
+            for (int i = 0; i < LEVELS.length; i++)
+                at[i] = api.getMethod("at" + levelNames[i]);
+
+            backend.at = at;
+            backend.withLocation = builder.getMethod("withLocation", StackTraceElement.class);
+            backend.withThrowable = builder.getMethod("withThrowable", Throwable.class);
+            backend.logBuilt = builder.getMethod("log", Object.class);
+        }
+        catch (Exception e)
+        {
+            // an older log4j, which finds the location itself
+        }
+
+        return backend;
+    }
+
+    /* */
+    private static LogBackend system(Object logger)
+    {
+        try
+        {
+            Class<?> api = getApi(logger, "java.lang.System$Logger");
+            Class<?> levelClass = getApi(logger, "java.lang.System$Logger$Level");
+            String[] levelNames = { "TRACE", "DEBUG", "INFO", "WARNING", "ERROR", "ERROR" };
+
+            Object[] levels = new Object[LEVELS.length];
+            Method[] isEnabled = new Method[LEVELS.length];
+            Method[] log = new Method[LEVELS.length];
+
+            Method isLoggable = api.getMethod("isLoggable", levelClass);
+            Method logMethod = api.getMethod("log", levelClass, String.class, Throwable.class);
+            for (int i = 0; i < LEVELS.length; i++)
+            {
+                levels[i] = levelClass.getField(levelNames[i]).get(null);
+                isEnabled[i] = isLoggable;
+                log[i] = logMethod;
+            }
+
+            return new ReflectiveBackend(logger, isEnabled, levels, log, levels, true);
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException("Not a supported logger: " + logger.getClass().getName(), e);
+        }
+    }
+
+    /** Loads the logging library's public interface, the logger implementation classes usually aren't public. */
+    private static Class<?> getApi(Object logger, String className) throws ClassNotFoundException
+    {
+        return Class.forName(className, false, logger.getClass().getClassLoader());
+    }
+
+    /* */
+    private static Object invokeStatic(String className, String methodName, String name)
+    {
+        try
+        {
+            Class<?> factory = Class.forName(className, true, getClassLoader());
+            return factory.getMethod(methodName, String.class).invoke(null, name);
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new IllegalStateException(className + " isn't on the classpath", e);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new IllegalStateException("Can't get logger " + name + " from " + className, e.getCause());
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException("Can't get logger " + name + " from " + className, e);
+        }
+    }
+
+    /* */
+    private static ClassLoader getClassLoader()
+    {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        return loader == null ? LogBackends.class.getClassLoader() : loader;
+    }
+
+    /** Calls methods looked up by reflection, optionally passing a level object as the first argument. */
+    private static final class ReflectiveBackend implements LogBackend
+    {
+        private static final Object[] NO_ARGS = new Object[0];
+
+        final Object logger;
+        private final Method[] isEnabled;
+        /** The arguments of each level's isEnabled method, built once as they're the same on every call. */
+        private final Object[][] isEnabledArgs;
+        private final Method[] log;
+        private final Object[] logLevels;
+        private final boolean stringMessages;
+
+        /** The LogBuilder methods, for logging with a location, or null if the library doesn't have them. */
+        Method[] at;
+        Method withLocation;
+        Method withThrowable;
+        Method logBuilt;
+
+        /** */
+        ReflectiveBackend(Object logger, Method[] isEnabled, Object[] isEnabledLevels, Method[] log, Object[] logLevels, boolean stringMessages)
+        {
+            this.logger = logger;
+            this.isEnabled = isEnabled;
+            this.isEnabledArgs = new Object[isEnabled.length][];
+            for (int i = 0; i < isEnabled.length; i++)
+                this.isEnabledArgs[i] = isEnabledLevels == null ? NO_ARGS : new Object[] { isEnabledLevels[i] };
+            this.log = log;
+            this.logLevels = logLevels;
+            this.stringMessages = stringMessages;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean isEnabled(Logger.Level level)
+        {
+            int i = level.ordinal();
+            return Boolean.TRUE.equals(this.invoke(this.logger, this.isEnabled[i], this.isEnabledArgs[i]));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void log(Logger.Level level, StackTraceElement location, Object message, Throwable t)
+        {
+            int i = level.ordinal();
+            Object msg = this.stringMessages ? String.valueOf(message) : message;
+
+            if (location != null && this.at != null)
+            {
+                Object builder = this.invoke(this.logger, this.at[i], NO_ARGS);
+                builder = this.invoke(builder, this.withLocation, location);
+                if (t != null)
+                    builder = this.invoke(builder, this.withThrowable, t);
+
+                this.invoke(builder, this.logBuilt, msg);
+                return;
+            }
+
+            Object[] args = this.logLevels == null
+                    ? new Object[] { msg, t }
+                    : new Object[] { this.logLevels[i], msg, t };
+
+            this.invoke(this.logger, this.log[i], args);
+        }
+
+        /* */
+        private Object invoke(Object target, Method method, Object... args)
+        {
+            try
+            {
+                return method.invoke(target, args);
+            }
+            catch (InvocationTargetException e)
+            {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException)cause;
+                if (cause instanceof Error)
+                    throw (Error)cause;
+
+                throw new IllegalStateException(cause);
+            }
+            catch (IllegalAccessException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Calls java.util.logging directly, passing the location, or failing that the logger name, as the source
+     * so it doesn't walk the stack.
+     */
+    private static final class JavaBackend implements LogBackend
+    {
+        private static final java.util.logging.Level[] LEVELS = {
+            java.util.logging.Level.FINEST,
+            java.util.logging.Level.FINE,
+            java.util.logging.Level.INFO,
+            java.util.logging.Level.WARNING,
+            java.util.logging.Level.SEVERE,
+            java.util.logging.Level.SEVERE
+        };
+
+        private final java.util.logging.Logger logger;
+
+        /** */
+        JavaBackend(java.util.logging.Logger logger)
+        {
+            this.logger = logger;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean isEnabled(Logger.Level level)
+        {
+            return this.logger.isLoggable(LEVELS[level.ordinal()]);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void log(Logger.Level level, StackTraceElement location, Object message, Throwable t)
+        {
+            String sourceClass = location == null ? this.logger.getName() : location.getClassName();
+            String sourceMethod = location == null ? null : location.getMethodName();
+
+            this.logger.logp(LEVELS[level.ordinal()], sourceClass, sourceMethod, String.valueOf(message), t);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+
+/**
+ * Key/value pairs that morbok loggers append to everything logged while a task runs, eg:
+ * <code>LogContext.run("requestId", id, task)</code> makes <code>log.info("done")</code> in the task log
+ * <code>done requestId=42</code>. Bindings nest, and a binding is gone once its task returns.
+ * <p>
+ * Unlike an MDC the pairs aren't kept in a thread local for the life of the thread. On java versions with
+ * <code>java.lang.ScopedValue</code> they're bound to one, which virtual threads share nothing of and which
+ * can't be left behind by a task that forgets to clean up. Elsewhere a thread local holds them for as long
+ * as the task runs. The system property <code>morbok.context</code> picks one, SCOPED_VALUE or THREAD_LOCAL
+ * (default SCOPED_VALUE where it's available).
+ * <p>
+ * Values are turned into strings when they're bound, so an async logger appends what they were when the
+ * event was logged. The pairs are appended by the loggers of the morbok runtime, facade, async and
+ * structured ones, but not by binary loggers, whose events only carry their arguments.
+ *
+ * @author rayvanderborght
+ */
+public final class LogContext
+{
+    /** */
+    static enum Storage
+    {
+        SCOPED_VALUE,
+        THREAD_LOCAL
+    }
+
+    private static final ThreadLocal<String> LOCAL = new ThreadLocal<String>();
+
+    private static final Object SCOPED_VALUE;
+    private static final Method WHERE;
+    private static final Method RUN;
+    private static final Method OR_ELSE;
+
+    static
+    {
+        Object scopedValue = null;
+        Method where = null;
+        Method run = null;
+        Method orElse = null;
+
+        if (RuntimeOptions.getEnum("morbok.context", Storage.class, Storage.SCOPED_VALUE) == Storage.SCOPED_VALUE)
+        {
+            try
+            {
+                Class<?> type = Class.forName("java.lang.ScopedValue");
+                scopedValue = type.getMethod("newInstance").invoke(null);
+                where = type.getMethod("where", type, Object.class);
+                run = where.getReturnType().getMethod("run", Runnable.class);
+                orElse = type.getMethod("orElse", Object.class);
+            }
+            catch (Throwable e)
+            {
+                // older java, or scoped values are a preview that isn't enabled
+                scopedValue = null;
+            }
+        }
+
+        SCOPED_VALUE = scopedValue;
+        WHERE = where;
+        RUN = run;
+        OR_ELSE = orElse;
+    }
+
+    /** Set the first time anything is bound, until then the loggers don't look for pairs. */
+    private static volatile boolean used;
+
+    private LogContext()
+    {
+        // Prevent instantiation
+    }
+
+    /**
+     * Runs the task with the pair appended to what's logged, after any pairs that are already bound.
+     */
+    public static void run(String key, Object value, Runnable task)
+    {
+        used = true;
+
+        String pairs = with(get(), key, value);
+        if (SCOPED_VALUE == null)
+        {
+            runLocal(pairs, task);
+            return;
+        }
+
+        try
+        {
+            RUN.invoke(WHERE.invoke(null, SCOPED_VALUE, pairs), task);
+        }
+        catch (InvocationTargetException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new IllegalStateException(cause);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Calls the task with the pair appended to what's logged, and returns what it returns.
+     */
+    public static <T> T call(String key, Object value, final Callable<T> task) throws Exception
+    {
+        final Object[] result = new Object[1];
+        final Exception[] failure = new Exception[1];
+
+        run(key, value, new Runnable() {
+            public void run()
+            {
+                try
+                {
+                    result[0] = task.call();
+                }
+                catch (Exception e)
+                {
+                    failure[0] = e;
+                }
+            }
+        });
+
+        if (failure[0] != null)
+            throw failure[0];
+
+        @SuppressWarnings("unchecked")
+        T returned = (T)result[0];
+        return returned;
+    }
+
+    /**
+     * Returns the pairs bound for the calling thread, each preceded by a space, or null if there are none.
+     */
+    static String get()
+    {
+        if (!used)
+            return null;
+
+        if (SCOPED_VALUE == null)
+            return LOCAL.get();
+
+        try
+        {
+            return (String)OR_ELSE.invoke(SCOPED_VALUE, (Object)null);
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }
+
+    /* */
+    private static String with(String pairs, String key, Object value)
+    {
+        StringBuilder out = new StringBuilder();
+        if (pairs != null)
+            out.append(pairs);
+
+        out.append(' ').append(key).append('=');
+        EventWriter.appendValue(out, String.valueOf(value));
+        return out.toString();
+    }
+
+    /* */
+    private static void runLocal(String pairs, Runnable task)
+    {
+        String previous = LOCAL.get();
+        LOCAL.set(pairs);
+        try
+        {
+            task.run();
+        }
+        finally
+        {
+            if (previous == null)
+                LOCAL.remove();
+            else
+                LOCAL.set(previous);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+/**
+ * Counts the calls made from one log statement, and estimates the time they take.
+ * <code>@Logger(instrument=true)</code> declares one for each log call, and turns
+ * <code>log.warn("slow " + id)</code> into:
+ * <pre>
+ * {
+ *     final long $morbokStart = $morbokStats0.begin();
+ *     log.warn("slow {}", id);
+ *     $morbokStats0.end($morbokStart);
+ * }
+ * </pre>
+ * The calls are counted on a {@link StripedCounter}, so threads logging from the same statement don't
+ * contend, and only one in every N calls is timed, whose time is counted N times. Each site adds itself
+ * to {@link LogSites} when its class is initialized, which reports the busiest sites over JMX. It's
+ * configured with system properties:
+ * <ul>
+ * <li><code>morbok.sites.timing</code> whether calls are timed at all (default true)</li>
+ * <li><code>morbok.sites.sample</code> times one in every N calls, a power of two (default 64)</li>
+ * </ul>
+ *
+ * @author rayvanderborght
+ */
+public final class LogSite
+{
+    private static final boolean TIMING = RuntimeOptions.getBoolean("morbok.sites.timing", true);
+    private static final int SAMPLE_RATE = RuntimeOptions.getPowerOfTwo("morbok.sites.sample", 64);
+
+    private final StackTraceElement location;
+    private final String level;
+
+    private final StripedCounter calls = new StripedCounter();
+    private final StripedCounter nanos = new StripedCounter();
+
+    /**
+     * Creates the site of the log call at the given location, which logs at the given level, and adds it
+     * to the sites reported over JMX.
+     */
+    public LogSite(StackTraceElement location, String level)
+    {
+        this.location = location;
+        this.level = level;
+        LogSites.add(this);
+    }
+
+    /**
+     * Counts a call, and returns the time it starts at if it's timed, or 0 if it isn't.
+     */
+    public long begin()
+    {
+        long count = this.calls.increment();
+        return TIMING && (count & (SAMPLE_RATE - 1)) == 0 ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Counts the time of a call that {@link #begin} returned the start of.
+     */
+    public void end(long start)
+    {
+        if (start != 0)
+            this.nanos.add((System.nanoTime() - start) * SAMPLE_RATE);
+    }
+
+    /** */
+    public StackTraceElement getLocation()
+    {
+        return this.location;
+    }
+
+    /** */
+    public String getLevel()
+    {
+        return this.level;
+    }
+
+    /**
+     * Returns the number of calls made since the site was created or reset.
+     */
+    public long getCount()
+    {
+        return this.calls.sum();
+    }
+
+    /**
+     * Returns an estimate of the nanoseconds the calls took, or 0 if they aren't timed.
+     */
+    public long getNanos()
+    {
+        return this.nanos.sum();
+    }
+
+    /** */
+    void reset()
+    {
+        this.calls.reset();
+        this.nanos.reset();
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.ObjectName;
+
+/**
+ * Keeps the {@link LogSite} of every log call of the <code>@Logger(instrument=true)</code> classes that
+ * have been initialized, and reports the busiest of them over JMX as <code>morbok:type=LogSites</code>.
+ * When logging suddenly writes far more than usual, the top sites by count or time name the lines
+ * responsible, and the sites that were never logged show which ones could be removed or lowered.
+ * <p>
+ * The counts are read when the attributes are, so the bean costs nothing in between. It's configured with
+ * system properties:
+ * <ul>
+ * <li><code>morbok.sites.jmx</code> whether the bean is registered (default true)</li>
+ * <li><code>morbok.sites.top</code> the number of sites the top lists have (default 20)</li>
+ * </ul>
+ *
+ * @author rayvanderborght
+ */
+public final class LogSites implements LogSitesMBean
+{
+    static final String OBJECT_NAME = "morbok:type=LogSites";
+
+    private static final int TOP = Math.max(RuntimeOptions.getInt("morbok.sites.top", 20), 1);
+
+    private static final Queue<LogSite> SITES = new ConcurrentLinkedQueue<LogSite>();
+
+    static
+    {
+        if (RuntimeOptions.getBoolean("morbok.sites.jmx", true))
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new LogSites(), new ObjectName(OBJECT_NAME));
+            }
+            catch (InstanceAlreadyExistsException e)
+            {
+                // registered by a copy of morbok in another class loader
+            }
+            catch (Exception e)
+            {
+                System.err.println("morbok: couldn't register " + OBJECT_NAME + ", " + e);
+            }
+        }
+    }
+
+    /** A site's counts, read once so they don't change while the sites are sorted. */
+    private static final class Snapshot
+    {
+        final LogSite site;
+        final long count;
+        final long nanos;
+
+        /** */
+        Snapshot(LogSite site)
+        {
+            this.site = site;
+            this.count = site.getCount();
+            this.nanos = site.getNanos();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.US, "%s %s calls=%d time=%dms", this.site.getLocation(), this.site.getLevel(),
+                    this.count, TimeUnit.NANOSECONDS.toMillis(this.nanos));
+        }
+    }
+
+    private static final Comparator<Snapshot> BY_COUNT = new Comparator<Snapshot>() {
+        public int compare(Snapshot a, Snapshot b)
+        {
+            return a.count < b.count ? 1 : (a.count == b.count ? 0 : -1);
+        }
+    };
+
+    private static final Comparator<Snapshot> BY_TIME = new Comparator<Snapshot>() {
+        public int compare(Snapshot a, Snapshot b)
+        {
+            return a.nanos < b.nanos ? 1 : (a.nanos == b.nanos ? 0 : -1);
+        }
+    };
+
+    /** */
+    private LogSites()
+    {
+    }
+
+    /**
+     * Returns the sites of the classes initialized so far.
+     */
+    public static Collection<LogSite> getSites()
+    {
+        return Collections.unmodifiableCollection(SITES);
+    }
+
+    /** */
+    static void add(LogSite site)
+    {
+        SITES.add(site);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getSiteCount()
+    {
+        return SITES.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getCallCount()
+    {
+        long count = 0;
+        for (LogSite site : SITES)
+            count += site.getCount();
+
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getTopSitesByCount()
+    {
+        return top(BY_COUNT);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getTopSitesByTime()
+    {
+        return top(BY_TIME);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String[] getNeverLoggedSites()
+    {
+        List<String> sites = new ArrayList<String>();
+        for (LogSite site : SITES)
+        {
+            if (site.getCount() == 0)
+                sites.add(site.getLocation() + " " + site.getLevel());
+        }
+
+        Collections.sort(sites);
+        return sites.toArray(new String[sites.size()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void reset()
+    {
+        for (LogSite site : SITES)
+            site.reset();
+    }
+
+    /** Returns the sites the comparator puts first, leaving out those that were never logged. */
+    private static String[] top(Comparator<Snapshot> order)
+    {
+        List<Snapshot> snapshots = new ArrayList<Snapshot>();
+        for (LogSite site : SITES)
+        {
+            Snapshot snapshot = new Snapshot(site);
+            if (snapshot.count > 0)
+                snapshots.add(snapshot);
+        }
+
+        Snapshot[] sorted = snapshots.toArray(new Snapshot[snapshots.size()]);
+        Arrays.sort(sorted, order);
+
+        String[] top = new String[Math.min(sorted.length, TOP)];
+        for (int i = 0; i < top.length; i++)
+            top[i] = sorted[i].toString();
+
+        return top;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+/**
+ * The JMX view of the log calls of <code>@Logger(instrument=true)</code> classes, registered as
+ * <code>morbok:type=LogSites</code>. Each site is described by its location, level, number of calls and
+ * estimated time, eg: <code>com.example.Foo.poll(Foo.java:42) WARN calls=1843922 time=2210ms</code>.
+ *
+ * @author rayvanderborght
+ */
+public interface LogSitesMBean
+{
+    /**
+     * Returns the number of sites in the classes initialized so far.
+     */
+    int getSiteCount();
+
+    /**
+     * Returns the total number of calls made from all the sites.
+     */
+    long getCallCount();
+
+    /**
+     * Returns the sites with the most calls, busiest first.
+     */
+    String[] getTopSitesByCount();
+
+    /**
+     * Returns the sites whose calls took the most time, slowest first.
+     */
+    String[] getTopSitesByTime();
+
+    /**
+     * Returns the sites no call was made from, because their level was never enabled or they were never reached.
+     */
+    String[] getNeverLoggedSites();
+
+    /**
+     * Sets the calls and time of every site back to 0.
+     */
+    void reset();
+}
@@ -0,0 +1,188 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import morbok.Logger;
+
+/**
+ * Puts together a message from a {@link Template} and its arguments, appending primitive arguments as
+ * they are so they're never boxed. The handlers turn <code>log.info("took " + ms + "ms")</code> into
+ * <code>log.at(Logger.Level.INFO, $morbokTemplate0).arg(ms).log()</code> for facade loggers.
+ * <p>
+ * Each thread reuses one builder, virtual threads share a few, so a builder mustn't be kept once it's logged. When the level isn't
+ * enabled a builder that ignores everything is returned instead, so nothing is formatted.
+ *
+ * @author rayvanderborght
+ */
+public final class MessageBuilder
+{
+    /** The builder returned for levels that aren't enabled. */
+    static final MessageBuilder DISABLED = new MessageBuilder();
+
+    private static final ThreadCache<MessageBuilder> BUILDERS = new ThreadCache<MessageBuilder>() {
+        @Override
+        protected MessageBuilder create(boolean shared)
+        {
+            return new MessageBuilder();
+        }
+    };
+
+    private final StringBuilder message = new StringBuilder(128);
+
+    private LogBackend backend;
+    private Logger.Level level;
+    private StackTraceElement location;
+    private Template template;
+    private int segment;
+    private boolean active;
+
+    /** */
+    private MessageBuilder()
+    {
+    }
+
+    /**
+     * Returns the calling thread's builder, started with the first segment of the template.
+     */
+    static MessageBuilder begin(LogBackend backend, Logger.Level level, StackTraceElement location, Template template)
+    {
+        MessageBuilder builder = BUILDERS.get();
+
+        // the builder is in use by a call whose arguments are logging too, or was left active by one whose
+        // argument threw, so a new builder takes its place and later calls don't each allocate another
+        if (builder.active)
+        {
+            builder = new MessageBuilder();
+            BUILDERS.replace(builder);
+        }
+
+        builder.active = true;
+        builder.backend = backend;
+        builder.level = level;
+        builder.location = location;
+        builder.template = template;
+        builder.segment = 1;
+        builder.message.setLength(0);
+        builder.message.ensureCapacity(template.getLength() + 16 * template.getArgumentCount());
+        builder.message.append(template.getSegment(0));
+        return builder;
+    }
+
+    /** */
+    public MessageBuilder arg(int value)
+    {
+        if (this.active)
+        {
+            this.message.append(value);
+            this.nextSegment();
+        }
+        return this;
+    }
+
+    /** */
+    public MessageBuilder arg(long value)
+    {
+        if (this.active)
+        {
+            this.message.append(value);
+            this.nextSegment();
+        }
+        return this;
+    }
+
+    /** */
+    public MessageBuilder arg(float value)
+    {
+        if (this.active)
+        {
+            this.message.append(value);
+            this.nextSegment();
+        }
+        return this;
+    }
+
+    /** */
+    public MessageBuilder arg(double value)
+    {
+        if (this.active)
+        {
+            this.message.append(value);
+            this.nextSegment();
+        }
+        return this;
+    }
+
+    /** */
+    public MessageBuilder arg(boolean value)
+    {
+        if (this.active)
+        {
+            this.message.append(value);
+            this.nextSegment();
+        }
+        return this;
+    }
+
+    /** */
+    public MessageBuilder arg(char value)
+    {
+        if (this.active)
+        {
+            this.message.append(value);
+            this.nextSegment();
+        }
+        return this;
+    }
+
+    /** */
+    public MessageBuilder arg(Object value)
+    {
+        if (this.active)
+        {
+            this.message.append(value);
+            this.nextSegment();
+        }
+        return this;
+    }
+
+    /**
+     * Logs the message.
+     */
+    public void log()
+    {
+        if (!this.active)
+            return;
+
+        // placeholders without an argument are left as they are
+        while (this.segment < this.template.getSegmentCount())
+        {
+            this.message.append("{}");
+            this.nextSegment();
+        }
+
+        // once released the builder may be taken by another thread, so nothing of it is read afterwards
+        LogBackend backend = this.backend;
+        Logger.Level level = this.level;
+        StackTraceElement location = this.location;
+        String message = this.message.toString();
+
+        this.backend = null;
+        this.location = null;
+        this.template = null;
+        this.active = false;
+        BUILDERS.release(this);
+
+        backend.log(level, location, message, null);
+    }
+
+    /* */
+    private void nextSegment()
+    {
+        if (this.segment < this.template.getSegmentCount())
+            this.message.append(this.template.getSegment(this.segment));
+
+        this.segment++;
+    }
+}
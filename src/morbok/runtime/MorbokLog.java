@@ -0,0 +1,271 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import morbok.Logger;
+
+/**
+ * The log variable type generated for loggers backed by the morbok runtime, which has the same methods
+ * as an apache commons logging Log.
+ * <p>
+ * Facade loggers log on the calling thread, and async ones hand their events to a background thread.
+ * Both append the pairs of the {@link LogContext} bound on the calling thread to what they log.
+ *
+ * @see StructuredLog
+ *
+ * @author rayvanderborght
+ */
+public class MorbokLog
+{
+    final LogBackend backend;
+
+    /** */
+    MorbokLog(LogBackend backend)
+    {
+        this.backend = new ContextBackend(backend);
+    }
+
+    /**
+     * Returns a log that hands its events to a background thread, which logs them to a logger of the given
+     * type with the given name.
+     *
+     * @see AsyncDispatcher
+     */
+    public static MorbokLog getAsyncLogger(Logger.Type delegate, String name)
+    {
+        return new MorbokLog(new AsyncBackend(LogBackends.create(delegate, name), AsyncDispatcher.getInstance()));
+    }
+
+    /**
+     * Returns a log that logs on the calling thread to a logger of the given type with the given name.
+     */
+    public static MorbokLog getLogger(Logger.Type delegate, String name)
+    {
+        return new MorbokLog(createFacade(delegate, name));
+    }
+
+    /**
+     * Returns the backend of a facade logger, which hands the events of virtual threads to the async
+     * dispatcher if <code>morbok.virtualThreads.handoff</code> is set.
+     */
+    static LogBackend createFacade(Logger.Type delegate, String name)
+    {
+        LogBackend backend = LogBackends.create(delegate, name);
+        return VirtualThreads.isHandoffEnabled() ? new VirtualThreadBackend(backend) : backend;
+    }
+
+    /** */
+    public boolean isEnabled(Logger.Level level)
+    {
+        return this.backend.isEnabled(level);
+    }
+
+    /** */
+    public void log(Logger.Level level, Object message, Throwable t)
+    {
+        this.backend.log(level, null, message, t);
+    }
+
+    /**
+     * Logs with the location of the call, which <code>@Logger(location=true)</code> passes as a constant so the
+     * logging library doesn't have to walk the stack to find it.
+     */
+    public void log(Logger.Level level, StackTraceElement location, Object message, Throwable t)
+    {
+        this.backend.log(level, location, message, t);
+    }
+
+    /**
+     * Logs a message built from a template, which <code>@Logger</code> declares as a constant for each
+     * string concatenation passed to a log call. The message is only formatted if the level is enabled, and
+     * for async loggers it's formatted on the background thread.
+     */
+    public void log(Logger.Level level, StackTraceElement location, Template template, Object... args)
+    {
+        if (this.backend.isEnabled(level))
+            this.backend.log(level, location, new TemplateMessage(template, args), null);
+    }
+
+    /**
+     * Starts a message built from a template, whose arguments are appended without being boxed. Nothing is
+     * formatted unless the level is enabled.
+     */
+    public MessageBuilder at(Logger.Level level, Template template)
+    {
+        return this.at(level, null, template);
+    }
+
+    /** */
+    public MessageBuilder at(Logger.Level level, StackTraceElement location, Template template)
+    {
+        if (!this.backend.isEnabled(level))
+            return MessageBuilder.DISABLED;
+
+        return MessageBuilder.begin(this.backend, level, location, template);
+    }
+
+    /**
+     * Logs an event at info level.
+     *
+     * @see EventWriter
+     */
+    public void event(Event event)
+    {
+        this.event(Logger.Level.INFO, event);
+    }
+
+    /**
+     * Logs an event, which is only written out if the level is enabled.
+     */
+    public void event(Logger.Level level, Event event)
+    {
+        if (this.backend.isEnabled(level))
+            this.backend.log(level, null, EventWriter.format(event), null);
+    }
+
+    /** */
+    public boolean isTraceEnabled()
+    {
+        return this.backend.isEnabled(Logger.Level.TRACE);
+    }
+
+    /** */
+    public boolean isDebugEnabled()
+    {
+        return this.backend.isEnabled(Logger.Level.DEBUG);
+    }
+
+    /** */
+    public boolean isInfoEnabled()
+    {
+        return this.backend.isEnabled(Logger.Level.INFO);
+    }
+
+    /** */
+    public boolean isWarnEnabled()
+    {
+        return this.backend.isEnabled(Logger.Level.WARN);
+    }
+
+    /** */
+    public boolean isErrorEnabled()
+    {
+        return this.backend.isEnabled(Logger.Level.ERROR);
+    }
+
+    /** */
+    public boolean isFatalEnabled()
+    {
+        return this.backend.isEnabled(Logger.Level.FATAL);
+    }
+
+    /** */
+    public void trace(Object message)
+    {
+        this.backend.log(Logger.Level.TRACE, null, message, null);
+    }
+
+    /** */
+    public void trace(Object message, Throwable t)
+    {
+        this.backend.log(Logger.Level.TRACE, null, message, t);
+    }
+
+    /** */
+    public void trace(Template template, Object... args)
+    {
+        this.log(Logger.Level.TRACE, null, template, args);
+    }
+
+    /** */
+    public void debug(Object message)
+    {
+        this.backend.log(Logger.Level.DEBUG, null, message, null);
+    }
+
+    /** */
+    public void debug(Object message, Throwable t)
+    {
+        this.backend.log(Logger.Level.DEBUG, null, message, t);
+    }
+
+    /** */
+    public void debug(Template template, Object... args)
+    {
+        this.log(Logger.Level.DEBUG, null, template, args);
+    }
+
+    /** */
+    public void info(Object message)
+    {
+        this.backend.log(Logger.Level.INFO, null, message, null);
+    }
+
+    /** */
+    public void info(Object message, Throwable t)
+    {
+        this.backend.log(Logger.Level.INFO, null, message, t);
+    }
+
+    /** */
+    public void info(Template template, Object... args)
+    {
+        this.log(Logger.Level.INFO, null, template, args);
+    }
+
+    /** */
+    public void warn(Object message)
+    {
+        this.backend.log(Logger.Level.WARN, null, message, null);
+    }
+
+    /** */
+    public void warn(Object message, Throwable t)
+    {
+        this.backend.log(Logger.Level.WARN, null, message, t);
+    }
+
+    /** */
+    public void warn(Template template, Object... args)
+    {
+        this.log(Logger.Level.WARN, null, template, args);
+    }
+
+    /** */
+    public void error(Object message)
+    {
+        this.backend.log(Logger.Level.ERROR, null, message, null);
+    }
+
+    /** */
+    public void error(Object message, Throwable t)
+    {
+        this.backend.log(Logger.Level.ERROR, null, message, t);
+    }
+
+    /** */
+    public void error(Template template, Object... args)
+    {
+        this.log(Logger.Level.ERROR, null, template, args);
+    }
+
+    /** */
+    public void fatal(Object message)
+    {
+        this.backend.log(Logger.Level.FATAL, null, message, null);
+    }
+
+    /** */
+    public void fatal(Object message, Throwable t)
+    {
+        this.backend.log(Logger.Level.FATAL, null, message, t);
+    }
+
+    /** */
+    public void fatal(Template template, Object... args)
+    {
+        this.log(Logger.Level.FATAL, null, template, args);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+/**
+ * What an async logger does with an event when its buffer is full.
+ * Events that are dropped are counted, and the count is logged once there's room again.
+ *
+ * @author rayvanderborght
+ */
+public enum OverflowPolicy
+{
+    /** Waits for room in the buffer, without taking any locks. */
+    BLOCK,
+
+    /** Drops trace, debug and info events, and waits for room for the rest. */
+    DROP_LOWEST,
+
+    /** Drops the event. */
+    DROP;
+
+    /**
+     * Returns true if an event at the given level is dropped when the buffer is full.
+     */
+    boolean drops(morbok.Logger.Level level)
+    {
+        switch (this)
+        {
+            case DROP:
+                return true;
+            case DROP_LOWEST:
+                return level.compareTo(morbok.Logger.Level.INFO) <= 0;
+            default:
+                return false;
+        }
+    }
+}
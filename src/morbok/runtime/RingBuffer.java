@@ -0,0 +1,152 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import morbok.Logger;
+
+/**
+ * A bounded queue of log events that any number of threads can add to and one thread takes from,
+ * without locks.
+ * <p>
+ * The slots are allocated up front and reused. Each slot has a sequence number that says whose turn it
+ * is: a producer may fill slot <code>p % capacity</code> when its sequence is <code>p</code>, and the
+ * consumer may empty it when its sequence is <code>p + 1</code>. Producers claim positions with a
+ * compare and set on the tail, so a full buffer is noticed without waiting on anyone.
+ *
+ * @author rayvanderborght
+ */
+final class RingBuffer
+{
+    private final Event[] events;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    /**
+     * @param capacity the number of slots, which must be a power of two
+     */
+    RingBuffer(int capacity)
+    {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+
+        this.events = new Event[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+
+        for (int i = 0; i < capacity; i++)
+        {
+            this.events[i] = new Event();
+            this.sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds an event, returning false straight away if the buffer is full.
+     */
+    boolean offer(AsyncBackend backend, Logger.Level level, StackTraceElement location, Object message, Throwable t)
+    {
+        while (true)
+        {
+            long position = this.tail.get();
+            int index = (int)position & this.mask;
+            long difference = this.sequences.get(index) - position;
+
+            if (difference < 0)
+                return false;
+
+            if (difference == 0 && this.tail.compareAndSet(position, position + 1))
+            {
+                Event event = this.events[index];
+                event.backend = backend;
+                event.level = level;
+                event.location = location;
+                event.message = message;
+                event.throwable = t;
+
+                // the volatile write publishes the event to the consumer
+                this.sequences.set(index, position + 1);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Hands up to max events to the backends they were logged to, and returns the number handed over.
+     * Only one thread may drain the buffer.
+     */
+    int drain(int max)
+    {
+        long position = this.head;
+        int count = 0;
+
+        while (count < max)
+        {
+            int index = (int)position & this.mask;
+            if (this.sequences.get(index) != position + 1)
+                break;
+
+            Event event = this.events[index];
+            AsyncBackend backend = event.backend;
+            Logger.Level level = event.level;
+            StackTraceElement location = event.location;
+            Object message = event.message;
+            Throwable t = event.throwable;
+
+            event.backend = null;
+            event.location = null;
+            event.message = null;
+            event.throwable = null;
+            this.sequences.set(index, position + this.events.length);
+
+            // the head moves past each event before it's handed on, so it's never handed on twice or counted again
+            position++;
+            count++;
+            this.head = position;
+            backend.dispatch(level, location, message, t);
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns true if there's nothing for the consumer to take.
+     */
+    boolean isEmpty()
+    {
+        return this.head >= this.tail.get();
+    }
+
+    /**
+     * Returns the number of events ever added.
+     */
+    long getAdded()
+    {
+        return this.tail.get();
+    }
+
+    /**
+     * Returns the number of events ever taken.
+     */
+    long getTaken()
+    {
+        return this.head;
+    }
+
+    /** A reusable slot, its fields are guarded by the slot's sequence number. */
+    private static final class Event
+    {
+        AsyncBackend backend;
+        Logger.Level level;
+        StackTraceElement location;
+        Object message;
+        Throwable throwable;
+    }
+}
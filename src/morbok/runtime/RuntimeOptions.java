@@ -0,0 +1,108 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+/**
+ * Reads the system properties the morbok runtime is configured with. Bad values are reported on
+ * System.err and replaced with the default, logging mustn't be the reason an application won't start.
+ *
+ * @author rayvanderborght
+ */
+final class RuntimeOptions
+{
+    private RuntimeOptions()
+    {
+        // Prevent instantiation
+    }
+
+    /**
+     * Returns the trimmed value of the given system property, or null if it isn't set.
+     */
+    static String getString(String key)
+    {
+        try
+        {
+            String value = System.getProperty(key);
+            return (value == null || "".equals(value.trim())) ? null : value.trim();
+        }
+        catch (SecurityException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the value of the given system property as a number.
+     */
+    static int getInt(String key, int defaultValue)
+    {
+        String value = getString(key);
+        if (value == null)
+            return defaultValue;
+
+        try
+        {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+            System.err.println("morbok: ignoring " + key + "=" + value + ", it isn't a number");
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the value of the given system property as a boolean, true or false ignoring case.
+     */
+    static boolean getBoolean(String key, boolean defaultValue)
+    {
+        String value = getString(key);
+        if (value == null)
+            return defaultValue;
+
+        if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value))
+        {
+            System.err.println("morbok: ignoring " + key + "=" + value + ", it isn't true or false");
+            return defaultValue;
+        }
+
+        return "true".equalsIgnoreCase(value);
+    }
+
+    /**
+     * Returns the value of the given system property, which must be a power of two.
+     */
+    static int getPowerOfTwo(String key, int defaultValue)
+    {
+        int value = getInt(key, defaultValue);
+        if (value < 2 || Integer.bitCount(value) != 1)
+        {
+            System.err.println("morbok: ignoring " + key + "=" + value + ", it isn't a power of two");
+            return defaultValue;
+        }
+
+        return value;
+    }
+
+    /**
+     * Returns the constant of the given enum named by the system property, ignoring case.
+     */
+    static <E extends Enum<E>> E getEnum(String key, Class<E> type, E defaultValue)
+    {
+        String value = getString(key);
+        if (value == null)
+            return defaultValue;
+
+        try
+        {
+            return Enum.valueOf(type, value.toUpperCase());
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.err.println("morbok: ignoring " + key + "=" + value + ", it isn't a " + type.getSimpleName());
+            return defaultValue;
+        }
+    }
+}
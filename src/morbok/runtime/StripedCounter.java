@@ -0,0 +1,95 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A counter that many threads can add to at once without contending on one cache line, like java 8's
+ * LongAdder.
+ * <p>
+ * It starts out as a single atomic long, which is all a counter that's only added to now and then needs.
+ * The first time two threads collide on it, it grows a row of cells padded a cache line apart, and from
+ * then on each thread adds to the cell its id hashes to. The sum is only read now and then, so reading
+ * every cell is cheap enough.
+ *
+ * @author rayvanderborght
+ */
+final class StripedCounter
+{
+    /** The number of longs from one cell to the next, so no two cells share a cache line. */
+    private static final int PADDING = 8;
+
+    private static final int CELLS = Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors(), 1)) * 2;
+
+    private final AtomicLong base = new AtomicLong();
+    private final AtomicReference<AtomicLongArray> cells = new AtomicReference<AtomicLongArray>();
+
+    /**
+     * Adds one, and returns the new value of the base or cell that was added to, which goes up by one
+     * for every call that lands on it.
+     */
+    long increment()
+    {
+        return this.add(1);
+    }
+
+    /**
+     * Adds the given amount, and returns the new value of the base or cell that was added to.
+     */
+    long add(long amount)
+    {
+        AtomicLongArray cells = this.cells.get();
+        if (cells == null)
+        {
+            long value = this.base.get();
+            if (this.base.compareAndSet(value, value + amount))
+                return value + amount;
+
+            // another thread got there first, so the base is contended
+            this.cells.compareAndSet(null, new AtomicLongArray(CELLS * PADDING));
+            cells = this.cells.get();
+        }
+
+        return cells.addAndGet(index(), amount);
+    }
+
+    /**
+     * Returns the total, which is only exact if nothing is being added at the same time.
+     */
+    long sum()
+    {
+        long sum = this.base.get();
+        AtomicLongArray cells = this.cells.get();
+        if (cells != null)
+        {
+            for (int i = 0; i < cells.length(); i += PADDING)
+                sum += cells.get(i);
+        }
+
+        return sum;
+    }
+
+    /** */
+    void reset()
+    {
+        this.base.set(0);
+        AtomicLongArray cells = this.cells.get();
+        if (cells != null)
+        {
+            for (int i = 0; i < cells.length(); i += PADDING)
+                cells.set(i, 0);
+        }
+    }
+
+    /** Returns the index of the calling thread's cell. */
+    private static int index()
+    {
+        int hash = (int)Thread.currentThread().getId() * 0x9E3779B9;
+        return ((hash ^ (hash >>> 16)) & (CELLS - 1)) * PADDING;
+    }
+}
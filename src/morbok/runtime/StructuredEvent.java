@@ -0,0 +1,190 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import morbok.Logger;
+
+/**
+ * Collects the key/value pairs of a structured log event, eg:
+ * <code>log.atInfo().kv("userId", id).kv("latencyNs", ns).log("done")</code>. The pairs follow the
+ * message as <code>key=value</code>, and values with spaces, equals signs or quotes in them are quoted:
+ * <code>done userId=42 latencyNs=1200 path="/a b"</code>.
+ * <p>
+ * Each thread reuses one event, virtual threads share a few, so an event mustn't be kept once it's logged.
+ * Primitive values are appended as they are, so they're never boxed. When the level isn't enabled an event
+ * that ignores everything is returned instead.
+ *
+ * @author rayvanderborght
+ */
+public final class StructuredEvent
+{
+    /** The event returned for levels that aren't enabled. */
+    static final StructuredEvent DISABLED = new StructuredEvent();
+
+    private static final ThreadCache<StructuredEvent> EVENTS = new ThreadCache<StructuredEvent>() {
+        @Override
+        protected StructuredEvent create(boolean shared)
+        {
+            return new StructuredEvent();
+        }
+    };
+
+    private final StringBuilder pairs = new StringBuilder(128);
+    private final StringBuilder message = new StringBuilder(128);
+
+    private LogBackend backend;
+    private Logger.Level level;
+    private boolean active;
+
+    /** */
+    private StructuredEvent()
+    {
+    }
+
+    /**
+     * Returns the calling thread's event, with no pairs.
+     */
+    static StructuredEvent begin(LogBackend backend, Logger.Level level)
+    {
+        StructuredEvent event = EVENTS.get();
+
+        // the event is in use by a call whose values are logging too, or was left active by one whose value
+        // threw, so a new event takes its place and later calls don't each allocate another
+        if (event.active)
+        {
+            event = new StructuredEvent();
+            EVENTS.replace(event);
+        }
+
+        event.active = true;
+        event.backend = backend;
+        event.level = level;
+        event.pairs.setLength(0);
+        return event;
+    }
+
+    /** */
+    public StructuredEvent kv(String key, int value)
+    {
+        if (this.active)
+            this.key(key).append(value);
+        return this;
+    }
+
+    /** */
+    public StructuredEvent kv(String key, long value)
+    {
+        if (this.active)
+            this.key(key).append(value);
+        return this;
+    }
+
+    /** */
+    public StructuredEvent kv(String key, float value)
+    {
+        if (this.active)
+            this.key(key).append(value);
+        return this;
+    }
+
+    /** */
+    public StructuredEvent kv(String key, double value)
+    {
+        if (this.active)
+            this.key(key).append(value);
+        return this;
+    }
+
+    /** */
+    public StructuredEvent kv(String key, boolean value)
+    {
+        if (this.active)
+            this.key(key).append(value);
+        return this;
+    }
+
+    /** */
+    public StructuredEvent kv(String key, char value)
+    {
+        if (this.active)
+        {
+            this.key(key);
+            if (value <= ' ' || value == '=' || value == '"')
+                EventWriter.appendValue(this.pairs, String.valueOf(value));
+            else
+                this.pairs.append(value);
+        }
+        return this;
+    }
+
+    /** */
+    public StructuredEvent kv(String key, CharSequence value)
+    {
+        if (this.active)
+        {
+            this.key(key);
+            EventWriter.appendValue(this.pairs, value == null ? "null" : value);
+        }
+        return this;
+    }
+
+    /** */
+    public StructuredEvent kv(String key, Object value)
+    {
+        if (this.active)
+        {
+            this.key(key);
+            EventWriter.appendValue(this.pairs, value instanceof CharSequence ? (CharSequence)value : String.valueOf(value));
+        }
+        return this;
+    }
+
+    /**
+     * Logs the pairs on their own.
+     */
+    public void log()
+    {
+        this.log("", null);
+    }
+
+    /**
+     * Logs the message, followed by the pairs.
+     */
+    public void log(String message)
+    {
+        this.log(message, null);
+    }
+
+    /**
+     * Logs the message followed by the pairs, and the throwable if it isn't null.
+     */
+    public void log(String message, Throwable t)
+    {
+        if (!this.active)
+            return;
+
+        // the pairs start with a space, which isn't wanted without a message
+        this.message.setLength(0);
+        this.message.append(message);
+        this.message.append(this.pairs, this.message.length() == 0 && this.pairs.length() > 0 ? 1 : 0, this.pairs.length());
+
+        // once released the event may be taken by another thread, so nothing of it is read afterwards
+        LogBackend backend = this.backend;
+        Logger.Level level = this.level;
+        String event = this.message.toString();
+
+        this.backend = null;
+        this.active = false;
+        EVENTS.release(this);
+
+        backend.log(level, null, event, t);
+    }
+
+    /* */
+    private StringBuilder key(String key)
+    {
+        return this.pairs.append(' ').append(key).append('=');
+    }
+}
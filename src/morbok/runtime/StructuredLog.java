@@ -0,0 +1,94 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import morbok.Logger;
+
+/**
+ * The log variable type generated by <code>@Logger(structured=true)</code>. On top of the methods of a
+ * {@link MorbokLog} it logs key/value pairs, eg:
+ * <code>log.atInfo().kv("userId", id).kv("latencyNs", ns).log("done")</code> logs
+ * <code>done userId=42 latencyNs=1200</code>.
+ * <p>
+ * The pairs are appended to a buffer the thread reuses, so nothing but the message handed to the logging
+ * library is allocated, and nothing at all when the level isn't enabled.
+ *
+ * @see StructuredEvent
+ * @author rayvanderborght
+ */
+public final class StructuredLog extends MorbokLog
+{
+    /** */
+    private StructuredLog(LogBackend backend)
+    {
+        super(backend);
+    }
+
+    /**
+     * Returns a log that hands its events to a background thread, which logs them to a logger of the given
+     * type with the given name.
+     *
+     * @see AsyncDispatcher
+     */
+    public static StructuredLog getAsyncLogger(Logger.Type delegate, String name)
+    {
+        return new StructuredLog(new AsyncBackend(LogBackends.create(delegate, name), AsyncDispatcher.getInstance()));
+    }
+
+    /**
+     * Returns a log that logs on the calling thread to a logger of the given type with the given name.
+     */
+    public static StructuredLog getLogger(Logger.Type delegate, String name)
+    {
+        return new StructuredLog(createFacade(delegate, name));
+    }
+
+    /**
+     * Starts an event at the given level, which ignores its pairs unless the level is enabled.
+     */
+    public StructuredEvent at(Logger.Level level)
+    {
+        if (!this.backend.isEnabled(level))
+            return StructuredEvent.DISABLED;
+
+        return StructuredEvent.begin(this.backend, level);
+    }
+
+    /** */
+    public StructuredEvent atTrace()
+    {
+        return this.at(Logger.Level.TRACE);
+    }
+
+    /** */
+    public StructuredEvent atDebug()
+    {
+        return this.at(Logger.Level.DEBUG);
+    }
+
+    /** */
+    public StructuredEvent atInfo()
+    {
+        return this.at(Logger.Level.INFO);
+    }
+
+    /** */
+    public StructuredEvent atWarn()
+    {
+        return this.at(Logger.Level.WARN);
+    }
+
+    /** */
+    public StructuredEvent atError()
+    {
+        return this.at(Logger.Level.ERROR);
+    }
+
+    /** */
+    public StructuredEvent atFatal()
+    {
+        return this.at(Logger.Level.FATAL);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A message template split into the literal text around its <code>{}</code> placeholders, eg:
+ * <code>"user {} took {}ms"</code> into "user ", " took " and "ms". A backslash in front of a placeholder
+ * escapes it, as it does for slf4j and log4j: <code>"\\{}"</code> is the literal text "{}".
+ * <p>
+ * The handlers declare one constant for each template of a class, so a template is split once, when the
+ * class is initialized, and formatting it only appends its segments and arguments.
+ *
+ * @author rayvanderborght
+ */
+public final class Template
+{
+    private final String pattern;
+    private final String[] segments;
+    private final int length;
+
+    /** */
+    public Template(String pattern)
+    {
+        this.pattern = pattern;
+
+        List<String> segments = split(pattern);
+        this.segments = segments.toArray(new String[segments.size()]);
+
+        int length = 0;
+        for (String segment : this.segments)
+            length += segment.length();
+        this.length = length;
+    }
+
+    /**
+     * Splits a template into the literal text before its first placeholder, between each placeholder and after
+     * its last one, so there's always one more segment than there are placeholders.
+     */
+    public static List<String> split(String pattern)
+    {
+        List<String> segments = new ArrayList<String>();
+        StringBuilder segment = new StringBuilder();
+
+        for (int i = 0; i < pattern.length(); i++)
+        {
+            if (pattern.startsWith("\\{}", i))
+            {
+                segment.append("{}");
+                i += 2;
+            }
+            else if (pattern.startsWith("{}", i))
+            {
+                segments.add(segment.toString());
+                segment.setLength(0);
+                i++;
+            }
+            else
+            {
+                segment.append(pattern.charAt(i));
+            }
+        }
+        segments.add(segment.toString());
+
+        return segments;
+    }
+
+    /**
+     * Returns the number of placeholders in the template.
+     */
+    public int getArgumentCount()
+    {
+        return this.segments.length - 1;
+    }
+
+    /* */
+    int getSegmentCount()
+    {
+        return this.segments.length;
+    }
+
+    /* */
+    String getSegment(int index)
+    {
+        return this.segments[index];
+    }
+
+    /* */
+    int getLength()
+    {
+        return this.length;
+    }
+
+    /**
+     * Fills the placeholders with the given arguments, placeholders without an argument are left as they are.
+     */
+    public String format(Object[] args)
+    {
+        StringBuilder message = new StringBuilder(this.length + 16 * args.length);
+        message.append(this.segments[0]);
+
+        for (int i = 1; i < this.segments.length; i++)
+        {
+            if (i <= args.length)
+                message.append(args[i - 1]);
+            else
+                message.append("{}");
+
+            message.append(this.segments[i]);
+        }
+
+        return message.toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return this.pattern;
+    }
+}
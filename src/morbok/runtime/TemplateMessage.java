@@ -0,0 +1,71 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+/**
+ * A message that's formatted from its template the first time it's turned into a string, which for async
+ * loggers is on the dispatcher thread.
+ * <p>
+ * Arguments that could change before then are turned into strings when the message is created; strings,
+ * boxed primitives and nulls are kept as they are. The {@link LogContext} pairs bound when the message was
+ * logged are appended to it.
+ *
+ * @author rayvanderborght
+ */
+final class TemplateMessage
+{
+    private final Template template;
+    private final Object[] args;
+    private String context;
+    private String message;
+
+    /** */
+    TemplateMessage(Template template, Object[] args)
+    {
+        this.template = template;
+        this.args = args;
+
+        for (int i = 0; i < args.length; i++)
+        {
+            if (!isImmutable(args[i]))
+                args[i] = String.valueOf(args[i]);
+        }
+    }
+
+    /**
+     * Sets the context pairs appended to the message, each preceded by a space.
+     */
+    void setContext(String context)
+    {
+        this.context = context;
+    }
+
+    /* */
+    private static boolean isImmutable(Object arg)
+    {
+        if (arg == null)
+            return true;
+
+        Class<?> type = arg.getClass();
+        return type == String.class || type == Integer.class || type == Long.class || type == Double.class
+                || type == Boolean.class || type == Character.class || type == Float.class || type == Short.class
+                || type == Byte.class;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        if (this.message == null)
+        {
+            String message = this.template.format(this.args);
+            this.message = this.context == null ? message : message + this.context;
+        }
+
+        return this.message;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The bytes one thread has logged to binary loggers, waiting to be written out.
+ * <p>
+ * Only the owning thread adds to the buffer and only the writer thread takes from it, so the two
+ * positions are all the coordination needed: each side reads the other's position and writes its own.
+ * Buffers without an owner are lanes that virtual threads take turns with, one at a time, see
+ * {@link ThreadCache}.
+ *
+ * @author rayvanderborght
+ */
+final class ThreadBuffer
+{
+    private final byte[] data;
+    private final int mask;
+    private final WeakReference<Thread> owner;
+
+    private volatile long written;
+    private volatile long read;
+    private volatile boolean retired;
+
+    /**
+     * @param owner the thread that adds to the buffer, or null for a lane virtual threads share
+     * @param capacity the size of the buffer in bytes, which must be a power of two
+     */
+    ThreadBuffer(Thread owner, int capacity)
+    {
+        this.data = new byte[capacity];
+        this.mask = capacity - 1;
+        this.owner = owner == null ? null : new WeakReference<Thread>(owner);
+    }
+
+    /**
+     * Adds the given bytes, waiting for the writer thread to make room if the buffer is full.
+     *
+     * @return false if the bytes will never fit, or the writer thread is gone
+     */
+    boolean add(byte[] bytes, int length, BinaryWriter writer)
+    {
+        if (length > this.data.length)
+            return false;
+
+        long position = this.written;
+        while (this.data.length - (position - this.read) < length)
+        {
+            if (!writer.isRunning())
+                return false;
+
+            writer.wakeUp();
+            LockSupport.parkNanos(1000);
+        }
+
+        int index = (int)position & this.mask;
+        int first = Math.min(length, this.data.length - index);
+        System.arraycopy(bytes, 0, this.data, index, first);
+        System.arraycopy(bytes, first, this.data, 0, length - first);
+
+        // the volatile write publishes the bytes to the writer thread
+        this.written = position + length;
+        return true;
+    }
+
+    /**
+     * Returns the position the owner has written up to, anything before it can be taken.
+     */
+    long getWritten()
+    {
+        return this.written;
+    }
+
+    /**
+     * Writes everything before the given position that hasn't been written yet to the stream.
+     *
+     * @return false if there was nothing to write
+     */
+    boolean writeTo(OutputStream out, long upTo) throws IOException
+    {
+        long position = this.read;
+        if (position >= upTo)
+            return false;
+
+        int index = (int)position & this.mask;
+        int length = (int)(upTo - position);
+        int first = Math.min(length, this.data.length - index);
+        out.write(this.data, index, first);
+        out.write(this.data, 0, length - first);
+
+        this.read = upTo;
+        return true;
+    }
+
+    /**
+     * Marks a shared lane as not being used anymore, it's finished once everything in it has been taken.
+     */
+    void retire()
+    {
+        this.retired = true;
+    }
+
+    /**
+     * Returns true once the owning thread has died, or the lane has been retired, and everything that was
+     * logged to it has been taken.
+     */
+    boolean isFinished()
+    {
+        if (this.owner == null)
+            return this.retired && this.read == this.written;
+
+        Thread thread = this.owner.get();
+        return (thread == null || !thread.isAlive()) && this.read == this.written;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Hands out a reusable value to the calling thread, like a thread local, without keeping one for every
+ * virtual thread.
+ * <p>
+ * A platform thread keeps its value in a thread local, as the runtime always did. Virtual threads share a
+ * small pool instead: a value is taken from a slot when it's needed and put back in a free slot when
+ * {@link #release} is called, so there are only ever about as many values as there are threads logging at
+ * the same moment. Taking and putting back are single atomic operations on the slots, so a virtual thread
+ * never blocks, and a new value is created when every slot is empty.
+ *
+ * @author rayvanderborght
+ */
+abstract class ThreadCache<T>
+{
+    private final ThreadLocal<T> local = new ThreadLocal<T>() {
+        @Override
+        protected T initialValue()
+        {
+            return ThreadCache.this.create(false);
+        }
+    };
+
+    private final AtomicReferenceArray<T> pool;
+    private final int mask;
+
+    /** */
+    ThreadCache()
+    {
+        int size = Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors(), 1)) * 4;
+        this.pool = new AtomicReferenceArray<T>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Creates a value, for a platform thread's own use if shared is false, or for the pool virtual threads
+     * share if it's true.
+     */
+    protected abstract T create(boolean shared);
+
+    /**
+     * Called with a value the pool has no room for, which won't be used again.
+     */
+    protected void discard(T value)
+    {
+    }
+
+    /**
+     * Returns the calling thread's value, or one taken from the pool on a virtual thread.
+     */
+    final T get()
+    {
+        Thread current = Thread.currentThread();
+        if (!VirtualThreads.isVirtual(current))
+            return this.local.get();
+
+        int start = (int)current.getId();
+        for (int i = 0; i <= this.mask; i++)
+        {
+            T value = this.pool.getAndSet((start + i) & this.mask, null);
+            if (value != null)
+                return value;
+        }
+
+        return this.create(true);
+    }
+
+    /**
+     * Makes the value the calling platform thread's own, in place of the one it had, which is still in use or
+     * was abandoned. Does nothing on a virtual thread, whose value goes back to the pool when it's released.
+     */
+    final void replace(T value)
+    {
+        if (!VirtualThreads.isVirtual(Thread.currentThread()))
+            this.local.set(value);
+    }
+
+    /**
+     * Puts a value taken from the pool back, does nothing on a platform thread.
+     */
+    final void release(T value)
+    {
+        Thread current = Thread.currentThread();
+        if (!VirtualThreads.isVirtual(current))
+            return;
+
+        int start = (int)current.getId();
+        for (int i = 0; i <= this.mask; i++)
+        {
+            if (this.pool.compareAndSet((start + i) & this.mask, null, value))
+                return;
+        }
+
+        this.discard(value);
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Remembers the throwables logged from one log call, so a failure that's logged over and over only has its
+ * stack trace logged once in a while. <code>@Logger(dedupe=true)</code> declares one for each warn, error and
+ * fatal call that's passed a throwable, and turns <code>log.error("failed", e)</code> into:
+ * <pre>
+ * {
+ *     final morbok.runtime.ThrowableSite.Admission $morbokAdmission = $morbokSite0.admit(e);
+ *     if ($morbokAdmission.isAdmitted())
+ *     {
+ *         if ($morbokAdmission.hasRepeats())
+ *             log.error($morbokAdmission.getSummary());
+ *         log.error("failed", e);
+ *     }
+ * }
+ * </pre>
+ * A call that's guarded or limited only gets this far once its level is enabled and the limit lets it through, so
+ * calls that aren't logged don't count as repeats.
+ * <p>
+ * A throwable is told apart by its class and the top frames of its stack trace. The first one in a window is
+ * logged, the same one again within the window is counted instead, and the first one after the window is
+ * logged after a summary of how many were left out, eg:
+ * <code>java.net.ConnectException: Connection refused was repeated 4211 times in the 10003ms after it was logged</code>.
+ * The repeats of the last window are only reported if the throwable is logged again.
+ * <p>
+ * A site remembers the last few throwables, in slots that are only ever replaced with a compare-and-set, so
+ * logging never blocks, and a repeat only costs reading the top of its stack trace. It's configured with
+ * system properties:
+ * <ul>
+ * <li><code>morbok.dedupe.window</code> how long a throwable's repeats aren't logged for, in milliseconds (default 10000)</li>
+ * <li><code>morbok.dedupe.frames</code> how many of the top frames tell throwables apart (default 5)</li>
+ * </ul>
+ *
+ * @author rayvanderborght
+ */
+public final class ThrowableSite
+{
+    static final String WINDOW = "morbok.dedupe.window";
+    static final String FRAMES = "morbok.dedupe.frames";
+
+    private static final long WINDOW_MILLIS = RuntimeOptions.getInt(WINDOW, 10000);
+    private static final int FRAME_COUNT = RuntimeOptions.getInt(FRAMES, 5);
+
+    /** The number of throwables a site remembers. */
+    private static final int SLOTS = 8;
+
+    private final AtomicReferenceArray<Entry> entries = new AtomicReferenceArray<Entry>(SLOTS);
+
+    /** What a log call does with its throwable. */
+    public static final class Admission
+    {
+        static final Admission SKIPPED = new Admission(false, null);
+        static final Admission ADMITTED = new Admission(true, null);
+
+        private final boolean admitted;
+        private final String summary;
+
+        /** */
+        Admission(boolean admitted, String summary)
+        {
+            this.admitted = admitted;
+            this.summary = summary;
+        }
+
+        /**
+         * Returns true if the call should be logged.
+         */
+        public boolean isAdmitted()
+        {
+            return this.admitted;
+        }
+
+        /**
+         * Returns true if repeats were left out since a throwable was last logged, which the summary describes.
+         */
+        public boolean hasRepeats()
+        {
+            return this.summary != null;
+        }
+
+        /** */
+        public String getSummary()
+        {
+            return this.summary;
+        }
+    }
+
+    /** A throwable that was logged, and the number of times it's been repeated since. */
+    private static final class Entry
+    {
+        final long fingerprint;
+        final long start;
+        final String description;
+        final AtomicInteger repeats = new AtomicInteger();
+
+        /** */
+        Entry(long fingerprint, long start, String description)
+        {
+            this.fingerprint = fingerprint;
+            this.start = start;
+            this.description = description;
+        }
+
+        /** Returns the summary of the repeats, or null if there weren't any. */
+        String summarize(long now)
+        {
+            int count = this.repeats.get();
+            if (count == 0)
+                return null;
+
+            return this.description + " was repeated " + count + (count == 1 ? " time" : " times")
+                    + " in the " + (now - this.start) + "ms after it was logged";
+        }
+    }
+
+    /** */
+    public ThrowableSite()
+    {
+    }
+
+    /**
+     * Decides whether a call is logged. The argument is the last one passed to the call, which is logged as
+     * usual if it isn't a throwable.
+     */
+    public Admission admit(Object thrown)
+    {
+        if (!(thrown instanceof Throwable))
+            return Admission.ADMITTED;
+
+        Throwable t = (Throwable)thrown;
+        long fingerprint = fingerprint(t);
+        long now = System.currentTimeMillis();
+
+        Entry next = null;
+        while (true)
+        {
+            // the throwable's own slot if it has one, otherwise an empty one, or the one that's been there longest
+            int victim = 0;
+            Entry victimEntry = null;
+            for (int i = 0; i < SLOTS; i++)
+            {
+                Entry entry = this.entries.get(i);
+                if (entry != null && entry.fingerprint == fingerprint)
+                {
+                    if (now - entry.start < WINDOW_MILLIS)
+                    {
+                        entry.repeats.incrementAndGet();
+                        return Admission.SKIPPED;
+                    }
+
+                    victim = i;
+                    victimEntry = entry;
+                    break;
+                }
+
+                if (i == 0 || (victimEntry != null && (entry == null || entry.start < victimEntry.start)))
+                {
+                    victim = i;
+                    victimEntry = entry;
+                }
+            }
+
+            if (next == null)
+                next = new Entry(fingerprint, now, t.toString());
+
+            // a different throwable that's pushed out has its repeats reported all the same
+            if (this.entries.compareAndSet(victim, victimEntry, next))
+            {
+                String summary = victimEntry == null ? null : victimEntry.summarize(now);
+                return summary == null ? Admission.ADMITTED : new Admission(true, summary);
+            }
+        }
+    }
+
+    /** Hashes the class of the throwable and the top frames of its stack trace. */
+    static long fingerprint(Throwable t)
+    {
+        long hash = t.getClass().getName().hashCode();
+
+        StackTraceElement[] frames = t.getStackTrace();
+        for (int i = 0; i < frames.length && i < FRAME_COUNT; i++)
+        {
+            hash = hash * 31 + frames[i].getClassName().hashCode();
+            hash = hash * 31 + frames[i].getMethodName().hashCode();
+            hash = hash * 31 + frames[i].getLineNumber();
+        }
+
+        return hash;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import morbok.Logger;
+
+/**
+ * Logs on the calling thread, unless it's a virtual thread, whose events are handed to the async
+ * dispatcher instead. The appenders of most logging libraries synchronize, and a virtual thread that
+ * blocks inside a monitor pins its carrier thread, so virtual threads only ever touch the dispatcher's
+ * lock free buffer. It's used for facade loggers when <code>morbok.virtualThreads.handoff=true</code>.
+ *
+ * @see VirtualThreads
+ * @author rayvanderborght
+ */
+final class VirtualThreadBackend implements LogBackend
+{
+    private final LogBackend delegate;
+    private final LogBackend async;
+
+    /** */
+    VirtualThreadBackend(LogBackend delegate)
+    {
+        this.delegate = delegate;
+        this.async = new AsyncBackend(delegate, AsyncDispatcher.getInstance());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean isEnabled(Logger.Level level)
+    {
+        return this.select().isEnabled(level);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void log(Logger.Level level, StackTraceElement location, Object message, Throwable t)
+    {
+        this.select().log(level, location, message, t);
+    }
+
+    /* */
+    private LogBackend select()
+    {
+        return VirtualThreads.isVirtual(Thread.currentThread()) ? this.async : this.delegate;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.lang.reflect.Method;
+
+/**
+ * Tells virtual threads from platform threads, on java versions that have them. The runtime is compiled
+ * for older versions, so <code>Thread.isVirtual()</code> is called reflectively, and every thread is a
+ * platform thread where it doesn't exist.
+ * <p>
+ * Virtual threads shouldn't block inside a monitor, which pins them to their carrier thread, and there can
+ * be millions of them, so a thread local value each costs far more than it does for a pool of platform
+ * threads. The runtime asks which kind of thread it's on to avoid both, see {@link ThreadCache}.
+ * <p>
+ * With the system property <code>morbok.virtualThreads.handoff=true</code>, facade loggers called on a
+ * virtual thread hand their events to the async dispatcher instead of calling the logging library, whose
+ * appenders may synchronize, see {@link VirtualThreadBackend}.
+ *
+ * @author rayvanderborght
+ */
+final class VirtualThreads
+{
+    static final String HANDOFF = "morbok.virtualThreads.handoff";
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private static final Method IS_VIRTUAL = findIsVirtual();
+
+    private VirtualThreads()
+    {
+        // Prevent instantiation
+    }
+
+    /**
+     * Returns true if java has virtual threads.
+     */
+    static boolean isSupported()
+    {
+        return IS_VIRTUAL != null;
+    }
+
+    /**
+     * Returns true if the given thread is a virtual thread.
+     */
+    static boolean isVirtual(Thread thread)
+    {
+        if (IS_VIRTUAL == null)
+            return false;
+
+        try
+        {
+            return ((Boolean)IS_VIRTUAL.invoke(thread, NO_ARGS)).booleanValue();
+        }
+        catch (Exception e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if facade loggers hand events logged on virtual threads to the async dispatcher.
+     */
+    static boolean isHandoffEnabled()
+    {
+        return IS_VIRTUAL != null && RuntimeOptions.getBoolean(HANDOFF, false);
+    }
+
+    /* */
+    private static Method findIsVirtual()
+    {
+        try
+        {
+            return Thread.class.getMethod("isVirtual");
+        }
+        catch (NoSuchMethodException e)
+        {
+            return null;
+        }
+        catch (SecurityException e)
+        {
+            return null;
+        }
+    }
+}
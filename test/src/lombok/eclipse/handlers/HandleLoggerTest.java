@@ -0,0 +1,253 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package lombok.eclipse.handlers;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.eclipse.Eclipse;
+import lombok.eclipse.EclipseAST;
+import lombok.eclipse.EclipseASTAdapter;
+import lombok.eclipse.EclipseNode;
+import morbok.Logger;
+
+import org.eclipse.jdt.internal.compiler.CompilationResult;
+import org.eclipse.jdt.internal.compiler.DefaultErrorHandlingPolicies;
+import org.eclipse.jdt.internal.compiler.ast.Annotation;
+import org.eclipse.jdt.internal.compiler.ast.CompilationUnitDeclaration;
+import org.eclipse.jdt.internal.compiler.ast.TypeDeclaration;
+import org.eclipse.jdt.internal.compiler.batch.CompilationUnit;
+import org.eclipse.jdt.internal.compiler.batch.Main;
+import org.eclipse.jdt.internal.compiler.classfmt.ClassFileConstants;
+import org.eclipse.jdt.internal.compiler.impl.CompilerOptions;
+import org.eclipse.jdt.internal.compiler.parser.Parser;
+import org.eclipse.jdt.internal.compiler.problem.DefaultProblemFactory;
+import org.eclipse.jdt.internal.compiler.problem.ProblemReporter;
+
+/**
+ * Runs the eclipse handler the way lombok's agent does inside eclipse: once on the diet parse, which leaves the
+ * method bodies out, and once more after they've been parsed, on the same AST. The log calls have to come out
+ * rewritten although the diet parse came first.
+ * <p>
+ * It checks the printed source of the transformed classes, then compiles a few classes for real with eclipse's
+ * batch compiler, which needs lombok's agent on the jvm (<code>-javaagent:lombok.jar=ECJ</code>), so the generated
+ * fields are bound like any other. Set <code>morbok.test.bootclasspath</code> if the compiler can't read the running
+ * jvm's classes. It exits with 1 if any check fails.
+ *
+ * @author rayvanderborght
+ */
+public final class HandleLoggerTest
+{
+    private final List<String> failures = new ArrayList<String>();
+
+    /** */
+    public static void main(String[] args)
+    {
+        HandleLoggerTest test = new HandleLoggerTest();
+
+        test.check("elided",
+                "@morbok.Logger(minLevel=morbok.Logger.Level.INFO) class Elided { void m(String s) { log.debug(\"gone \" + s); log.info(\"kept\"); } }",
+                new String[] { "log.info(\"kept\")", "LogFactory.getLog" },
+                new String[] { "gone" });
+
+        test.check("guarded",
+                "@morbok.Logger class Guarded { void m(String s) { log.debug(\"value \" + s); } }",
+                new String[] { "isDebugEnabled()" },
+                new String[0]);
+
+        test.check("parameterized",
+                "@morbok.Logger(type=morbok.Logger.Type.SLF4J) class Parameterized { void m(String s) { log.info(\"value \" + s); } }",
+                new String[] { "\"value {}\"" },
+                new String[0]);
+
+        test.check("throwable",
+                "@morbok.Logger(type=morbok.Logger.Type.SLF4J) class TrailingThrowable { void m(String s, Exception e) { log.info(\"value \" + s + \" failed \" + e); "
+                + "try { s.length(); } catch (RuntimeException x) { log.warn(\"caught \" + x); log.warn(\"value \" + s + \" \" + s.length()); } } }",
+                new String[] { "\"value {} {}\"" },
+                new String[] { "failed {}", "caught {}" });
+
+        test.check("lazy",
+                "@morbok.Logger(lazy=true) class Lazy { void m() { log.info(\"hi\"); } }",
+                new String[] { "class LogHolder", "LogHolder.log.info(" },
+                new String[0]);
+
+        test.check("shadowed",
+                "@morbok.Logger(lazy=true) class Shadowed { void m() { log.info(\"hi\"); } "
+                + "@morbok.Logger(type=morbok.Logger.Type.JAVA, lazy=true) static class Nested { void n(String s) { log.fine(\"value \" + s); } } }",
+                new String[] { "LogHolder.log.isLoggable(java.util.logging.Level.FINE)" },
+                new String[0]);
+
+        test.check("binary",
+                "@morbok.Logger(type=morbok.Logger.Type.BINARY) class Binary { void m(int i) { log.info(\"value \" + i); log.warn(\"other \" + i); } }",
+                new String[] { "new java.lang.String[]{\"value {}\", \"other {}\"}", "event(morbok.Logger.Level.INFO, 0)", "event(morbok.Logger.Level.WARN, 1)" },
+                new String[0]);
+
+        test.compile("Compiled",
+                "@morbok.Logger(type=morbok.Logger.Type.JAVA) public class Compiled { public void m(String s) { log.fine(\"value \" + s); } }");
+
+        test.compile("CompiledLazy",
+                "@morbok.Logger(type=morbok.Logger.Type.JAVA, lazy=true) public class CompiledLazy { "
+                + "static class Inner { void n() { log.fine(\"inner\"); } } public void m(String s) { log.fine(\"value \" + s); new Inner().n(); } }");
+
+        test.compile("CompiledBinary",
+                "@morbok.Logger(type=morbok.Logger.Type.BINARY, minLevel=morbok.Logger.Level.WARN) public class CompiledBinary { public void m(String s) { log.info(\"value \" + s); if (s == null) log.warn(\"none \" + s); } }");
+
+        test.compile("CompiledLocation",
+                "@morbok.Logger(type=morbok.Logger.Type.FACADE, delegate=morbok.Logger.Type.JAVA, location=true) public class CompiledLocation { "
+                + "@morbok.Logger(scope=morbok.Logger.Scope.OUTER) static class Inner { void n() { log.debug(\"inner\"); } } public void m(String s) { log.debug(\"value\"); new Inner().n(); } }");
+
+        test.compile("CompiledTemplate",
+                "@morbok.Logger(type=morbok.Logger.Type.FACADE, delegate=morbok.Logger.Type.JAVA) public class CompiledTemplate { "
+                + "public void m(String s) { log.debug(\"value \" + s); log.debug(\"other \" + s); log.trace(\"value \" + s); } }");
+
+        test.compile("CompiledDedupe",
+                "@morbok.Logger(type=morbok.Logger.Type.JAVA, dedupe=true) public class CompiledDedupe { public void m(String s) { log.setUseParentHandlers(false); "
+                + "try { throw new IllegalStateException(s); } catch (IllegalStateException e) { log.log(java.util.logging.Level.WARNING, \"failed\", e); } } }");
+
+        test.compile("CompiledDedupeGuarded",
+                "@morbok.Logger(type=morbok.Logger.Type.JAVA, dedupe=true, maxPerSecond=1000) public class CompiledDedupeGuarded { "
+                + "static Exception fail(String s) { return new IllegalStateException(s); } "
+                + "public void m(String s) { final java.util.List<java.util.logging.LogRecord> records = new java.util.ArrayList<java.util.logging.LogRecord>(); "
+                + "log.setUseParentHandlers(false); log.setLevel(java.util.logging.Level.OFF); log.addHandler(new java.util.logging.Handler() { "
+                + "public void publish(java.util.logging.LogRecord record) { records.add(record); } public void flush() { } public void close() { } }); "
+                + "for (int i = 0; i < 5; i++) { Exception e = fail(s); if (i == 4) log.setLevel(java.util.logging.Level.ALL); log.log(java.util.logging.Level.WARNING, \"failed\", e); } "
+                + "if (records.size() != 1) throw new IllegalStateException(\"the disabled calls were counted as repeats, \" + records.size() + \" records were logged\"); } }");
+
+        test.compile("CompiledLimit",
+                "@morbok.Logger(type=morbok.Logger.Type.JAVA) public class CompiledLimit { "
+                + "@morbok.RateLimit(maxPerSecond=10) public void m(String s) { log.fine(\"value \" + s); } }");
+
+        test.compile("CompiledStats",
+                "@morbok.Logger(type=morbok.Logger.Type.JAVA, instrument=true) public class CompiledStats { public void m(String s) { log.fine(\"value \" + s); } }");
+
+        for (String failure : test.failures)
+            System.out.println("FAILED " + failure);
+
+        System.out.println(test.failures.isEmpty() ? "OK" : test.failures.size() + " failed");
+        System.exit(test.failures.isEmpty() ? 0 : 1);
+    }
+
+    /** Transforms the source as eclipse would, and checks its printed form has and lacks the given strings. */
+    private void check(String name, String source, String[] expected, String[] unexpected)
+    {
+        CompilerOptions options = new CompilerOptions();
+        options.complianceLevel = options.sourceLevel = options.targetJDK = ClassFileConstants.JDK1_6;
+
+        ProblemReporter reporter = new ProblemReporter(DefaultErrorHandlingPolicies.proceedWithAllProblems(), options, new DefaultProblemFactory());
+        Parser parser = new Parser(reporter, true);
+
+        CompilationUnit unit = new CompilationUnit(source.toCharArray(), name + ".java", "UTF-8");
+        CompilationUnitDeclaration unitDecl = parser.dietParse(unit, new CompilationResult(unit, 0, 1, 100));
+
+        EclipseAST ast = new EclipseAST(unitDecl);
+        this.transform(ast);
+
+        parser.getMethodBodies(unitDecl);
+        ast.reparse();
+        this.transform(ast);
+        String complete = unitDecl.toString();
+
+        for (String s : expected)
+        {
+            if (!complete.contains(s))
+                this.failures.add(name + ": expected " + s + " in\n" + complete);
+        }
+
+        for (String s : unexpected)
+        {
+            if (complete.contains(s))
+                this.failures.add(name + ": didn't expect " + s + " in\n" + complete);
+        }
+    }
+
+    /**
+     * Compiles the source with eclipse's batch compiler, lombok's agent calling the handler as it would inside eclipse,
+     * and calls its <code>m("x")</code> method.
+     */
+    private void compile(String name, String source)
+    {
+        try
+        {
+            File dir = File.createTempFile("morbok", "");
+            dir.delete();
+            dir.mkdir();
+
+            // a binary logger opens its file when its class is initialized, keep it out of the working directory
+            if (System.getProperty("morbok.binary.file") == null)
+                System.setProperty("morbok.binary.file", new File(dir, "morbok.binlog").getPath());
+
+            File sourceFile = new File(dir, name + ".java");
+            Writer out = new FileWriter(sourceFile);
+            try
+            {
+                out.write(source);
+            }
+            finally
+            {
+                out.close();
+            }
+
+            List<String> args = new ArrayList<String>();
+            args.add("-1.6");
+            args.add("-proc:none");
+            args.add("-nowarn");
+            if (System.getProperty("morbok.test.bootclasspath") != null)
+            {
+                args.add("-bootclasspath");
+                args.add(System.getProperty("morbok.test.bootclasspath"));
+            }
+            args.add("-cp");
+            args.add(System.getProperty("java.class.path"));
+            args.add("-d");
+            args.add(dir.getPath());
+            args.add(sourceFile.getPath());
+
+            StringWriter errors = new StringWriter();
+            if (!Main.compile(args.toArray(new String[args.size()]), new PrintWriter(new StringWriter()), new PrintWriter(errors), null))
+            {
+                this.failures.add(name + ": didn't compile\n" + errors);
+                return;
+            }
+
+            ClassLoader loader = new URLClassLoader(new URL[] { dir.toURI().toURL() }, HandleLoggerTest.class.getClassLoader());
+            Class<?> type = loader.loadClass(name);
+            Method method = type.getMethod("m", String.class);
+            method.invoke(type.newInstance(), "x");
+        }
+        catch (InvocationTargetException e)
+        {
+            this.failures.add(name + ": " + e.getCause());
+        }
+        catch (Exception e)
+        {
+            this.failures.add(name + ": " + e);
+        }
+    }
+
+    /** Calls the handler on the @Logger annotations that aren't handled yet, like lombok's agent does. */
+    private void transform(EclipseAST ast)
+    {
+        ast.traverse(new EclipseASTAdapter() {
+            @Override
+            public void visitAnnotationOnType(TypeDeclaration type, EclipseNode annotationNode, Annotation annotation)
+            {
+                if (annotationNode.isHandled() || !Eclipse.annotationTypeMatches(Logger.class, annotationNode))
+                    return;
+
+                if (new HandleLogger().handle(Eclipse.createAnnotation(Logger.class, annotationNode), annotation, annotationNode))
+                    annotationNode.setHandled();
+            }
+        });
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package lombok.javac.handlers;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+/**
+ * Compiles classes with javac, lombok's annotation processor running the javac handler, and runs their
+ * <code>check()</code> method, which returns null if the log calls behaved as they were rewritten to, or what went
+ * wrong. The messages are built from a counting method, so a call whose arguments are evaluated can be told from one
+ * that was left out or guarded.
+ * <p>
+ * The handler needs the javac of java 6, 'ant test' only runs this on a java 6 jvm. It exits with 1 if any check fails.
+ *
+ * @author rayvanderborght
+ */
+public final class HandleLoggerTest
+{
+    private static final String COUNTER = "static int evaluated; static String value() { evaluated++; return \"x\"; } ";
+
+    /** Stands in for slf4j, and keeps the arguments of the last info call as the logged string. */
+    private static final String[] SLF4J = {
+        "org.slf4j.LoggerFactory", "package org.slf4j; public class LoggerFactory { public static Logger getLogger(String name) { return new Logger(); } }",
+        "org.slf4j.Logger", "package org.slf4j; public class Logger { public static String logged; "
+                + "public boolean isInfoEnabled() { return true; } "
+                + "public void info(String message) { logged = message; } "
+                + "public void info(String message, Throwable t) { logged = message + \" thrown \" + t; } "
+                + "public void info(String format, Object arg) { logged = format + \" with \" + arg; } "
+                + "public void info(String format, Object arg1, Object arg2) { logged = format + \" with \" + arg1 + \", \" + arg2; } "
+                + "public void info(String format, Object... args) { logged = format + \" with \" + java.util.Arrays.asList(args); } }"
+    };
+
+    private final List<String> failures = new ArrayList<String>();
+
+    /** */
+    public static void main(String[] args)
+    {
+        HandleLoggerTest test = new HandleLoggerTest();
+
+        test.check("Elided",
+                "@morbok.Logger(type=morbok.Logger.Type.JAVA, minLevel=morbok.Logger.Level.INFO) public class Elided { " + COUNTER
+                + "public static String check() { log.setLevel(java.util.logging.Level.ALL); log.fine(\"gone \" + value()); "
+                + "return evaluated == 0 ? null : \"the call below the minimum level was kept\"; } }");
+
+        test.check("Guarded",
+                "@morbok.Logger(type=morbok.Logger.Type.JAVA) public class Guarded { " + COUNTER
+                + "public static String check() { log.setLevel(java.util.logging.Level.INFO); log.fine(\"value \" + value()); "
+                + "if (evaluated != 0) return \"the message of a disabled call was built\"; "
+                + "log.setLevel(java.util.logging.Level.ALL); log.setUseParentHandlers(false); log.fine(\"value \" + value()); "
+                + "return evaluated == 1 ? null : \"the message of an enabled call wasn't built\"; } }");
+
+        test.check("Shadowed",
+                "@morbok.Logger(type=morbok.Logger.Type.JAVA, lazy=true) public class Shadowed { " + COUNTER
+                + "@morbok.Logger(type=morbok.Logger.Type.JAVA, lazy=true) static class Nested { void n() { log.fine(\"value \" + value()); } } "
+                + "public static String check() { new Nested().n(); return evaluated == 0 ? null : \"the nested class's call wasn't guarded\"; } }");
+
+        test.check("Parameterized",
+                "@morbok.Logger(type=morbok.Logger.Type.SLF4J) public class Parameterized { "
+                + "public static String check() { String s = \"x\"; int ms = 3; log.info(\"user \" + s + \" took \" + ms + \"ms\"); "
+                + "if (!\"user {} took {}ms with x, 3\".equals(org.slf4j.Logger.logged)) return \"wasn't parameterized: \" + org.slf4j.Logger.logged; "
+                + "log.info(\"{} \" + s); "
+                + "return \"\\\\{} {} with x\".equals(org.slf4j.Logger.logged) ? null : \"the braces weren't escaped: \" + org.slf4j.Logger.logged; } }",
+                SLF4J);
+
+        test.check("TrailingThrowable",
+                "@morbok.Logger(type=morbok.Logger.Type.SLF4J) public class TrailingThrowable { "
+                + "public static String check() { String s = \"x\"; Exception e = new Exception(\"boom\"); "
+                + "log.info(\"value \" + s + \" failed \" + e); "
+                + "if (!\"value x failed java.lang.Exception: boom\".equals(org.slf4j.Logger.logged)) return \"the throwable was passed on its own: \" + org.slf4j.Logger.logged; "
+                + "log.info(\"value \" + s); "
+                + "return \"value {} with x\".equals(org.slf4j.Logger.logged) ? null : \"the string wasn't parameterized: \" + org.slf4j.Logger.logged; } }",
+                SLF4J);
+
+        test.check("DedupeGuarded",
+                "@morbok.Logger(type=morbok.Logger.Type.JAVA, dedupe=true, maxPerSecond=1000) public class DedupeGuarded { "
+                + "static Exception fail() { return new IllegalStateException(); } "
+                + "public static String check() { final java.util.List<java.util.logging.LogRecord> records = new java.util.ArrayList<java.util.logging.LogRecord>(); "
+                + "log.setUseParentHandlers(false); log.setLevel(java.util.logging.Level.OFF); log.addHandler(new java.util.logging.Handler() { "
+                + "public void publish(java.util.logging.LogRecord record) { records.add(record); } public void flush() { } public void close() { } }); "
+                + "for (int i = 0; i < 5; i++) { Exception e = fail(); if (i == 4) log.setLevel(java.util.logging.Level.ALL); log.log(java.util.logging.Level.WARNING, \"failed\", e); } "
+                + "return records.size() == 1 ? null : \"the disabled calls were counted as repeats, \" + records.size() + \" records were logged\"; } }");
+
+        for (String failure : test.failures)
+            System.out.println("FAILED " + failure);
+
+        System.out.println(test.failures.isEmpty() ? "OK" : test.failures.size() + " failed");
+        System.exit(test.failures.isEmpty() ? 0 : 1);
+    }
+
+    /**
+     * Compiles the source, and records a failure if it doesn't compile or its check() doesn't return null.
+     *
+     * @param others the names and sources of classes to compile along with it
+     */
+    private void check(String name, String source, String... others)
+    {
+        try
+        {
+            File dir = File.createTempFile("morbok", "");
+            dir.delete();
+            dir.mkdir();
+
+            List<JavaFileObject> units = new ArrayList<JavaFileObject>();
+            units.add(makeUnit(name, source));
+            for (int i = 0; i < others.length; i += 2)
+                units.add(makeUnit(others[i], others[i + 1]));
+
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+            List<String> options = Arrays.asList("-nowarn", "-cp", System.getProperty("java.class.path"), "-d", dir.getPath());
+            if (!compiler.getTask(null, null, diagnostics, options, null, units).call())
+            {
+                StringBuilder errors = new StringBuilder();
+                for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+                    errors.append('\n').append(diagnostic.getMessage(null));
+
+                this.failures.add(name + ": didn't compile" + errors);
+                return;
+            }
+
+            ClassLoader loader = new URLClassLoader(new URL[] { dir.toURI().toURL() }, HandleLoggerTest.class.getClassLoader());
+            Method check = loader.loadClass(name).getMethod("check");
+            String failure = (String)check.invoke(null);
+            if (failure != null)
+                this.failures.add(name + ": " + failure);
+        }
+        catch (Exception e)
+        {
+            this.failures.add(name + ": " + e);
+        }
+    }
+
+    /* */
+    private static JavaFileObject makeUnit(String className, final String source)
+    {
+        return new SimpleJavaFileObject(URI.create("string:///" + className.replace('.', '/') + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors)
+            {
+                return source;
+            }
+        };
+    }
+}
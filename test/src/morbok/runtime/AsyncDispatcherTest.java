@@ -0,0 +1,191 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import morbok.Logger;
+
+/**
+ * Runs a dispatcher with a tiny buffer against backends that hold up or log from the dispatcher thread, and checks
+ * what happens to events that find the buffer full. It exits with 1 if any check fails.
+ *
+ * @author rayvanderborght
+ */
+public final class AsyncDispatcherTest
+{
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private final List<String> failures = new ArrayList<String>();
+
+    /** */
+    public static void main(String[] args) throws Exception
+    {
+        AsyncDispatcherTest test = new AsyncDispatcherTest();
+        test.dropsWhenFull();
+        test.blocksUntilDrained();
+        test.reentrantDoesNotBlock();
+
+        for (String failure : test.failures)
+            System.out.println("FAILED " + failure);
+
+        System.out.println(test.failures.isEmpty() ? "OK" : test.failures.size() + " failed");
+        System.exit(test.failures.isEmpty() ? 0 : 1);
+    }
+
+    /** With DROP, an event that finds the buffer full is dropped, and the drops are reported once there's room. */
+    private void dropsWhenFull() throws Exception
+    {
+        HeldBackend held = new HeldBackend();
+        AsyncBackend backend = new AsyncBackend(held, new AsyncDispatcher(2, OverflowPolicy.DROP, 100));
+
+        // the dispatcher takes the first event and is held up logging it, which leaves room for two more
+        backend.log(Logger.Level.INFO, null, "taken", null);
+        this.check("dropsWhenFull: the first event wasn't taken", held.entered.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        backend.log(Logger.Level.INFO, null, "a", null);
+        backend.log(Logger.Level.INFO, null, "b", null);
+        backend.log(Logger.Level.INFO, null, "dropped", null);
+        held.release.countDown();
+
+        this.check("dropsWhenFull: the drop wasn't reported", held.await("1 log events were dropped"));
+        this.check("dropsWhenFull: " + held.messages(), !held.messages().contains("dropped") && held.messages().contains("b"));
+    }
+
+    /** With BLOCK, an event that finds the buffer full waits for the dispatcher to make room. */
+    private void blocksUntilDrained() throws Exception
+    {
+        HeldBackend held = new HeldBackend();
+        final AsyncBackend backend = new AsyncBackend(held, new AsyncDispatcher(2, OverflowPolicy.BLOCK, 100));
+
+        backend.log(Logger.Level.INFO, null, "taken", null);
+        this.check("blocksUntilDrained: the first event wasn't taken", held.entered.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        backend.log(Logger.Level.INFO, null, "a", null);
+        backend.log(Logger.Level.INFO, null, "b", null);
+
+        Thread producer = new Thread(new Runnable() {
+            public void run()
+            {
+                backend.log(Logger.Level.INFO, null, "waited", null);
+            }
+        });
+        producer.start();
+        producer.join(100);
+        this.check("blocksUntilDrained: didn't wait for room", producer.isAlive());
+
+        held.release.countDown();
+        producer.join(TIMEOUT_MILLIS);
+        this.check("blocksUntilDrained: still waiting once there was room", !producer.isAlive());
+        this.check("blocksUntilDrained: " + held.messages(), held.await("waited"));
+    }
+
+    /** With BLOCK, the dispatcher thread logging to a full buffer drops its events instead of waiting on itself. */
+    private void reentrantDoesNotBlock() throws Exception
+    {
+        final AsyncBackend[] backend = new AsyncBackend[1];
+        final CountDownLatch reentered = new CountDownLatch(1);
+
+        HeldBackend appender = new HeldBackend() {
+            @Override
+            public void log(Logger.Level level, StackTraceElement location, Object message, Throwable t)
+            {
+                super.log(level, location, message, t);
+
+                // like an appender that logs through an async logger, more than the buffer holds
+                if ("reenter".equals(message))
+                {
+                    for (int i = 0; i < 10; i++)
+                        backend[0].log(Logger.Level.ERROR, null, "inner " + i, null);
+                    reentered.countDown();
+                }
+            }
+        };
+        appender.release.countDown();
+        backend[0] = new AsyncBackend(appender, new AsyncDispatcher(2, OverflowPolicy.BLOCK, 100));
+
+        backend[0].log(Logger.Level.INFO, null, "reenter", null);
+        this.check("reentrantDoesNotBlock: the dispatcher thread waited on itself", reentered.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        this.check("reentrantDoesNotBlock: the drop wasn't reported", appender.await("log events were dropped"));
+    }
+
+    /* */
+    private void check(String name, boolean passed)
+    {
+        if (!passed)
+            this.failures.add(name);
+    }
+
+    /** Records the messages logged to it, holding up the first until it's released. */
+    private static class HeldBackend implements LogBackend
+    {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        private final List<String> messages = new ArrayList<String>();
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean isEnabled(Logger.Level level)
+        {
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void log(Logger.Level level, StackTraceElement location, Object message, Throwable t)
+        {
+            this.entered.countDown();
+            try
+            {
+                this.release.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            synchronized (this.messages)
+            {
+                this.messages.add(String.valueOf(message));
+                this.messages.notifyAll();
+            }
+        }
+
+        /** Returns the messages logged so far. */
+        List<String> messages()
+        {
+            synchronized (this.messages)
+            {
+                return new ArrayList<String>(this.messages);
+            }
+        }
+
+        /** Waits for a message that contains the given text, and returns false if none comes in time. */
+        boolean await(String text) throws InterruptedException
+        {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+            synchronized (this.messages)
+            {
+                while (true)
+                {
+                    for (String message : this.messages)
+                    {
+                        if (message.contains(text))
+                            return true;
+                    }
+
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0)
+                        return false;
+
+                    this.messages.wait(remaining);
+                }
+            }
+        }
+    }
+}
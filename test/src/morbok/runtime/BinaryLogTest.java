@@ -0,0 +1,160 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import morbok.Logger;
+
+/**
+ * Logs events of every argument type to a binary log in a temporary file, and checks the decoder turns them back
+ * into the messages they were logged with, and that a file that ends part way through a record is decoded up to
+ * it. It exits with 1 if any check fails.
+ *
+ * @author rayvanderborght
+ */
+public final class BinaryLogTest
+{
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private static final String[] TEMPLATES = {
+        "user {} took {}ms",
+        "{} {} {} {} {}",
+        "\\{} is {}"
+    };
+
+    private static final String[] EXPECTED = {
+        "INFO  [main] test.Binary - user bob took 42ms",
+        "WARN  [main] test.Binary - 1.5 2.25 true \u00e9 12345678901",
+        "ERROR [main] test.Binary - {} is null",
+        "TRACE [main] test.Binary - untemplated \u20ac\ud83d\ude00",
+        "ERROR [main] test.Binary - failed",
+        "java.lang.IllegalStateException: boom"
+    };
+
+    private final List<String> failures = new ArrayList<String>();
+
+    /** */
+    public static void main(String[] args) throws Exception
+    {
+        File file = File.createTempFile("morbok", ".binlog");
+        file.deleteOnExit();
+        System.setProperty(BinaryWriter.FILE, file.getPath());
+        System.setProperty(BinaryWriter.LEVEL, "TRACE");
+
+        BinaryLogTest test = new BinaryLogTest();
+        test.roundTrip(file);
+        test.truncated(file);
+
+        for (String failure : test.failures)
+            System.out.println("FAILED " + failure);
+
+        System.out.println(test.failures.isEmpty() ? "OK" : test.failures.size() + " failed");
+        System.exit(test.failures.isEmpty() ? 0 : 1);
+    }
+
+    /** Every argument type, an escaped placeholder, an untemplated message and a throwable come back as they went in. */
+    private void roundTrip(File file) throws Exception
+    {
+        BinaryLog log = BinaryLog.getLogger("test.Binary", TEMPLATES);
+
+        this.check("roundTrip: debug wasn't enabled", log.isDebugEnabled());
+        log.event(Logger.Level.INFO, 0).arg("bob").arg(42).end();
+        log.event(Logger.Level.WARN, 1).arg(1.5f).arg(2.25d).arg(true).arg('\u00e9').arg(12345678901L).end();
+        log.event(Logger.Level.ERROR, 2).arg((String)null).end();
+        log.trace("untemplated \u20ac\ud83d\ude00");
+        log.error("failed", new IllegalStateException("boom"));
+
+        List<String> lines = this.awaitLines(file, EXPECTED.length);
+        for (int i = 0; i < EXPECTED.length; i++)
+        {
+            String line = i < lines.size() ? lines.get(i) : null;
+            this.check("roundTrip: expected " + EXPECTED[i] + " but was " + line, line != null && line.endsWith(EXPECTED[i]));
+        }
+    }
+
+    /** A record cut short, like one an application didn't get to write completely, is left out. */
+    private void truncated(File file) throws IOException
+    {
+        byte[] bytes = this.read(file);
+        List<String> lines = this.decode(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 3)));
+
+        this.check("truncated: " + lines, lines.size() == 4 && lines.get(3).endsWith(EXPECTED[3]));
+    }
+
+    /** Decodes the file until it has the given number of lines, and returns them. */
+    private List<String> awaitLines(File file, int count) throws Exception
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        List<String> lines = this.decode(new FileInputStream(file));
+        while (lines.size() < count && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+            lines = this.decode(new FileInputStream(file));
+        }
+
+        return lines;
+    }
+
+    /** Returns the non empty lines the decoder writes for the given log. */
+    private List<String> decode(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try
+        {
+            BinaryLogDecoder.decode(in, new PrintStream(bytes, true, "UTF-8"));
+        }
+        finally
+        {
+            in.close();
+        }
+
+        // the stack trace is left out past its first line, its frames depend on how the test was run
+        List<String> lines = new ArrayList<String>();
+        for (String line : bytes.toString("UTF-8").split("\r?\n"))
+        {
+            if (line.length() > 0 && !line.startsWith("\t"))
+                lines.add(line);
+        }
+
+        return lines;
+    }
+
+    /* */
+    private byte[] read(File file) throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1)
+                bytes.write(buffer, 0, count);
+
+            return bytes.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /* */
+    private void check(String name, boolean passed)
+    {
+        if (!passed)
+            this.failures.add(name);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Calls limits in tight loops, and checks a burst of a second's worth of calls is allowed and no more, that the
+ * bucket refills over time, and that sampling lets one in every N calls through. It exits with 1 if any check fails.
+ *
+ * @author rayvanderborght
+ */
+public final class CallSiteLimitTest
+{
+    private final List<String> failures = new ArrayList<String>();
+
+    /** */
+    public static void main(String[] args) throws Exception
+    {
+        CallSiteLimitTest test = new CallSiteLimitTest();
+        test.unlimited();
+        test.burst();
+        test.refill();
+        test.sampled();
+        test.sampledAndLimited();
+
+        for (String failure : test.failures)
+            System.out.println("FAILED " + failure);
+
+        System.out.println(test.failures.isEmpty() ? "OK" : test.failures.size() + " failed");
+        System.exit(test.failures.isEmpty() ? 0 : 1);
+    }
+
+    /* */
+    private void unlimited()
+    {
+        int allowed = allowed(new CallSiteLimit(0, 1), 1000);
+        this.check("unlimited: " + allowed, allowed == 1000);
+    }
+
+    /** A quiet call can log a second's worth at once, and no more. */
+    private void burst()
+    {
+        int allowed = allowed(new CallSiteLimit(10, 1), 100);
+        this.check("burst: " + allowed, allowed == 10);
+    }
+
+    /** An empty bucket gets a call back for every interval that passes. */
+    private void refill() throws InterruptedException
+    {
+        CallSiteLimit limit = new CallSiteLimit(10, 1);
+        allowed(limit, 100);
+
+        Thread.sleep(250);
+        int allowed = allowed(limit, 100);
+
+        // two and a half calls' worth, the sleep may overshoot but never refills more than the burst
+        this.check("refill: " + allowed, allowed >= 2 && allowed <= 10);
+    }
+
+    /** One in every N calls is let through, starting with the first. */
+    private void sampled()
+    {
+        CallSiteLimit limit = new CallSiteLimit(0, 4);
+        this.check("sampled: first", limit.allow());
+        this.check("sampled: second", !limit.allow());
+
+        int allowed = allowed(limit, 98);
+        this.check("sampled: " + allowed, allowed == 24);
+    }
+
+    /** Only the sampled calls count against the rate. */
+    private void sampledAndLimited()
+    {
+        int allowed = allowed(new CallSiteLimit(10, 2), 15);
+        this.check("sampledAndLimited: within the rate " + allowed, allowed == 8);
+
+        allowed = allowed(new CallSiteLimit(10, 2), 100);
+        this.check("sampledAndLimited: past the rate " + allowed, allowed == 10);
+    }
+
+    /** Calls the limit the given number of times, and returns how many calls it allowed. */
+    private static int allowed(CallSiteLimit limit, int calls)
+    {
+        int allowed = 0;
+        for (int i = 0; i < calls; i++)
+        {
+            if (limit.allow())
+                allowed++;
+        }
+
+        return allowed;
+    }
+
+    /* */
+    private void check(String name, boolean passed)
+    {
+        if (!passed)
+            this.failures.add(name);
+    }
+}
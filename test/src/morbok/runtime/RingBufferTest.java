@@ -0,0 +1,133 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import morbok.Logger;
+
+/**
+ * Fills, drains and wraps a small ring buffer on one thread, and checks the events come out in order and a full
+ * buffer turns events away. It exits with 1 if any check fails.
+ *
+ * @author rayvanderborght
+ */
+public final class RingBufferTest
+{
+    private final List<String> failures = new ArrayList<String>();
+
+    /** */
+    public static void main(String[] args)
+    {
+        RingBufferTest test = new RingBufferTest();
+        test.fullBuffer();
+        test.wrapsAround();
+        test.badCapacity();
+
+        for (String failure : test.failures)
+            System.out.println("FAILED " + failure);
+
+        System.out.println(test.failures.isEmpty() ? "OK" : test.failures.size() + " failed");
+        System.exit(test.failures.isEmpty() ? 0 : 1);
+    }
+
+    /** A full buffer refuses an event until one is drained. */
+    private void fullBuffer()
+    {
+        RecordingBackend recorded = new RecordingBackend();
+        AsyncBackend backend = recorded.async();
+        RingBuffer buffer = new RingBuffer(2);
+
+        this.check("fullBuffer: first offer", buffer.offer(backend, Logger.Level.INFO, null, "a", null));
+        this.check("fullBuffer: second offer", buffer.offer(backend, Logger.Level.INFO, null, "b", null));
+        this.check("fullBuffer: offer to a full buffer", !buffer.offer(backend, Logger.Level.INFO, null, "c", null));
+        this.check("fullBuffer: added", buffer.getAdded() == 2);
+
+        this.check("fullBuffer: drained one", buffer.drain(1) == 1);
+        this.check("fullBuffer: offer after draining", buffer.offer(backend, Logger.Level.INFO, null, "c", null));
+        this.check("fullBuffer: drained the rest", buffer.drain(10) == 2);
+        this.check("fullBuffer: empty", buffer.isEmpty() && buffer.getTaken() == 3);
+        this.check("fullBuffer: order " + recorded.messages, recorded.messages.toString().equals("[a, b, c]"));
+    }
+
+    /** Events keep their order over many trips around the buffer. */
+    private void wrapsAround()
+    {
+        RecordingBackend recorded = new RecordingBackend();
+        AsyncBackend backend = recorded.async();
+        RingBuffer buffer = new RingBuffer(4);
+
+        // three in and two out leaves one more behind each time, from the third round on the buffer is full and turns one away
+        List<String> expected = new ArrayList<String>();
+        int refused = 0;
+        for (int i = 0; i < 50; i++)
+        {
+            for (int j = 0; j < 3; j++)
+            {
+                String message = i + "." + j;
+                if (buffer.offer(backend, Logger.Level.WARN, null, message, null))
+                    expected.add(message);
+                else
+                    refused++;
+            }
+            buffer.drain(2);
+        }
+        buffer.drain(Integer.MAX_VALUE);
+
+        this.check("wrapsAround: order " + recorded.messages, recorded.messages.equals(expected));
+        this.check("wrapsAround: refused " + refused, refused == 50 - 2);
+        this.check("wrapsAround: empty", buffer.isEmpty());
+    }
+
+    /* */
+    private void badCapacity()
+    {
+        try
+        {
+            new RingBuffer(3);
+            this.failures.add("badCapacity: a capacity of 3 was accepted");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+    }
+
+    /* */
+    private void check(String name, boolean passed)
+    {
+        if (!passed)
+            this.failures.add(name);
+    }
+
+    /** Records the messages logged to it, and has every level enabled. */
+    static class RecordingBackend implements LogBackend
+    {
+        final List<String> messages = new ArrayList<String>();
+
+        /** Returns an async backend for this one, on its own dispatcher. */
+        AsyncBackend async()
+        {
+            return new AsyncBackend(this, new AsyncDispatcher(2, OverflowPolicy.DROP, 100));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public boolean isEnabled(Logger.Level level)
+        {
+            return true;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public synchronized void log(Logger.Level level, StackTraceElement location, Object message, Throwable t)
+        {
+            this.messages.add(String.valueOf(message));
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import morbok.Logger;
+
+/**
+ * Borrows and releases values of a thread cache on platform threads, and on a virtual thread when java has them,
+ * and checks a message builder left active by an argument that threw is replaced once and not used again. It exits
+ * with 1 if any check fails.
+ *
+ * @author rayvanderborght
+ */
+public final class ThreadCacheTest
+{
+    private final List<String> failures = new ArrayList<String>();
+
+    /** */
+    public static void main(String[] args) throws Exception
+    {
+        ThreadCacheTest test = new ThreadCacheTest();
+        test.platformThreads();
+        test.builderAfterException();
+
+        if (VirtualThreads.isSupported())
+            test.virtualThread();
+        else
+            System.out.println("Skipped the virtual thread checks, java " + System.getProperty("java.version") + " doesn't have them");
+
+        for (String failure : test.failures)
+            System.out.println("FAILED " + failure);
+
+        System.out.println(test.failures.isEmpty() ? "OK" : test.failures.size() + " failed");
+        System.exit(test.failures.isEmpty() ? 0 : 1);
+    }
+
+    /** A platform thread keeps its own value, releasing it does nothing and replacing it does. */
+    private void platformThreads() throws InterruptedException
+    {
+        final CountingCache cache = new CountingCache();
+
+        Object value = cache.get();
+        cache.release(value);
+        this.check("platformThreads: kept", cache.get() == value && cache.created == 1 && cache.shared == 0);
+
+        Object replacement = new Object();
+        cache.replace(replacement);
+        this.check("platformThreads: replaced", cache.get() == replacement);
+
+        final Object[] other = new Object[1];
+        Thread thread = new Thread(new Runnable() {
+            public void run()
+            {
+                other[0] = cache.get();
+            }
+        });
+        thread.start();
+        thread.join();
+        this.check("platformThreads: another thread's own", other[0] != null && other[0] != replacement && cache.created == 2);
+    }
+
+    /** A virtual thread borrows from the pool, gets a new value when it's empty, and one is discarded when it's full. */
+    private void virtualThread() throws Exception
+    {
+        final CountingCache cache = new CountingCache();
+        final int[] kept = new int[2];
+
+        Runnable borrower = new Runnable() {
+            public void run()
+            {
+                Object first = cache.get();
+                cache.release(first);
+                ThreadCacheTest.this.check("virtualThread: borrowed again", cache.get() == first && cache.shared == 1);
+
+                // the first is still borrowed, so the pool is empty
+                Object second = cache.get();
+                ThreadCacheTest.this.check("virtualThread: new while borrowed", second != first && cache.shared == 2);
+                cache.release(first);
+                cache.release(second);
+
+                List<Object> borrowed = new ArrayList<Object>();
+                while (cache.shared < 1024)
+                    borrowed.add(cache.get());
+                for (Object value : borrowed)
+                    cache.release(value);
+
+                kept[0] = borrowed.size() - cache.discarded;
+                kept[1] = borrowed.size();
+            }
+        };
+
+        Method start = Thread.class.getMethod("startVirtualThread", Runnable.class);
+        Thread thread = (Thread)start.invoke(null, borrower);
+        thread.join();
+
+        this.check("virtualThread: platform value created", cache.created == 0);
+        this.check("virtualThread: kept " + kept[0] + " of " + kept[1], kept[0] > 0 && cache.discarded > 0);
+    }
+
+    /** An argument that throws leaves its builder active, the next call replaces it and later ones reuse that. */
+    private void builderAfterException()
+    {
+        RingBufferTest.RecordingBackend backend = new RingBufferTest.RecordingBackend();
+        Template template = new Template("x {} y {}");
+
+        MessageBuilder thrown = MessageBuilder.begin(backend, Logger.Level.INFO, null, template).arg(1);
+        try
+        {
+            thrown.arg(new Object() {
+                @Override
+                public String toString()
+                {
+                    throw new IllegalStateException("broken toString");
+                }
+            });
+            this.failures.add("builderAfterException: the argument didn't throw");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+
+        MessageBuilder replacement = MessageBuilder.begin(backend, Logger.Level.INFO, null, template);
+        replacement.arg(1).arg(2).log();
+        this.check("builderAfterException: replaced", replacement != thrown);
+
+        MessageBuilder reused = MessageBuilder.begin(backend, Logger.Level.INFO, null, template);
+        reused.arg(3).arg(4).log();
+        this.check("builderAfterException: reused", reused == replacement);
+
+        this.check("builderAfterException: " + backend.messages, backend.messages.toString().equals("[x 1 y 2, x 3 y 4]"));
+    }
+
+    /* */
+    private void check(String name, boolean passed)
+    {
+        if (!passed)
+        {
+            synchronized (this.failures)
+            {
+                this.failures.add(name);
+            }
+        }
+    }
+
+    /** Counts the values it creates and discards. */
+    private static class CountingCache extends ThreadCache<Object>
+    {
+        volatile int created;
+        volatile int shared;
+        volatile int discarded;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected Object create(boolean shared)
+        {
+            if (shared)
+                this.shared++;
+            else
+                this.created++;
+
+            return new Object();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void discard(Object value)
+        {
+            this.discarded++;
+        }
+    }
+}
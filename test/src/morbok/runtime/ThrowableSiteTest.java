@@ -0,0 +1,105 @@
+/*
+ * $Id$
+ * $URL$
+ */
+package morbok.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Admits throwables to a site with a short window, and checks repeats within the window are counted instead of
+ * logged, and reported once the throwable is logged again after it. It exits with 1 if any check fails.
+ *
+ * @author rayvanderborght
+ */
+public final class ThrowableSiteTest
+{
+    private static final int WINDOW_MILLIS = 200;
+
+    private final List<String> failures = new ArrayList<String>();
+
+    /** */
+    public static void main(String[] args) throws Exception
+    {
+        // read when the class is initialized
+        System.setProperty(ThrowableSite.WINDOW, String.valueOf(WINDOW_MILLIS));
+
+        ThrowableSiteTest test = new ThrowableSiteTest();
+        test.fingerprints();
+        test.window();
+        test.notThrown();
+
+        for (String failure : test.failures)
+            System.out.println("FAILED " + failure);
+
+        System.out.println(test.failures.isEmpty() ? "OK" : test.failures.size() + " failed");
+        System.exit(test.failures.isEmpty() ? 0 : 1);
+    }
+
+    /** Throwables from the same place match, whatever their message, and ones from elsewhere don't. */
+    private void fingerprints()
+    {
+        this.check("fingerprints: same place", ThrowableSite.fingerprint(fail("a")) == ThrowableSite.fingerprint(fail("b")));
+        this.check("fingerprints: other place", ThrowableSite.fingerprint(fail("a")) != ThrowableSite.fingerprint(failElsewhere()));
+        this.check("fingerprints: other class",
+                ThrowableSite.fingerprint(fail("a")) != ThrowableSite.fingerprint(new IllegalArgumentException("a")));
+    }
+
+    /** Repeats within the window are skipped, and counted in the summary of the next one after it. */
+    private void window() throws InterruptedException
+    {
+        ThrowableSite site = new ThrowableSite();
+
+        // the top frames tell throwables apart, so the repeats are all made on the same line
+        List<Throwable> down = new ArrayList<Throwable>();
+        for (int i = 0; i < 6; i++)
+            down.add(fail("down"));
+
+        ThrowableSite.Admission first = site.admit(down.get(0));
+        this.check("window: first", first.isAdmitted() && !first.hasRepeats());
+
+        for (int i = 1; i < 4; i++)
+            this.check("window: repeat " + i, !site.admit(down.get(i)).isAdmitted());
+
+        ThrowableSite.Admission other = site.admit(failElsewhere());
+        this.check("window: another throwable", other.isAdmitted() && !other.hasRepeats());
+
+        Thread.sleep(WINDOW_MILLIS + 100);
+
+        ThrowableSite.Admission after = site.admit(down.get(4));
+        String summary = after.getSummary();
+        this.check("window: after the window", after.isAdmitted() && after.hasRepeats());
+        this.check("window: summary " + summary, summary != null
+                && summary.startsWith("java.lang.IllegalStateException: down was repeated 3 times in the "));
+
+        this.check("window: repeat in the next window", !site.admit(down.get(5)).isAdmitted());
+    }
+
+    /** A last argument that isn't a throwable is always logged. */
+    private void notThrown()
+    {
+        ThrowableSite site = new ThrowableSite();
+        for (int i = 0; i < 3; i++)
+            this.check("notThrown: " + i, site.admit("value").isAdmitted() && site.admit(null).isAdmitted());
+    }
+
+    /* */
+    private static Throwable fail(String message)
+    {
+        return new IllegalStateException(message);
+    }
+
+    /* */
+    private static Throwable failElsewhere()
+    {
+        return new IllegalStateException("elsewhere");
+    }
+
+    /* */
+    private void check(String name, boolean passed)
+    {
+        if (!passed)
+            this.failures.add(name);
+    }
+}